@@ -3,12 +3,15 @@ package com.renomad.minum.database;
 import com.renomad.minum.logging.ILogger;
 import com.renomad.minum.state.Context;
 import com.renomad.minum.utils.IFileUtils;
+import com.renomad.minum.utils.ThrowingRunnable;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
@@ -84,9 +87,15 @@ public abstract class AbstractDb<T extends DbData<?>> {
      * <br>
      * The outer map is between the name of the index and the inner map.
      * <br>
-     * The inner map is between strings and sets of items related to that string.
+     * The inner map is between strings and sets of the indexes (the identifiers)
+     * of items related to that string. Holding identifiers rather than the
+     * items themselves means the indexes do not keep data in memory, which
+     * matters when {@link DbEngine2} is running with a bounded resident set.
+     * <br>
+     * Private, since its contents are only meaningful alongside the data - use
+     * {@link #getIndexedData(String, String)} and {@link #getSetOfIndexes()}.
      */
-    protected final Map<String, Map<String, Set<T>>> registeredIndexes;
+    private final Map<String, Map<String, Set<Long>>> registeredIndexes;
 
     /**
      * This map holds the functions that are registered to indexes, which are used
@@ -96,7 +105,50 @@ public abstract class AbstractDb<T extends DbData<?>> {
 
     private final ReentrantLock indexLock;
 
+    /**
+     * Measurements of the activity of this database
+     */
+    protected final DbMetrics metrics;
+
+    // components for expiring data (see registerExpiry)
+
+    /**
+     * Holds an entry for each row that has an expiry time, ordered so that
+     * the soonest to expire is at the head.  Entries only become available
+     * to take from the queue once their time has come.
+     */
+    private final DelayQueue<ExpiringItem> expiryQueue;
+
+    /**
+     * For each row with an entry in {@link #expiryQueue}, the time of that
+     * entry.  A row is only queued again when its expiry moves earlier than
+     * this, so an update that keeps or extends the expiry adds nothing to the
+     * queue.  Entries in the queue that do not match this are superseded, and
+     * are dropped when they come due.
+     */
+    private final Map<Long, Long> scheduledExpiries;
+
+    /**
+     * A function provided by the user to obtain the expiry time of a row, in
+     * milliseconds past the epoch.  Null if no expiry has been registered.
+     */
+    private Function<T, Long> expiryFunction;
+
+    /**
+     * The handle to the thread removing expired rows, used to stop it.
+     */
+    private Future<?> expiryFuture;
+
     protected AbstractDb(Path dbDirectory, Context context, T instance, IFileUtils fileUtils) {
+        this(dbDirectory, context, instance, fileUtils, new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Constructor allowing a different implementation of the in-memory
+     * data structure, such as one that keeps only part of the data resident.
+     * @param data the (empty) map that will hold the data of this database
+     */
+    protected AbstractDb(Path dbDirectory, Context context, T instance, IFileUtils fileUtils, Map<Long, T> data) {
         if (context.isDbPathRegistered(dbDirectory)) {
             throw new DbException("Attempted to register more than one database to the same path: " + dbDirectory);
         }
@@ -104,13 +156,18 @@ public abstract class AbstractDb<T extends DbData<?>> {
         this.dbDirectory = dbDirectory;
         this.context = context;
         this.emptyInstance = instance;
-        this.data = new ConcurrentHashMap<>();
+        this.data = data;
         this.logger = context.getLogger();
         this.registeredIndexes = new HashMap<>();
         this.partitioningMap = new HashMap<>();
         this.fileUtils = fileUtils;
         this.dbLock = new InspectableLock();
         this.indexLock = new ReentrantLock();
+        this.expiryQueue = new DelayQueue<>();
+        this.scheduledExpiries = new ConcurrentHashMap<>();
+        this.metrics = new DbMetrics(dbDirectory.toString());
+        this.metrics.registerGauge("rows", data::size);
+        context.addDbMetrics(dbDirectory, metrics);
     }
 
     /**
@@ -184,6 +241,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
             removeFromIndexes(oldData);
             addToIndexes(newData);
         }
+        scheduleExpiry(newData);
     }
 
     /**
@@ -238,6 +296,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
         logger.logTrace(() -> String.format("in thread %d, deleting data with index %d", Thread.currentThread().threadId(), finalDataIndex));
         data.remove(dataIndex);
         removeFromIndexes(dataToDelete);
+        scheduledExpiries.remove(dataIndex);
 
         // if all the data was just now deleted, we need to
         // reset the index back to 1
@@ -261,7 +320,7 @@ public abstract class AbstractDb<T extends DbData<?>> {
             // value to help partition / index the data
             Function<T, String> indexStringFunction = entry.getValue();
             String propertyAsString = indexStringFunction.apply(dbData);
-            Map<String, Set<T>> stringIndexMap = registeredIndexes.get(entry.getKey());
+            Map<String, Set<Long>> stringIndexMap = registeredIndexes.get(entry.getKey());
             indexLock.lock();
             try {
                 stringIndexMap.computeIfAbsent(propertyAsString, k -> new HashSet<>());
@@ -269,8 +328,8 @@ public abstract class AbstractDb<T extends DbData<?>> {
                 // each value will have only one item in the collection.  In other cases,
                 // like when partitioning the data into multiple groups, there could easily
                 // be many items per index value.
-                Set<T> dataSet = stringIndexMap.get(propertyAsString);
-                dataSet.add(dbData);
+                Set<Long> dataSet = stringIndexMap.get(propertyAsString);
+                dataSet.add(dbData.getIndex());
             } finally {
                 indexLock.unlock();
             }
@@ -286,10 +345,10 @@ public abstract class AbstractDb<T extends DbData<?>> {
             // value to help partition / index the data
             Function<T, String> indexStringFunction = entry.getValue();
             String propertyAsString = indexStringFunction.apply(dbData);
-            Map<String, Set<T>> stringIndexMap = registeredIndexes.get(entry.getKey());
+            Map<String, Set<Long>> stringIndexMap = registeredIndexes.get(entry.getKey());
             indexLock.lock();
             try {
-                stringIndexMap.get(propertyAsString).removeIf(x -> x.getIndex() == dbData.getIndex());
+                stringIndexMap.get(propertyAsString).remove(dbData.getIndex());
 
                 // in certain cases, we're removing one of the items that is indexed but
                 // there are more left.  If there's nothing left though, we'll remove the mapping.
@@ -383,12 +442,22 @@ public abstract class AbstractDb<T extends DbData<?>> {
         if (registeredIndexes.containsKey(indexName)) {
             throw new DbException("It is forbidden to register the same index more than once.  Duplicate index: \""+indexName+"\"");
         }
-        HashMap<String, Set<T>> stringCollectionHashMap = new HashMap<>();
+        HashMap<String, Set<Long>> stringCollectionHashMap = new HashMap<>();
         registeredIndexes.put(indexName, stringCollectionHashMap);
         partitioningMap.put(indexName, keyObtainingFunction);
+        metrics.registerGauge("index." + indexName + ".keys", () -> getIndexKeyCount(stringCollectionHashMap));
         return this;
     }
 
+    private int getIndexKeyCount(Map<String, Set<Long>> index) {
+        indexLock.lock();
+        try {
+            return index.size();
+        } finally {
+            indexLock.unlock();
+        }
+    }
+
     /**
      * Given the name of a registered index (see {@link #registerIndex(String, Function)}),
      * use the key to find the collection of data that matches it.
@@ -401,17 +470,26 @@ public abstract class AbstractDb<T extends DbData<?>> {
         if (!registeredIndexes.containsKey(indexName)) {
             throw new DbException("There is no index registered on the database Db<"+this.emptyInstance.getClass().getSimpleName()+"> with a name of \""+indexName+"\"");
         }
+        List<Long> ids;
         indexLock.lock();
         try {
-            Set<T> ts = registeredIndexes.get(indexName).get(key);
-            if (ts != null) {
-                return new HashSet<>(ts);
-            } else {
+            Set<Long> idSet = registeredIndexes.get(indexName).get(key);
+            if (idSet == null) {
                 return Set.of();
             }
+            ids = new ArrayList<>(idSet);
         } finally {
             indexLock.unlock();
         }
+        Set<T> result = new HashSet<>();
+        for (Long id : ids) {
+            T item = data.get(id);
+            // the item may have been deleted since we read the index
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
     }
 
     /**
@@ -477,6 +555,183 @@ public abstract class AbstractDb<T extends DbData<?>> {
         }
     }
 
+    /**
+     * Register a function that gives each row an expiry time, after which
+     * the row will be deleted from the database automatically.
+     * <p>
+     *     Rather than periodically scanning every row to look for old data,
+     *     the database keeps a queue of rows ordered by their expiry time,
+     *     and a background thread wakes up only when the soonest of them is due.
+     *     All the rows that have come due by then are deleted together, under
+     *     a single hold of the database lock.
+     * </p>
+     * <p>
+     *     If a row is updated with a later expiry time, it will be kept until
+     *     the new time.  If the function returns null or a non-positive value,
+     *     that row never expires.  However often a row is updated, it has only
+     *     one live entry in the queue.
+     * </p>
+     * <p>
+     *     Like {@link #registerIndex(String, Function)}, this should be run immediately
+     *     after declaring the database, before any data is loaded.
+     * </p>
+     * <br>
+     * Example:
+     * <pre>
+     *     {@code
+     *      final var sessionDb = context.getDb2("sessions", Session.EMPTY)
+     *               .registerExpiry(Session::getExpiresAtMillis)
+     *               .loadData();
+     *     }
+     * </pre>
+     * @param expiryTimeFunction a function which obtains the expiry time of a row,
+     *                           in milliseconds past the epoch
+     * @return the database instance if the registration succeeded
+     * @throws DbException if the function is null or an expiry was already registered
+     */
+    public AbstractDb<T> registerExpiry(Function<T, Long> expiryTimeFunction) {
+        if (expiryTimeFunction == null) {
+            throw new DbException("When registering an expiry, the function must not be null");
+        }
+        if (this.expiryFunction != null) {
+            throw new DbException("It is forbidden to register an expiry more than once");
+        }
+        this.expiryFunction = expiryTimeFunction;
+        ThrowingRunnable expiryLoop = () -> {
+            Thread.currentThread().setName("DbExpiryThread_" + dbDirectory.getFileName());
+            while (true) {
+                try {
+                    List<ExpiringItem> dueItems = new ArrayList<>();
+                    dueItems.add(expiryQueue.take());
+                    expiryQueue.drainTo(dueItems);
+                    removeExpired(dueItems, System.currentTimeMillis());
+                } catch (InterruptedException ex) {
+                    logger.logDebug(() -> "Expiry thread for " + dbDirectory + " is stopped");
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        };
+        this.expiryFuture = context.getExecutorService().submit(ThrowingRunnable.throwingRunnableWrapper(expiryLoop, logger));
+        return this;
+    }
+
+    /**
+     * True if anything registered on this database, such as an index or an
+     * expiry, needs to see each item as it is loaded from disk.
+     */
+    protected boolean needsEachItemAtLoad() {
+        return !partitioningMap.isEmpty() || expiryFunction != null;
+    }
+
+    /**
+     * If an expiry function was registered, add the data to the queue
+     * of items to be examined when they come due - unless it is already
+     * queued at the same time or earlier.
+     */
+    protected void scheduleExpiry(T dbData) {
+        if (expiryFunction == null) {
+            return;
+        }
+        Long expiryTime = expiryFunction.apply(dbData);
+        if (expiryTime != null && expiryTime > 0) {
+            queueExpiry(dbData.getIndex(), expiryTime);
+        }
+    }
+
+    private void queueExpiry(long dataIndex, long expiryTime) {
+        Long scheduled = scheduledExpiries.get(dataIndex);
+        if (scheduled == null || expiryTime < scheduled) {
+            scheduledExpiries.put(dataIndex, expiryTime);
+            expiryQueue.add(new ExpiringItem(dataIndex, expiryTime));
+        }
+    }
+
+    /**
+     * Delete the rows whose expiry has come due.  Each item is checked against
+     * the current data, since the row may have been deleted already, or updated
+     * with a later expiry time since it was queued - in which case it is
+     * queued again for that time.
+     * @param now the current time, in milliseconds past the epoch
+     * @return the count of rows deleted
+     */
+    int removeExpired(List<ExpiringItem> dueItems, long now) {
+        List<T> expiredRows = new ArrayList<>();
+        int count = 0;
+        dbLock.lock();
+        try {
+            for (ExpiringItem item : dueItems) {
+                long dataIndex = item.dataIndex();
+                // skip entries superseded by an earlier time for the same row
+                if (!Long.valueOf(item.expiryTime()).equals(scheduledExpiries.get(dataIndex))) continue;
+                scheduledExpiries.remove(dataIndex);
+                T currentData = data.get(dataIndex);
+                if (currentData == null) continue;
+                Long currentExpiry = expiryFunction.apply(currentData);
+                if (currentExpiry == null || currentExpiry <= 0) continue;
+                if (currentExpiry <= now) {
+                    expiredRows.add(currentData);
+                } else {
+                    queueExpiry(dataIndex, currentExpiry);
+                }
+            }
+            if (!expiredRows.isEmpty()) {
+                count = deleteExpired(expiredRows);
+            }
+        } finally {
+            dbLock.unlock();
+        }
+        int finalCount = count;
+        logger.logTrace(() -> "Removed %d expired items from %s".formatted(finalCount, dbDirectory));
+        return count;
+    }
+
+    /**
+     * Delete rows that have expired, called by {@link #removeExpired} while
+     * holding the database lock.  By default, each is deleted in turn; an
+     * implementation may override this to record the deletions on disk together.
+     * A row that fails to delete is logged, and the rest are still deleted.
+     * @return the count of rows deleted
+     */
+    int deleteExpired(List<T> expiredRows) {
+        int count = 0;
+        for (T row : expiredRows) {
+            try {
+                delete(row);
+                count += 1;
+            } catch (DbException ex) {
+                logger.logAsyncError(() -> "Failed to delete expired data " + row + ": " + ex);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The count of entries waiting in the expiry queue, including
+     * superseded ones not yet come due
+     */
+    int expiryQueueSize() {
+        return expiryQueue.size();
+    }
+
+    /**
+     * Stop the thread that removes expired data, if one is running.  Called
+     * when stopping the database.
+     */
+    protected void stopExpiry() {
+        if (expiryFuture != null) {
+            expiryFuture.cancel(true);
+        }
+    }
+
+    /**
+     * Measurements of the activity of this database, like the count of
+     * writes and how long they waited for the lock.  See {@link DbMetrics}
+     */
+    public DbMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Provides access to the lock that is used around all
      * modifications to the database.  Useful for wrapping
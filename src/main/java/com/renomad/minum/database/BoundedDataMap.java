@@ -0,0 +1,546 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.utils.LRUCache;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * The in-memory data structure for {@link DbEngine2} when it runs with a
+ * bounded resident set.
+ * <p>
+ *     Rather than holding every item deserialized on the heap, this keeps
+ *     the location of each item within the consolidated data files - a byte offset
+ *     and length.  The file itself does not need to be stored, since the consolidated
+ *     files are partitioned by index range (e.g. 1_to_1000, 1001_to_2000), so the
+ *     file is calculated from the index.  Items are read and deserialized when asked
+ *     for, and the most recently used are kept in a bounded cache.
+ * </p>
+ * <p>
+ *     Items written since the last consolidation are not in the consolidated files
+ *     yet, so they are pinned in memory until a consolidation puts them there.
+ *     See {@link #applyPartitionScan(Map)}
+ * </p>
+ * <p>
+ *     Changes to the map are expected to happen while holding the database lock,
+ *     as they do throughout {@link AbstractDb}.  Reads may happen concurrently.
+ *     An item moves between {@link #pinned} and {@link #locations} by adding it to
+ *     one before removing it from the other, and a read looks in {@link #pinned}
+ *     again if it is in neither, so a read during the move still finds it.
+ * </p>
+ * <p>
+ *     Each consolidated file is kept open while in use, and lines are read at
+ *     their offset without moving through the file.  The files are closed before
+ *     a consolidation rewrites them - see {@link #closeChannels()}.
+ * </p>
+ */
+final class BoundedDataMap<T extends DbData<?>> extends AbstractMap<Long, T> {
+
+    /**
+     * Where an item is found within its consolidated data file
+     * @param offset the count of bytes from the start of the file to the start of the line
+     * @param length the count of bytes in the line, not including line terminators
+     */
+    record RowLocation(long offset, int length) {}
+
+    /**
+     * Receives each line found while scanning a consolidated data file
+     */
+    interface LineConsumer {
+        void accept(long offset, int length, String line);
+    }
+
+    private final Path consolidatedDataDirectory;
+    private final int maxLinesPerFile;
+    private final T emptyInstance;
+
+    /**
+     * Items written since they were last found in a consolidated file
+     */
+    private final Map<Long, T> pinned;
+
+    /**
+     * Where to find items that are stored in the consolidated files.  An
+     * item is in this map or in {@link #pinned}, never both.
+     */
+    private final Map<Long, RowLocation> locations;
+
+    /**
+     * Recently-used items read from disk.  Not thread-safe on its own, so
+     * guarded by {@link #residentLock}
+     */
+    private final Map<Long, T> resident;
+    private final ReentrantLock residentLock;
+
+    /**
+     * Reads from the consolidated files take the read lock of this, and
+     * consolidation takes the write lock, so we never read a file in the
+     * midst of being rewritten.
+     */
+    private final ReadWriteLock diskLock;
+
+    /**
+     * The open consolidated files, by partition.  Opened while holding the read
+     * lock of {@link #diskLock}, and closed while holding its write lock.
+     */
+    private final Map<Long, FileChannel> channels;
+
+    BoundedDataMap(Path consolidatedDataDirectory, int maxLinesPerFile, T emptyInstance, int maxResidentRows, ReadWriteLock diskLock) {
+        this.consolidatedDataDirectory = consolidatedDataDirectory;
+        this.maxLinesPerFile = maxLinesPerFile;
+        this.emptyInstance = emptyInstance;
+        this.pinned = new ConcurrentHashMap<>();
+        this.locations = new ConcurrentHashMap<>();
+        this.resident = LRUCache.getLruCache(maxResidentRows);
+        this.residentLock = new ReentrantLock();
+        this.diskLock = diskLock;
+        this.channels = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Record where an item is found on disk, used when loading the database
+     */
+    void addLocation(long id, long offset, int length) {
+        locations.put(id, new RowLocation(offset, length));
+    }
+
+    @Override
+    public T get(Object key) {
+        if (!(key instanceof Long id)) return null;
+        T pinnedItem = pinned.get(id);
+        if (pinnedItem != null) return pinnedItem;
+        residentLock.lock();
+        try {
+            T residentItem = resident.get(id);
+            if (residentItem != null) return residentItem;
+        } finally {
+            residentLock.unlock();
+        }
+        RowLocation location = locations.get(id);
+        // it may have moved from locations to pinned since we looked there
+        if (location == null) return pinned.get(id);
+        T item = readFromDisk(id, location);
+        if (item != null) {
+            residentLock.lock();
+            try {
+                // only cache it if it is still current
+                if (locations.containsKey(id)) resident.put(id, item);
+            } finally {
+                residentLock.unlock();
+            }
+        }
+        return item;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return pinned.containsKey(key) || locations.containsKey(key);
+    }
+
+    @Override
+    public T put(Long id, T value) {
+        T oldValue = get(id);
+        pinned.put(id, value);
+        locations.remove(id);
+        evictResident(id);
+        return oldValue;
+    }
+
+    /**
+     * Removes the item.  Unlike the usual contract for {@link Map#remove(Object)},
+     * this does not read from disk to return the previous value, so it will
+     * only be returned if it was in memory.
+     */
+    @Override
+    public T remove(Object key) {
+        if (!(key instanceof Long id)) return null;
+        T oldValue = pinned.remove(id);
+        locations.remove(id);
+        T residentValue = evictResident(id);
+        return oldValue != null ? oldValue : residentValue;
+    }
+
+    private T evictResident(long id) {
+        residentLock.lock();
+        try {
+            return resident.remove(id);
+        } finally {
+            residentLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return pinned.size() + locations.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return pinned.isEmpty() && locations.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        pinned.clear();
+        locations.clear();
+        residentLock.lock();
+        try {
+            resident.clear();
+        } finally {
+            residentLock.unlock();
+        }
+    }
+
+    /**
+     * The keys are available without reading from disk
+     */
+    @Override
+    public Set<Long> keySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Long> iterator() {
+                return allKeys().iterator();
+            }
+
+            @Override
+            public int size() {
+                return BoundedDataMap.this.size();
+            }
+        };
+    }
+
+    /**
+     * The values are read from disk one at a time as the iteration proceeds,
+     * without disturbing the cache of recently-used items.  Items deleted while
+     * iterating are skipped.
+     */
+    @Override
+    public Collection<T> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public Iterator<T> iterator() {
+                Iterator<Long> keys = allKeys().iterator();
+                return new Iterator<>() {
+                    private T nextItem = advance();
+
+                    private T advance() {
+                        while (keys.hasNext()) {
+                            T item = peek(keys.next());
+                            if (item != null) return item;
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return nextItem != null;
+                    }
+
+                    @Override
+                    public T next() {
+                        if (nextItem == null) throw new NoSuchElementException();
+                        T result = nextItem;
+                        nextItem = advance();
+                        return result;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return BoundedDataMap.this.size();
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<Long, T>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<Long, T>> iterator() {
+                Iterator<Long> keys = allKeys().iterator();
+                return new Iterator<>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Entry<Long, T> next() {
+                        Long id = keys.next();
+                        return new SimpleImmutableEntry<>(id, peek(id));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return BoundedDataMap.this.size();
+            }
+        };
+    }
+
+    private List<Long> allKeys() {
+        List<Long> keys = new ArrayList<>(pinned.keySet());
+        keys.addAll(locations.keySet());
+        return keys;
+    }
+
+    /**
+     * Get an item without adding it to the cache of recently-used items
+     */
+    private T peek(long id) {
+        T pinnedItem = pinned.get(id);
+        if (pinnedItem != null) return pinnedItem;
+        residentLock.lock();
+        try {
+            // LinkedHashMap in access-order changes its order on get, but not on containsKey
+            if (resident.containsKey(id)) return resident.get(id);
+        } finally {
+            residentLock.unlock();
+        }
+        RowLocation location = locations.get(id);
+        // it may have moved from locations to pinned since we looked there
+        if (location == null) return pinned.get(id);
+        return readFromDisk(id, location);
+    }
+
+    /**
+     * Read one line from its consolidated file and deserialize it.  The locations
+     * are brought up to date while a consolidation holds the disk lock, so the
+     * line should always be the item we expected.  If it is not - if the file
+     * was rewritten in a way we were not told of - we scan the file once to find
+     * where everything is now.
+     */
+    private T readFromDisk(long id, RowLocation location) {
+        long partition = partitionForIndex(id, maxLinesPerFile);
+        Path file = consolidatedDataDirectory.resolve(partitionFileName(partition, maxLinesPerFile));
+        String line;
+        diskLock.readLock().lock();
+        try {
+            line = readLineAt(partition, file, location);
+            if (line == null || !line.startsWith(id + "|")) {
+                var scannedLines = scanPartition(partition);
+                updateLocations(scannedLines);
+                var scannedLine = scannedLines.get(id);
+                line = scannedLine == null ? null : scannedLine.getValue();
+            }
+        } catch (IOException | UncheckedIOException ex) {
+            throw new DbException("Failed to read data with index " + id + " from " + file, ex);
+        } finally {
+            diskLock.readLock().unlock();
+        }
+        if (line == null) {
+            throw new DbException("Data with index %d was not found in %s".formatted(id, file));
+        }
+        @SuppressWarnings("unchecked")
+        T item = (T) emptyInstance.deserialize(line);
+        return item;
+    }
+
+    /**
+     * Read the line at this location with a positional read on the open file.
+     * If the file was closed underneath us - which happens to a {@link FileChannel}
+     * when a thread reading it is interrupted - it is opened again.
+     * @return the line, or null if the location is past the end of the file
+     */
+    private String readLineAt(long partition, Path file, RowLocation location) throws IOException {
+        while (true) {
+            FileChannel channel = channels.computeIfAbsent(partition, p -> openChannel(file));
+            try {
+                if (location.offset() + location.length() > channel.size()) return null;
+                ByteBuffer buffer = ByteBuffer.allocate(location.length());
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, location.offset() + buffer.position()) == -1) return null;
+                }
+                return new String(buffer.array(), US_ASCII);
+            } catch (ClosedChannelException ex) {
+                channels.remove(partition, channel);
+                if (Thread.currentThread().isInterrupted()) throw ex;
+            }
+        }
+    }
+
+    private static FileChannel openChannel(Path file) {
+        try {
+            return FileChannel.open(file, StandardOpenOption.READ);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Close the open consolidated files.  This must be run while holding
+     * the write lock of the disk lock, such as before a consolidation rewrites
+     * them, or when the database is stopped.
+     */
+    void closeChannels() throws IOException {
+        for (Long partition : channels.keySet()) {
+            FileChannel channel = channels.remove(partition);
+            if (channel != null) channel.close();
+        }
+    }
+
+    /**
+     * Update the locations of items still stored on disk.  Items that
+     * were deleted or are pinned in memory are left alone.
+     */
+    void updateLocations(Map<Long, Map.Entry<RowLocation, String>> scannedLines) {
+        for (var entry : scannedLines.entrySet()) {
+            RowLocation location = entry.getValue().getKey();
+            locations.computeIfPresent(entry.getKey(), (k, v) -> location);
+        }
+    }
+
+    /**
+     * After a consolidation has rewritten a file, apply what was found by scanning it.
+     * Locations of items on disk are updated, and pinned items whose current value
+     * is exactly what is now on disk are released from memory.
+     * <p>
+     *     This must be run while holding the database lock, so that no write
+     *     happens between checking a pinned item and releasing it.
+     * </p>
+     * @param scannedLines a map of index to the location and content of each line in the file
+     * @return the count of items released from memory
+     */
+    int applyPartitionScan(Map<Long, Map.Entry<RowLocation, String>> scannedLines) {
+        int released = 0;
+        for (var entry : scannedLines.entrySet()) {
+            long id = entry.getKey();
+            RowLocation location = entry.getValue().getKey();
+            T pinnedItem = pinned.get(id);
+            if (pinnedItem != null) {
+                if (pinnedItem.serialize().equals(entry.getValue().getValue())) {
+                    locations.put(id, location);
+                    pinned.remove(id);
+                    released += 1;
+                }
+            } else {
+                locations.computeIfPresent(id, (k, v) -> location);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Scan a consolidated file, for use after it has been rewritten.
+     * See {@link #applyPartitionScan(Map)}
+     */
+    Map<Long, Map.Entry<RowLocation, String>> scanPartition(long partition) throws IOException {
+        Path file = consolidatedDataDirectory.resolve(partitionFileName(partition, maxLinesPerFile));
+        Map<Long, Map.Entry<RowLocation, String>> result = new HashMap<>();
+        if (!Files.exists(file)) return result;
+        diskLock.readLock().lock();
+        try {
+            scanFile(file, (offset, length, line) ->
+                    result.put(getIndexFromLine(line), new SimpleImmutableEntry<>(new RowLocation(offset, length), line)));
+        } finally {
+            diskLock.readLock().unlock();
+        }
+        return result;
+    }
+
+    /**
+     * The partitions containing items that are pinned in memory
+     */
+    Set<Long> partitionsWithPinnedItems() {
+        Set<Long> partitions = new HashSet<>();
+        for (Long id : pinned.keySet()) {
+            partitions.add(partitionForIndex(id, maxLinesPerFile));
+        }
+        return partitions;
+    }
+
+    int pinnedCount() {
+        return pinned.size();
+    }
+
+    int residentCount() {
+        residentLock.lock();
+        try {
+            return resident.size();
+        } finally {
+            residentLock.unlock();
+        }
+    }
+
+    /**
+     * Read each line of a file, providing its offset and length in bytes.  The
+     * consolidated files are US-ASCII, with lines ending in either a newline
+     * or a carriage-return and newline, depending on the operating system.
+     * The file is read as a stream, so it is never all in memory at once.
+     */
+    static void scanFile(Path file, LineConsumer consumer) throws IOException {
+        try (var inputStream = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+            scanStream(inputStream, consumer);
+        }
+    }
+
+    static void scanBytes(byte[] bytes, LineConsumer consumer) {
+        try {
+            scanStream(new ByteArrayInputStream(bytes), consumer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void scanStream(InputStream inputStream, LineConsumer consumer) throws IOException {
+        byte[] line = new byte[256];
+        int lineLength = 0;
+        long lineStart = 0;
+        long position = 0;
+        int b;
+        while ((b = inputStream.read()) != -1) {
+            position += 1;
+            if (b == '\n') {
+                int length = (lineLength > 0 && line[lineLength - 1] == '\r') ? lineLength - 1 : lineLength;
+                consumer.accept(lineStart, length, new String(line, 0, length, US_ASCII));
+                lineLength = 0;
+                lineStart = position;
+            } else {
+                if (lineLength == line.length) line = Arrays.copyOf(line, line.length * 2);
+                line[lineLength++] = (byte) b;
+            }
+        }
+        // a final line without a terminator
+        if (lineLength > 0) {
+            consumer.accept(lineStart, lineLength, new String(line, 0, lineLength, US_ASCII));
+        }
+    }
+
+    /**
+     * The index of the data is always the first value on a line, as
+     * expected by {@link DatabaseConsolidator}
+     */
+    static long getIndexFromLine(String line) {
+        int indexOfFirstPipe = line.indexOf('|');
+        if (indexOfFirstPipe == -1) {
+            throw new DbException("Error parsing index from line: " + line);
+        }
+        return Long.parseLong(line, 0, indexOfFirstPipe, 10);
+    }
+
+    /**
+     * The first index of the consolidated file that holds this index.  For example,
+     * with 1000 lines per file, the index 1234 is in the partition starting at 1001.
+     * This matches {@link DatabaseConsolidator#groupInstructionsByPartition(Map, int)}
+     */
+    static long partitionForIndex(long id, int maxLinesPerFile) {
+        return (((id - 1) / maxLinesPerFile) * maxLinesPerFile) + 1;
+    }
+
+    static String partitionFileName(long partition, int maxLinesPerFile) {
+        return String.format("%d_to_%d", partition, partition + (long) (maxLinesPerFile - 1));
+    }
+}
@@ -83,7 +83,17 @@ final class DatabaseAppender {
      */
     private int appendBytes;
 
+    /**
+     * Where we record the bytes appended and the time taken to flush
+     */
+    private final DbMetrics metrics;
+
     DatabaseAppender(Path persistenceDirectory, Context context, IFileUtils fileUtils) throws IOException {
+        this(persistenceDirectory, context, fileUtils, new DbMetrics(persistenceDirectory.toString()));
+    }
+
+    DatabaseAppender(Path persistenceDirectory, Context context, IFileUtils fileUtils, DbMetrics metrics) throws IOException {
+        this.metrics = metrics;
         this.fileUtils = fileUtils;
         this.persistenceDirectory = persistenceDirectory;
         this.appendLogDirectory = persistenceDirectory.resolve("append_logs");
@@ -140,6 +150,39 @@ final class DatabaseAppender {
         setBufferedWriterHasUnwrittenData();
         appendCount += 1;
         appendBytes += serializedData.length() + 8; // 8 includes the action (e.g. UPDATE), a space character, and a newline
+        metrics.recordAppendBytes(serializedData.length() + 8L);
+        return newlyCreatedFileName;
+    }
+
+    /**
+     * Appends many changes of the same kind with a single write.  The
+     * check for whether to move on to a new file is made once, beforehand,
+     * so the batch always lands in one file.
+     * @return if we created a new append file, we'll return the name of it. Otherwise, an empty string.
+     */
+    String appendToDatabase(DatabaseChangeAction action, List<String> serializedData) throws IOException {
+        String newlyCreatedFileName = "";
+        if (appendCount >= maxAppendCount) {
+            moveFileLock.lock();
+            try {
+                newlyCreatedFileName = saveOffWrapped(appendCount, maxAppendCount);
+            } finally {
+                moveFileLock.unlock();
+            }
+        }
+
+        String actionName = action.toString();
+        StringBuilder lines = new StringBuilder();
+        long bytes = 0;
+        for (String data : serializedData) {
+            lines.append(actionName).append(' ').append(data).append('\n');
+            bytes += data.length() + 8L;
+        }
+        bufferedWriter.append(lines);
+        setBufferedWriterHasUnwrittenData();
+        appendCount += serializedData.size();
+        appendBytes += (int) bytes;
+        metrics.recordAppendBytes(bytes);
         return newlyCreatedFileName;
     }
 
@@ -210,7 +253,9 @@ final class DatabaseAppender {
     }
 
     void flush() throws IOException {
+        long startTime = System.nanoTime();
         this.bufferedWriter.flush();
         this.bufferedWriterHasUnwrittenData = false;
+        metrics.recordFlush(System.nanoTime() - startTime);
     }
 }
\ No newline at end of file
@@ -6,13 +6,18 @@ import com.renomad.minum.queue.ActionQueue;
 import com.renomad.minum.state.Context;
 import com.renomad.minum.utils.FileUtils;
 import com.renomad.minum.utils.IFileUtils;
+import com.renomad.minum.utils.StacktraceUtils;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 
@@ -47,6 +52,49 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
 
     volatile boolean hasLoadedData;
 
+    /**
+     * A change to a single row, waiting to be written to disk
+     * @param data the latest version of the data
+     * @param isDelete true if the row's file should be removed
+     * @param isNew true if the row's file has not yet been written
+     */
+    record PendingChange<T>(T data, boolean isDelete, boolean isNew) {}
+
+    /**
+     * Changes waiting to be written to disk, keyed by the index of the data.
+     * If a row changes several times before the writer gets to it, only
+     * the latest change is kept, so only one file write happens.
+     * Guarded by {@link #pendingLock}
+     */
+    private final Map<Long, PendingChange<T>> pendingChanges;
+    private final ReentrantLock pendingLock = new ReentrantLock();
+
+    /**
+     * Signalled each time the writer takes a batch of changes, to wake
+     * any writers waiting because there were too many pending.
+     */
+    private final Condition pendingNotFull = pendingLock.newCondition();
+
+    /**
+     * The value to write to index.ddps with the next batch, or -1 if
+     * it does not need to change.  Guarded by {@link #pendingLock}
+     */
+    private long pendingIndexFileValue;
+
+    /**
+     * True when a batch has been put on the action queue but has not yet
+     * taken the pending changes. Guarded by {@link #pendingLock}
+     */
+    private boolean batchScheduled;
+
+    /**
+     * When this many rows are waiting to be written, new writes will
+     * block until the writer catches up.  See {@link com.renomad.minum.state.Constants#maxPendingDatabaseWrites}
+     */
+    private final int maxPendingWrites;
+
+    private volatile boolean isStopped;
+
     /**
      * Constructs an in-memory disk-persisted database.
      * Loading of data from disk happens at the first invocation of any command
@@ -69,6 +117,10 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
         this.hasLoadedData = false;
         this.fullPathForIndexFile = dbDirectory.resolve("index" + DATABASE_FILE_SUFFIX);
         this.actionQueue = new ActionQueue("DatabaseWriter " + dbDirectory, context).initialize();
+        this.pendingChanges = new LinkedHashMap<>();
+        this.pendingIndexFileValue = -1;
+        this.maxPendingWrites = context.getConstants().maxPendingDatabaseWrites;
+        this.metrics.registerGauge("pending_writes", this::getPendingWriteCount);
 
         if (fileUtils.exists(fullPathForIndexFile)) {
             try {
@@ -122,15 +174,21 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
         // load data if needed
         if (!hasLoadedData) loadData();
 
+        long startWaitingTime = System.nanoTime();
         dbLock.lock();
+        long startProcessingTime = System.nanoTime();
         try {
             boolean newElementCreated = processDataIndex(newData);
-            writeToMemory(newData, newElementCreated);
 
-            // *** now handle the disk portion ***
-            actionQueue.enqueue("persist data to disk",
-                    () -> writeToDisk(newData, dbDirectory, fileUtils, emptyInstance,
-                            newElementCreated, fullPathForIndexFile, logger));
+            // make room for the disk portion before changing memory, so that if
+            // it fails, memory and disk still agree
+            reserveChange(newData.getIndex());
+            try {
+                writeToMemory(newData, newElementCreated);
+                recordChange(newData, false, newElementCreated ? newData.getIndex() + 1 : -1);
+            } finally {
+                pendingLock.unlock();
+            }
 
             // returning the data at this point is the most convenient
             // way users will have access to the new index of the data.
@@ -139,6 +197,7 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
             throw new DbException("failed to write data " + newData, ex);
         } finally {
             dbLock.unlock();
+            metrics.recordWrite(startProcessingTime - startWaitingTime, System.nanoTime() - startProcessingTime);
         }
     }
 
@@ -176,21 +235,27 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
         // load data if needed
         if (!hasLoadedData) loadData();
 
+        long startWaitingTime = System.nanoTime();
         dbLock.lock();
+        long startProcessingTime = System.nanoTime();
         try {
-            // deal with the in-memory portion
-            deleteFromMemory(dataToDelete);
+            reserveChange(dataToDelete.getIndex());
+            try {
+                // deal with the in-memory portion
+                deleteFromMemory(dataToDelete);
 
-            // get the current index
-            boolean shouldResetIndexOnDisk = values().isEmpty();
+                // get the current index
+                boolean shouldResetIndexOnDisk = values().isEmpty();
 
-            actionQueue.enqueue("delete data from disk",
-                    () -> deleteFromDisk(dataToDelete, dbDirectory, fileUtils,
-                            shouldResetIndexOnDisk, fullPathForIndexFile, logger));
+                recordChange(dataToDelete, true, shouldResetIndexOnDisk ? 1 : -1);
+            } finally {
+                pendingLock.unlock();
+            }
         } catch (Exception ex) {
             throw new DbException("failed to delete data " + dataToDelete, ex);
         } finally {
             dbLock.unlock();
+            metrics.recordDelete(startProcessingTime - startWaitingTime, System.nanoTime() - startProcessingTime);
         }
     }
 
@@ -212,6 +277,117 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
         }
     }
 
+    /**
+     * Make ready to record a change to this row, with {@link #recordChange}.
+     * This does everything that may fail, so it is done before memory is
+     * changed: it checks the database is not stopped, waits for room among the
+     * pending changes, and schedules the next batch.
+     * <p>
+     *     If there are already too many rows waiting, this blocks until the
+     *     writer takes its next batch.  This is called while holding the
+     *     database lock, so other writers will wait behind it, which is the
+     *     intent - it slows the writers to the speed of the disk.
+     * </p>
+     * <p>
+     *     On success, the pending lock is held, and the caller must unlock it
+     *     once the change is recorded.  The batch cannot be taken in the meantime.
+     * </p>
+     */
+    private void reserveChange(long key) throws InterruptedException {
+        pendingLock.lock();
+        try {
+            while (true) {
+                if (isStopped) {
+                    throw new DbException("Database is stopped, unable to write to disk at " + dbDirectory);
+                }
+                if (pendingChanges.size() < maxPendingWrites || pendingChanges.containsKey(key)) break;
+                pendingNotFull.await(20, TimeUnit.MILLISECONDS);
+            }
+            if (!batchScheduled) {
+                actionQueue.enqueue("persist a batch of changes to disk", this::writeBatch);
+                batchScheduled = true;
+            }
+        } catch (RuntimeException | InterruptedException ex) {
+            pendingLock.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Record a change to be written to disk by the next batch, replacing
+     * any change to the same row that has not yet been written.  Must be
+     * preceded by {@link #reserveChange(long)}.
+     * @param indexFileValue the value to write to index.ddps, or -1 if unchanged
+     */
+    private void recordChange(T data, boolean isDelete, long indexFileValue) {
+        long key = data.getIndex();
+        PendingChange<T> previous = pendingChanges.get(key);
+        boolean isNew = previous == null ? (!isDelete && indexFileValue > 0) : previous.isNew();
+        if (isDelete && isNew) {
+            // the file was never written, so there is nothing to delete
+            pendingChanges.remove(key);
+        } else {
+            pendingChanges.put(key, new PendingChange<>(data, isDelete, isNew));
+        }
+        if (indexFileValue > 0) {
+            pendingIndexFileValue = indexFileValue;
+        }
+    }
+
+    /**
+     * Write all the pending changes to disk, and update index.ddps
+     * once for the whole batch.  Runs on the action queue's thread.
+     * A failure to write one row is logged and does not stop the others.
+     */
+    void writeBatch() {
+        Map<Long, PendingChange<T>> batch;
+        long indexFileValue;
+        pendingLock.lock();
+        try {
+            batch = new LinkedHashMap<>(pendingChanges);
+            pendingChanges.clear();
+            indexFileValue = pendingIndexFileValue;
+            pendingIndexFileValue = -1;
+            batchScheduled = false;
+            pendingNotFull.signalAll();
+        } finally {
+            pendingLock.unlock();
+        }
+
+        logger.logTrace(() -> String.format("writing a batch of %d changes to %s", batch.size(), dbDirectory));
+        for (PendingChange<T> change : batch.values()) {
+            try {
+                if (change.isDelete()) {
+                    deleteFromDisk(change.data(), dbDirectory, fileUtils, false, fullPathForIndexFile, logger);
+                } else {
+                    writeToDisk(change.data(), dbDirectory, fileUtils, emptyInstance, false, fullPathForIndexFile, logger);
+                }
+            } catch (Exception ex) {
+                logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+            }
+        }
+
+        if (indexFileValue > 0) {
+            try {
+                fileUtils.writeString(fullPathForIndexFile, String.valueOf(indexFileValue));
+            } catch (IOException ex) {
+                logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+            }
+        }
+    }
+
+    /**
+     * The count of rows with changes not yet written to disk
+     */
+    int getPendingWriteCount() {
+        pendingLock.lock();
+        try {
+            return pendingChanges.size();
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
     /**
      * Grabs all the data from disk and returns it as a list.  This
      * method is run by various programs when the system first loads.
@@ -280,6 +456,7 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
                 // put the data into the in-memory data structure
                 data.put(deserializedData.getIndex(), deserializedData);
                 addToIndexes(deserializedData);
+                scheduleExpiry(deserializedData);
 
             } catch (Exception e) {
                 throw new DbException("Failed to deserialize "+ p +" with data (\""+fileContents+"\"). Caused by: " + e);
@@ -392,6 +569,15 @@ public final class Db<T extends DbData<?>> extends AbstractDb<T> {
     @Override
     public void stop(int count, long sleepTime) {
         context.removeFromPaths(this.dbDirectory);
+        stopExpiry();
+        // set while holding the pending lock, so a change already
+        // reserved is recorded before the queue stops
+        pendingLock.lock();
+        try {
+            isStopped = true;
+        } finally {
+            pendingLock.unlock();
+        }
         actionQueue.stop(count, sleepTime);
     }
 
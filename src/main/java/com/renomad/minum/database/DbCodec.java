@@ -0,0 +1,116 @@
+package com.renomad.minum.database;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A binary alternative to {@link DbData#serialize()} and {@link DbData#deserialize(String)}
+ * <p>
+ *     The string-based serialization URL-encodes every field, joins them with
+ *     pipe symbols, and on the way back in splits the text into a list of tokens
+ *     and decodes each one.  That is easy to read on disk, but it creates a lot
+ *     of short-lived objects. A codec instead writes each field directly
+ *     as its primitive type, and reads it back the same way, with no intermediate
+ *     strings for numbers, booleans, and so on.
+ * </p>
+ * <p>
+ *     <em>An example:</em>
+ * </p>
+ * {@snippet :
+ * public static final DbCodec<Foo> CODEC = new DbCodec<>() {
+ *     public void encode(Foo foo, DataOutput out) throws IOException {
+ *         out.writeLong(foo.getIndex());
+ *         out.writeInt(foo.getA());
+ *         SerializationUtils.writeString(out, foo.getB());
+ *     }
+ *
+ *     public Foo decode(DataInput in) throws IOException {
+ *         return new Foo(in.readLong(), in.readInt(), SerializationUtils.readString(in));
+ *     }
+ * };
+ * }
+ * <p>
+ *     Existing {@link DbData} types can be used without writing a codec by
+ *     calling {@link #fromDbData(DbData)}, which wraps their string serialization.
+ * </p>
+ * @param <T> the type of data this codec handles
+ */
+public interface DbCodec<T> {
+
+    /**
+     * Write the fields of the value to the output, in an order
+     * that {@link #decode(DataInput)} will read them back.
+     */
+    void encode(T value, DataOutput out) throws IOException;
+
+    /**
+     * Read the fields written by {@link #encode(Object, DataOutput)} and
+     * build a new instance from them.
+     */
+    T decode(DataInput in) throws IOException;
+
+    /**
+     * Encode a value into a new byte array
+     */
+    default byte[] toBytes(T value) {
+        var baos = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(baos)) {
+            encode(value, out);
+        } catch (IOException ex) {
+            throw new DbException("Failed to encode value: " + value, ex);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode a value from a byte array, as written by {@link #toBytes(Object)}
+     */
+    default T fromBytes(byte[] bytes) {
+        try (var in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            return decode(in);
+        } catch (IOException ex) {
+            throw new DbException("Failed to decode value from " + bytes.length + " bytes", ex);
+        }
+    }
+
+    /**
+     * Encode a value into the buffer at its current position.
+     * @throws java.nio.BufferOverflowException if the buffer has too little room
+     */
+    default void encode(T value, ByteBuffer buffer) {
+        try (var out = new DataOutputStream(new ByteBufferOutputStream(buffer))) {
+            encode(value, out);
+        } catch (IOException ex) {
+            throw new DbException("Failed to encode value: " + value, ex);
+        }
+    }
+
+    /**
+     * Decode a value from the buffer, starting at its current position.  The
+     * buffer's position is advanced past the bytes that were read.
+     */
+    default T decode(ByteBuffer buffer) {
+        try (var in = new DataInputStream(new ByteBufferInputStream(buffer))) {
+            return decode(in);
+        } catch (IOException ex) {
+            throw new DbException("Failed to decode value from buffer", ex);
+        }
+    }
+
+    /**
+     * Build a codec for an existing {@link DbData} type, based on
+     * its {@link DbData#serialize()} and {@link DbData#deserialize(String)}
+     * methods.  This is a compatibility bridge - it allows code written against
+     * codecs to handle types that have not yet been given a codec of their own.
+     * @param emptyInstance an empty instance of the type, used to call its deserialize method
+     */
+    static <T extends DbData<?>> DbCodec<T> fromDbData(T emptyInstance) {
+        return new DbDataCodec<>(emptyInstance);
+    }
+}
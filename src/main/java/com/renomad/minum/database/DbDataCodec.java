@@ -0,0 +1,41 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.utils.SerializationUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Adapts a {@link DbData} type to the {@link DbCodec} interface by
+ * storing its {@link DbData#serialize()} text as length-prefixed UTF-8 bytes.
+ * See {@link DbCodec#fromDbData(DbData)}
+ */
+final class DbDataCodec<T extends DbData<?>> implements DbCodec<T> {
+
+    private final T emptyInstance;
+
+    DbDataCodec(T emptyInstance) {
+        this.emptyInstance = emptyInstance;
+    }
+
+    @Override
+    public void encode(T value, DataOutput out) throws IOException {
+        byte[] bytes = value.serialize().getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public T decode(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new DbException("Invalid length for serialized data: " + length);
+        }
+        byte[] bytes = SerializationUtils.readBytes(in, length);
+        return (T) emptyInstance.deserialize(new String(bytes, UTF_8));
+    }
+}
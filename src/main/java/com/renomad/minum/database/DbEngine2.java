@@ -12,8 +12,10 @@ import java.security.MessageDigest;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
@@ -126,6 +128,26 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
      */
     boolean consolidationIsRunning;
 
+    /**
+     * If this database is running with a bounded resident set, this is
+     * the same object as {@link #data}.  Otherwise, null.
+     */
+    final BoundedDataMap<T> boundedData;
+
+    /**
+     * Used when running with a bounded resident set, so that reading from
+     * the consolidated files does not happen while they are being rewritten.
+     */
+    private final ReentrantReadWriteLock diskLock;
+
+    /**
+     * Used when running with a bounded resident set, these are the
+     * partitions (see {@link BoundedDataMap#partitionForIndex(long, int)})
+     * that have been changed since they were last examined after a
+     * consolidation.
+     */
+    private final Set<Long> dirtyPartitions;
+
     /**
      * Constructs an in-memory disk-persisted database.
      * Loading of data from disk happens at the first invocation of any command
@@ -143,12 +165,55 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         this(dbDirectory, context, instance, new FileUtils(context.getLogger(), context.getConstants()));
     }
 
+    /**
+     * Constructs a disk-persisted database that keeps only a bounded number of
+     * its items deserialized in memory.
+     * <p>
+     *     At startup, rather than deserializing every item into memory, this reads
+     *     the consolidated data files and records where each item is found.
+     *     Items are then read from disk as needed, and the most recently used
+     *     of them are kept in memory, up to maxResidentRows.
+     * </p>
+     * <p>
+     *     This is meant for large tables where much of the data is rarely
+     *     used, such as historical records.  Some things to consider:
+     * </p>
+     * <ul>
+     *     <li>Items written since the last consolidation are held in memory until
+     *     the next consolidation, which is at most {@link com.renomad.minum.state.Constants#maxAppendCount} items</li>
+     *     <li>Registered indexes hold only the identifiers of items, but if indexes or an
+     *     expiry are registered, each item is deserialized once during startup to compute them</li>
+     *     <li>{@link #values()} reads through every item on disk - prefer indexed lookups</li>
+     * </ul>
+     * @param maxResidentRows the maximum count of items read from disk to keep in memory.
+     * @see #DbEngine2(Path, Context, DbData)
+     */
+    public DbEngine2(Path dbDirectory, Context context, T instance, int maxResidentRows) {
+        this(dbDirectory, context, instance, new FileUtils(context.getLogger(), context.getConstants()), maxResidentRows);
+    }
+
     DbEngine2(Path dbDirectory, Context context, T instance, IFileUtils fileUtils) {
-        super(dbDirectory, context, instance, fileUtils);
+        this(dbDirectory, context, instance, fileUtils, 0);
+    }
+
+    /**
+     * @param maxResidentRows if zero, all data is kept in memory. If positive,
+     *                        see {@link #DbEngine2(Path, Context, DbData, int)}
+     */
+    DbEngine2(Path dbDirectory, Context context, T instance, IFileUtils fileUtils, int maxResidentRows) {
+        this(dbDirectory, context, instance, fileUtils, maxResidentRows, new ReentrantReadWriteLock());
+    }
+
+    private DbEngine2(Path dbDirectory, Context context, T instance, IFileUtils fileUtils, int maxResidentRows, ReentrantReadWriteLock diskLock) {
+        super(dbDirectory, context, instance, fileUtils, buildDataMap(dbDirectory, context, instance, maxResidentRows, diskLock));
+        this.diskLock = diskLock;
+        this.boundedData = data instanceof BoundedDataMap<T> bounded ? bounded : null;
+        this.dirtyPartitions = ConcurrentHashMap.newKeySet();
+        registerGauges();
 
         try {
             this.databaseConsolidator = new DatabaseConsolidator(dbDirectory, context, fileUtils);
-            this.databaseAppender = new DatabaseAppender(dbDirectory, context, fileUtils);
+            this.databaseAppender = new DatabaseAppender(dbDirectory, context, fileUtils, metrics);
         } catch (IOException ex) {
             throw new DbException("Error in DbEngine2 constructor", ex);
         }
@@ -157,6 +222,31 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         this.maxLinesPerAppendFile = context.getConstants().maxAppendCount;
     }
 
+    private void registerGauges() {
+        metrics.registerGauge("pending_appends", appendCount::get);
+        metrics.registerGauge("consolidation_running", () -> consolidationIsRunning ? 1 : 0);
+        metrics.registerGauge("consolidation_backlog_files", () -> {
+            String[] appendLogs = dbDirectory.resolve("append_logs").toFile().list();
+            return appendLogs == null ? 0 : appendLogs.length;
+        });
+        if (boundedData != null) {
+            metrics.registerGauge("resident_rows", boundedData::residentCount);
+            metrics.registerGauge("pinned_rows", boundedData::pinnedCount);
+        }
+    }
+
+    private static <T extends DbData<?>> Map<Long, T> buildDataMap(Path dbDirectory, Context context, T instance,
+                                                                  int maxResidentRows, ReentrantReadWriteLock diskLock) {
+        if (maxResidentRows < 0) {
+            throw new DbException("The maximum count of resident rows must not be negative. Given: " + maxResidentRows);
+        }
+        if (maxResidentRows == 0) {
+            return new ConcurrentHashMap<>();
+        }
+        return new BoundedDataMap<>(dbDirectory.resolve("consolidated_data"),
+                context.getConstants().maxLinesPerConsolidatedDatabaseFile, instance, maxResidentRows, diskLock);
+    }
+
     /**
      * Write data to the database.  Use an index of 0 to store new data, and a positive
      * non-zero value to update data.
@@ -194,25 +284,24 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         if (!hasLoadedData) loadData();
 
         boolean hasBeenBLocked;
-        long startWaitingTime;
+        long startWaitingTime = System.nanoTime();
         long threadId = Thread.currentThread().threadId();
         if (!dbLock.tryLock()) {
             Thread lockOwner = dbLock.getLockOwner();
             logger.logTrace(() -> "Thread %d encountered a lock held by Thread %s during write()".formatted(threadId, getLockOwnerIdString(lockOwner)));
             hasBeenBLocked = true;
-            startWaitingTime = System.currentTimeMillis();
             dbLock.lock();
         } else {
             hasBeenBLocked = false;
-            startWaitingTime = 0;
             logger.logTrace(() -> "Thread %d has acquired the dbLock lock for DbEngine2.write()".formatted(threadId));
         }
 
+        long lockWaitNanos = System.nanoTime() - startWaitingTime;
         if (hasBeenBLocked) {
-            long waitTimeMillis = System.currentTimeMillis() - startWaitingTime;
+            long waitTimeMillis = lockWaitNanos / 1_000_000;
             logger.logTrace(() -> "Thread %d successfully acquired the lock after waiting %d milliseconds".formatted(threadId, waitTimeMillis));
         }
-        long startProcessingTime = System.currentTimeMillis();
+        long startProcessingTime = System.nanoTime();
         try {
             boolean newElementCreated = processDataIndex(newData);
             writeToDisk(newData);
@@ -220,9 +309,11 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         } catch (Exception ex) {
            throw new DbException("failed to write data " + newData, ex);
         } finally {
-            long processingTime = System.currentTimeMillis() - startProcessingTime;
+            long processingNanos = System.nanoTime() - startProcessingTime;
+            long processingTime = processingNanos / 1_000_000;
             logger.logTrace(() -> "Thread %d releasing lock for writing.  Time taken in millis: %d".formatted(Thread.currentThread().threadId(), processingTime));
             dbLock.unlock();
+            metrics.recordWrite(lockWaitNanos, processingNanos);
         }
 
         // returning the data at this point is the most convenient
@@ -237,6 +328,7 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
                 "the serialized form of data must not be blank. " +
                         "Is the serialization code written properly? Our datatype: " + emptyInstance);
         databaseAppender.appendToDatabase(DatabaseChangeAction.UPDATE, serializedData);
+        markPartitionDirty(newData.getIndex());
         appendCount.incrementAndGet();
         consolidateIfNecessary();
     }
@@ -269,7 +361,7 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
             context.getExecutorService().submit(() -> {
                 try {
                     consolidationIsRunning = true;
-                    databaseConsolidator.consolidate();
+                    runConsolidation();
                     consolidationIsRunning = false;
                 } catch (Exception e) {
                     logger.logAsyncError(() -> "Error during consolidation: " + e);
@@ -279,6 +371,69 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         }
     }
 
+    /**
+     * Consolidate the append logs into the consolidated data files.
+     * <p>
+     *     When running with a bounded resident set, this also finds where
+     *     items are now located in the rewritten files, and releases items from
+     *     memory that no longer need to be pinned there.
+     * </p>
+     */
+    void runConsolidation() throws IOException, ParseException {
+        long startTime = System.nanoTime();
+        try {
+            runConsolidationInner();
+        } finally {
+            metrics.recordConsolidation(System.nanoTime() - startTime);
+        }
+    }
+
+    private void runConsolidationInner() throws IOException, ParseException {
+        if (boundedData == null) {
+            databaseConsolidator.consolidate();
+            return;
+        }
+        Map<Long, Map<Long, Map.Entry<BoundedDataMap.RowLocation, String>>> scans = new HashMap<>();
+        diskLock.writeLock().lock();
+        try {
+            databaseConsolidator.consolidate();
+            boundedData.closeChannels();
+            // the partitions are gathered after consolidating, so any written
+            // while it ran are included.  The locations of items on disk are
+            // brought up to date before any reader may see the rewritten files.
+            Set<Long> partitions = new HashSet<>(dirtyPartitions);
+            dirtyPartitions.removeAll(partitions);
+            for (long partition : partitions) {
+                var scannedLines = boundedData.scanPartition(partition);
+                boundedData.updateLocations(scannedLines);
+                scans.put(partition, scannedLines);
+            }
+        } finally {
+            diskLock.writeLock().unlock();
+        }
+        int released = 0;
+        for (var scannedLines : scans.values()) {
+            dbLock.lock();
+            try {
+                released += boundedData.applyPartitionScan(scannedLines);
+            } finally {
+                dbLock.unlock();
+            }
+        }
+        // anything still pinned was not yet part of a consolidation, so
+        // its partition will need examining after the next one.
+        dirtyPartitions.addAll(boundedData.partitionsWithPinnedItems());
+        int finalReleased = released;
+        logger.logDebug(() -> "Released %d items from memory after consolidation of %s. Still pinned: %d"
+                .formatted(finalReleased, dbDirectory, boundedData.pinnedCount()));
+    }
+
+    private void markPartitionDirty(long dataIndex) {
+        if (boundedData != null) {
+            dirtyPartitions.add(BoundedDataMap.partitionForIndex(dataIndex, context.getConstants().maxLinesPerConsolidatedDatabaseFile));
+        }
+    }
+
     /**
      * Delete data
      * <p><em>Example:</em></p>
@@ -296,40 +451,80 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
         if (!hasLoadedData) loadData();
 
         boolean hasBeenBLocked;
-        long startWaitingTime;
+        long startWaitingTime = System.nanoTime();
         long threadId = Thread.currentThread().threadId();
         if (!dbLock.tryLock()) {
             Thread lockOwner = dbLock.getLockOwner();
             logger.logTrace(() -> "Thread %d encountered a lock held by Thread %s during delete()".formatted(threadId, getLockOwnerIdString(lockOwner)));
             hasBeenBLocked = true;
-            startWaitingTime = System.currentTimeMillis();
             dbLock.lock();
         } else {
             hasBeenBLocked = false;
-            startWaitingTime = 0;
             logger.logTrace(() -> "Thread %d has acquired the dbLock lock for DbEngine2.delete()".formatted(threadId));
         }
 
+        long lockWaitNanos = System.nanoTime() - startWaitingTime;
         if (hasBeenBLocked) {
-            long waitTimeMillis = System.currentTimeMillis() - startWaitingTime;
+            long waitTimeMillis = lockWaitNanos / 1_000_000;
             logger.logTrace(() -> "Thread %d successfully acquired the lock after waiting %d milliseconds".formatted(threadId, waitTimeMillis));
         }
-        long startProcessingTime = System.currentTimeMillis();
+        long startProcessingTime = System.nanoTime();
         try {
             deleteFromDisk(dataToDelete);
             deleteFromMemory(dataToDelete);
         } catch (Exception ex) {
             throw new DbException("failed to delete data " + dataToDelete, ex);
         } finally {
-            long processingTime = System.currentTimeMillis() - startProcessingTime;
+            long processingNanos = System.nanoTime() - startProcessingTime;
+            long processingTime = processingNanos / 1_000_000;
             logger.logTrace(() -> "Thread %d releasing lock for writing.  Time taken in millis: %d".formatted(Thread.currentThread().threadId(), processingTime));
             dbLock.unlock();
+            metrics.recordDelete(lockWaitNanos, processingNanos);
         }
     }
 
+    /**
+     * Expired rows are deleted together: their deletions are appended to the
+     * log in a single write, while the database lock is held once for them all,
+     * and the check for whether to consolidate is made once at the end.  If
+     * the write fails, none are deleted, and they are tried again when the
+     * database is next loaded.
+     */
+    @Override
+    int deleteExpired(List<T> expiredRows) {
+        long startProcessingTime = System.nanoTime();
+        List<String> serializedRows = new ArrayList<>(expiredRows.size());
+        for (T row : expiredRows) {
+            serializedRows.add(row.serialize());
+        }
+        try {
+            databaseAppender.appendToDatabase(DatabaseChangeAction.DELETE, serializedRows);
+        } catch (IOException ex) {
+            logger.logAsyncError(() -> "Failed to delete %d expired rows: %s".formatted(expiredRows.size(), ex));
+            return 0;
+        }
+        appendCount.addAndGet(expiredRows.size());
+        int count = 0;
+        for (T row : expiredRows) {
+            markPartitionDirty(row.getIndex());
+            try {
+                deleteFromMemory(row);
+                count += 1;
+            } catch (DbException ex) {
+                logger.logAsyncError(() -> "Failed to delete expired data " + row + ": " + ex);
+            }
+        }
+        consolidateIfNecessary();
+        if (count > 0) {
+            metrics.recordDeletes(count, System.nanoTime() - startProcessingTime);
+        }
+        return count;
+    }
+
     private void deleteFromDisk(T dataToDelete) throws IOException {
         logger.logTrace(() -> String.format("Thread %d deleting data from disk: %s", Thread.currentThread().threadId(), dataToDelete));
         databaseAppender.appendToDatabase(DatabaseChangeAction.DELETE, dataToDelete.serialize());
+        markPartitionDirty(dataToDelete.getIndex());
         appendCount.incrementAndGet();
         consolidateIfNecessary();
     }
@@ -392,12 +587,21 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
             // build a hash for this data
             MessageDigest messageDigestSha256 = getMessageDigest("SHA-256");
 
-            try(Stream<String> fileStream = fileUtils.lines(consolidatedDataFile, StandardCharsets.US_ASCII)) {
-
-                fileStream.forEach(line -> {
-                    messageDigestSha256.update(line.getBytes(StandardCharsets.US_ASCII));
-                    readAndDeserialize(line, fileName);
-                });
+            try {
+                if (boundedData == null) {
+                    try (Stream<String> fileStream = fileUtils.lines(consolidatedDataFile, StandardCharsets.US_ASCII)) {
+                        fileStream.forEach(line -> {
+                            messageDigestSha256.update(line.getBytes(StandardCharsets.US_ASCII));
+                            readAndDeserialize(line, fileName);
+                        });
+                    }
+                } else {
+                    // for the bounded resident set, we only record where each item is
+                    BoundedDataMap.scanFile(consolidatedDataFile, (offset, length, line) -> {
+                        messageDigestSha256.update(line.getBytes(StandardCharsets.US_ASCII));
+                        readLocation(line, offset, length, fileName);
+                    });
+                }
 
                 // check against the checksum for what we read, if applicable
                 if (fileUtils.exists(checksumFilename)) {
@@ -442,6 +646,7 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
             // put the data into the in-memory data structure
             data.put(deserializedData.getIndex(), deserializedData);
             addToIndexes(deserializedData);
+            scheduleExpiry(deserializedData);
 
         } catch (Exception e) {
             throw new DbException("Failed to deserialize " + lineOfData + " with data (\"" + fileName + "\"). Caused by: " + e);
@@ -449,6 +654,28 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     }
 
 
+    /**
+     * Records where a line of data is found in a consolidated file, for use
+     * with a bounded resident set.  The item is only deserialized if
+     * something like a registered index needs to see it.
+     */
+    void readLocation(String lineOfData, long offset, int length, String fileName) {
+        try {
+            long dataIndex = BoundedDataMap.getIndexFromLine(lineOfData);
+            boundedData.addLocation(dataIndex, offset, length);
+            if (needsEachItemAtLoad()) {
+                @SuppressWarnings("unchecked")
+                T deserializedData = (T) emptyInstance.deserialize(lineOfData);
+                mustBeTrue(deserializedData != null, "deserialization of " + emptyInstance +
+                        " resulted in a null value. Was the serialization method implemented properly?");
+                addToIndexes(deserializedData);
+                scheduleExpiry(deserializedData);
+            }
+        } catch (Exception e) {
+            throw new DbException("Failed to read " + lineOfData + " with data (\"" + fileName + "\"). Caused by: " + e);
+        }
+    }
+
     /**
      * This is what loads the data from disk the
      * first time someone needs it.  Because it is
@@ -518,7 +745,16 @@ public final class DbEngine2<T extends DbData<?>> extends AbstractDb<T> {
     @Override
     public void stop() throws IOException {
         context.removeFromPaths(this.dbDirectory);
+        stopExpiry();
         this.databaseAppender.flush();
+        if (boundedData != null) {
+            diskLock.writeLock().lock();
+            try {
+                boundedData.closeChannels();
+            } finally {
+                diskLock.writeLock().unlock();
+            }
+        }
     }
 
     /**
@@ -0,0 +1,208 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.utils.LatencyHistogram;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Measurements of the activity of a single database, such as
+ * how many writes there have been and how long they waited for the lock.
+ * <p>
+ *     Each database has one of these, available from {@link AbstractDb#getMetrics()}.
+ *     All the databases in a system are available from
+ *     {@link com.renomad.minum.state.Context#getDbMetrics()}, and may be served
+ *     over HTTP by setting DB_METRICS_ENDPOINT in the configuration.
+ * </p>
+ * <p>
+ *     There are three kinds of measurement:
+ * </p>
+ * <ul>
+ *     <li>counters, which only go up, like the count of writes</li>
+ *     <li>gauges, which are read at the moment they are asked for, like the count of rows</li>
+ *     <li>histograms of durations, in nanoseconds, like the time spent waiting for the lock</li>
+ * </ul>
+ */
+public final class DbMetrics {
+
+    private final String name;
+
+    private final LongAdder writes;
+    private final LongAdder deletes;
+    private final LongAdder appendBytes;
+    private final LongAdder consolidations;
+
+    private final LatencyHistogram lockWaitNanos;
+    private final LatencyHistogram writeNanos;
+    private final LatencyHistogram deleteNanos;
+    private final LatencyHistogram flushNanos;
+    private final LatencyHistogram consolidationNanos;
+
+    /**
+     * Values that are calculated when asked for, sorted by name
+     */
+    private final Map<String, Supplier<Number>> gauges;
+
+    /**
+     * @param name the name of the database, typically its directory
+     */
+    public DbMetrics(String name) {
+        this.name = name;
+        this.writes = new LongAdder();
+        this.deletes = new LongAdder();
+        this.appendBytes = new LongAdder();
+        this.consolidations = new LongAdder();
+        this.lockWaitNanos = new LatencyHistogram();
+        this.writeNanos = new LatencyHistogram();
+        this.deleteNanos = new LatencyHistogram();
+        this.flushNanos = new LatencyHistogram();
+        this.consolidationNanos = new LatencyHistogram();
+        this.gauges = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Record a write to the database
+     * @param lockWaitNanos how long the write waited to obtain the database lock
+     * @param processingNanos how long the write took once it had the lock
+     */
+    void recordWrite(long lockWaitNanos, long processingNanos) {
+        writes.increment();
+        this.lockWaitNanos.record(lockWaitNanos);
+        writeNanos.record(processingNanos);
+    }
+
+    /**
+     * Record a deletion from the database
+     * @param lockWaitNanos how long the deletion waited to obtain the database lock
+     * @param processingNanos how long the deletion took once it had the lock
+     */
+    void recordDelete(long lockWaitNanos, long processingNanos) {
+        deletes.increment();
+        this.lockWaitNanos.record(lockWaitNanos);
+        deleteNanos.record(processingNanos);
+    }
+
+    /**
+     * Record deletions made together, such as of rows that expired at
+     * once.  The time is recorded as a single sample for the batch, and
+     * no lock wait is recorded, since the caller already held the lock.
+     * @param count how many rows were deleted
+     * @param processingNanos how long the whole batch took
+     */
+    void recordDeletes(int count, long processingNanos) {
+        deletes.add(count);
+        deleteNanos.record(processingNanos);
+    }
+
+    void recordAppendBytes(long bytes) {
+        appendBytes.add(bytes);
+    }
+
+    void recordFlush(long nanos) {
+        flushNanos.record(nanos);
+    }
+
+    void recordConsolidation(long nanos) {
+        consolidations.increment();
+        consolidationNanos.record(nanos);
+    }
+
+    /**
+     * Add a value that will be calculated each time the metrics are read
+     */
+    void registerGauge(String gaugeName, Supplier<Number> supplier) {
+        gauges.put(gaugeName, supplier);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getDeletes() {
+        return deletes.sum();
+    }
+
+    /**
+     * The count of bytes appended to the database's log files.  Only
+     * applies to {@link DbEngine2}
+     */
+    public long getAppendBytes() {
+        return appendBytes.sum();
+    }
+
+    public long getConsolidations() {
+        return consolidations.sum();
+    }
+
+    public LatencyHistogram getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    public LatencyHistogram getWriteNanos() {
+        return writeNanos;
+    }
+
+    public LatencyHistogram getDeleteNanos() {
+        return deleteNanos;
+    }
+
+    public LatencyHistogram getFlushNanos() {
+        return flushNanos;
+    }
+
+    public LatencyHistogram getConsolidationNanos() {
+        return consolidationNanos;
+    }
+
+    /**
+     * Read the current value of a gauge, such as "rows"
+     * @return the value, or null if there is no gauge by that name
+     */
+    public Number getGauge(String gaugeName) {
+        Supplier<Number> supplier = gauges.get(gaugeName);
+        return supplier == null ? null : supplier.get();
+    }
+
+    /**
+     * All the current measurements, by name, in a consistent order.
+     * Histograms are given as their summary text, see {@link LatencyHistogram#toString()}
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("writes", getWrites());
+        result.put("deletes", getDeletes());
+        result.put("append_bytes", getAppendBytes());
+        result.put("consolidations", getConsolidations());
+        for (var gauge : gauges.entrySet()) {
+            result.put(gauge.getKey(), gauge.getValue().get());
+        }
+        result.put("lock_wait_nanos", lockWaitNanos.toString());
+        result.put("write_nanos", writeNanos.toString());
+        result.put("delete_nanos", deleteNanos.toString());
+        result.put("flush_nanos", flushNanos.toString());
+        result.put("consolidation_nanos", consolidationNanos.toString());
+        return result;
+    }
+
+    /**
+     * Renders the metrics of many databases as plain text, one
+     * measurement per line, like "db/users writes 42"
+     */
+    public static String render(Collection<DbMetrics> allMetrics) {
+        StringBuilder sb = new StringBuilder();
+        for (DbMetrics metrics : allMetrics) {
+            for (var entry : metrics.snapshot().entrySet()) {
+                sb.append(metrics.name).append(' ').append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package com.renomad.minum.database;
+
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An entry in the expiry queue of {@link AbstractDb}, recording
+ * which row should be examined for removal, and when.
+ * See {@link AbstractDb#registerExpiry(java.util.function.Function)}
+ * @param dataIndex the index of the row in the database
+ * @param expiryTime the time the row expires, in milliseconds past the epoch
+ */
+record ExpiringItem(long dataIndex, long expiryTime) implements Delayed {
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+        return unit.convert(expiryTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+        if (o instanceof ExpiringItem other) {
+            return Long.compare(expiryTime, other.expiryTime);
+        }
+        return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,348 @@
+package com.renomad.minum.htmlparsing;
+
+import java.util.*;
+
+/**
+ * An index of the elements of a parsed HTML document, for when it
+ * will be searched many times.
+ * <p>
+ *     Building the index walks the tree once, recording each element by its
+ *     tag name, its attributes, its classes, and its id.  Afterwards, a search is
+ *     a lookup of the fewest candidates, which are then checked against the rest
+ *     of the query - rather than a walk through the whole tree, as
+ *     {@link HtmlParseNode#search(TagName, Map)} does.
+ * </p>
+ * <pre>{@code
+ *     var index = new HtmlIndex(new HtmlParser().parse(html));
+ *     HtmlParseNode title = index.getById("title");
+ *     List<HtmlParseNode> rows = index.search(TagName.TR, Map.of("class", "person"));
+ *     List<HtmlParseNode> links = index.select("nav a.active[href]");
+ * }</pre>
+ * <p>
+ *     Results are in the order of the document.  The index does not change if
+ *     the nodes are changed afterwards.  Safe to search from many threads at once.
+ * </p>
+ */
+public final class HtmlIndex {
+
+    private final Map<TagName, List<HtmlParseNode>> byTagName;
+    private final Map<String, Map<String, List<HtmlParseNode>>> byAttribute;
+    private final Map<String, List<HtmlParseNode>> byAttributeKey;
+    private final Map<String, List<HtmlParseNode>> byClass;
+    private final Map<String, HtmlParseNode> byId;
+
+    /**
+     * The element containing each element, to check the ancestors
+     * in a selector like "ul li"
+     */
+    private final Map<HtmlParseNode, HtmlParseNode> parents;
+    private final List<HtmlParseNode> allElements;
+
+    /**
+     * Index the elements in these trees, as returned from {@link HtmlParser#parse(String)}
+     */
+    public HtmlIndex(List<HtmlParseNode> roots) {
+        byTagName = new EnumMap<>(TagName.class);
+        byAttribute = new HashMap<>();
+        byAttributeKey = new HashMap<>();
+        byClass = new HashMap<>();
+        byId = new HashMap<>();
+        parents = new IdentityHashMap<>();
+        allElements = new ArrayList<>();
+        for (HtmlParseNode root : roots) {
+            addToIndex(root, null);
+        }
+    }
+
+    private void addToIndex(HtmlParseNode node, HtmlParseNode parent) {
+        if (node.getType() != ParseNodeType.ELEMENT) return;
+        allElements.add(node);
+        if (parent != null) {
+            parents.put(node, parent);
+        }
+        TagInfo tagInfo = node.getTagInfo();
+        byTagName.computeIfAbsent(tagInfo.getTagName(), x -> new ArrayList<>()).add(node);
+        for (Map.Entry<String, String> attribute : tagInfo.getAttributes().entrySet()) {
+            byAttributeKey.computeIfAbsent(attribute.getKey(), x -> new ArrayList<>()).add(node);
+            byAttribute.computeIfAbsent(attribute.getKey(), x -> new HashMap<>())
+                    .computeIfAbsent(attribute.getValue(), x -> new ArrayList<>()).add(node);
+        }
+        String id = tagInfo.getAttribute("id");
+        if (id != null) {
+            // as in a browser, if an id is repeated, the first is the one found
+            byId.putIfAbsent(id, node);
+        }
+        for (String className : classesOf(tagInfo)) {
+            byClass.computeIfAbsent(className, x -> new ArrayList<>()).add(node);
+        }
+        for (HtmlParseNode child : node.innerContentView()) {
+            addToIndex(child, node);
+        }
+    }
+
+    /**
+     * The element with this id, or {@link HtmlParseNode#EMPTY} if none
+     */
+    public HtmlParseNode getById(String id) {
+        return byId.getOrDefault(id, HtmlParseNode.EMPTY);
+    }
+
+    /**
+     * Find the elements with this tag name having all of these attributes - the
+     * same elements {@link HtmlParser#search(List, TagName, Map)} would find.
+     * @return the elements found, or an empty list
+     */
+    public List<HtmlParseNode> search(TagName tagName, Map<String, String> attributes) {
+        List<HtmlParseNode> candidates = byTagName.getOrDefault(tagName, List.of());
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            List<HtmlParseNode> withAttribute = byAttribute.getOrDefault(attribute.getKey(), Map.of())
+                    .getOrDefault(attribute.getValue(), List.of());
+            if (withAttribute.size() < candidates.size()) {
+                candidates = withAttribute;
+            }
+        }
+        if (attributes.isEmpty()) {
+            return Collections.unmodifiableList(candidates);
+        }
+        var result = new ArrayList<HtmlParseNode>();
+        for (HtmlParseNode candidate : candidates) {
+            TagInfo tagInfo = candidate.getTagInfo();
+            if (tagInfo.getTagName() == tagName && tagInfo.containsAllAttributes(attributes.entrySet())) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the single element with this tag name and attributes.
+     * @return {@link HtmlParseNode#EMPTY} if none found
+     * @throws ParsingException if more than one is found
+     */
+    public HtmlParseNode searchOne(TagName tagName, Map<String, String> attributes) {
+        return onlyOne(search(tagName, attributes));
+    }
+
+    /**
+     * Find elements with a selector, in a subset of the syntax of CSS.
+     * <p>
+     *     A selector is one or more compound selectors, separated by spaces, where
+     *     each element found must match the last, and have an ancestor matching each
+     *     of those before it, in order.  A compound selector is any of these, together
+     *     with no spaces between:
+     * </p>
+     * <ul>
+     *     <li>a tag name, like {@code div}, or {@code *} for any</li>
+     *     <li>an id, like {@code #main}</li>
+     *     <li>a class, like {@code .warning} - one of the words in the class attribute</li>
+     *     <li>an attribute, like {@code [disabled]}, {@code [type=text]} or {@code [title="a b"]}</li>
+     * </ul>
+     * <p>
+     *     For example, {@code form#login input.required[type=password]}.  Other
+     *     parts of CSS, like {@code >} or {@code :first-child}, are not supported.
+     * </p>
+     * @return the elements found, or an empty list
+     * @throws ParsingException if the selector cannot be understood
+     */
+    public List<HtmlParseNode> select(String selector) {
+        List<Compound> compounds = parseSelector(selector);
+        Compound last = compounds.getLast();
+        var result = new ArrayList<HtmlParseNode>();
+        for (HtmlParseNode candidate : candidatesFor(last)) {
+            if (last.matches(candidate) && hasAncestorsMatching(candidate, compounds)) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the single element matching a selector.  See {@link #select(String)}
+     * @return {@link HtmlParseNode#EMPTY} if none found
+     * @throws ParsingException if more than one is found
+     */
+    public HtmlParseNode selectOne(String selector) {
+        return onlyOne(select(selector));
+    }
+
+    private static HtmlParseNode onlyOne(List<HtmlParseNode> found) {
+        if (found.size() > 1) {
+            throw new ParsingException("More than 1 node found.  Here they are:" + found);
+        }
+        return found.isEmpty() ? HtmlParseNode.EMPTY : found.getFirst();
+    }
+
+    /**
+     * Walking up from the node, find an ancestor for each compound
+     * before the last, from right to left.  Taking the nearest
+     * matching ancestor each time finds a match if there is one.
+     */
+    private boolean hasAncestorsMatching(HtmlParseNode node, List<Compound> compounds) {
+        HtmlParseNode current = node;
+        for (int i = compounds.size() - 2; i >= 0; i--) {
+            Compound compound = compounds.get(i);
+            do {
+                current = parents.get(current);
+            } while (current != null && !compound.matches(current));
+            if (current == null) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The shortest list from the index that must contain every match
+     */
+    private List<HtmlParseNode> candidatesFor(Compound compound) {
+        if (compound.id() != null) {
+            HtmlParseNode node = byId.get(compound.id());
+            return node == null ? List.of() : List.of(node);
+        }
+        List<HtmlParseNode> candidates = compound.tagName() == null
+                ? allElements
+                : byTagName.getOrDefault(compound.tagName(), List.of());
+        for (String className : compound.classes()) {
+            candidates = shorter(candidates, byClass.getOrDefault(className, List.of()));
+        }
+        for (Map.Entry<String, String> attribute : compound.attributes().entrySet()) {
+            List<HtmlParseNode> withAttribute = attribute.getValue() == null
+                    ? byAttributeKey.getOrDefault(attribute.getKey(), List.of())
+                    : byAttribute.getOrDefault(attribute.getKey(), Map.of()).getOrDefault(attribute.getValue(), List.of());
+            candidates = shorter(candidates, withAttribute);
+        }
+        return candidates;
+    }
+
+    private static List<HtmlParseNode> shorter(List<HtmlParseNode> a, List<HtmlParseNode> b) {
+        return b.size() < a.size() ? b : a;
+    }
+
+    private static List<String> classesOf(TagInfo tagInfo) {
+        String classes = tagInfo.getAttribute("class");
+        if (classes == null || classes.isBlank()) return List.of();
+        return List.of(classes.trim().split("\\s+"));
+    }
+
+    /**
+     * One compound part of a selector, like {@code a.active[href]}
+     * @param tagName null for any
+     * @param id null for any
+     * @param attributes the value is null if only the presence of the attribute is checked
+     */
+    private record Compound(TagName tagName, String id, List<String> classes, Map<String, String> attributes) {
+
+        boolean matches(HtmlParseNode node) {
+            TagInfo tagInfo = node.getTagInfo();
+            if (tagName != null && tagInfo.getTagName() != tagName) return false;
+            if (id != null && !id.equals(tagInfo.getAttribute("id"))) return false;
+            if (!classes.isEmpty() && !classesOf(tagInfo).containsAll(classes)) return false;
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                String value = tagInfo.getAttribute(attribute.getKey());
+                if (value == null) return false;
+                if (attribute.getValue() != null && !attribute.getValue().equals(value)) return false;
+            }
+            return true;
+        }
+    }
+
+    private static List<Compound> parseSelector(String selector) {
+        if (selector == null || selector.isBlank()) {
+            throw new ParsingException("A selector must not be blank");
+        }
+        var compounds = new ArrayList<Compound>();
+        int i = 0;
+        int length = selector.length();
+        while (i < length) {
+            if (Character.isWhitespace(selector.charAt(i))) {
+                i++;
+                continue;
+            }
+            TagName tagName = null;
+            String id = null;
+            var classes = new ArrayList<String>();
+            var attributes = new LinkedHashMap<String, String>();
+            while (i < length && !Character.isWhitespace(selector.charAt(i))) {
+                char c = selector.charAt(i);
+                if (c == '#' || c == '.') {
+                    int end = endOfName(selector, i + 1);
+                    if (end == i + 1) {
+                        throw new ParsingException("Expected a name after " + c + " at position " + i + " in the selector: " + selector);
+                    }
+                    String name = selector.substring(i + 1, end);
+                    if (c == '#') {
+                        id = name;
+                    } else {
+                        classes.add(name);
+                    }
+                    i = end;
+                } else if (c == '[') {
+                    i = parseAttribute(selector, i, attributes);
+                } else if (c == '*' && i == startOfCompound(selector, i)) {
+                    i++;
+                } else if (i == startOfCompound(selector, i) && Character.isLetter(c)) {
+                    int end = endOfName(selector, i);
+                    String name = selector.substring(i, end);
+                    tagName = TagName.findMatchingTagname(name);
+                    if (tagName == TagName.UNRECOGNIZED) {
+                        throw new ParsingException("Unrecognized tag name in the selector: " + name);
+                    }
+                    i = end;
+                } else {
+                    throw new ParsingException("Unexpected character " + c + " at position " + i + " in the selector: " + selector);
+                }
+            }
+            compounds.add(new Compound(tagName, id, List.copyOf(classes), Collections.unmodifiableMap(attributes)));
+        }
+        return compounds;
+    }
+
+    /**
+     * Read an attribute like [name], [name=value] or [name="value"], returning
+     * the index just past its closing bracket
+     */
+    private static int parseAttribute(String selector, int start, Map<String, String> attributes) {
+        int close = selector.indexOf(']', start);
+        if (close < 0) {
+            throw new ParsingException("Missing ] for the attribute at position " + start + " in the selector: " + selector);
+        }
+        String inside = selector.substring(start + 1, close);
+        int equals = inside.indexOf('=');
+        if (equals < 0) {
+            attributes.put(requireName(inside.trim(), selector), null);
+        } else {
+            String value = inside.substring(equals + 1).trim();
+            boolean isQuoted = value.length() >= 2
+                    && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                    && value.charAt(value.length() - 1) == value.charAt(0);
+            if (isQuoted) {
+                value = value.substring(1, value.length() - 1);
+            }
+            attributes.put(requireName(inside.substring(0, equals).trim(), selector), value);
+        }
+        return close + 1;
+    }
+
+    private static String requireName(String name, String selector) {
+        if (name.isEmpty()) {
+            throw new ParsingException("An attribute in the selector has no name: " + selector);
+        }
+        return name;
+    }
+
+    private static int startOfCompound(String selector, int index) {
+        int i = index;
+        while (i > 0 && !Character.isWhitespace(selector.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static int endOfName(String selector, int start) {
+        int i = start;
+        while (i < selector.length()) {
+            char c = selector.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '-' || c == '_')) break;
+            i++;
+        }
+        return i;
+    }
+}
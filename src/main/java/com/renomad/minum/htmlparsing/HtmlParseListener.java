@@ -0,0 +1,28 @@
+package com.renomad.minum.htmlparsing;
+
+/**
+ * Told of each part of an HTML document as {@link HtmlParser#parse(String, HtmlParseListener)}
+ * reads it, in order, rather than receiving a tree at the end.
+ * <p>
+ *     Each method does nothing unless overridden, so implement only those needed.
+ * </p>
+ */
+public interface HtmlParseListener {
+
+    /**
+     * An opening tag, with its attributes.  Void elements, like {@code <br>},
+     * have no matching end tag.
+     */
+    default void startTag(TagInfo tagInfo) {}
+
+    /**
+     * A closing tag, which has matched the innermost open element
+     */
+    default void endTag(TagName tagName) {}
+
+    /**
+     * Text between tags inside an element, including the body of a script.  Text
+     * that is only whitespace is skipped, as it is by {@link HtmlParser#parse(String)}.
+     */
+    default void text(String text) {}
+}
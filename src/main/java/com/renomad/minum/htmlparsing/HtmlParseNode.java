@@ -124,6 +124,14 @@ public final class HtmlParseNode {
         return new ArrayList<>(innerContent);
     }
 
+    /**
+     * The inner content itself, rather than a copy, for walking
+     * the tree without copying, as {@link HtmlIndex} does
+     */
+    List<HtmlParseNode> innerContentView() {
+        return innerContent;
+    }
+
     void addToInnerContent(HtmlParseNode htmlParseNode) {
         innerContent.add(htmlParseNode);
     }
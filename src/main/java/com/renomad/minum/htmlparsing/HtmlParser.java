@@ -1,7 +1,6 @@
 package com.renomad.minum.htmlparsing;
 
 import com.renomad.minum.security.ForbiddenUseException;
-import com.renomad.minum.utils.RingBuffer;
 
 import java.util.*;
 
@@ -56,16 +55,121 @@ public final class HtmlParser {
      * </p>
      */
     public List<HtmlParseNode> parse(String input) {
+        List<HtmlParseNode> nodes = new ArrayList<>();
+        run(input, null, nodes);
+        return nodes;
+    }
+
+    /**
+     * Scan through HTML input, telling the listener about each start tag, end tag,
+     * and piece of text as it is reached, without building a tree.
+     * <p>
+     *     This reads the HTML just as {@link #parse(String)} does - the same tags
+     *     are recognized, and the same mistakes throw a {@link ParsingException} - but
+     *     nothing is kept, so it suits scanning many pages for a few details, like
+     *     collecting every link:
+     * </p>
+     * <pre>{@code
+     *     var links = new ArrayList<String>();
+     *     new HtmlParser().parse(html, new HtmlParseListener() {
+     *         public void startTag(TagInfo tagInfo) {
+     *             if (tagInfo.getTagName() == TagName.A) links.add(tagInfo.getAttribute("href"));
+     *         }
+     *     });
+     * }</pre>
+     */
+    public void parse(String input, HtmlParseListener listener) {
+        run(input, listener, new ArrayList<>());
+    }
+
+    /**
+     * Scan through the input, building a tree of nodes if no listener is given.
+     * <p>
+     *     Most characters are text between tags, or the body of a script, and
+     *     these are read in runs, looking only for where the run ends.  The tags,
+     *     comments, and the ends of scripts are read a character at a time
+     *     by {@link #processState(char, State, List)}.
+     * </p>
+     */
+    private void run(String input, HtmlParseListener listener, List<HtmlParseNode> nodes) {
         if (input.length() > MAX_HTML_SIZE)
             throw new ForbiddenUseException("Input exceeds max allowed HTML text size, " + MAX_HTML_SIZE + " chars");
-        var chars = input.toCharArray();
-        List<HtmlParseNode> nodes = new ArrayList<>();
-        State state = State.buildNewState();
+        char[] chars = input.toCharArray();
+        State state = State.buildNewState(chars, listener);
+
+        for (int i = 0; i < chars.length; i++) {
+            int endOfRun = i;
+            if (state.isInsideScript) {
+                endOfRun = endOfScriptText(chars, i);
+            } else if (isBetweenTags(state)) {
+                endOfRun = indexOf(chars, '<', i);
+            }
+            if (endOfRun > i) {
+                appendRun(state, i, endOfRun);
+                i = endOfRun;
+                if (i == chars.length) break;
+            }
+            state.index = i;
+            processState(chars[i], state, nodes);
+        }
+    }
 
-        for (char currentChar : chars) {
-            processState(currentChar, state, nodes);
+    /**
+     * True if we are reading text between tags, where every character up
+     * to the next less-than sign is simply added to the text
+     */
+    private static boolean isBetweenTags(State state) {
+        return !state.isInsideTag && !state.isInsideComment && !state.isReadingTagName;
+    }
+
+    /**
+     * Inside a script, everything is text until its closing tag.  Returns the
+     * index of the greater-than sign that ends the closing tag, which is where
+     * {@link #determineScriptState(State)} notices the script has ended, or
+     * the end of the input if there is none.
+     */
+    static int endOfScriptText(char[] chars, int start) {
+        int lastStart = chars.length - SCRIPT_END.length;
+        for (int i = start; i <= lastStart; i++) {
+            if (chars[i] == '<' && matchesAt(chars, i, SCRIPT_END)) {
+                return i + SCRIPT_END.length - 1;
+            }
+        }
+        return chars.length;
+    }
+
+    private static int indexOf(char[] chars, char value, int start) {
+        for (int i = start; i < chars.length; i++) {
+            if (chars[i] == value) return i;
+        }
+        return chars.length;
+    }
+
+    /**
+     * True if the characters starting at the index are those of the value
+     */
+    static boolean matchesAt(char[] chars, int index, char[] value) {
+        if (index < 0 || index + value.length > chars.length) return false;
+        for (int i = 0; i < value.length; i++) {
+            if (chars[index + i] != value[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Add a run of characters to the text being built, keeping
+     * track of the location as {@link #recordLocation(char, State)} does
+     */
+    private static void appendRun(State state, int start, int end) {
+        state.stringBuilder.append(state.chars, start, end - start);
+        state.charsRead += end - start;
+        for (int i = start; i < end; i++) {
+            if (state.chars[i] == '\n') {
+                state.lineRow += 1;
+                state.lineColumn = 0;
+            }
+            state.lineColumn += 1;
         }
-        return nodes;
     }
 
     /**
@@ -83,8 +187,6 @@ public final class HtmlParser {
     private void processState(char currentChar, State state, List<HtmlParseNode> nodes) {
         recordLocation(currentChar, state);
 
-        // keep track of previous twelve characters, to check if inside comments and scripts
-        state.previousCharacters.add(currentChar);
         determineCommentState(state);
         determineScriptState(state);
         if (state.isInsideComment) {
@@ -151,7 +253,7 @@ public final class HtmlParser {
             state.tagName = state.stringBuilder.toString();
         } else if (!state.stringBuilder.isEmpty() && state.currentAttributeKey.isBlank() && state.isReadingAttributeKey) {
             state.attributes.put(state.stringBuilder.toString(), "");
-            state.stringBuilder = new StringBuilder();
+            state.stringBuilder.setLength(0);
             state.isReadingAttributeKey = false;
         } else if (!state.currentAttributeKey.isBlank()) {
             // if we were in the midst of reading attribute stuff when we hit the closing bracket...
@@ -161,7 +263,7 @@ public final class HtmlParser {
                 state.attributes.put(state.currentAttributeKey, "");
             }
             state.isInsideAttributeValueQuoted = false;
-            state.stringBuilder = new StringBuilder();
+            state.stringBuilder.setLength(0);
             state.currentAttributeKey = "";
         }
 
@@ -199,7 +301,7 @@ public final class HtmlParser {
         a non-start-tag.
          */
         state.isStartTag = true;
-        state.stringBuilder = new StringBuilder();
+        state.stringBuilder.setLength(0);
     }
 
     private static void addText(State state) {
@@ -208,7 +310,11 @@ public final class HtmlParser {
             String textContent = state.stringBuilder.toString();
 
             // This is where we add characters if we found any between tags.
-            if (! state.parseStack.isEmpty() && ! textContent.isBlank()) {
+            if (state.listener != null) {
+                if (! state.openTags.isEmpty() && ! textContent.isBlank()) {
+                    state.listener.text(textContent);
+                }
+            } else if (! state.parseStack.isEmpty() && ! textContent.isBlank()) {
                 state.parseStack.peek().addToInnerContent(new HtmlParseNode(ParseNodeType.CHARACTERS, TagInfo.EMPTY, new ArrayList<>(), textContent));
             }
         }
@@ -226,9 +332,18 @@ public final class HtmlParser {
         state.isStartTag = false;
         state.isReadingTagName = false;
         state.tagName = "";
-        state.attributes = new HashMap<>();
+        resetAttributes(state);
         state.hasEncounteredTagName = false;
-        state.stringBuilder = new StringBuilder();
+        state.stringBuilder.setLength(0);
+    }
+
+    /**
+     * Most tags have no attributes, so only start a new map if the last one was used
+     */
+    private static void resetAttributes(State state) {
+        if (!state.attributes.isEmpty()) {
+            state.attributes = new HashMap<>();
+        }
     }
 
     /**
@@ -252,16 +367,17 @@ public final class HtmlParser {
         return !tagName.isEmpty() && isInsideTag;
     }
 
-    static final List<Character> startOfComment = List.of('<', '!', '-', '-');
-    static final List<Character> endOfComment = List.of('-', '-', '>');
+    static final char[] COMMENT_START = "<!--".toCharArray();
+    static final char[] COMMENT_END = "-->".toCharArray();
 
     /**
      * Returns whether we are inside an HTML comment,
-     * that is {@code <!-- -->}
+     * that is {@code <!-- -->}.  A comment starts at the last dash
+     * of its opening, and ends just after its closing.
      */
     private void determineCommentState(State state) {
-        boolean atCommentStart = state.previousCharacters.containsAt(startOfComment, 8);
-        boolean atCommentEnd = state.previousCharacters.containsAt(endOfComment, 8);
+        boolean atCommentStart = matchesAt(state.chars, state.index - 3, COMMENT_START);
+        boolean atCommentEnd = matchesAt(state.chars, state.index - 3, COMMENT_END);
         boolean isInsideTag = state.isInsideTag;
         boolean hasEncounteredTagName = state.hasEncounteredTagName;
         if (isInsideTag && !hasEncounteredTagName && atCommentStart) {
@@ -272,14 +388,14 @@ public final class HtmlParser {
         }
     }
 
-    static final List<Character> scriptElement = List.of('<','/','s','c','r','i','p','t','>');
+    static final char[] SCRIPT_END = "</script>".toCharArray();
 
     /**
      * Determines whether we have hit the end of the script block
-     * by looking for the closing script tag.
+     * by looking for the closing script tag, ending at the current character.
      */
     private void determineScriptState(State state) {
-        boolean isScriptFinished = state.previousCharacters.containsAt(scriptElement, 3);
+        boolean isScriptFinished = state.isInsideScript && matchesAt(state.chars, state.index - 8, SCRIPT_END);
         boolean wasInsideScript = state.isInsideScript;
         state.isInsideScript = state.isInsideScript && !isScriptFinished;
         boolean justClosedScriptTag = wasInsideScript && !state.isInsideScript;
@@ -336,7 +452,7 @@ public final class HtmlParser {
                 state.isInsideAttributeValueQuoted = false;
                 state.quoteType = QuoteType.NONE;
                 state.attributes.put(state.currentAttributeKey, state.stringBuilder.toString());
-                state.stringBuilder = new StringBuilder();
+                state.stringBuilder.setLength(0);
                 state.currentAttributeKey = "";
                 state.isReadingAttributeKey = false;
             } else {
@@ -359,7 +475,7 @@ public final class HtmlParser {
                  */
                 state.attributes.put(state.currentAttributeKey, state.stringBuilder.toString());
                 state.isReadingAttributeKey = false;
-                state.stringBuilder = new StringBuilder();
+                state.stringBuilder.setLength(0);
                 state.currentAttributeKey = "";
             } else {
                 // otherwise keep trucking along adding characters
@@ -383,7 +499,7 @@ public final class HtmlParser {
             // if we hit whitespace or an equals sign, we're done reading the key
             state.currentAttributeKey = state.stringBuilder.toString();
             state.isReadingAttributeKey = false;
-            state.stringBuilder = new StringBuilder();
+            state.stringBuilder.setLength(0);
         } else if (currentChar == '/') {
             // a forward-slash cannot be in the attribute key
             state.isReadingAttributeKey = false;
@@ -405,8 +521,8 @@ public final class HtmlParser {
             state.hasEncounteredTagName = true;
             state.isReadingTagName = false;
             state.tagName = state.stringBuilder.toString();
-            state.attributes = new HashMap<>();
-            state.stringBuilder = new StringBuilder();
+            resetAttributes(state);
+            state.stringBuilder.setLength(0);
         } else {
             /*
             Reading the characters of the tag name
@@ -427,14 +543,14 @@ public final class HtmlParser {
             At this point, we're inside the tag, and we've encountered whitespace.
             Seeking the tag name (although we may be inside a closing tag).
              */
-            state.stringBuilder = new StringBuilder();
+            state.stringBuilder.setLength(0);
         } else if (currentChar == '/') {
             /*
             hitting a forward-slash symbol means we're looking
             at the closure of a tag
             */
             state.isStartTag = false;
-            state.stringBuilder = new StringBuilder();
+            state.stringBuilder.setLength(0);
         } else if (Character.isAlphabetic(currentChar)) {
 
             /*
@@ -459,7 +575,9 @@ public final class HtmlParser {
         tagName = TagName.findMatchingTagname(tagNameString);
         if (tagName.equals(TagName.UNRECOGNIZED)) return;
         var tagInfo = new TagInfo(tagName, state.attributes);
-        if (state.isStartTag) {
+        if (state.listener != null) {
+            processTagForListener(state, tagInfo);
+        } else if (state.isStartTag) {
             HtmlParseNode newNode = new HtmlParseNode(ParseNodeType.ELEMENT, tagInfo, new ArrayList<>(), "");
 
             if (! state.parseStack.isEmpty()) {
@@ -476,10 +594,7 @@ public final class HtmlParser {
                 state.parseStack.push(newNode);
             }
 
-            if (tagName.equals(TagName.SCRIPT)) {
-                state.isInsideScript = true;
-                state.stringBuilder = new StringBuilder();
-            }
+            startScriptIfNeeded(state, tagName);
         } else {
             // if we're leaving an end-tag, it means we have a
             // full element with potentially inner content
@@ -499,9 +614,43 @@ public final class HtmlParser {
                 nodes.add(htmlParseNode);
             }
             TagName expectedTagName = htmlParseNode.getTagInfo().getTagName();
-            if (expectedTagName != tagName) {
-                throw new ParsingException("Did not find expected closing-tag type. " + "Expected: " + expectedTagName + " at line " + state.lineRow + " and at the " + state.lineColumn + "th character. " + state.charsRead + " characters read in total.");
+            checkClosingTag(state, expectedTagName, tagName);
+        }
+    }
+
+    /**
+     * Like {@link #processTag(State, List)}, but rather than building
+     * nodes, tell the listener.  Only the names of the open tags are kept,
+     * to check that each closing tag matches.
+     */
+    private static void processTagForListener(State state, TagInfo tagInfo) {
+        TagName tagName = tagInfo.getTagName();
+        if (state.isStartTag) {
+            state.listener.startTag(tagInfo);
+            if (!tagName.isVoidElement) {
+                state.openTags.push(tagName);
+            }
+            startScriptIfNeeded(state, tagName);
+        } else {
+            TagName expectedTagName = state.openTags.poll();
+            if (expectedTagName == null) {
+                throw new ParsingException("No starting tag found. At line " + state.lineRow + " and at the " + state.lineColumn + "th character. " + state.charsRead + " characters read in total.");
             }
+            checkClosingTag(state, expectedTagName, tagName);
+            state.listener.endTag(tagName);
+        }
+    }
+
+    private static void startScriptIfNeeded(State state, TagName tagName) {
+        if (tagName.equals(TagName.SCRIPT)) {
+            state.isInsideScript = true;
+            state.stringBuilder.setLength(0);
+        }
+    }
+
+    private static void checkClosingTag(State state, TagName expectedTagName, TagName tagName) {
+        if (expectedTagName != tagName) {
+            throw new ParsingException("Did not find expected closing-tag type. " + "Expected: " + expectedTagName + " at line " + state.lineRow + " and at the " + state.lineColumn + "th character. " + state.charsRead + " characters read in total.");
         }
     }
 
@@ -526,7 +675,14 @@ public final class HtmlParser {
     static class State {
 
         static State buildNewState() {
-            RingBuffer<Character> previousCharacters = new RingBuffer<>(12, Character.class);
+            return buildNewState(new char[0], null);
+        }
+
+        /**
+         * @param chars the whole of the HTML being read
+         * @param listener if not null, is told of each tag and text rather than building a tree
+         */
+        static State buildNewState(char[] chars, HtmlParseListener listener) {
             int lineColumn1 = 0;
             int lineRow1 = 1;
             boolean isHalfClosedTag1 = false;
@@ -547,7 +703,7 @@ public final class HtmlParser {
             return new State(charsRead1, isInsideTag1, stringBuilder1, parseStack1, hasEncounteredTagName1,
                     isReadingTagName1, isStartTag1, isInsideAttributeValueQuoted1,
                     tagName1, currentAttributeKey1, attributes1, QuoteType.NONE, isReadingAttributeKey1,
-                    isHalfClosedTag1, lineRow1, lineColumn1, previousCharacters, isInsideComment1, isInsideScript1);
+                    isHalfClosedTag1, lineRow1, lineColumn1, chars, isInsideComment1, isInsideScript1, listener);
         }
 
         /**
@@ -627,10 +783,16 @@ public final class HtmlParser {
         int lineColumn;
 
         /**
-         * This is used to check for comments and script tags, like:
-         *     {@code <!-- -->} and {@code <script>}
+         * The whole of the HTML being read.  Used to check for comments and
+         * script tags, like {@code <!-- -->} and {@code </script>}, by
+         * looking at the characters just before the current one.
          */
-        final RingBuffer<Character> previousCharacters;
+        final char[] chars;
+
+        /**
+         * The index in {@link #chars} of the character being processed
+         */
+        int index;
 
         /**
          * Indicates whether we are inside a comment
@@ -639,6 +801,17 @@ public final class HtmlParser {
 
         boolean isInsideScript;
 
+        /**
+         * If not null, is told of each tag and text, and no tree is built
+         */
+        final HtmlParseListener listener;
+
+        /**
+         * When telling a listener, the names of the elements we are inside,
+         * innermost first, to check closing tags against
+         */
+        final Deque<TagName> openTags;
+
         /**
          * Holds the state so we can remember where we are as we examine the HTML
          * a character at a time.
@@ -648,7 +821,8 @@ public final class HtmlParser {
                      boolean isStartTag, boolean isInsideAttributeValueQuoted, String tagName,
                      String currentAttributeKey, Map<String, String> attributes, QuoteType quoteType,
                      boolean isReadingAttributeKey, boolean isHalfClosedTag, int lineRow, int lineColumn,
-                     RingBuffer<Character> previousCharacters, boolean isInsideComment, boolean isInsideScript) {
+                     char[] chars, boolean isInsideComment, boolean isInsideScript,
+                     HtmlParseListener listener) {
 
             this.charsRead = charsRead;
             this.isInsideTag = isInsideTag;
@@ -666,9 +840,11 @@ public final class HtmlParser {
             this.isHalfClosedTag = isHalfClosedTag;
             this.lineRow = lineRow;
             this.lineColumn = lineColumn;
-            this.previousCharacters = previousCharacters;
+            this.chars = chars;
             this.isInsideComment = isInsideComment;
             this.isInsideScript = isInsideScript;
+            this.listener = listener;
+            this.openTags = new ArrayDeque<>();
         }
     }
 
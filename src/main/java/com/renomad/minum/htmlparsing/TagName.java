@@ -2,6 +2,7 @@ package com.renomad.minum.htmlparsing;
 
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Possible tag names per the W3C HTML spec.
@@ -67,13 +68,14 @@ public enum TagName {
         this.isVoidElement = isVoidElement;
     }
 
+    /**
+     * Each tag name, by its name in capitals, so finding one is a single lookup
+     */
+    private static final Map<String, TagName> tagNamesByName = Arrays.stream(TagName.values())
+            .collect(Collectors.toUnmodifiableMap(TagName::toString, x -> x));
+
     public static TagName findMatchingTagname(String tagNameString) {
         String capitalizedTagNameString = tagNameString.toUpperCase(Locale.ROOT);
-        Optional<TagName> first = Arrays.stream(TagName.values()).filter(x -> x.toString().equals(capitalizedTagNameString)).findFirst();
-        if (first.isEmpty()) {
-            return UNRECOGNIZED;
-        } else {
-            return first.get();
-        }
+        return tagNamesByName.getOrDefault(capitalizedTagNameString, UNRECOGNIZED);
     }
 }
@@ -0,0 +1,484 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.queue.AbstractActionQueue;
+import com.renomad.minum.queue.QueueException;
+import com.renomad.minum.state.Constants;
+import com.renomad.minum.utils.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.renomad.minum.logging.Logger.showWhiteSpace;
+
+/**
+ * A faster alternative to {@link LoggingActionQueue}, used by {@link Logger}
+ * when LOG_RING_BUFFER_SIZE is set in the configuration.
+ * <p>
+ *     Messages are put in a fixed-size {@link LogRingBuffer}, along with the
+ *     time they were logged as a plain number.  A single thread takes them
+ *     out in batches, formats the timestamps, and writes each batch to the
+ *     output in one call.  That is much less work per message than wrapping
+ *     each in a closure, queueing it, and printing it separately.
+ * </p>
+ * <p>
+ *     Because the buffer is bounded, a flood of messages cannot exhaust
+ *     memory.  What happens when it is full depends on the {@link LogOverflowPolicy}.
+ * </p>
+ * <p>
+ *     Output goes to standard out, or, if LOG_FILE_DIRECTORY is set, to
+ *     a {@link RollingFileAppender}.  Particular levels may be routed to their own
+ *     files with LOG_FILE_ROUTES.
+ * </p>
+ */
+final class AsyncLogWriter implements AbstractActionQueue {
+
+    /**
+     * Once this many characters are waiting, they are written
+     * out even if more messages are available
+     */
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+
+    /**
+     * How long the writer thread rests when there is nothing to write.
+     * Loggers wake it sooner when they add a message.
+     */
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    /**
+     * How long a logger waits between tries when the buffer is full
+     */
+    private static final long FULL_PARK_NANOS = 100_000L;
+
+    /**
+     * Under {@link LogOverflowPolicy#SAMPLE}, one in this many
+     * low-priority messages is kept once the buffer is getting full
+     */
+    static final int SAMPLE_RATE = 16;
+
+    /**
+     * The size of the buffer if only LOG_FILE_DIRECTORY is configured
+     */
+    static final int DEFAULT_CAPACITY = 8192;
+
+    /**
+     * An output, with the text waiting to be written to it
+     */
+    private static final class Target {
+        final OutputStream output;
+        final StringBuilder pendingText;
+
+        Target(OutputStream output) {
+            this.output = output;
+            this.pendingText = new StringBuilder();
+        }
+    }
+
+    private final String name;
+    private final ExecutorService executorService;
+    private final LogRingBuffer<LogRingBuffer.Slot> ringBuffer;
+    private final LogOverflowPolicy overflowPolicy;
+    private final StructuredLogFormat structuredLogFormat;
+    private final int sampleThreshold;
+    private final Map<LoggingLevel, Boolean> enabledLogLevels;
+    private final LongAdder droppedCount;
+    private final AtomicLong sampleCounter;
+
+    // these are only used by the writer thread
+    private final List<Target> targets;
+    private final Target[] targetsByLevel;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer byteBuffer;
+    private long droppedReported;
+    private long lastTimestampMillis = Long.MIN_VALUE;
+    private String lastTimestampText = "";
+
+    private volatile Thread queueThread;
+    private volatile boolean writerIsParked;
+    /**
+     * Set as volatile so that multiple threads may see the update
+     * as soon as it occurs.
+     */
+    private volatile boolean stop = false;
+    private volatile boolean isStoppedStatus = false;
+
+    AsyncLogWriter(String name, ExecutorService executorService, Constants constants) {
+        this(name, executorService, constants, buildDefaultOutput(constants, executorService), buildRoutedOutputs(constants, executorService));
+    }
+
+    AsyncLogWriter(String name, ExecutorService executorService, Constants constants, OutputStream output) {
+        this(name, executorService, constants, output, Map.of());
+    }
+
+    /**
+     * @param output where messages are written, unless their level is routed elsewhere
+     * @param routedOutputs outputs for particular log levels, like a separate file for audit logs
+     */
+    AsyncLogWriter(String name, ExecutorService executorService, Constants constants,
+                   OutputStream output, Map<LoggingLevel, OutputStream> routedOutputs) {
+        this.name = name;
+        this.executorService = executorService;
+        this.ringBuffer = LogRingBuffer.ofLogMessages(constants.logRingBufferSize > 0 ? constants.logRingBufferSize : DEFAULT_CAPACITY);
+        this.overflowPolicy = constants.logOverflowPolicy;
+        this.structuredLogFormat = constants.logStructuredFormat;
+        this.sampleThreshold = ringBuffer.capacity() / 4 * 3;
+        this.enabledLogLevels = Logger.convertToMap(constants.logLevels);
+        this.droppedCount = new LongAdder();
+        this.sampleCounter = new AtomicLong();
+        Target defaultTarget = new Target(output);
+        this.targets = new ArrayList<>(List.of(defaultTarget));
+        this.targetsByLevel = new Target[LoggingLevel.values().length];
+        Arrays.fill(targetsByLevel, defaultTarget);
+        Map<OutputStream, Target> targetByOutput = new IdentityHashMap<>();
+        targetByOutput.put(output, defaultTarget);
+        for (var route : routedOutputs.entrySet()) {
+            Target target = targetByOutput.computeIfAbsent(route.getValue(), x -> {
+                Target newTarget = new Target(x);
+                targets.add(newTarget);
+                return newTarget;
+            });
+            targetsByLevel[route.getKey().ordinal()] = target;
+        }
+        this.encoder = StandardCharsets.UTF_8.newEncoder();
+        this.byteBuffer = ByteBuffer.allocate(FLUSH_THRESHOLD * 2);
+    }
+
+    /**
+     * Standard out, or if LOG_FILE_DIRECTORY is set, a rolling file named minum.log
+     */
+    static OutputStream buildDefaultOutput(Constants constants, ExecutorService executorService) {
+        if (constants.logFileDirectory.isBlank()) {
+            return System.out;
+        }
+        return buildFileOutput(constants, executorService, "minum");
+    }
+
+    /**
+     * A rolling file for each of the log levels routed by LOG_FILE_ROUTES.  Levels
+     * routed to the same name share a file.
+     */
+    static Map<LoggingLevel, OutputStream> buildRoutedOutputs(Constants constants, ExecutorService executorService) {
+        if (constants.logFileDirectory.isBlank()) {
+            return Map.of();
+        }
+        Map<String, OutputStream> outputsByName = new HashMap<>();
+        Map<LoggingLevel, OutputStream> result = new EnumMap<>(LoggingLevel.class);
+        for (var route : constants.logFileRoutes.entrySet()) {
+            if (route.getValue().equals("minum")) continue;
+            result.put(route.getKey(), outputsByName.computeIfAbsent(route.getValue(), x -> buildFileOutput(constants, executorService, x)));
+        }
+        return result;
+    }
+
+    private static OutputStream buildFileOutput(Constants constants, ExecutorService executorService, String baseName) {
+        try {
+            return new RollingFileAppender(
+                    Path.of(constants.logFileDirectory),
+                    baseName,
+                    constants.logFileMaxBytes,
+                    constants.logFileRotationMinutes * 60 * 1000,
+                    constants.logFileMaxSegments,
+                    executorService);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Unable to open log file " + baseName + " in " + constants.logFileDirectory, ex);
+        }
+    }
+
+    @Override
+    public AsyncLogWriter initialize() {
+        executorService.submit(this::writeLoop);
+        return this;
+    }
+
+    private void writeLoop() {
+        Thread.currentThread().setName(name);
+        this.queueThread = Thread.currentThread();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (ringBuffer.drain(this::handle, Integer.MAX_VALUE) > 0) {
+                    continue;
+                }
+                reportDropped();
+                flush();
+                writerIsParked = true;
+                if (ringBuffer.size() == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                writerIsParked = false;
+            }
+        } finally {
+            // being interrupted is how we are shut down.  Write whatever is left.
+            ringBuffer.drain(this::handle, Integer.MAX_VALUE);
+            reportDropped();
+            flush();
+            closeFiles();
+            Logger.logHelper(() -> String.format("%s AsyncLogWriter for %s is stopped.%n", TimeUtils.getTimestampIsoInstant(), name), LoggingLevel.DEBUG, enabledLogLevels, null);
+        }
+    }
+
+    /**
+     * Add a message to be written.  The time is recorded now, but
+     * formatted later by the writer thread.
+     */
+    void log(LoggingLevel level, String message) {
+        publish(System.currentTimeMillis(), level, message, null);
+    }
+
+    /**
+     * Add a structured event to be written.  It is rendered, in the
+     * format set by LOG_STRUCTURED_FORMAT, by the writer thread.
+     */
+    void logEvent(LogEvent event) {
+        publish(event.getTimestampMillis(), event.getLevel(), null, event);
+    }
+
+    private void publish(long timestampMillis, LoggingLevel level, String message, LogEvent event) {
+        if (stop) {
+            printDirectly(timestampMillis, level, message, event);
+            return;
+        }
+        boolean mayDiscard = level != LoggingLevel.WARN && level != LoggingLevel.ASYNC_ERROR;
+        if (overflowPolicy == LogOverflowPolicy.SAMPLE &&
+                (level == LoggingLevel.TRACE || level == LoggingLevel.DEBUG) &&
+                ringBuffer.size() >= sampleThreshold &&
+                sampleCounter.incrementAndGet() % SAMPLE_RATE != 0) {
+            discard(event);
+            return;
+        }
+        if (LogRingBuffer.offer(ringBuffer, timestampMillis, level, message, null, event)) {
+            wakeWriter();
+        } else if (!mayDiscard || overflowPolicy == LogOverflowPolicy.BLOCK) {
+            offerBlocking(timestampMillis, level, message, null, event);
+        } else {
+            discard(event);
+        }
+    }
+
+    private void discard(LogEvent event) {
+        droppedCount.increment();
+        if (event != null) event.release();
+    }
+
+    /**
+     * Adds an action to be run by the writer thread, in order
+     * with the messages around it.  Actions are never discarded.
+     * @throws QueueException if the writer has been stopped
+     */
+    @Override
+    public void enqueue(String description, ThrowingRunnable action) {
+        if (stop) {
+            throw new QueueException(String.format("failed to enqueue %s - AsyncLogWriter \"%s\" is stopped", description, this.name));
+        }
+        offerBlocking(System.currentTimeMillis(), null, description, action, null);
+    }
+
+    private void offerBlocking(long timestampMillis, LoggingLevel level, String message, ThrowingRunnable action, LogEvent event) {
+        while (!LogRingBuffer.offer(ringBuffer, timestampMillis, level, message, action, event)) {
+            if (isStoppedStatus || executorService.isShutdown()) {
+                // nobody will empty the buffer, so don't wait for it
+                if (action != null) {
+                    throw new QueueException(String.format("failed to enqueue %s - AsyncLogWriter \"%s\" is stopped", message, this.name));
+                }
+                printDirectly(timestampMillis, level, message, event);
+                return;
+            }
+            wakeWriter();
+            LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+        wakeWriter();
+    }
+
+    private void wakeWriter() {
+        if (writerIsParked) {
+            LockSupport.unpark(queueThread);
+        }
+    }
+
+    private void handle(LogRingBuffer.Slot slot) {
+        if (slot.action != null) {
+            // anything already formatted must come out before what this action prints
+            flush();
+            try {
+                slot.action.run();
+            } catch (Throwable e) {
+                System.out.println(TimeUtils.getTimestampIsoInstant() + " LOGGER_ERROR: " + showWhiteSpace(StacktraceUtils.stackTraceToString(e)));
+            }
+        } else if (slot.event != null) {
+            Target target = targetsByLevel[slot.level.ordinal()];
+            slot.event.renderTo(target.pendingText, structuredLogFormat, formatTimestamp(slot.timestampMillis));
+            target.pendingText.append(System.lineSeparator());
+            slot.event.release();
+            if (target.pendingText.length() >= FLUSH_THRESHOLD) {
+                flush(target);
+            }
+        } else {
+            Target target = appendLine(slot.timestampMillis, slot.level, slot.message);
+            if (target.pendingText.length() >= FLUSH_THRESHOLD) {
+                flush(target);
+            }
+        }
+    }
+
+    private Target appendLine(long timestampMillis, LoggingLevel level, String message) {
+        Target target = targetsByLevel[level.ordinal()];
+        target.pendingText.append(formatTimestamp(timestampMillis)).append('\t')
+                .append(level.name()).append('\t')
+                .append(showWhiteSpace(message)).append(System.lineSeparator());
+        return target;
+    }
+
+    /**
+     * Consecutive messages usually share a timestamp, so the last one formatted is kept
+     */
+    private String formatTimestamp(long timestampMillis) {
+        if (timestampMillis != lastTimestampMillis) {
+            lastTimestampMillis = timestampMillis;
+            lastTimestampText = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(timestampMillis));
+        }
+        return lastTimestampText;
+    }
+
+    private void reportDropped() {
+        long dropped = droppedCount.sum();
+        if (dropped > droppedReported) {
+            long newlyDropped = dropped - droppedReported;
+            droppedReported = dropped;
+            appendLine(System.currentTimeMillis(), LoggingLevel.WARN,
+                    String.format("%d log messages were discarded because the log buffer was full. Overflow policy: %s", newlyDropped, overflowPolicy));
+        }
+    }
+
+    private void flush() {
+        for (Target target : targets) {
+            flush(target);
+        }
+    }
+
+    /**
+     * Write the pending text to the output in as few calls as possible
+     */
+    private void flush(Target target) {
+        StringBuilder pendingText = target.pendingText;
+        if (pendingText.isEmpty()) return;
+        OutputStream output = target.output;
+        try {
+            CharBuffer chars = CharBuffer.wrap(pendingText);
+            encoder.reset();
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, byteBuffer, true);
+                writeBytes(output);
+            } while (result.isOverflow());
+            encoder.flush(byteBuffer);
+            writeBytes(output);
+            output.flush();
+        } catch (IOException e) {
+            System.out.println(TimeUtils.getTimestampIsoInstant() + " LOGGER_ERROR: " + showWhiteSpace(StacktraceUtils.stackTraceToString(e)));
+        } finally {
+            pendingText.setLength(0);
+            byteBuffer.clear();
+        }
+    }
+
+    private void closeFiles() {
+        for (Target target : targets) {
+            if (target.output instanceof RollingFileAppender) {
+                try {
+                    target.output.close();
+                } catch (IOException e) {
+                    System.out.println(TimeUtils.getTimestampIsoInstant() + " LOGGER_ERROR: " + showWhiteSpace(StacktraceUtils.stackTraceToString(e)));
+                }
+            }
+        }
+    }
+
+    private void writeBytes(OutputStream output) throws IOException {
+        byteBuffer.flip();
+        if (byteBuffer.hasRemaining()) {
+            output.write(byteBuffer.array(), byteBuffer.position(), byteBuffer.remaining());
+        }
+        byteBuffer.clear();
+    }
+
+    private void printDirectly(long timestampMillis, LoggingLevel level, String message, LogEvent event) {
+        if (event != null) {
+            System.out.println(event.render(structuredLogFormat));
+            event.release();
+            return;
+        }
+        String timestamp = DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(timestampMillis));
+        System.out.printf("%s\t%s\t%s%n", timestamp, level.name(), showWhiteSpace(message));
+    }
+
+    /**
+     * The count of messages discarded because the buffer was
+     * full, as allowed by the {@link LogOverflowPolicy}
+     */
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Stops the writer, after giving it time to write what remains
+     * @param count how many loops to wait before we crash it closed
+     * @param sleepTime how long to wait in milliseconds between loops
+     */
+    @Override
+    public void stop(int count, long sleepTime) {
+        Logger.logHelper(() -> String.format("%s Stopping queue %s%n", TimeUtils.getTimestampIsoInstant(), this), LoggingLevel.DEBUG, enabledLogLevels, this);
+        stop = true;
+        for (int i = 0; i < count; i++) {
+            if (ringBuffer.size() == 0) break;
+            wakeWriter();
+            MyThread.sleep(sleepTime);
+        }
+        int remaining = ringBuffer.size();
+        isStoppedStatus = true;
+        if (remaining > 0) {
+            Logger.logHelper(() -> String.format("%s Queue %s has %d elements left but we're done waiting.", TimeUtils.getTimestampIsoInstant(), this, remaining), LoggingLevel.DEBUG, enabledLogLevels, this);
+        }
+    }
+
+    @Override
+    public void stop() {
+        stop(5, 20);
+    }
+
+    Thread getQueueThread() {
+        return queueThread;
+    }
+
+    /**
+     * The entries of this writer are held in a ring buffer rather than
+     * a queue of actions, so this is always empty.  See {@link #getDroppedCount()}
+     * and {@link LogRingBuffer#size()} for its state.
+     */
+    @Override
+    public LinkedBlockingQueue<RunnableWithDescription> getQueue() {
+        return new LinkedBlockingQueue<>();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    @Override
+    public boolean isStopped() {
+        return isStoppedStatus;
+    }
+}
@@ -68,4 +68,41 @@ public interface ILogger {
      * If the boolean value is true, that level of logging is enabled.
      */
     Map<LoggingLevel, Boolean> getActiveLogLevels();
+
+    /**
+     * Start a structured log entry, made of an event name and typed
+     * fields rather than a sentence of text.  See {@link LogEvent}
+     * <p>
+     *     If the level is not enabled, this returns an event which
+     *     ignores its fields and is never written.
+     * </p>
+     * @param eventName a short name for what happened, like "request_processed"
+     */
+    default LogEvent event(LoggingLevel level, String eventName) {
+        if (!Boolean.TRUE.equals(getActiveLogLevels().get(level))) {
+            return LogEvent.DISABLED;
+        }
+        return LogEvent.obtain(this, level, eventName);
+    }
+
+    /**
+     * Write a structured log entry. Called by {@link LogEvent#log()}.
+     * <p>
+     *     By default, the event is rendered as logfmt and logged as a
+     *     message of its level.  {@link Logger} instead renders it on
+     *     the logging thread, in the format set by LOG_STRUCTURED_FORMAT.
+     * </p>
+     */
+    default void logEvent(LogEvent event) {
+        LoggingLevel level = event.getLevel();
+        String line = event.render(StructuredLogFormat.LOGFMT);
+        event.release();
+        switch (level) {
+            case DEBUG -> logDebug(() -> line);
+            case TRACE -> logTrace(() -> line);
+            case AUDIT -> logAudit(() -> line);
+            case WARN -> logWarn(() -> line);
+            case ASYNC_ERROR -> logAsyncError(() -> line);
+        }
+    }
 }
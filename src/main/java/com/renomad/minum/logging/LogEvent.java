@@ -0,0 +1,278 @@
+package com.renomad.minum.logging;
+
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A log entry made of an event name and typed fields, rather
+ * than a sentence of text, so that it can be read by log tools without
+ * needing to parse it.  Obtain one from {@link ILogger#event(LoggingLevel, String)}:
+ * <pre>
+ * {@code
+ * logger.event(LoggingLevel.TRACE, "request_processed")
+ *         .add("request_line", requestLine)
+ *         .add("status", 200)
+ *         .add("millis", elapsedMillis)
+ *         .log();
+ * }
+ * </pre>
+ * <p>
+ *     Numbers are kept as primitives and nothing is formatted by the
+ *     thread that is logging - the event is rendered to text as JSON or
+ *     logfmt (see {@link StructuredLogFormat}) by the logging thread, and
+ *     then reused.  If the level is not enabled, the event is a shared
+ *     instance which ignores everything, so there is almost no cost.
+ * </p>
+ * <p>
+ *     An event must not be used again after {@link #log()} is called.
+ * </p>
+ */
+public final class LogEvent {
+
+    /**
+     * Handed out when the requested level is not enabled.  Ignores all fields.
+     */
+    static final LogEvent DISABLED = new LogEvent();
+
+    /**
+     * The most events kept for reuse.  More than this are left for the
+     * garbage collector.
+     */
+    private static final int MAX_POOLED = 256;
+    private static final ConcurrentLinkedQueue<LogEvent> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooledCount = new AtomicInteger();
+
+    private ILogger logger;
+    private LoggingLevel level;
+    private String name;
+    private long timestampMillis;
+
+    private String[] keys;
+    private long[] numbers;
+    private String[] strings;
+    private boolean[] isNumber;
+    private int fieldCount;
+
+    private LogEvent() {
+        this.keys = new String[8];
+        this.numbers = new long[8];
+        this.strings = new String[8];
+        this.isNumber = new boolean[8];
+    }
+
+    /**
+     * Get an event ready for fields, reusing a released one if available
+     */
+    static LogEvent obtain(ILogger logger, LoggingLevel level, String name) {
+        LogEvent event = pool.poll();
+        if (event == null) {
+            event = new LogEvent();
+        } else {
+            pooledCount.decrementAndGet();
+        }
+        event.logger = logger;
+        event.level = level;
+        event.name = name;
+        event.timestampMillis = 0;
+        event.fieldCount = 0;
+        return event;
+    }
+
+    /**
+     * Clear this event and make it available for reuse.  Called by the
+     * logger once the event is written.
+     */
+    void release() {
+        if (this == DISABLED) return;
+        Arrays.fill(strings, 0, fieldCount, null);
+        Arrays.fill(keys, 0, fieldCount, null);
+        fieldCount = 0;
+        logger = null;
+        name = null;
+        level = null;
+        if (pooledCount.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(this);
+        } else {
+            pooledCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Add a number field
+     */
+    public LogEvent add(String key, long value) {
+        if (this == DISABLED) return this;
+        int index = nextIndex();
+        keys[index] = key;
+        numbers[index] = value;
+        isNumber[index] = true;
+        return this;
+    }
+
+    /**
+     * Add a number field
+     */
+    public LogEvent add(String key, int value) {
+        return add(key, (long) value);
+    }
+
+    /**
+     * Add a text field
+     */
+    public LogEvent add(String key, String value) {
+        if (this == DISABLED) return this;
+        int index = nextIndex();
+        keys[index] = key;
+        strings[index] = value;
+        isNumber[index] = false;
+        return this;
+    }
+
+    private int nextIndex() {
+        if (fieldCount == keys.length) {
+            int newLength = keys.length * 2;
+            keys = Arrays.copyOf(keys, newLength);
+            numbers = Arrays.copyOf(numbers, newLength);
+            strings = Arrays.copyOf(strings, newLength);
+            isNumber = Arrays.copyOf(isNumber, newLength);
+        }
+        return fieldCount++;
+    }
+
+    /**
+     * Record the time and send this event to the logger.  The event
+     * must not be used after this.
+     */
+    public void log() {
+        if (this == DISABLED) return;
+        timestampMillis = System.currentTimeMillis();
+        logger.logEvent(this);
+    }
+
+    public LoggingLevel getLevel() {
+        return level;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The time {@link #log()} was called, in milliseconds since the epoch
+     */
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    /**
+     * Render this event as a single line of text, without a line ending
+     */
+    public String render(StructuredLogFormat format) {
+        StringBuilder sb = new StringBuilder(64 + fieldCount * 24);
+        renderTo(sb, format, DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(timestampMillis)));
+        return sb.toString();
+    }
+
+    /**
+     * Append this event, as a single line without a line ending, to the builder
+     * @param timestamp the formatted time of the event, which the caller may
+     *                  have cached from a previous message
+     */
+    void renderTo(StringBuilder sb, StructuredLogFormat format, String timestamp) {
+        if (format == StructuredLogFormat.JSON) {
+            sb.append("{\"time\":");
+            appendJsonString(sb, timestamp);
+            sb.append(",\"level\":\"").append(level == null ? "" : level.name()).append('"');
+            sb.append(",\"event\":");
+            appendJsonString(sb, name);
+            for (int i = 0; i < fieldCount; i++) {
+                sb.append(',');
+                appendJsonString(sb, keys[i]);
+                sb.append(':');
+                if (isNumber[i]) {
+                    sb.append(numbers[i]);
+                } else {
+                    appendJsonString(sb, strings[i]);
+                }
+            }
+            sb.append('}');
+        } else {
+            sb.append("time=").append(timestamp);
+            sb.append(" level=").append(level == null ? "" : level.name());
+            sb.append(" event=");
+            appendLogfmtValue(sb, name);
+            for (int i = 0; i < fieldCount; i++) {
+                sb.append(' ').append(keys[i]).append('=');
+                if (isNumber[i]) {
+                    sb.append(numbers[i]);
+                } else {
+                    appendLogfmtValue(sb, strings[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Append the value as a JSON string, quoted and escaped, or null
+     */
+    public static void appendJsonString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        appendEscaped(sb, value);
+        sb.append('"');
+    }
+
+    /**
+     * Values are written bare unless they are empty or have a character
+     * which would confuse a reader, in which case they are quoted
+     */
+    static void appendLogfmtValue(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        boolean needsQuotes = value.isEmpty();
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c <= ' ' || c == '=' || c == '"' || c == '\\';
+        }
+        if (needsQuotes) {
+            sb.append('"');
+            appendEscaped(sb, value);
+            sb.append('"');
+        } else {
+            sb.append(value);
+        }
+    }
+
+    private static void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return render(StructuredLogFormat.LOGFMT);
+    }
+}
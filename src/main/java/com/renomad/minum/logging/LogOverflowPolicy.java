@@ -0,0 +1,34 @@
+package com.renomad.minum.logging;
+
+/**
+ * What the logger should do when its buffer of messages is full,
+ * meaning messages are being logged faster than they can be written.
+ * <p>
+ *     Only applies when the ring buffer logger is enabled, by setting
+ *     LOG_RING_BUFFER_SIZE in the configuration.  No matter the policy,
+ *     {@link LoggingLevel#WARN} and {@link LoggingLevel#ASYNC_ERROR} messages are
+ *     never discarded.
+ * </p>
+ */
+public enum LogOverflowPolicy {
+
+    /**
+     * The thread that is logging waits until there is room.  Nothing
+     * is lost, but a flood of logging will slow the program down.
+     */
+    BLOCK,
+
+    /**
+     * Messages which do not fit are discarded and counted.  The count
+     * is periodically written to the log as a warning.
+     */
+    DROP,
+
+    /**
+     * Once the buffer is three-quarters full, only one in every sixteen
+     * {@link LoggingLevel#TRACE} and {@link LoggingLevel#DEBUG} messages is kept,
+     * and those discarded are counted. If the buffer fills entirely, messages
+     * are discarded as with {@link #DROP}.
+     */
+    SAMPLE
+}
@@ -0,0 +1,191 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.utils.ThrowingRunnable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A bounded buffer of log entries, which many threads may add to
+ * and one thread takes from.
+ * <p>
+ *     All the entries are allocated up front and reused, so logging a
+ *     message does not allocate anything here.  Each slot has a sequence
+ *     number which tells whether it is ready to be written by a producer
+ *     or read by the consumer, which lets producers claim slots with a single
+ *     compare-and-set and no locks.
+ * </p>
+ * <p>
+ *     The slots may be of any mutable type.  A producer claims a position with
+ *     {@link #claim()}, fills in the slot at {@link #slotAt(long)}, and hands it to the
+ *     consumer with {@link #publish(long)}.  This buffer holds the messages of the
+ *     {@link AsyncLogWriter}, in {@link Slot}, and the entries of the web access log.
+ * </p>
+ * @param <S> the type of the reusable slots
+ */
+public final class LogRingBuffer<S> {
+
+    /**
+     * A reusable holder for one log entry.  Either a message or a
+     * structured event, with its level and timestamp, or an action to run
+     * in order with the messages.
+     */
+    static final class Slot {
+        long timestampMillis;
+        LoggingLevel level;
+        String message;
+        ThrowingRunnable action;
+        LogEvent event;
+
+        void clear() {
+            level = null;
+            message = null;
+            action = null;
+            event = null;
+        }
+    }
+
+    private final Object[] slots;
+    private final Consumer<S> clearSlot;
+
+    /**
+     * For the slot at each index: if equal to a producer's position, the slot
+     * is free to be written.  If one more than the consumer's position, the
+     * slot holds an entry ready to be read.
+     */
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    /**
+     * The next position a producer will claim
+     */
+    private final AtomicLong tail;
+
+    /**
+     * The next position the consumer will read.  Only changed by the consumer.
+     */
+    private volatile long head;
+
+    /**
+     * @param requestedCapacity rounded up to the next power of two
+     * @param newSlot builds each of the slots, once, up front
+     * @param clearSlot run on each slot after the consumer has handled it, to
+     *                  drop references it holds
+     */
+    public LogRingBuffer(int requestedCapacity, Supplier<S> newSlot, Consumer<S> clearSlot) {
+        int capacity = requestedCapacity <= 2 ? 2 : Integer.highestOneBit(Math.min(requestedCapacity, 1 << 30) - 1) << 1;
+        this.slots = new Object[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = newSlot.get();
+            sequences.set(i, i);
+        }
+        this.clearSlot = clearSlot;
+        this.mask = capacity - 1;
+        this.tail = new AtomicLong(0);
+        this.head = 0;
+    }
+
+    /**
+     * A buffer of log messages, as used by the {@link AsyncLogWriter}
+     */
+    static LogRingBuffer<Slot> ofLogMessages(int requestedCapacity) {
+        return new LogRingBuffer<>(requestedCapacity, Slot::new, Slot::clear);
+    }
+
+    /**
+     * Claim a position to write to, if there is room.  Safe to call from
+     * many threads.  The slot at that position must then be filled in and
+     * published with {@link #publish(long)}.
+     * @return the position claimed, or -1 if the buffer is full
+     */
+    public long claim() {
+        while (true) {
+            long position = tail.get();
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (difference < 0) {
+                return -1;
+            }
+            // otherwise, another producer claimed this position first - try again
+        }
+    }
+
+    /**
+     * The slot at a position given by {@link #claim()}, to be filled in
+     */
+    @SuppressWarnings("unchecked")
+    public S slotAt(long position) {
+        return (S) slots[(int) (position & mask)];
+    }
+
+    /**
+     * Hand the slot at a claimed position to the consumer
+     */
+    public void publish(long position) {
+        sequences.set((int) (position & mask), position + 1);
+    }
+
+    /**
+     * Add a log message, if there is room.  Safe to call from many threads.
+     * @return false if the buffer is full
+     */
+    static boolean offer(LogRingBuffer<Slot> ringBuffer, long timestampMillis, LoggingLevel level, String message, ThrowingRunnable action, LogEvent event) {
+        long position = ringBuffer.claim();
+        if (position < 0) {
+            return false;
+        }
+        Slot slot = ringBuffer.slotAt(position);
+        slot.timestampMillis = timestampMillis;
+        slot.level = level;
+        slot.message = message;
+        slot.action = action;
+        slot.event = event;
+        ringBuffer.publish(position);
+        return true;
+    }
+
+    /**
+     * Hand up to max entries to the handler, in order, then free their slots.
+     * The handler must not keep a reference to the slot.  Only one
+     * thread may call this.
+     * @return the count of entries handled
+     */
+    public int drain(Consumer<S> handler, int max) {
+        int count = 0;
+        long position = head;
+        while (count < max) {
+            int index = (int) (position & mask);
+            if (sequences.get(index) != position + 1) break;
+            @SuppressWarnings("unchecked")
+            S slot = (S) slots[index];
+            try {
+                handler.accept(slot);
+            } finally {
+                clearSlot.accept(slot);
+                sequences.set(index, position + mask + 1);
+                position++;
+                head = position;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The approximate count of entries waiting
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
@@ -17,13 +17,15 @@ public class Logger implements ILogger {
     /**
      * The {@link LoggingActionQueue} that handles all
      * our messages thread-safely by taking
-     * them off the top of a queue.
+     * them off the top of a queue.  If LOG_RING_BUFFER_SIZE or
+     * LOG_FILE_DIRECTORY is configured, this is an {@link AsyncLogWriter} instead.
      */
     protected final AbstractActionQueue loggingActionQueue;
     private final Constants constants;
     private final ExecutorService executorService;
     private final String name;
     private final Map<LoggingLevel, Boolean> activeLogLevels;
+    private final StructuredLogFormat structuredLogFormat;
 
     /**
      * Constructor
@@ -45,12 +47,15 @@ public class Logger implements ILogger {
         // from this one, and can construct it with the logger instance, making it possible
         // to inject the running action queue.  This enables us to continue using the same
         // action queue amongst descendant classes.
-        if (loggingActionQueue == null) {
+        if (loggingActionQueue == null && (constants.logRingBufferSize > 0 || !constants.logFileDirectory.isBlank())) {
+            this.loggingActionQueue = new AsyncLogWriter("loggerPrinter" + name, executorService, constants).initialize();
+        } else if (loggingActionQueue == null) {
             this.loggingActionQueue = new LoggingActionQueue("loggerPrinter" + name, executorService, constants).initialize();
         } else {
             this.loggingActionQueue = loggingActionQueue;
         }
         activeLogLevels = convertToMap(constants.logLevels);
+        structuredLogFormat = constants.logStructuredFormat;
     }
 
     /**
@@ -109,6 +114,25 @@ public class Logger implements ILogger {
         logHelper(msg, LoggingLevel.ASYNC_ERROR, activeLogLevels, loggingActionQueue);
     }
 
+    /**
+     * Writes the event on the logging thread, rendered in the
+     * format set by LOG_STRUCTURED_FORMAT
+     */
+    @Override
+    public void logEvent(LogEvent event) {
+        if (loggingActionQueue == null || loggingActionQueue.isStopped()) {
+            System.out.println(event.render(structuredLogFormat));
+            event.release();
+        } else if (loggingActionQueue instanceof AsyncLogWriter asyncLogWriter) {
+            asyncLogWriter.logEvent(event);
+        } else {
+            loggingActionQueue.enqueue("Logger#logEvent(" + event.getName() + ")", () -> {
+                System.out.println(event.render(structuredLogFormat));
+                event.release();
+            });
+        }
+    }
+
     @Override
     public Map<LoggingLevel, Boolean> getActiveLogLevels() {
         return activeLogLevels;
@@ -134,6 +158,8 @@ public class Logger implements ILogger {
             if (loggingActionQueue == null || loggingActionQueue.isStopped()) {
                 Object[] args = new Object[]{getTimestampIsoInstant(), loggingLevel.name(), showWhiteSpace(finalReceivedMessage)};
                 System.out.printf("%s\t%s\t%s%n", args);
+            } else if (loggingActionQueue instanceof AsyncLogWriter asyncLogWriter) {
+                asyncLogWriter.log(loggingLevel, finalReceivedMessage);
             } else {
                 loggingActionQueue.enqueue("Logger#logHelper(" + receivedMessage + ")", () -> {
                     Object[] args = new Object[]{getTimestampIsoInstant(), loggingLevel.name(), showWhiteSpace(finalReceivedMessage)};
@@ -0,0 +1,264 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.utils.StacktraceUtils;
+import com.renomad.minum.utils.TimeUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static com.renomad.minum.logging.Logger.showWhiteSpace;
+
+/**
+ * Writes log output to a file, starting a new file when the current
+ * one grows too large or too old.
+ * <p>
+ *     The current file is named like "minum.log".  When it is rotated, it is renamed
+ *     with the time, like "minum.20261019-142501-123.log", and compressed to
+ *     "minum.20261019-142501-123.log.gz" on a background thread, so the logging
+ *     thread does not wait for the compression.  Only the newest
+ *     segments are kept - older ones are deleted.
+ * </p>
+ * <p>
+ *     This is used by {@link AsyncLogWriter} when LOG_FILE_DIRECTORY is
+ *     set in the configuration. It is an {@link OutputStream}, so it can
+ *     also be used anywhere else that writes bytes.
+ * </p>
+ */
+public final class RollingFileAppender extends OutputStream {
+
+    private static final DateTimeFormatter SEGMENT_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneId.of("UTC"));
+
+    /**
+     * The part of a compressed segment's name after the base name: its
+     * time, and a count if more than one was rotated in the same millisecond
+     */
+    private static final Pattern SEGMENT_NAME = Pattern.compile("(\\d{8}-\\d{6}-\\d{3})(?:-(\\d{1,9}))?\\.log\\.gz");
+
+    private final Path directory;
+    private final String baseName;
+    private final Path currentPath;
+    private final long maxBytes;
+    private final long rotationMillis;
+    private final int maxSegments;
+    private final ExecutorService executorService;
+    private final LongSupplier clock;
+    private final ReentrantLock lock;
+
+    private FileChannel channel;
+    private long currentSize;
+    private long segmentStartMillis;
+
+    /**
+     * @param directory where to put the log files.  Created if it does not exist.
+     * @param baseName the start of the file names, like "minum" or "audit"
+     * @param maxBytes rotate once a file would grow past this size
+     * @param rotationMillis rotate once a file is this old.  Zero means never rotate by age.
+     * @param maxSegments how many rotated files to keep, besides the current file
+     * @param executorService runs the compression of rotated files
+     */
+    public RollingFileAppender(Path directory, String baseName, long maxBytes, long rotationMillis,
+                               int maxSegments, ExecutorService executorService) throws IOException {
+        this(directory, baseName, maxBytes, rotationMillis, maxSegments, executorService, System::currentTimeMillis);
+    }
+
+    RollingFileAppender(Path directory, String baseName, long maxBytes, long rotationMillis,
+                        int maxSegments, ExecutorService executorService, LongSupplier clock) throws IOException {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.currentPath = directory.resolve(baseName + ".log");
+        this.maxBytes = maxBytes;
+        this.rotationMillis = rotationMillis;
+        this.maxSegments = maxSegments;
+        this.executorService = executorService;
+        this.clock = clock;
+        this.lock = new ReentrantLock();
+        Files.createDirectories(directory);
+        openCurrent();
+    }
+
+    private void openCurrent() throws IOException {
+        channel = FileChannel.open(currentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        currentSize = channel.size();
+        segmentStartMillis = clock.getAsLong();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        lock.lock();
+        try {
+            if (channel == null) throw new ClosedChannelException();
+            if (shouldRotate(length)) {
+                rotate();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            try {
+                writeFully(buffer);
+            } catch (ClosedChannelException ex) {
+                // a file channel closes itself if the writing thread is interrupted,
+                // which happens when the logger is shutting down.  Reopen and finish.
+                boolean wasInterrupted = Thread.interrupted();
+                try {
+                    openCurrent();
+                    writeFully(buffer);
+                } finally {
+                    if (wasInterrupted) Thread.currentThread().interrupt();
+                }
+            }
+            currentSize += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private boolean shouldRotate(int incomingLength) {
+        if (currentSize > 0 && currentSize + incomingLength > maxBytes) return true;
+        return rotationMillis > 0 && currentSize > 0 && clock.getAsLong() - segmentStartMillis >= rotationMillis;
+    }
+
+    /**
+     * Close the current file, rename it with the current time, and start a
+     * new one.  The renamed file is compressed and old files pruned on another thread,
+     * or on this one if the executor no longer takes work.
+     */
+    void rotate() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+            Path segment = uniqueSegmentPath(SEGMENT_TIME_FORMAT.format(Instant.ofEpochMilli(clock.getAsLong())));
+            Files.move(currentPath, segment);
+            openCurrent();
+            try {
+                executorService.submit(() -> compressAndPrune(segment));
+            } catch (RejectedExecutionException ex) {
+                // the executor has been shut down, as happens while the system
+                // is stopping.  Do the work here instead, so the file is not left behind.
+                compressAndPrune(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Path uniqueSegmentPath(String time) {
+        Path candidate = directory.resolve(baseName + "." + time + ".log");
+        int count = 1;
+        while (Files.exists(candidate) || Files.exists(Path.of(candidate + ".gz"))) {
+            candidate = directory.resolve(baseName + "." + time + "-" + count + ".log");
+            count++;
+        }
+        return candidate;
+    }
+
+    /**
+     * Compress a rotated file, then delete the oldest rotated
+     * files beyond the count we keep
+     */
+    void compressAndPrune(Path segment) {
+        try {
+            Path compressed = Path.of(segment + ".gz");
+            try (InputStream in = Files.newInputStream(segment);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressed))) {
+                in.transferTo(out);
+            }
+            Files.delete(segment);
+            prune();
+        } catch (Exception ex) {
+            System.out.println(TimeUtils.getTimestampIsoInstant() + " LOGGER_ERROR: " + showWhiteSpace(StacktraceUtils.stackTraceToString(ex)));
+        }
+    }
+
+    void prune() throws IOException {
+        List<Path> segments = getSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+    }
+
+    /**
+     * The rotated files, oldest first.  Files rotated within the same
+     * millisecond are ordered by their count, so "-10" comes after "-2",
+     * and the file without a count comes before both.
+     */
+    List<Path> getSegments() throws IOException {
+        String prefix = baseName + ".";
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> result = new ArrayList<>(files.filter(path -> {
+                String fileName = String.valueOf(path.getFileName());
+                // don't collect a different base name which shares this prefix, like "minum.audit"
+                return fileName.startsWith(prefix) && SEGMENT_NAME.matcher(fileName.substring(prefix.length())).matches();
+            }).toList());
+            result.sort(Comparator.comparing((Path path) -> segmentNamePart(path, prefix, 1))
+                    .thenComparingInt(path -> {
+                        String count = segmentNamePart(path, prefix, 2);
+                        return count == null ? 0 : Integer.parseInt(count);
+                    }));
+            return result;
+        }
+    }
+
+    private static String segmentNamePart(Path path, String prefix, int group) {
+        Matcher matcher = SEGMENT_NAME.matcher(String.valueOf(path.getFileName()).substring(prefix.length()));
+        if (!matcher.matches()) throw new IllegalStateException("not a segment: " + path);
+        return matcher.group(group);
+    }
+
+    Path getCurrentPath() {
+        return currentPath;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // each write goes straight to the file channel, so there is nothing buffered here
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RollingFileAppender{" + currentPath + '}';
+    }
+}
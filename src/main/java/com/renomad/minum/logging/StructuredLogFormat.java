@@ -0,0 +1,25 @@
+package com.renomad.minum.logging;
+
+/**
+ * How a {@link LogEvent} is written to the log.  Set with
+ * LOG_STRUCTURED_FORMAT in the configuration.
+ */
+public enum StructuredLogFormat {
+
+    /**
+     * One JSON object per line, like:
+     * <pre>
+     * {"time":"2026-10-19T14:25:01.123Z","level":"TRACE","event":"request_processed","millis":12}
+     * </pre>
+     */
+    JSON,
+
+    /**
+     * Space-separated key=value pairs, like:
+     * <pre>
+     * time=2026-10-19T14:25:01.123Z level=TRACE event=request_processed millis=12
+     * </pre>
+     * Values with spaces, quotes, or equals signs are quoted.
+     */
+    LOGFMT
+}
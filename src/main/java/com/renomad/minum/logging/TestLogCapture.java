@@ -0,0 +1,95 @@
+package com.renomad.minum.logging;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-size record of the most recent log messages, used
+ * by {@link TestLogger}.
+ * <p>
+ *     Many threads may add messages at once without waiting on each other.
+ *     Each message takes the next sequence number with a single atomic increment,
+ *     and is stored at that position in a circular array, replacing the oldest.
+ *     A search is a plain scan, checking each of the requested count of most
+ *     recent messages in turn, in place, without copying the record first.
+ *     The contents are not indexed - only the position of a message is found
+ *     directly, from its sequence number - so a search costs time in proportion
+ *     to the count of messages searched.
+ * </p>
+ */
+public final class TestLogCapture {
+
+    /**
+     * A message, along with its sequence number so a reader can tell
+     * whether its slot has since been reused
+     */
+    private record Line(long sequence, String message) {}
+
+    private final AtomicReferenceArray<Line> lines;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+
+    /**
+     * @param capacity how many of the most recent messages to keep
+     */
+    public TestLogCapture(int capacity) {
+        if (capacity <= 0) {
+            throw new TestLoggerException("The capacity of the log capture must be a positive number.  Value was: " + capacity);
+        }
+        this.capacity = capacity;
+        this.lines = new AtomicReferenceArray<>(capacity);
+        this.nextSequence = new AtomicLong();
+    }
+
+    /**
+     * Record a message, replacing the oldest if full.  Safe to call from many threads.
+     */
+    public void add(String message) {
+        long sequence = nextSequence.getAndIncrement();
+        lines.set((int) (sequence % capacity), new Line(sequence, message));
+    }
+
+    /**
+     * The most recent messages, oldest first
+     * @param count how many messages to look back.  Fewer are returned if
+     *              fewer have been recorded.
+     */
+    public List<String> recent(int count) {
+        return search(null, count);
+    }
+
+    /**
+     * The most recent messages that contain the value, case-insensitively, oldest first
+     * @param count how many messages to look back through
+     */
+    public List<String> search(String value, int count) {
+        long end = nextSequence.get();
+        long start = Math.max(0, end - Math.min(count, capacity));
+        String lowerCaseValue = value == null ? null : value.toLowerCase(Locale.ROOT);
+        List<String> result = new ArrayList<>();
+        for (long sequence = start; sequence < end; sequence++) {
+            Line line = lines.get((int) (sequence % capacity));
+            // skip a slot that a writer has claimed but not yet filled, or
+            // that has been reused by a newer message since we started
+            if (line == null || line.sequence() != sequence) continue;
+            if (lowerCaseValue == null || line.message().toLowerCase(Locale.ROOT).contains(lowerCaseValue)) {
+                result.add(line.message());
+            }
+        }
+        return result;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * The count of all messages ever recorded, including those since replaced
+     */
+    public long count() {
+        return nextSequence.get();
+    }
+}
@@ -8,26 +8,40 @@ import java.util.Locale;
 import java.util.Queue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This implementation of {@link Logger} has a few
  * extra functions that only apply to tests, like {@link #test(String)}
+ * <p>
+ *     The recent messages are kept in a {@link TestLogCapture}, which
+ *     threads add to without locking, so that a load test with many
+ *     threads measures the server rather than the logger.
+ * </p>
  */
 public final class TestLogger extends Logger {
 
-    private final Queue<String> recentLogLines;
+    private final TestLogCapture recentLogLines;
+    /**
+     * The default count of recent log messages kept for searching
+     */
     public static final int MAX_CACHE_SIZE = 30;
-    private final ReentrantLock loggingLock;
     private final AtomicInteger testCount = new AtomicInteger(0);
 
     /**
      * See {@link TestLogger}
      */
     public TestLogger(Constants constants, ExecutorService executorService, String name) {
+        this(constants, executorService, name, MAX_CACHE_SIZE);
+    }
+
+    /**
+     * See {@link TestLogger}
+     * @param captureCapacity how many of the most recent log messages to
+     *                        keep for searching.  Default is {@link #MAX_CACHE_SIZE}
+     */
+    public TestLogger(Constants constants, ExecutorService executorService, String name, int captureCapacity) {
         super(constants, executorService, name);
-        this.recentLogLines = new TestLoggerQueue(MAX_CACHE_SIZE);
-        this.loggingLock = new ReentrantLock();
+        this.recentLogLines = new TestLogCapture(captureCapacity);
     }
 
     /**
@@ -47,78 +61,64 @@ public final class TestLogger extends Logger {
     /**
      * Keeps a record of the recently-added log messages, which is
      * useful for some tests.
+     * @return the message, so it need not be calculated again
      */
-    private void addToCache(ThrowingSupplier<String, Exception> msg) {
-        // put log messages into the tail of the queue
+    private String addToCache(ThrowingSupplier<String, Exception> msg) {
         String message = extractMessage(msg);
         String safeMessage = message == null ? "(null message)" : message;
         recentLogLines.add(safeMessage);
+        return message;
     }
 
     @Override
     public void logDebug(ThrowingSupplier<String, Exception> msg) {
-        loggingLock.lock();
-        try {
-            addToCache(msg);
-            super.logDebug(msg);
-        } finally {
-            loggingLock.unlock();
-        }
+        String message = addToCache(msg);
+        super.logDebug(() -> message);
     }
 
     @Override
     public void logWarn(ThrowingSupplier<String, Exception> msg) {
-        loggingLock.lock();
-        try {
-            addToCache(msg);
-            super.logWarn(msg);
-        } finally {
-            loggingLock.unlock();
-        }
+        String message = addToCache(msg);
+        super.logWarn(() -> message);
     }
 
     @Override
     public void logTrace(ThrowingSupplier<String, Exception> msg) {
-        loggingLock.lock();
-        try {
-            addToCache(msg);
-            super.logTrace(msg);
-        } finally {
-            loggingLock.unlock();
-        }
+        String message = addToCache(msg);
+        super.logTrace(() -> message);
     }
 
     @Override
     public void logAudit(ThrowingSupplier<String, Exception> msg) {
-        loggingLock.lock();
-        try {
-            addToCache(msg);
-            super.logAudit(msg);
-        } finally {
-            loggingLock.unlock();
-        }
+        String message = addToCache(msg);
+        super.logAudit(() -> message);
     }
 
     @Override
     public void logAsyncError(ThrowingSupplier<String, Exception> msg) {
-        loggingLock.lock();
-        try {
-            addToCache(msg);
-            super.logAsyncError(msg);
-        } finally {
-            loggingLock.unlock();
-        }
+        String message = addToCache(msg);
+        super.logAsyncError(() -> message);
+    }
+
+    /**
+     * Structured events are kept in the cache as logfmt text, like
+     * "time=... level=TRACE event=request_processed millis=12"
+     */
+    @Override
+    public void logEvent(LogEvent event) {
+        recentLogLines.add(event.render(StructuredLogFormat.LOGFMT));
+        super.logEvent(event);
     }
 
     /**
      * Provides an ability to search over the recent past log messages,
      * case-insensitively.
      * @param lines number of lines of log messages to look back through,
-     *              up to {@link #MAX_CACHE_SIZE}
+     *              up to the capacity, by default {@link #MAX_CACHE_SIZE}
      */
     public String findFirstMessageThatContains(String value, int lines) {
-        List<String> values = findMessage(value, lines, recentLogLines);
-        List<String> logsBeingSearched = logLinesToSearch(lines, recentLogLines);
+        List<String> values = searchRecent(value, lines);
+        List<String> logsBeingSearched = recentLogLines.recent(lines);
         return checkValidityOfResults(value, values, logsBeingSearched);
     }
 
@@ -152,10 +152,10 @@ public final class TestLogger extends Logger {
      * @throws TestLoggerException if value was not found.
      */
     public boolean doesMessageExist(String value, int lines) {
-        if (! findMessage(value, lines, recentLogLines).isEmpty()) {
+        if (! searchRecent(value, lines).isEmpty()) {
             return true;
         } else {
-            List<String> logsBeingSearched = logLinesToSearch(lines, recentLogLines);
+            List<String> logsBeingSearched = recentLogLines.recent(lines);
             throw new TestLoggerException(value + " was not found in \n\t" + String.join("\n\t", logsBeingSearched));
         }
     }
@@ -171,17 +171,17 @@ public final class TestLogger extends Logger {
         return doesMessageExist(value, 3);
     }
 
+    /**
+     * Searches a queue of log lines, as {@link TestLogger} did before
+     * keeping its messages in a {@link TestLogCapture}.
+     * @deprecated use {@link TestLogCapture#search(String, int)}
+     */
+    @Deprecated
     static List<String> findMessage(String value, int lines, Queue<String> recentLogLines) {
-        if (lines > MAX_CACHE_SIZE) {
-            throw new TestLoggerException(String.format("Can only get up to %s lines from the log", MAX_CACHE_SIZE));
-        }
-        if (lines <= 0) {
-            throw new TestLoggerException("number of recent log lines must be a positive number");
-        }
+        checkLineCount(lines, MAX_CACHE_SIZE);
         MyThread.sleep(20);
         var lineList = logLinesToSearch(lines, recentLogLines);
         return lineList.stream().filter(x -> x.toLowerCase(Locale.ROOT).contains(value.toLowerCase(Locale.ROOT))).toList();
-
     }
 
     private static List<String> logLinesToSearch(int lines, Queue<String> recentLogLines) {
@@ -189,6 +189,24 @@ public final class TestLogger extends Logger {
         return recentLogLines.stream().toList().subList(fromIndex, recentLogLines.size());
     }
 
+    /**
+     * Search the most recent lines of the capture for the value, case-insensitively
+     */
+    private List<String> searchRecent(String value, int lines) {
+        checkLineCount(lines, recentLogLines.capacity());
+        MyThread.sleep(20);
+        return recentLogLines.search(value, lines);
+    }
+
+    private static void checkLineCount(int lines, int capacity) {
+        if (lines > capacity) {
+            throw new TestLoggerException(String.format("Can only get up to %s lines from the log", capacity));
+        }
+        if (lines <= 0) {
+            throw new TestLoggerException("number of recent log lines must be a positive number");
+        }
+    }
+
     /**
      * Looks back through the last 3 log messages for one that
      * contains the provided value.  Returns the whole line if
@@ -210,19 +228,15 @@ public final class TestLogger extends Logger {
      */
     public void test(String msg) {
         // put together some pretty-looking text graphics to show the suiteName of our test in log
-        loggingLock.lock();
-        try {
-            final var baseLength = 11;
-            final var dashes = "-".repeat(msg.length() + baseLength);
-
-            final int currentCount = testCount.incrementAndGet();
-            loggingActionQueue.enqueue("Testlogger#test("+msg+")", () -> {
-                System.out.printf("%n+%s+%n| TEST %d: %s |%n+%s+%n%n", dashes, currentCount, msg, dashes);
-                recentLogLines.add(msg);
-            });
-        } finally {
-            loggingLock.unlock();
-        }
+        final var baseLength = 11;
+        final var dashes = "-".repeat(msg.length() + baseLength);
+
+        final int currentCount = testCount.incrementAndGet();
+        // recorded right away, rather than when printed, so it is in order
+        // with the messages the test logs afterwards
+        recentLogLines.add(msg);
+        loggingActionQueue.enqueue("Testlogger#test("+msg+")", () ->
+            System.out.printf("%n+%s+%n| TEST %d: %s |%n+%s+%n%n", dashes, currentCount, msg, dashes));
     }
 
     /**
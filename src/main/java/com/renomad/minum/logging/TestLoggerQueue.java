@@ -8,7 +8,10 @@ import java.util.concurrent.locks.ReentrantLock;
 /**
  * Used in {@link TestLogger} as a circular queue to store
  * the most recent log statements for analysis.
+ * @deprecated {@link TestLogger} now keeps its recent messages in a
+ * {@link TestLogCapture}, which threads add to without locking.
  */
+@Deprecated
 public final class TestLoggerQueue extends ArrayDeque<String> {
 
     @Serial
@@ -33,15 +33,23 @@ public final class ActionQueueKiller {
         for (AbstractActionQueue aq = context.getActionQueueState().pollFromQueue(); aq != null ; aq = context.getActionQueueState().pollFromQueue()) {
             AbstractActionQueue finalAq = aq;
             finalAq.stop();
-            logger.logDebug(() -> TimeUtils.getTimestampIsoInstant() + " killing " + ((ActionQueue)finalAq).getQueueThread());
-            if (((ActionQueue)finalAq).getQueueThread() != null) {
+            Thread queueThread = getQueueThread(finalAq);
+            logger.logDebug(() -> TimeUtils.getTimestampIsoInstant() + " killing " + queueThread);
+            if (queueThread != null) {
                 hadToInterrupt = true;
                 System.out.println("had to interrupt " + finalAq);
-                ((ActionQueue)finalAq).getQueueThread().interrupt();
+                queueThread.interrupt();
             }
         }
     }
 
+    private static Thread getQueueThread(AbstractActionQueue aq) {
+        if (aq instanceof BoundedActionQueue boundedActionQueue) {
+            return boundedActionQueue.getQueueThread();
+        }
+        return ((ActionQueue)aq).getQueueThread();
+    }
+
     /**
      * A helpful indicator of whether this object was interrupted while
      * looping through the list of action queues
@@ -0,0 +1,155 @@
+package com.renomad.minum.queue;
+
+import com.renomad.minum.utils.LatencyHistogram;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Measurements of the activity of a single {@link BoundedActionQueue}, such
+ * as how many actions have been enqueued, how many are waiting, and how
+ * long they took to run.
+ * <p>
+ *     The metrics of all the bounded queues in a system are available
+ *     from {@link ActionQueueState#getMetrics()}.  The rate of enqueuing
+ *     is found by reading {@link #getEnqueued()} at intervals.
+ * </p>
+ */
+public final class ActionQueueMetrics {
+
+    private final String name;
+    private final IntSupplier depth;
+    private final int capacity;
+
+    private final LongAdder enqueued;
+    private final LongAdder rejected;
+    private final LongAdder executed;
+    private final LongAdder failures;
+    private final LongAdder batches;
+
+    private final LatencyHistogram executionNanos;
+
+    /**
+     * @param name the name of the queue
+     * @param depth reads how many actions are waiting in the queue
+     * @param capacity the most actions the queue may hold
+     */
+    ActionQueueMetrics(String name, IntSupplier depth, int capacity) {
+        this.name = name;
+        this.depth = depth;
+        this.capacity = capacity;
+        this.enqueued = new LongAdder();
+        this.rejected = new LongAdder();
+        this.executed = new LongAdder();
+        this.failures = new LongAdder();
+        this.batches = new LongAdder();
+        this.executionNanos = new LatencyHistogram();
+    }
+
+    void recordEnqueued() {
+        enqueued.increment();
+    }
+
+    void recordRejected() {
+        rejected.increment();
+    }
+
+    void recordBatch() {
+        batches.increment();
+    }
+
+    /**
+     * Record an action having been run
+     * @param nanos how long it ran
+     * @param isFailure true if it threw an exception
+     */
+    void recordExecution(long nanos, boolean isFailure) {
+        executed.increment();
+        if (isFailure) {
+            failures.increment();
+        }
+        executionNanos.record(nanos);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The count of actions waiting in the queue right now
+     */
+    public int getDepth() {
+        return depth.getAsInt();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getEnqueued() {
+        return enqueued.sum();
+    }
+
+    /**
+     * The count of actions refused because the queue was full
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * The count of actions that threw an exception
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * The count of times the queue's thread took a batch of actions to run
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public LatencyHistogram getExecutionNanos() {
+        return executionNanos;
+    }
+
+    /**
+     * All the current measurements, by name, in a consistent order.
+     * The histogram is given as its summary text, see {@link LatencyHistogram#toString()}
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("depth", getDepth());
+        result.put("capacity", getCapacity());
+        result.put("enqueued", getEnqueued());
+        result.put("rejected", getRejected());
+        result.put("executed", getExecuted());
+        result.put("failures", getFailures());
+        result.put("batches", getBatches());
+        result.put("execution_nanos", executionNanos.toString());
+        return result;
+    }
+
+    /**
+     * Renders the metrics of many queues as plain text, one
+     * measurement per line, like "db_writes depth 12"
+     */
+    public static String render(Collection<ActionQueueMetrics> allMetrics) {
+        StringBuilder sb = new StringBuilder();
+        for (ActionQueueMetrics metrics : allMetrics) {
+            for (var entry : metrics.snapshot().entrySet()) {
+                sb.append(metrics.name).append(' ').append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,6 +1,9 @@
 package com.renomad.minum.queue;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
 /**
@@ -9,13 +12,17 @@ import java.util.concurrent.LinkedBlockingQueue;
  * track these, so that at system shutdown we can close them all cleanly.
  * <br>
  * As each ActionQueue gets created, it registers itself here.
+ * A {@link BoundedActionQueue} also registers its {@link ActionQueueMetrics},
+ * and removes them when it stops.
  */
 public class ActionQueueState {
 
     private final Queue<AbstractActionQueue> aqQueue;
+    private final Queue<ActionQueueMetrics> metrics;
 
     public ActionQueueState() {
         aqQueue = new LinkedBlockingQueue<>();
+        metrics = new ConcurrentLinkedQueue<>();
     }
 
     public String aqQueueAsString() {
@@ -34,4 +41,20 @@ public class ActionQueueState {
         return aqQueue.isEmpty();
     }
 
+    public void registerMetrics(ActionQueueMetrics actionQueueMetrics) {
+        metrics.offer(actionQueueMetrics);
+    }
+
+    public void unregisterMetrics(ActionQueueMetrics actionQueueMetrics) {
+        metrics.remove(actionQueueMetrics);
+    }
+
+    /**
+     * The metrics of each {@link BoundedActionQueue} not yet stopped, in the
+     * order they were created
+     */
+    public Collection<ActionQueueMetrics> getMetrics() {
+        return List.copyOf(metrics);
+    }
+
 }
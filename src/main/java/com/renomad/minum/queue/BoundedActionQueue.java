@@ -0,0 +1,271 @@
+package com.renomad.minum.queue;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Like {@link ActionQueue}, except that it holds at most a fixed count of
+ * actions, so that when the actions cannot be run as fast as they arrive -
+ * for example, when the disk is slow - the queue does not grow without end.
+ * <p>
+ *     What happens when the queue is full is chosen by {@link WhenFull}: the
+ *     caller waits for room, waits for a limited time, or is refused at once.
+ *     A refusal is a {@link QueueException}.
+ * </p>
+ * <p>
+ *     The queue's thread takes waiting actions in batches, rather than one at a
+ *     time, and its activity is measured in {@link ActionQueueMetrics}, which are
+ *     registered with the {@link ActionQueueState}.
+ * </p>
+ * <h3>Example:</h3>
+ * <pre>
+ * {@code
+ *  var photoResizingQueue = new BoundedActionQueue("photo_resizing", context, 1000,
+ *          BoundedActionQueue.WhenFull.REJECT, 0).initialize();
+ *  photoResizingQueue.enqueue(() -> "resize " + photoName, () -> resizeImage(photoInputStream));
+ * }
+ * </pre>
+ */
+public final class BoundedActionQueue implements AbstractActionQueue {
+
+    /**
+     * What to do when an action is enqueued while the queue is full
+     */
+    public enum WhenFull {
+        /**
+         * Wait until there is room
+         */
+        BLOCK,
+
+        /**
+         * Wait for room up to the timeout, then throw a {@link QueueException}
+         */
+        TIMEOUT,
+
+        /**
+         * Throw a {@link QueueException} right away
+         */
+        REJECT
+    }
+
+    /**
+     * The most actions taken from the queue at once
+     */
+    static final int MAX_BATCH_SIZE = 64;
+
+    private final String name;
+    private final ExecutorService queueExecutor;
+    private final LinkedBlockingQueue<RunnableWithDescription> queue;
+    private final ILogger logger;
+    private final int capacity;
+    private final WhenFull whenFull;
+    private final long timeoutMillis;
+    private final ActionQueueMetrics metrics;
+    private final ActionQueueState actionQueueState;
+    /**
+     * The count of actions enqueued but not yet finished running.  This
+     * includes those the queue's thread has taken into its current batch,
+     * which are no longer in {@link #queue}.
+     */
+    private final AtomicInteger pendingCount;
+    /**
+     * Set as volatile so that multiple threads may see the update
+     * as soon as it occurs.
+     */
+    private volatile boolean stop = false;
+    private Thread queueThread;
+    private volatile boolean isStoppedStatus;
+
+    /**
+     * See the {@link BoundedActionQueue} description for more detail. This
+     * constructor will build your new action queue and handle registering
+     * it, and its metrics, in the {@link Context} object.
+     * @param name give this object a unique, explanatory name.
+     * @param capacity the most actions that may be waiting
+     * @param whenFull what to do when an action is enqueued while the queue is full
+     * @param timeoutMillis with {@link WhenFull#TIMEOUT}, how long to wait for
+     *                      room.  Ignored otherwise.
+     */
+    public BoundedActionQueue(String name, Context context, int capacity, WhenFull whenFull, long timeoutMillis) {
+        if (capacity <= 0) {
+            throw new QueueException("The capacity of BoundedActionQueue \"%s\" must be positive.  Value was: %d".formatted(name, capacity));
+        }
+        this.name = name;
+        this.queueExecutor = context.getExecutorService();
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.logger = context.getLogger();
+        this.capacity = capacity;
+        this.whenFull = whenFull;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = new ActionQueueMetrics(name, queue::size, capacity);
+        this.pendingCount = new AtomicInteger();
+        this.actionQueueState = context.getActionQueueState();
+        actionQueueState.offerToQueue(this);
+        actionQueueState.registerMetrics(metrics);
+    }
+
+    // Regarding the InfiniteLoopStatement - indeed, we expect that the while loop
+    // below is an infinite loop unless there's an exception thrown, that's what it is.
+    @SuppressWarnings("InfiniteLoopStatement")
+    @Override
+    public BoundedActionQueue initialize() {
+        Runnable centralLoop = () -> {
+            Thread.currentThread().setName(name);
+            this.queueThread = Thread.currentThread();
+            List<RunnableWithDescription> batch = new ArrayList<>(MAX_BATCH_SIZE);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                    metrics.recordBatch();
+                    for (RunnableWithDescription action : batch) {
+                        runAction(action);
+                        pendingCount.decrementAndGet();
+                    }
+                    batch.clear();
+                }
+            } catch (InterruptedException ex) {
+                /*
+                this is what we expect to happen.
+                once this happens, we just continue on.
+                this only gets called when we are trying to shut everything
+                down cleanly
+                 */
+                logger.logDebug(() -> String.format("%s BoundedActionQueue for %s is stopped.%n", TimeUtils.getTimestampIsoInstant(), name));
+                Thread.currentThread().interrupt();
+            }
+        };
+        queueExecutor.submit(centralLoop);
+        return this;
+    }
+
+    private void runAction(RunnableWithDescription action) {
+        logger.logTrace(() -> "in BoundedActionQueue.runAction, running this: " + action);
+        long start = System.nanoTime();
+        boolean isFailure = false;
+        try {
+            action.run();
+        } catch (Throwable ex) {
+            isFailure = true;
+            logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+        }
+        metrics.recordExecution(System.nanoTime() - start, isFailure);
+    }
+
+    /**
+     * Adds something to the queue to be processed.  If the queue is full,
+     * this waits or throws a {@link QueueException}, depending on the
+     * {@link WhenFull} given to the constructor.
+     */
+    @Override
+    public void enqueue(String description, ThrowingRunnable action) {
+        enqueue(new RunnableWithDescription(action, description));
+    }
+
+    /**
+     * Like {@link #enqueue(String, ThrowingRunnable)}, except the description
+     * is only built if it is needed - for logging, or reviewing the queue.
+     * <pre>
+     * {@code   actionQueue.enqueue(() -> "Write person file to disk at " + filePath, () -> {
+     *             Files.writeString(filePath, pf.serialize());
+     *         });}
+     * </pre>
+     */
+    public void enqueue(Supplier<String> description, ThrowingRunnable action) {
+        enqueue(new RunnableWithDescription(action, description));
+    }
+
+    private void enqueue(RunnableWithDescription runnable) {
+        if (stop) {
+            throw new QueueException(String.format("failed to enqueue %s - BoundedActionQueue \"%s\" is stopped", runnable, this.name));
+        }
+        boolean isAdded;
+        // counted before it is added, so it is never seen as done before it has run
+        pendingCount.incrementAndGet();
+        try {
+            isAdded = switch (whenFull) {
+                case BLOCK -> {
+                    queue.put(runnable);
+                    yield true;
+                }
+                case TIMEOUT -> queue.offer(runnable, timeoutMillis, TimeUnit.MILLISECONDS);
+                case REJECT -> queue.offer(runnable);
+            };
+        } catch (InterruptedException ex) {
+            pendingCount.decrementAndGet();
+            Thread.currentThread().interrupt();
+            throw new QueueException(String.format("interrupted while waiting to enqueue %s - BoundedActionQueue \"%s\"", runnable, this.name));
+        }
+        if (!isAdded) {
+            pendingCount.decrementAndGet();
+            metrics.recordRejected();
+            throw new QueueException(String.format("failed to enqueue %s - BoundedActionQueue \"%s\" is full, with %d actions", runnable, this.name, capacity));
+        }
+        metrics.recordEnqueued();
+    }
+
+    /**
+     * Stops the action queue, waiting for the actions already enqueued -
+     * including any the queue's thread is partway through - to finish.
+     * Its metrics are no longer reported in the {@link ActionQueueState},
+     * though {@link #getMetrics()} still returns them.
+     * @param count how many loops to wait before we crash it closed
+     * @param sleepTime how long to wait in milliseconds between loops
+     */
+    @Override
+    public void stop(int count, long sleepTime) {
+        String timestamp = TimeUtils.getTimestampIsoInstant();
+        logger.logDebug(() ->  String.format("%s Stopping queue %s", timestamp, this));
+        stop = true;
+        actionQueueState.unregisterMetrics(metrics);
+        for (int i = 0; i < count; i++) {
+            if (pendingCount.get() == 0) return;
+            logger.logDebug(() ->  String.format("%s Queue not yet finished, has %d actions to run. waiting...%n",timestamp, pendingCount.get()));
+            MyThread.sleep(sleepTime);
+        }
+        isStoppedStatus = true;
+        logger.logDebug(() -> String.format("%s Queue %s has %d actions left to run but we're done waiting.  Queue toString: %s", timestamp, this, pendingCount.get(), queue));
+    }
+
+    /**
+     * This will prevent any new actions being
+     * queued (by setting the stop flag to true and thus
+     * causing an exception to be thrown
+     * when a call is made to [enqueue]) and will
+     * block until the queue is empty.
+     */
+    @Override
+    public void stop() {
+        stop(5, 20L);
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+    Thread getQueueThread() {
+        return queueThread;
+    }
+
+    @Override
+    public LinkedBlockingQueue<RunnableWithDescription> getQueue() {
+        return new LinkedBlockingQueue<>(queue);
+    }
+
+    @Override
+    public boolean isStopped() {
+        return isStoppedStatus;
+    }
+
+    public ActionQueueMetrics getMetrics() {
+        return metrics;
+    }
+}
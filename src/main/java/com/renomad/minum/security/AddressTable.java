@@ -0,0 +1,200 @@
+package com.renomad.minum.security;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A set of network addresses, each held until some time, which may be
+ * checked without allocating or locking.  Used by {@link TheBrig} for the
+ * addresses jailed for seeking vulnerabilities, which are checked on every
+ * accepted connection and every request.
+ * <p>
+ *     Each address is kept as two longs - the sixteen bytes of an IPv6 address,
+ *     or for IPv4, its IPv4-mapped IPv6 form, "::ffff:a.b.c.d" - in open-addressed
+ *     arrays.  Readers probe the arrays directly.  Changes are made under a lock,
+ *     and when the arrays grow, they are rebuilt without the addresses whose time
+ *     has passed and swapped in whole.
+ * </p>
+ * <p>
+ *     A slot holding zero for both longs is empty.  That is the unspecified
+ *     address, "::", which no client connects from.
+ * </p>
+ */
+final class AddressTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The arrays of the table.  A slot's address never changes once set,
+     * so a reader may go through them while a writer adds to them.
+     */
+    private record Slots(AtomicLongArray high, AtomicLongArray low, AtomicLongArray heldUntil, int mask) {
+        Slots(int capacity) {
+            this(new AtomicLongArray(capacity), new AtomicLongArray(capacity), new AtomicLongArray(capacity), capacity - 1);
+        }
+    }
+
+    private final ReentrantLock lock;
+    private volatile Slots slots;
+
+    /**
+     * The count of slots holding an address, whether or not its time
+     * has passed.  Only changed under the lock.
+     */
+    private int used;
+
+    AddressTable() {
+        this.lock = new ReentrantLock();
+        this.slots = new Slots(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Whether the address is held past the given time
+     * @param address as from {@link java.net.InetAddress#getAddress()} - four
+     *                bytes for IPv4, sixteen for IPv6.  Anything else is never held.
+     */
+    boolean isHeld(byte[] address, long now) {
+        if (address.length != 4 && address.length != 16) {
+            return false;
+        }
+        long high = high(address);
+        long low = low(address);
+        Slots current = slots;
+        for (int i = indexFor(high, low, current.mask()); ; i = (i + 1) & current.mask()) {
+            // the low half is written last, so once it matches, the high half is there too
+            long slotLow = current.low().get(i);
+            long slotHigh = current.high().get(i);
+            if (slotLow == low && slotHigh == high) {
+                return current.heldUntil().get(i) > now;
+            }
+            if (slotLow == 0 && slotHigh == 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Hold the address until the given time, replacing any time it had
+     */
+    void hold(byte[] address, long until) {
+        long high = high(address);
+        long low = low(address);
+        if (high == 0 && low == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            Slots current = slots;
+            int i = find(current, high, low);
+            if (current.low().get(i) == 0 && current.high().get(i) == 0) {
+                if ((used + 1) * 2 > current.heldUntil().length()) {
+                    current = rebuild(current);
+                    slots = current;
+                    i = find(current, high, low);
+                }
+                used++;
+                current.heldUntil().set(i, until);
+                current.high().set(i, high);
+                current.low().set(i, low);
+            } else {
+                current.heldUntil().set(i, until);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop holding the address, if it is still held until the given
+     * time.  If it was held again since, with a new time, it stays.
+     */
+    void release(byte[] address, long until) {
+        long high = high(address);
+        long low = low(address);
+        lock.lock();
+        try {
+            Slots current = slots;
+            int i = find(current, high, low);
+            if (current.low().get(i) == low && current.high().get(i) == high && current.heldUntil().get(i) == until) {
+                current.heldUntil().set(i, 0);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The count of addresses held past the given time
+     */
+    int size(long now) {
+        Slots current = slots;
+        int count = 0;
+        for (int i = 0; i < current.heldUntil().length(); i++) {
+            if (current.heldUntil().get(i) > now) count++;
+        }
+        return count;
+    }
+
+    /**
+     * The slot holding this address, or the empty slot where it would go
+     */
+    private static int find(Slots current, long high, long low) {
+        for (int i = indexFor(high, low, current.mask()); ; i = (i + 1) & current.mask()) {
+            long slotLow = current.low().get(i);
+            long slotHigh = current.high().get(i);
+            if ((slotLow == low && slotHigh == high) || (slotLow == 0 && slotHigh == 0)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Copy the addresses still held into new arrays, with room to spare
+     */
+    private Slots rebuild(Slots current) {
+        long nowMillis = System.currentTimeMillis();
+        int live = size(nowMillis);
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < (live + 1) * 4) {
+            capacity <<= 1;
+        }
+        Slots rebuilt = new Slots(capacity);
+        for (int i = 0; i < current.heldUntil().length(); i++) {
+            long heldUntil = current.heldUntil().get(i);
+            if (heldUntil <= nowMillis) continue;
+            long high = current.high().get(i);
+            long low = current.low().get(i);
+            int j = find(rebuilt, high, low);
+            rebuilt.heldUntil().set(j, heldUntil);
+            rebuilt.high().set(j, high);
+            rebuilt.low().set(j, low);
+        }
+        used = live;
+        return rebuilt;
+    }
+
+    private static int indexFor(long high, long low, int mask) {
+        long hash = (high * 31 + low) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private static long high(byte[] address) {
+        return address.length == 16 ? readLong(address, 0) : 0L;
+    }
+
+    private static long low(byte[] address) {
+        if (address.length == 16) {
+            return readLong(address, 8);
+        }
+        long ipv4 = ((address[0] & 0xFFL) << 24) | ((address[1] & 0xFFL) << 16) | ((address[2] & 0xFFL) << 8) | (address[3] & 0xFFL);
+        return 0xFFFF_0000_0000L | ipv4;
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long result = 0;
+        for (int i = offset; i < offset + 8; i++) {
+            result = (result << 8) | (bytes[i] & 0xFFL);
+        }
+        return result;
+    }
+}
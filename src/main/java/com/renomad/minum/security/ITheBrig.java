@@ -1,6 +1,8 @@
 package com.renomad.minum.security;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Collection;
 
 /**
@@ -24,6 +26,13 @@ import java.util.Collection;
  * </p>
  */
 public interface ITheBrig {
+
+    /**
+     * The complaint identifier which, appended to a client's address, has
+     * its connections dropped at the onset.  See {@link #isVulnSeeker(byte[])}
+     */
+    String VULN_SEEKING_SUFFIX = "_vuln_seeking";
+
     // Regarding the BusyWait - indeed, we expect that the while loop
     // below is an infinite loop unless there's an exception thrown, that's what it is.
     ITheBrig initialize();
@@ -54,6 +63,21 @@ public interface ITheBrig {
      */
     boolean isInJail(String clientIdentifier);
 
+    /**
+     * Return true if the client at this address is in jail for seeking
+     * vulnerabilities - that is, if its address with {@link #VULN_SEEKING_SUFFIX}
+     * is in jail.  This is checked for every connection and request, so
+     * {@link TheBrig} answers it without building any strings.
+     * @param address the raw address, as from {@link InetAddress#getAddress()}
+     */
+    default boolean isVulnSeeker(byte[] address) {
+        try {
+            return isInJail(InetAddress.getByAddress(address).getHostAddress() + VULN_SEEKING_SUFFIX);
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+    }
+
     /**
      * Get the current list of ip addresses that have been
      * judged as having carried out attacks on the system.
@@ -7,12 +7,26 @@ import com.renomad.minum.utils.ThrowingRunnable;
 import com.renomad.minum.utils.TimeUtils;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * See {@link ITheBrig}
+ * <p>
+ *     The release times of the current inmates are kept in memory, so that
+ *     {@link #isInJail(String)} is a lookup in a concurrent map, without locking.
+ *     The addresses jailed for seeking vulnerabilities - which are checked
+ *     for every connection and request, by {@link #isVulnSeeker(byte[])} - are
+ *     also kept by their raw bytes in an {@link AddressTable}, so that check
+ *     builds no strings.  Changes are written
+ *     to the database in batches by an inner thread.  The database removes
+ *     its rows once they expire, and inmates whose release time has passed
+ *     are dropped from memory by the inner thread.
+ * </p>
  */
 public final class TheBrig implements ITheBrig {
     private final ExecutorService es;
@@ -20,18 +34,43 @@ public final class TheBrig implements ITheBrig {
     private final ILogger logger;
 
     /**
-     * This lock is around edits to the inmate database, so it is not
-     * possible for two threads to be adding an inmate at the same
-     * time, or deleting an inmate at the same time, or adding an
-     * inmate while deleting an inmate.
+     * The release time of each inmate, by client identifier, in milliseconds
+     * past the epoch.
      */
-    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<String, Long> releaseTimes;
+
+    /**
+     * Client identifiers whose release time has changed since
+     * last being written to the database
+     */
+    private final Set<String> unsavedInmates;
+
+    /**
+     * A sentence for each inmate, ordered by when it ends, so the inmate
+     * may be dropped from memory at that time.  An inmate has only the one
+     * sentence here, however often it is extended - if the release time has
+     * moved later when the sentence comes due, it is queued again for then.
+     */
+    private final DelayQueue<Sentence> sentences;
+
+    /**
+     * The addresses of the inmates jailed with {@link #VULN_SEEKING_SUFFIX},
+     * each held until its release time
+     */
+    private final AddressTable vulnSeekers;
+
+    /**
+     * This lock is around writing the unsaved inmates to the database, so
+     * that when stopping, we may wait for the inner thread to finish
+     * any write in progress before interrupting it.
+     */
+    private final ReentrantLock persistLock = new ReentrantLock();
     private Thread myThread;
     private static final String CLIENT_IDENTIFIER_INDEX = "client_identifier_index";
 
     /**
-     * How long our inner thread will sleep before waking up to scan
-     * for old keys
+     * How long our inner thread will sleep before waking up to write
+     * changes to the database and release inmates who have paid their dues
      */
     private final int sleepTime;
 
@@ -40,17 +79,33 @@ public final class TheBrig implements ITheBrig {
         this.logger = context.getLogger();
         this.inmatesDb = context.getDb2("the_brig", Inmate.EMPTY)
                 .registerIndex(CLIENT_IDENTIFIER_INDEX, Inmate::getClientId)
+                .registerExpiry(Inmate::getReleaseTime)
                 .loadData();
         this.sleepTime = sleepTime;
+        this.releaseTimes = new ConcurrentHashMap<>();
+        this.unsavedInmates = ConcurrentHashMap.newKeySet();
+        this.sentences = new DelayQueue<>();
+        this.vulnSeekers = new AddressTable();
+        long now = System.currentTimeMillis();
+        for (Inmate inmate : inmatesDb.values()) {
+            if (inmate.getReleaseTime() > now) {
+                releaseTimes.put(inmate.getClientId(), inmate.getReleaseTime());
+                sentences.add(new Sentence(inmate.getClientId(), inmate.getReleaseTime()));
+                byte[] address = parseVulnSeekerAddress(inmate.getClientId());
+                if (address != null) {
+                    vulnSeekers.hold(address, inmate.getReleaseTime());
+                }
+            }
+        }
     }
 
     /**
      * In this class we create a thread that runs throughout the lifetime
-     * of the application, in an infinite loop removing keys from the list
-     * under consideration.
+     * of the application, in an infinite loop writing changes to the
+     * database and releasing inmates who have paid their dues.
      */
     public TheBrig(Context context) {
-        this(10 * 1000, context);
+        this(1000, context);
     }
 
     // Regarding the BusyWait - indeed, we expect that the while loop
@@ -63,7 +118,14 @@ public final class TheBrig implements ITheBrig {
             myThread = Thread.currentThread();
             while (true) {
                 try {
-                    reviewCurrentInmates();
+                    Thread.sleep(sleepTime);
+                    releaseInmates();
+                    persistLock.lockInterruptibly();
+                    try {
+                        persistUnsavedInmates();
+                    } finally {
+                        persistLock.unlock();
+                    }
                 } catch (InterruptedException ex) {
 
                     /*
@@ -83,37 +145,61 @@ public final class TheBrig implements ITheBrig {
         return this;
     }
 
-    private void reviewCurrentInmates() throws InterruptedException {
-        Collection<Inmate> values = inmatesDb.values();
-        if (! values.isEmpty()) {
-            logger.logTrace(() -> "TheBrig reviewing current inmates. Count: " + values.size());
+    /**
+     * Drop from memory the inmates whose sentences have come due.  If
+     * a sentence was extended in the meantime, it is queued again for
+     * the new release time.
+     */
+    private void releaseInmates() {
+        Sentence sentence;
+        while ((sentence = sentences.poll()) != null) {
+            String clientId = sentence.clientId();
+            Long releaseTime = releaseTimes.get(clientId);
+            if (releaseTime != null && releaseTime <= System.currentTimeMillis() && releaseTimes.remove(clientId, releaseTime)) {
+                byte[] address = parseVulnSeekerAddress(clientId);
+                if (address != null) {
+                    vulnSeekers.release(address, releaseTime);
+                }
+                logger.logTrace(() -> "TheBrig: " + clientId + " has paid its dues as of " + releaseTime + " and is getting released");
+                continue;
+            }
+            // the sentence was extended, so there is more to serve
+            Long extendedReleaseTime = releaseTimes.get(clientId);
+            if (extendedReleaseTime != null) {
+                sentences.add(new Sentence(clientId, extendedReleaseTime));
+            }
         }
-        var now = System.currentTimeMillis();
-        processInmateList(now, values, logger, inmatesDb, lock);
-        Thread.sleep((long) sleepTime);
     }
 
     /**
-     * figure out which clients have paid their dues
-     *
-     * @param now       the current time, in milliseconds past the epoch
-     * @param inmatesDb the database of all inmates
-     * @param lock      a lock around deleting any inmate being released,
-     *                  to avoid conflicts with {@link #sendToJail(String, long)}
+     * Write the inmates whose release time has changed to the database, as
+     * one batch under the database's lock.  Inmates who have already been
+     * released are skipped - the database removes their rows when they expire.
      */
-    static void processInmateList(long now, Collection<Inmate> inmates, ILogger logger, AbstractDb<Inmate> inmatesDb, ReentrantLock lock) {
-        for (Inmate clientKeyAndDuration : inmates) {
-            // if the release time is in the past (that is, the release time is
-            // before / less-than now), add them to the list to be released.
-            if (clientKeyAndDuration.getReleaseTime() < now) {
-                logger.logTrace(() -> "UnderInvestigation: " + clientKeyAndDuration.getClientId() + " has paid its dues as of " + clientKeyAndDuration.getReleaseTime() + " and is getting released. Current time: " + now);
-                lock.lock();
-                try {
-                    inmatesDb.delete(clientKeyAndDuration);
-                } finally {
-                    lock.unlock();
+    private void persistUnsavedInmates() {
+        if (unsavedInmates.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        inmatesDb.getDbLock().lock();
+        try {
+            for (String clientId : unsavedInmates) {
+                // removed before reading the release time, so a sentence
+                // handed out while we write is saved in the next batch
+                unsavedInmates.remove(clientId);
+                Long releaseTime = releaseTimes.get(clientId);
+                if (releaseTime == null || releaseTime <= now) {
+                    continue;
+                }
+                Inmate existingInmate = inmatesDb.findExactlyOne(CLIENT_IDENTIFIER_INDEX, clientId);
+                if (existingInmate == null) {
+                    inmatesDb.write(new Inmate(0L, clientId, releaseTime));
+                } else if (!existingInmate.getReleaseTime().equals(releaseTime)) {
+                    inmatesDb.write(new Inmate(existingInmate.getIndex(), clientId, releaseTime));
                 }
             }
+        } finally {
+            inmatesDb.getDbLock().unlock();
         }
     }
 
@@ -121,8 +207,15 @@ public final class TheBrig implements ITheBrig {
     public void stop() throws IOException {
         logger.logDebug(() -> "TheBrig has been told to stop");
         if (myThread != null) {
-            logger.logDebug(() -> "TheBrig: Sending interrupt to thread");
-            myThread.interrupt();
+            // wait for any write in progress, so the interrupt does not land in the middle of it
+            persistLock.lock();
+            try {
+                logger.logDebug(() -> "TheBrig: Sending interrupt to thread");
+                myThread.interrupt();
+                persistUnsavedInmates();
+            } finally {
+                persistLock.unlock();
+            }
             this.inmatesDb.stop();
         } else {
             throw new MinumSecurityException("TheBrig was told to stop, but it was uninitialized");
@@ -131,38 +224,125 @@ public final class TheBrig implements ITheBrig {
 
     @Override
     public boolean sendToJail(String clientIdentifier, long sentenceDuration) {
-        lock.lock();
-        try {
-            long now = System.currentTimeMillis();
-
-            Inmate existingInmate = inmatesDb.findExactlyOne(CLIENT_IDENTIFIER_INDEX, clientIdentifier);
-            if (existingInmate == null) {
-                // if this is a new inmate, add them
-                long releaseTime = now + sentenceDuration;
-                logger.logDebug(() -> "TheBrig: Putting away " + clientIdentifier + " for " + sentenceDuration + " milliseconds. Release time: " + releaseTime + ". Current time: " + now);
-                Inmate newInmate = new Inmate(0L, clientIdentifier, releaseTime);
-                inmatesDb.write(newInmate);
-            } else {
-                // if this is an existing inmate continuing to attack us, just update their duration
-                long releaseTime = existingInmate.getReleaseTime() + sentenceDuration;
-                logger.logDebug(() -> "TheBrig: Putting away " + clientIdentifier + " for " + sentenceDuration + " milliseconds. Release time: " + releaseTime + ". Current time: " + now);
-                inmatesDb.write(new Inmate(existingInmate.getIndex(), existingInmate.getClientId(), releaseTime));
+        long now = System.currentTimeMillis();
+        // if this is an existing inmate continuing to attack us, just extend their
+        // duration.  Otherwise, it is a new inmate, or one who already paid their dues.
+        var isNewInmate = new AtomicBoolean(false);
+        long releaseTime = releaseTimes.compute(clientIdentifier, (id, existing) -> {
+            if (existing == null) {
+                isNewInmate.set(true);
+                return now + sentenceDuration;
             }
-        } finally {
-            lock.unlock();
+            return existing > now ? existing + sentenceDuration : now + sentenceDuration;
+        });
+        logger.logDebug(() -> "TheBrig: Putting away " + clientIdentifier + " for " + sentenceDuration + " milliseconds. Release time: " + releaseTime + ". Current time: " + now);
+        unsavedInmates.add(clientIdentifier);
+        byte[] address = parseVulnSeekerAddress(clientIdentifier);
+        if (address != null) {
+            vulnSeekers.hold(address, releaseTime);
+        }
+        // an inmate already held keeps the sentence it has in the queue
+        if (isNewInmate.get()) {
+            sentences.add(new Sentence(clientIdentifier, releaseTime));
         }
         return true;
-
     }
 
     @Override
     public boolean isInJail(String clientIdentifier) {
-            return inmatesDb.findExactlyOne(CLIENT_IDENTIFIER_INDEX, clientIdentifier) != null;
+        Long releaseTime = releaseTimes.get(clientIdentifier);
+        return releaseTime != null && releaseTime > System.currentTimeMillis();
     }
 
+    @Override
+    public boolean isVulnSeeker(byte[] address) {
+        return vulnSeekers.isHeld(address, System.currentTimeMillis());
+    }
+
+    /**
+     * If the client identifier is an IP address followed by
+     * {@link #VULN_SEEKING_SUFFIX}, the bytes of that address.  Otherwise null.
+     */
+    static byte[] parseVulnSeekerAddress(String clientIdentifier) {
+        if (!clientIdentifier.endsWith(VULN_SEEKING_SUFFIX)) {
+            return null;
+        }
+        String address = clientIdentifier.substring(0, clientIdentifier.length() - VULN_SEEKING_SUFFIX.length());
+        if (address.contains(":")) {
+            // an IPv6 literal is parsed without any lookup
+            try {
+                return InetAddress.getByName(address).getAddress();
+            } catch (UnknownHostException ex) {
+                return null;
+            }
+        }
+        String[] parts = address.split("\\.", -1);
+        if (parts.length != 4) {
+            return null;
+        }
+        byte[] result = new byte[4];
+        for (int i = 0; i < 4; i++) {
+            if (parts[i].isEmpty() || parts[i].length() > 3 || !parts[i].chars().allMatch(c -> c >= '0' && c <= '9')) {
+                return null;
+            }
+            int value = Integer.parseInt(parts[i]);
+            if (value > 255) {
+                return null;
+            }
+            result[i] = (byte) value;
+        }
+        return result;
+    }
+
+    /**
+     * The inmates, built from the release times in memory, so this
+     * neither waits on nor writes to the database.  An inmate already
+     * written with its current release time is returned as its database
+     * row.  Otherwise - one whose sentence was handed out or extended
+     * since the last write - it carries the index of its row, if it has
+     * one, with the newer release time.
+     */
     @Override
     public Collection<Inmate> getInmates() {
-            return inmatesDb.values();
+        long now = System.currentTimeMillis();
+        List<Inmate> inmates = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : releaseTimes.entrySet()) {
+            String clientId = entry.getKey();
+            long releaseTime = entry.getValue();
+            if (releaseTime <= now) {
+                continue;
+            }
+            Inmate saved = inmatesDb.findExactlyOne(CLIENT_IDENTIFIER_INDEX, clientId);
+            if (saved != null && saved.getReleaseTime() == releaseTime) {
+                inmates.add(saved);
+            } else {
+                inmates.add(new Inmate(saved == null ? 0L : saved.getIndex(), clientId, releaseTime));
+            }
+        }
+        return inmates;
+    }
+
+    /**
+     * The count of sentences waiting to come due
+     */
+    int sentenceCount() {
+        return sentences.size();
+    }
+
+    /**
+     * A sentence which ends at the release time, for ordering in a {@link DelayQueue}
+     */
+    private record Sentence(String clientId, long releaseTime) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(releaseTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(releaseTime, ((Sentence) other).releaseTime);
+        }
     }
 
 }
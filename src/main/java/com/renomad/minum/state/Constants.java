@@ -1,7 +1,10 @@
 package com.renomad.minum.state;
 
+import com.renomad.minum.logging.LogOverflowPolicy;
 import com.renomad.minum.logging.LoggingLevel;
+import com.renomad.minum.logging.StructuredLogFormat;
 import com.renomad.minum.utils.TimeUtils;
+import com.renomad.minum.web.AccessLogFormat;
 import com.renomad.minum.web.WebServerException;
 
 import java.io.FileInputStream;
@@ -33,6 +36,15 @@ public final class Constants {
         dbDirectory = getNonEmptyProperty("DB_DIRECTORY",  "db");
         staticFilesDirectory = getNonEmptyProperty("STATIC_FILES_DIRECTORY",  "static");
         logLevels = convertLoggingStringsToEnums(getProp("LOG_LEVELS", "DEBUG,AUDIT"));
+        logRingBufferSize = Math.toIntExact(getProp("LOG_RING_BUFFER_SIZE", 0));
+        if (logRingBufferSize < 0) throw new WebServerException("LOG_RING_BUFFER_SIZE must not be negative.  Value was: " + logRingBufferSize);
+        logOverflowPolicy = convertOverflowPolicy(properties.getProperty("LOG_OVERFLOW_POLICY", "BLOCK"));
+        logStructuredFormat = convertStructuredLogFormat(properties.getProperty("LOG_STRUCTURED_FORMAT", "LOGFMT"));
+        logFileDirectory = properties.getProperty("LOG_FILE_DIRECTORY", "");
+        logFileMaxBytes = getPositiveNonZeroProp("LOG_FILE_MAX_BYTES", 100L * 1024 * 1024);
+        logFileRotationMinutes = getProp("LOG_FILE_ROTATION_MINUTES", 24 * 60);
+        logFileMaxSegments = Math.toIntExact(getPositiveNonZeroProp("LOG_FILE_MAX_SEGMENTS", 10));
+        logFileRoutes = convertLogFileRoutes(getProp("LOG_FILE_ROUTES", ""));
         keystorePath = properties.getProperty("KEYSTORE_PATH",  "");
         keystorePassword = properties.getProperty("KEYSTORE_PASSWORD",  "");
         maxReadSizeBytes = Math.toIntExact(getPositiveNonZeroProp("MAX_READ_SIZE_BYTES", 10 * 1024 * 1024));
@@ -51,7 +63,22 @@ public final class Constants {
         maxElementsLruCacheStaticFiles = Math.toIntExact(getPositiveNonZeroProp("MAX_ELEMENTS_LRU_CACHE_STATIC_FILES", 1000));
         maxAppendCount = Math.toIntExact(getPositiveNonZeroProp("MAX_DATABASE_APPEND_COUNT", 100_000));
         maxLinesPerConsolidatedDatabaseFile = Math.toIntExact(getPositiveNonZeroProp("MAX_DATABASE_CONSOLIDATED_FILE_LINES", 100_000));
+        maxPendingDatabaseWrites = Math.toIntExact(getPositiveNonZeroProp("MAX_DATABASE_PENDING_WRITES", 10_000));
         enableSystemRunningMarker = getProp("ENABLE_SYSTEM_RUNNING_MARKER", true);
+        dbMetricsEndpoint = properties.getProperty("DB_METRICS_ENDPOINT", "");
+        queueMetricsEndpoint = properties.getProperty("QUEUE_METRICS_ENDPOINT", "");
+        accessLogFormat = convertAccessLogFormat(properties.getProperty("ACCESS_LOG_FORMAT", "NONE"));
+        accessLogBufferSize = Math.toIntExact(getPositiveNonZeroProp("ACCESS_LOG_BUFFER_SIZE", 4096));
+        templateDirectory = getNonEmptyProperty("TEMPLATE_DIRECTORY", "templates");
+        templateHotReload = getProp("TEMPLATE_HOT_RELOAD", false);
+        templateExtensions = getProp("TEMPLATE_EXTENSIONS", "html,htm,txt");
+        multipartSpillThresholdBytes = getProp("MULTIPART_SPILL_THRESHOLD_BYTES", 0);
+        multipartSpillDirectory = properties.getProperty("MULTIPART_SPILL_DIRECTORY", "");
+        maxConcurrentUploadBytes = getProp("MAX_CONCURRENT_UPLOAD_BYTES", 0);
+        rateLimitRequestsPerSecond = getProp("RATE_LIMIT_REQUESTS_PER_SECOND", 0);
+        rateLimitBytesPerSecond = getProp("RATE_LIMIT_BYTES_PER_SECOND", 0);
+        maxConnectionsPerClient = getProp("MAX_CONNECTIONS_PER_CLIENT", 0);
+        rateLimitMaxClients = (int) getPositiveNonZeroProp("RATE_LIMIT_MAX_CLIENTS", 10_000);
     }
 
     /**
@@ -84,6 +111,61 @@ public final class Constants {
      */
     public final List<LoggingLevel> logLevels;
 
+    /**
+     * If greater than zero, log messages are passed to a fixed-size ring buffer
+     * holding this many messages (rounded up to a power of two), and written
+     * out in batches.  This is faster, particularly with TRACE enabled, and bounds
+     * the memory used by logging. Default is 0, meaning each message is
+     * queued and printed separately.
+     */
+    public final int logRingBufferSize;
+
+    /**
+     * What to do when the log ring buffer is full.  Only applies if
+     * {@link #logRingBufferSize} is set.  Default is BLOCK.  See {@link LogOverflowPolicy}
+     */
+    public final LogOverflowPolicy logOverflowPolicy;
+
+    /**
+     * How structured log events, like those from
+     * {@link com.renomad.minum.logging.ILogger#event(LoggingLevel, String)},
+     * are written.  Default is LOGFMT.  See {@link StructuredLogFormat}
+     */
+    public final StructuredLogFormat logStructuredFormat;
+
+    /**
+     * If set, logs are written to files in this directory rather than
+     * to standard out, rotating to new files as configured by the
+     * other LOG_FILE settings. See {@link com.renomad.minum.logging.RollingFileAppender}
+     * Default is empty, meaning standard out.
+     */
+    public final String logFileDirectory;
+
+    /**
+     * A log file is rotated once it would grow past this many bytes.
+     * Default is 100 megabytes.
+     */
+    public final long logFileMaxBytes;
+
+    /**
+     * A log file is rotated once it is this many minutes old.  Zero means
+     * log files are only rotated by size.  Default is one day.
+     */
+    public final long logFileRotationMinutes;
+
+    /**
+     * How many rotated (and compressed) log files to keep for
+     * each kind of log.  Default is 10.
+     */
+    public final int logFileMaxSegments;
+
+    /**
+     * Log levels which are written to their own file, rather than
+     * the main log.  For example, "AUDIT=audit" sends audit
+     * logs to audit.log.  Default is empty.
+     */
+    public final Map<LoggingLevel, String> logFileRoutes;
+
     /**
      * The path to the keystore, required for encrypted TLS communication
      */
@@ -190,6 +272,14 @@ public final class Constants {
      */
     public final int maxAppendCount;
 
+    /**
+     * The maximum count of rows which may be waiting to be written
+     * to disk.  Past this, writes will block until the disk catches up.
+     * Several changes to the same row only count once.
+     * Only applies when using the classic Db.
+     */
+    public final int maxPendingDatabaseWrites;
+
     /**
      * This number is the maximum count of lines we will allow in a consolidated
      * database file, to support the needs of the database.
@@ -217,6 +307,109 @@ public final class Constants {
      */
     public final boolean enableSystemRunningMarker;
 
+    /**
+     * If set, the metrics of all the databases (see {@link com.renomad.minum.database.DbMetrics})
+     * will be served as plain text at this path, for example "admin/db_metrics".
+     * Default is empty, meaning no endpoint is registered.
+     */
+    public final String dbMetricsEndpoint;
+
+    /**
+     * If set, the metrics of each running {@link com.renomad.minum.queue.BoundedActionQueue}
+     * (see {@link com.renomad.minum.queue.ActionQueueMetrics}) will be served as plain
+     * text at this path, for example "admin/queue_metrics".
+     * Default is empty, meaning no endpoint is registered.
+     */
+    public final String queueMetricsEndpoint;
+
+    /**
+     * If set to something other than NONE, each request is recorded in
+     * an access log in this format, with its status, sizes, and timing.
+     * Default is NONE.  See {@link AccessLogFormat}
+     */
+    public final AccessLogFormat accessLogFormat;
+
+    /**
+     * How many access log entries may wait to be written (rounded up to a
+     * power of two).  Entries beyond this are discarded and counted, rather
+     * than slowing down requests.  Default is 4096.
+     */
+    public final int accessLogBufferSize;
+
+    /**
+     * The directory from which a {@link com.renomad.minum.templating.TemplateRegistry}
+     * loads templates.  Default is "templates".
+     */
+    public final String templateDirectory;
+
+    /**
+     * If true, a {@link com.renomad.minum.templating.TemplateRegistry} watches its
+     * directory and rebuilds templates when they change, rather than building
+     * them all at startup.  Meant for development.  Default is false.
+     */
+    public final boolean templateHotReload;
+
+    /**
+     * The file extensions of the templates a {@link com.renomad.minum.templating.TemplateRegistry}
+     * builds at startup.  Other files in the directory, like ".DS_Store", are
+     * skipped.  Default is "html,htm,txt".
+     */
+    public final List<String> templateExtensions;
+
+    /**
+     * When a multipart/form-data body is read with {@link com.renomad.minum.web.Request#getBody()},
+     * any partition larger than this many bytes is written to a temporary file
+     * rather than kept in memory, and the file is deleted once the response is
+     * sent.  Default is 0, meaning all partitions are kept in memory.
+     */
+    public final long multipartSpillThresholdBytes;
+
+    /**
+     * The directory for the temporary files of partitions larger than
+     * {@link #multipartSpillThresholdBytes}.  Default is empty, meaning the
+     * system's temporary directory.
+     */
+    public final String multipartSpillDirectory;
+
+    /**
+     * The most bytes of multipart/form-data bodies that may be read with
+     * {@link com.renomad.minum.web.Request#getBody()} at the same time, across
+     * all requests.  An upload that would go past this is refused with a 400 Bad
+     * Request.  Default is 0, meaning there is no limit.
+     */
+    public final long maxConcurrentUploadBytes;
+
+    /**
+     * The most requests each client address may make per second, on average.
+     * A client may make up to a second's worth at once.  Requests past this
+     * get a 429 Too Many Requests.  Default is 0, meaning there is no limit.
+     */
+    public final long rateLimitRequestsPerSecond;
+
+    /**
+     * The most bytes of response bodies sent to each client address per
+     * second, on average.  Once a client has used up its allowance, its
+     * requests get a 429 Too Many Requests until it has earned more.
+     * Default is 0, meaning there is no limit.
+     */
+    public final long rateLimitBytesPerSecond;
+
+    /**
+     * The most connections one client address may have open at once.  Past
+     * this, the connection is answered with a 429 Too Many Requests and closed.
+     * Default is 0, meaning there is no limit.
+     */
+    public final long maxConnectionsPerClient;
+
+    /**
+     * How many client addresses the rate limiter keeps track of.  When this many
+     * are being tracked, idle clients are forgotten to make room, and if none are
+     * idle, new clients are not limited until there is room - rather than refused,
+     * which would let someone with enough addresses to fill the table lock out
+     * everyone else.  Default is 10,000.
+     */
+    public final int rateLimitMaxClients;
+
 
     /* ************************ **
             HELPER METHODS
@@ -314,6 +507,49 @@ public final class Constants {
         return enabledLoggingLevels;
     }
 
+    /**
+     * Convert a list like "AUDIT=audit, TRACE=trace" to a map of log levels to file names
+     */
+    static Map<LoggingLevel, String> convertLogFileRoutes(List<String> routes) {
+        Map<LoggingLevel, String> result = new EnumMap<>(LoggingLevel.class);
+        for (String route : routes) {
+            String[] parts = route.split("=", 2);
+            try {
+                if (parts.length != 2 || parts[1].isBlank() || !parts[1].trim().matches("[A-Za-z0-9_-]+")) {
+                    throw new IllegalArgumentException();
+                }
+                result.put(LoggingLevel.valueOf(parts[0].trim().toUpperCase(Locale.ROOT)), parts[1].trim());
+            } catch (IllegalArgumentException ex) {
+                throw new WebServerException("LOG_FILE_ROUTES entries must be like AUDIT=audit, with a log level and a simple file name.  Value was: " + route);
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    static AccessLogFormat convertAccessLogFormat(String format) {
+        try {
+            return AccessLogFormat.valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new WebServerException("ACCESS_LOG_FORMAT must be one of " + Arrays.toString(AccessLogFormat.values()) + ".  Value was: " + format);
+        }
+    }
+
+    static StructuredLogFormat convertStructuredLogFormat(String format) {
+        try {
+            return StructuredLogFormat.valueOf(format.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new WebServerException("LOG_STRUCTURED_FORMAT must be one of " + Arrays.toString(StructuredLogFormat.values()) + ".  Value was: " + format);
+        }
+    }
+
+    static LogOverflowPolicy convertOverflowPolicy(String policy) {
+        try {
+            return LogOverflowPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ex) {
+            throw new WebServerException("LOG_OVERFLOW_POLICY must be one of " + Arrays.toString(LogOverflowPolicy.values()) + ".  Value was: " + policy);
+        }
+    }
+
     private static final String CONFIG_ERROR_MESSAGE = """
                 
                 
@@ -335,12 +571,12 @@ public final class Constants {
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
         Constants constants = (Constants) o;
-        return serverPort == constants.serverPort && secureServerPort == constants.secureServerPort && maxReadSizeBytes == constants.maxReadSizeBytes && maxReadLineSizeBytes == constants.maxReadLineSizeBytes && socketTimeoutMillis == constants.socketTimeoutMillis && keepAliveTimeoutSeconds == constants.keepAliveTimeoutSeconds && vulnSeekingJailDuration == constants.vulnSeekingJailDuration && isTheBrigEnabled == constants.isTheBrigEnabled && startTime == constants.startTime && staticFileCacheTime == constants.staticFileCacheTime && useCacheForStaticFiles == constants.useCacheForStaticFiles && maxAppendCount == constants.maxAppendCount && maxLinesPerConsolidatedDatabaseFile == constants.maxLinesPerConsolidatedDatabaseFile && maxElementsLruCacheStaticFiles == constants.maxElementsLruCacheStaticFiles && enableSystemRunningMarker == constants.enableSystemRunningMarker && Objects.equals(properties, constants.properties) && Objects.equals(hostName, constants.hostName) && Objects.equals(dbDirectory, constants.dbDirectory) && Objects.equals(staticFilesDirectory, constants.staticFilesDirectory) && Objects.equals(logLevels, constants.logLevels) && Objects.equals(keystorePath, constants.keystorePath) && Objects.equals(keystorePassword, constants.keystorePassword) && Objects.equals(suspiciousErrors, constants.suspiciousErrors) && Objects.equals(suspiciousPaths, constants.suspiciousPaths) && Objects.equals(extraMimeMappings, constants.extraMimeMappings);
+        return serverPort == constants.serverPort && secureServerPort == constants.secureServerPort && maxReadSizeBytes == constants.maxReadSizeBytes && maxReadLineSizeBytes == constants.maxReadLineSizeBytes && socketTimeoutMillis == constants.socketTimeoutMillis && keepAliveTimeoutSeconds == constants.keepAliveTimeoutSeconds && vulnSeekingJailDuration == constants.vulnSeekingJailDuration && isTheBrigEnabled == constants.isTheBrigEnabled && startTime == constants.startTime && staticFileCacheTime == constants.staticFileCacheTime && useCacheForStaticFiles == constants.useCacheForStaticFiles && maxAppendCount == constants.maxAppendCount && maxPendingDatabaseWrites == constants.maxPendingDatabaseWrites && maxLinesPerConsolidatedDatabaseFile == constants.maxLinesPerConsolidatedDatabaseFile && maxElementsLruCacheStaticFiles == constants.maxElementsLruCacheStaticFiles && enableSystemRunningMarker == constants.enableSystemRunningMarker && logRingBufferSize == constants.logRingBufferSize && logOverflowPolicy == constants.logOverflowPolicy && logStructuredFormat == constants.logStructuredFormat && logFileMaxBytes == constants.logFileMaxBytes && logFileRotationMinutes == constants.logFileRotationMinutes && logFileMaxSegments == constants.logFileMaxSegments && Objects.equals(logFileDirectory, constants.logFileDirectory) && Objects.equals(logFileRoutes, constants.logFileRoutes) && Objects.equals(dbMetricsEndpoint, constants.dbMetricsEndpoint) && Objects.equals(queueMetricsEndpoint, constants.queueMetricsEndpoint) && accessLogFormat == constants.accessLogFormat && accessLogBufferSize == constants.accessLogBufferSize && templateHotReload == constants.templateHotReload && Objects.equals(templateExtensions, constants.templateExtensions) && Objects.equals(templateDirectory, constants.templateDirectory) && multipartSpillThresholdBytes == constants.multipartSpillThresholdBytes && Objects.equals(multipartSpillDirectory, constants.multipartSpillDirectory) && maxConcurrentUploadBytes == constants.maxConcurrentUploadBytes && rateLimitRequestsPerSecond == constants.rateLimitRequestsPerSecond && rateLimitBytesPerSecond == constants.rateLimitBytesPerSecond && maxConnectionsPerClient == constants.maxConnectionsPerClient && rateLimitMaxClients == constants.rateLimitMaxClients && Objects.equals(properties, constants.properties) && Objects.equals(hostName, constants.hostName) && Objects.equals(dbDirectory, constants.dbDirectory) && Objects.equals(staticFilesDirectory, constants.staticFilesDirectory) && Objects.equals(logLevels, constants.logLevels) && Objects.equals(keystorePath, constants.keystorePath) && Objects.equals(keystorePassword, constants.keystorePassword) && Objects.equals(suspiciousErrors, constants.suspiciousErrors) && Objects.equals(suspiciousPaths, constants.suspiciousPaths) && Objects.equals(extraMimeMappings, constants.extraMimeMappings);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(properties, serverPort, secureServerPort, hostName, dbDirectory, staticFilesDirectory, logLevels, keystorePath, keystorePassword, maxReadSizeBytes, maxReadLineSizeBytes, socketTimeoutMillis, keepAliveTimeoutSeconds, vulnSeekingJailDuration, isTheBrigEnabled, suspiciousErrors, suspiciousPaths, startTime, extraMimeMappings, staticFileCacheTime, useCacheForStaticFiles, maxAppendCount, maxLinesPerConsolidatedDatabaseFile, maxElementsLruCacheStaticFiles, enableSystemRunningMarker);
+        return Objects.hash(properties, serverPort, secureServerPort, hostName, dbDirectory, staticFilesDirectory, logLevels, keystorePath, keystorePassword, maxReadSizeBytes, maxReadLineSizeBytes, socketTimeoutMillis, keepAliveTimeoutSeconds, vulnSeekingJailDuration, isTheBrigEnabled, suspiciousErrors, suspiciousPaths, startTime, extraMimeMappings, staticFileCacheTime, useCacheForStaticFiles, maxAppendCount, maxPendingDatabaseWrites, maxLinesPerConsolidatedDatabaseFile, maxElementsLruCacheStaticFiles, enableSystemRunningMarker, logRingBufferSize, logOverflowPolicy, logStructuredFormat, logFileDirectory, logFileMaxBytes, logFileRotationMinutes, logFileMaxSegments, logFileRoutes, dbMetricsEndpoint, queueMetricsEndpoint, accessLogFormat, accessLogBufferSize, templateDirectory, templateHotReload, templateExtensions, multipartSpillThresholdBytes, multipartSpillDirectory, maxConcurrentUploadBytes, rateLimitRequestsPerSecond, rateLimitBytesPerSecond, maxConnectionsPerClient, rateLimitMaxClients);
     }
 }
 
@@ -3,13 +3,18 @@ package com.renomad.minum.state;
 import com.renomad.minum.database.Db;
 import com.renomad.minum.database.DbData;
 import com.renomad.minum.database.DbEngine2;
+import com.renomad.minum.database.DbMetrics;
 import com.renomad.minum.logging.ILogger;
 import com.renomad.minum.queue.ActionQueueState;
 import com.renomad.minum.web.FullSystem;
 
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -52,6 +57,8 @@ public final class Context {
      */
     private final ReentrantLock databasePathsLock;
 
+    private final Map<Path, DbMetrics> dbMetrics;
+
     public Context(ExecutorService executorService, Constants constants, ILogger logger) {
         this.executorService = executorService;
         this.constants = constants;
@@ -59,6 +66,7 @@ public final class Context {
         this.logger = logger;
         this.registeredDatabasePaths = new HashSet<>();
         this.databasePathsLock = new ReentrantLock();
+        this.dbMetrics = new ConcurrentSkipListMap<>();
     }
 
     public ILogger getLogger() {
@@ -121,6 +129,16 @@ public final class Context {
         return new DbEngine2<>(Path.of(constants.dbDirectory, name), this, instance);
     }
 
+    /**
+     * Similar to {@link #getDb2(String, DbData)}, but the database will keep
+     * only a bounded number of its items in memory, reading the rest from
+     * disk as needed.  See {@link DbEngine2#DbEngine2(Path, Context, DbData, int)}
+     * @param maxResidentRows the maximum count of items read from disk to keep in memory
+     */
+    public <T extends DbData<?>> DbEngine2<T> getDb2(String name, T instance, int maxResidentRows) {
+        return new DbEngine2<>(Path.of(constants.dbDirectory, name), this, instance, maxResidentRows);
+    }
+
 
     /* ***********************************************
 
@@ -165,6 +183,7 @@ public final class Context {
         try {
             logger.logDebug(() -> "Removing registration for database path " + path);
             this.registeredDatabasePaths.remove(path);
+            this.dbMetrics.remove(path);
         } finally {
             this.databasePathsLock.unlock();
         }
@@ -179,9 +198,27 @@ public final class Context {
         try {
             logger.logDebug(() -> "Removing all registered database paths: " + registeredDatabasePaths);
             this.registeredDatabasePaths.clear();
+            this.dbMetrics.clear();
         } finally {
             this.databasePathsLock.unlock();
         }
     }
 
+    /**
+     * Register the metrics of a database, so they are available
+     * from {@link #getDbMetrics()}.  This is done by the database itself
+     * when it is constructed, and removed by {@link #removeFromPaths(Path)}
+     */
+    public void addDbMetrics(Path path, DbMetrics metrics) {
+        this.dbMetrics.put(path, metrics);
+    }
+
+    /**
+     * The metrics of each of the databases currently in use, ordered by
+     * their path.  See {@link DbMetrics}
+     */
+    public Collection<DbMetrics> getDbMetrics() {
+        return List.copyOf(this.dbMetrics.values());
+    }
+
 }
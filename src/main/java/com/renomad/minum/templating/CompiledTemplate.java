@@ -0,0 +1,465 @@
+package com.renomad.minum.templating;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A template prepared for fast rendering to UTF-8 bytes.  Obtain one
+ * from {@link TemplateProcessor#compile()}.
+ * <p>
+ *     When compiled, the static text of the template is encoded to bytes once,
+ *     and each key is given a numbered slot.  Rendering then only copies those
+ *     bytes and encodes the values, straight into a {@link TemplateBuffer}, with
+ *     no intermediate strings.  Values without newlines are copied as-is; those
+ *     with newlines are indented to line up with the first line, as
+ *     {@link TemplateProcessor#renderTemplate(Map)} does.
+ * </p>
+ * <p>
+ *     Blocks - repeated sections and if-sections, see {@link TemplateProcessor#render(Map)} -
+ *     are part of the same plan, each block start recording where its block ends,
+ *     so a whole page renders in a single pass.
+ * </p>
+ * <p>
+ *     Values may be given as a map, like {@link TemplateProcessor}, or, for
+ *     templates without blocks and to skip the map lookups, as an array in slot order:
+ * </p>
+ * <pre>
+ * {@code
+ *   CompiledTemplate compiled = TemplateProcessor.buildProcessor("Hello {{name}}").compile();
+ *   int nameSlot = compiled.slotIndex("name");
+ *   String[] values = new String[compiled.slotCount()];
+ *   values[nameSlot] = "Susanne";
+ *   TemplateBuffer buffer = new TemplateBuffer();
+ *   compiled.render(values, buffer);
+ * }
+ * </pre>
+ * <p>
+ *     If built with auto-escaping (see {@link TemplateProcessor#buildProcessor(String, java.util.function.Function, boolean)}),
+ *     values are HTML-escaped as they are encoded, with no intermediate strings.
+ * </p>
+ * <p>
+ *     Safe to use from many threads at once, each with its own buffer.
+ * </p>
+ */
+public final class CompiledTemplate {
+
+    /**
+     * What each step of the plan does
+     */
+    private final TemplateType[] types;
+
+    /**
+     * For each step of the plan, the bytes to copy, if it is static text
+     */
+    private final byte[][] staticBytes;
+
+    /**
+     * For each step of the plan, the key of the value to write, or the
+     * name of the list or flag of a block start
+     */
+    private final String[] names;
+
+    /**
+     * For each step of the plan, the slot of the value to write, or -1 if it
+     * is not a value.  Only used for templates without blocks.
+     */
+    private final int[] slots;
+
+    /**
+     * For each step of the plan, a newline followed by the spaces
+     * that indent the later lines of a multi-line value
+     */
+    private final byte[][] newlineIndents;
+
+    /**
+     * For a block start or an else, the step holding the end of the block
+     */
+    private final int[] blockEnds;
+
+    /**
+     * For an if-start, the step holding its else, or -1 if none
+     */
+    private final int[] elses;
+
+    /**
+     * For an each-start, the keys each of its maps must have
+     */
+    private final List<Set<String>> eachKeys;
+
+    /**
+     * The keys outside any repeated section, in slot order
+     */
+    private final String[] keys;
+    private final Set<String> keySet;
+    private final Map<String, Integer> slotByKey;
+    private final boolean hasBlocks;
+    private final int estimatedSize;
+
+    /**
+     * If true, values are HTML-escaped as they are written
+     */
+    private final boolean isAutoEscaped;
+
+    /**
+     * When rendering many rows to an output, rendered bytes are gathered
+     * until there are at least this many, then written together
+     */
+    private static final int OUTPUT_CHUNK_SIZE = 8 * 1024;
+
+    private CompiledTemplate(TemplateType[] types, byte[][] staticBytes, String[] names, int[] slots,
+                             byte[][] newlineIndents, int[] blockEnds, int[] elses, List<Set<String>> eachKeys,
+                             String[] keys, Map<String, Integer> slotByKey, boolean hasBlocks, int estimatedSize,
+                             boolean isAutoEscaped) {
+        this.types = types;
+        this.staticBytes = staticBytes;
+        this.names = names;
+        this.slots = slots;
+        this.newlineIndents = newlineIndents;
+        this.blockEnds = blockEnds;
+        this.elses = elses;
+        this.eachKeys = eachKeys;
+        this.keys = keys;
+        this.keySet = Set.of(keys);
+        this.slotByKey = slotByKey;
+        this.hasBlocks = hasBlocks;
+        this.estimatedSize = estimatedSize;
+        this.isAutoEscaped = isAutoEscaped;
+    }
+
+    static CompiledTemplate compile(List<TemplateSection> templateSections, int estimatedSize, boolean isAutoEscaped) {
+        int count = templateSections.size();
+        var types = new TemplateType[count];
+        byte[][] staticBytes = new byte[count][];
+        var names = new String[count];
+        int[] slots = new int[count];
+        byte[][] newlineIndents = new byte[count][];
+        int[] blockEnds = new int[count];
+        int[] elses = new int[count];
+        List<Set<String>> eachKeys = new ArrayList<>(Collections.nCopies(count, null));
+        boolean hasBlocks = false;
+
+        // the blocks not yet closed, innermost first, and the keys
+        // found so far at each level of repetition
+        var openBlocks = new ArrayDeque<Integer>();
+        var scopes = new ArrayDeque<Set<String>>();
+        scopes.push(new LinkedHashSet<>());
+
+        for (int i = 0; i < count; i++) {
+            TemplateSection section = templateSections.get(i);
+            types[i] = section.templateType;
+            names[i] = section.key;
+            slots[i] = -1;
+            elses[i] = -1;
+            switch (section.templateType) {
+                case STATIC_TEXT -> staticBytes[i] = section.subString.getBytes(StandardCharsets.UTF_8);
+                case DYNAMIC_TEXT -> {
+                    scopes.element().add(section.key);
+                    newlineIndents[i] = ("\n" + " ".repeat(Math.max(0, section.indent - 1))).getBytes(StandardCharsets.UTF_8);
+                }
+                case EACH_START, IF_START -> {
+                    hasBlocks = true;
+                    scopes.element().add(section.key);
+                    openBlocks.push(i);
+                    if (section.templateType == TemplateType.EACH_START) {
+                        scopes.push(new LinkedHashSet<>());
+                    }
+                }
+                case ELSE -> {
+                    int ifStart = openBlocks.element();
+                    if (elses[ifStart] >= 0) {
+                        throw new TemplateParseException("{{#if " + names[ifStart] + "}} has more than one {{else}}");
+                    }
+                    elses[ifStart] = i;
+                }
+                case EACH_END, IF_END -> {
+                    TemplateType startType = section.templateType == TemplateType.EACH_END ? TemplateType.EACH_START : TemplateType.IF_START;
+                    String tag = section.templateType == TemplateType.EACH_END ? "{{/each}}" : "{{/if}}";
+                    if (openBlocks.isEmpty()) {
+                        throw new TemplateParseException(tag + " has no block to close");
+                    }
+                    int start = openBlocks.pop();
+                    if (types[start] != startType) {
+                        throw new TemplateParseException(tag + " cannot close {{" + blockTag(types[start], names[start]) + "}}");
+                    }
+                    blockEnds[start] = i;
+                    if (startType == TemplateType.EACH_START) {
+                        eachKeys.set(start, Set.copyOf(scopes.pop()));
+                    } else if (elses[start] >= 0) {
+                        blockEnds[elses[start]] = i;
+                    }
+                }
+            }
+        }
+        if (!openBlocks.isEmpty()) {
+            int start = openBlocks.element();
+            throw new TemplateParseException("{{" + blockTag(types[start], names[start]) + "}} was never closed");
+        }
+
+        // without blocks, values may be given by slot
+        Map<String, Integer> slotByKey = new LinkedHashMap<>();
+        for (String key : scopes.element()) {
+            slotByKey.put(key, slotByKey.size());
+        }
+        if (!hasBlocks) {
+            for (int i = 0; i < count; i++) {
+                if (types[i] == TemplateType.DYNAMIC_TEXT) {
+                    slots[i] = slotByKey.get(names[i]);
+                }
+            }
+        }
+        String[] keys = slotByKey.keySet().toArray(new String[0]);
+        return new CompiledTemplate(types, staticBytes, names, slots, newlineIndents, blockEnds, elses,
+                eachKeys, keys, Map.copyOf(slotByKey), hasBlocks, estimatedSize, isAutoEscaped);
+    }
+
+    private static String blockTag(TemplateType type, String name) {
+        return (type == TemplateType.EACH_START ? "#each " : "#if ") + name;
+    }
+
+    /**
+     * Whether the template has any repeated sections or if-sections
+     */
+    boolean hasBlocks() {
+        return hasBlocks;
+    }
+
+    /**
+     * The count of distinct keys in the template
+     */
+    public int slotCount() {
+        return keys.length;
+    }
+
+    /**
+     * The slot for a key, for use with {@link #render(String[], TemplateBuffer)}
+     * @throws TemplateRenderException if the template has no such key
+     */
+    public int slotIndex(String key) {
+        Integer slot = slotByKey.get(key);
+        if (slot == null) {
+            throw new TemplateRenderException("There is no key named " + key + " in the template.  Keys: " + Arrays.toString(keys));
+        }
+        return slot;
+    }
+
+    /**
+     * The keys of the template, in slot order.  For a template with
+     * blocks, these are the keys outside any repeated section, including
+     * the names of blocks.
+     */
+    public List<String> getKeys() {
+        return List.of(keys);
+    }
+
+    /**
+     * Render with values in slot order.  See {@link #slotIndex(String)}.  Only
+     * for templates without blocks.
+     * @param values one value for each slot, none null
+     */
+    public void render(String[] values, TemplateBuffer buffer) {
+        if (hasBlocks) {
+            throw new TemplateRenderException("A template with blocks must be rendered with a map of values");
+        }
+        if (values.length != keys.length) {
+            throw new TemplateRenderException("Expected " + keys.length + " values, one for each key " + Arrays.toString(keys) + ", but got " + values.length);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new TemplateRenderException("No value was provided for the key: " + keys[i]);
+            }
+        }
+        renderPlan(values, buffer);
+    }
+
+    /**
+     * Render with values from a map, which must have exactly the
+     * keys of the template.  See {@link TemplateProcessor#render(Map)} for
+     * the values used by blocks.
+     */
+    public void render(Map<String, ?> values, TemplateBuffer buffer) {
+        if (hasBlocks) {
+            TemplateProcessor.checkKeysMatch(keySet, values.keySet());
+            renderRange(0, types.length, values, buffer);
+            return;
+        }
+        String[] slotValues = new String[keys.length];
+        boolean isMissingAny = values.size() != keys.length;
+        for (int i = 0; i < keys.length && !isMissingAny; i++) {
+            slotValues[i] = stringValue(values, keys[i]);
+            isMissingAny = slotValues[i] == null;
+        }
+        if (isMissingAny) {
+            TemplateProcessor.checkKeysMatch(keySet, values.keySet());
+            // the keys match, so a value must be null
+            render(slotValues, buffer);
+            return;
+        }
+        renderPlan(slotValues, buffer);
+    }
+
+    /**
+     * Render with values from a map, to a new array of UTF-8 bytes
+     */
+    public byte[] render(Map<String, ?> values) {
+        TemplateBuffer buffer = new TemplateBuffer(estimatedSize);
+        render(values, buffer);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Render with values from a map, writing the UTF-8 bytes to the output
+     */
+    public void renderTo(Map<String, ?> values, OutputStream out) throws IOException {
+        TemplateBuffer buffer = new TemplateBuffer(estimatedSize);
+        render(values, buffer);
+        buffer.writeTo(out);
+    }
+
+    /**
+     * Render once for each row, with the delimiter between each, writing the
+     * UTF-8 bytes to the output as it goes.  The rows are read one at a time,
+     * so they need not all be in memory at once, and neither does the result - this
+     * is meant for large pages sent with
+     * {@code Response.buildChunkedResponse}.
+     * <p>
+     *     Each row must have exactly the keys of the template.  Since rendering
+     *     happens as the rows arrive, a bad row causes an exception after the
+     *     earlier rows were written.
+     * </p>
+     */
+    public void renderTo(Iterator<? extends Map<String, ?>> rows, String delimiter, OutputStream out) throws IOException {
+        byte[] delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+        TemplateBuffer buffer = new TemplateBuffer(Math.max(estimatedSize, OUTPUT_CHUNK_SIZE) + estimatedSize);
+        boolean isFirst = true;
+        while (rows.hasNext()) {
+            Map<String, ?> row = rows.next();
+            if (!isFirst) {
+                buffer.write(delimiterBytes);
+            }
+            isFirst = false;
+            render(row, buffer);
+            if (buffer.size() >= OUTPUT_CHUNK_SIZE) {
+                buffer.writeTo(out);
+                buffer.reset();
+            }
+        }
+        buffer.writeTo(out);
+    }
+
+    /**
+     * Like {@link #renderTo(Iterator, String, OutputStream)}, with the rows from a stream
+     */
+    public void renderTo(Stream<? extends Map<String, ?>> rows, String delimiter, OutputStream out) throws IOException {
+        renderTo(rows.iterator(), delimiter, out);
+    }
+
+    private void renderPlan(String[] values, TemplateBuffer buffer) {
+        for (int i = 0; i < slots.length; i++) {
+            int slot = slots[i];
+            if (slot < 0) {
+                buffer.write(staticBytes[i]);
+            } else {
+                writeValue(values[slot], newlineIndents[i], buffer);
+            }
+        }
+    }
+
+    /**
+     * Render the steps of the plan from start up to (not including) end, with
+     * values from the map, which has already been checked to have the right keys.
+     */
+    private void renderRange(int start, int end, Map<String, ?> values, TemplateBuffer buffer) {
+        int i = start;
+        while (i < end) {
+            switch (types[i]) {
+                case STATIC_TEXT -> buffer.write(staticBytes[i]);
+                case DYNAMIC_TEXT -> {
+                    String value = stringValue(values, names[i]);
+                    if (value == null) {
+                        throw new TemplateRenderException("No value was provided for the key: " + names[i]);
+                    }
+                    writeValue(value, newlineIndents[i], buffer);
+                }
+                case EACH_START -> {
+                    if (!(values.get(names[i]) instanceof Iterable<?> rows)) {
+                        throw new TemplateRenderException("The value for " + names[i] + " must be a list of maps, for {{#each " + names[i] + "}}.  Value was: " + values.get(names[i]));
+                    }
+                    Set<String> rowKeys = eachKeys.get(i);
+                    for (Object row : rows) {
+                        if (!(row instanceof Map<?, ?> rowMap)) {
+                            throw new TemplateRenderException("Each item of " + names[i] + " must be a map, for {{#each " + names[i] + "}}.  Item was: " + row);
+                        }
+                        @SuppressWarnings("unchecked")
+                        Map<String, ?> rowValues = (Map<String, ?>) rowMap;
+                        TemplateProcessor.checkKeysMatch(rowKeys, rowValues.keySet());
+                        renderRange(i + 1, blockEnds[i], rowValues, buffer);
+                    }
+                    i = blockEnds[i];
+                }
+                case IF_START -> {
+                    if (!(values.get(names[i]) instanceof Boolean isTrue)) {
+                        throw new TemplateRenderException("The value for " + names[i] + " must be a Boolean, for {{#if " + names[i] + "}}.  Value was: " + values.get(names[i]));
+                    }
+                    int elseStep = elses[i];
+                    if (isTrue) {
+                        renderRange(i + 1, elseStep >= 0 ? elseStep : blockEnds[i], values, buffer);
+                    } else if (elseStep >= 0) {
+                        renderRange(elseStep + 1, blockEnds[i], values, buffer);
+                    }
+                    i = blockEnds[i];
+                }
+                // the ends of blocks are skipped over above, so have nothing to do
+                case ELSE, EACH_END, IF_END -> { }
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Get a value that is to be written as text
+     * @return the value, or null if missing
+     */
+    private static String stringValue(Map<String, ?> values, String key) {
+        Object value = values.get(key);
+        if (value == null || value instanceof String) {
+            return (String) value;
+        }
+        throw new TemplateRenderException("The value for " + key + " must be a String.  Value was: " + value);
+    }
+
+    /**
+     * Write a value, indenting each line after the first to line up with it.  Empty
+     * lines are left empty.
+     */
+    private void writeValue(String value, byte[] newlineIndent, TemplateBuffer buffer) {
+        int newline = value.indexOf('\n');
+        if (newline < 0) {
+            writeText(value, 0, value.length(), buffer);
+            return;
+        }
+        int start = 0;
+        while (newline >= 0) {
+            writeText(value, start, newline, buffer);
+            boolean isNextLineEmpty = newline + 1 == value.length() || value.charAt(newline + 1) == '\n';
+            if (isNextLineEmpty) {
+                buffer.writeByte('\n');
+            } else {
+                buffer.write(newlineIndent);
+            }
+            start = newline + 1;
+            newline = value.indexOf('\n', start);
+        }
+        writeText(value, start, value.length(), buffer);
+    }
+
+    private void writeText(String value, int start, int end, TemplateBuffer buffer) {
+        if (isAutoEscaped) {
+            buffer.writeHtmlEscaped(value, start, end);
+        } else {
+            buffer.writeUtf8(value, start, end);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.renomad.minum.templating;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A growable array of UTF-8 bytes that a {@link CompiledTemplate} renders into.
+ * <p>
+ *     It may be kept and reused - after {@link #reset()}, the next rendering
+ *     writes over the same memory, so rendering many pages does not
+ *     allocate a new buffer each time.  Not safe to share between threads.
+ * </p>
+ */
+public final class TemplateBuffer {
+
+    private static final byte[] AMPERSAND = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LESS_THAN = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GREATER_THAN = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUOTE = "&quot;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] APOSTROPHE = "&apos;".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] bytes;
+    private int size;
+
+    public TemplateBuffer() {
+        this(1024);
+    }
+
+    /**
+     * @param initialCapacity the count of bytes to start with.  The buffer grows as needed.
+     */
+    public TemplateBuffer(int initialCapacity) {
+        this.bytes = new byte[Math.max(16, initialCapacity)];
+    }
+
+    private void ensureCapacity(int extra) {
+        int needed = size + extra;
+        if (needed > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(needed, bytes.length * 2));
+        }
+    }
+
+    void write(byte[] data) {
+        ensureCapacity(data.length);
+        System.arraycopy(data, 0, bytes, size, data.length);
+        size += data.length;
+    }
+
+    void writeByte(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Encode part of a string as UTF-8 into the buffer, without
+     * making an intermediate array
+     */
+    void writeUtf8(String value, int start, int end) {
+        ensureCapacity(end - start);
+        int i = start;
+        // most text is ASCII, which is one byte per character
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c >= 0x80) break;
+            bytes[size++] = (byte) c;
+            i++;
+        }
+        if (i == end) return;
+        ensureCapacity((end - i) * 3);
+        while (i < end) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes[size++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[size++] = (byte) (0xC0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(i + 1));
+                // a pair of surrogates is two chars, which were allowed
+                // six bytes of room, so four bytes fits
+                bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // an unpaired surrogate cannot be encoded, so it is replaced, as String.getBytes does
+                bytes[size++] = (byte) '?';
+            } else {
+                bytes[size++] = (byte) (0xE0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+            i++;
+        }
+    }
+
+    /**
+     * Like {@link #writeUtf8(String, int, int)}, but escaping the characters that
+     * are special in HTML - {@code & < > " '} - so the text is safe both
+     * between tags and inside a quoted attribute.  Runs of ordinary
+     * characters are encoded together, and a value with nothing to escape is
+     * encoded in one go.
+     */
+    void writeHtmlEscaped(String value, int start, int end) {
+        int runStart = start;
+        for (int i = start; i < end; i++) {
+            byte[] entity = switch (value.charAt(i)) {
+                case '&' -> AMPERSAND;
+                case '<' -> LESS_THAN;
+                case '>' -> GREATER_THAN;
+                case '"' -> QUOTE;
+                case '\'' -> APOSTROPHE;
+                default -> null;
+            };
+            if (entity != null) {
+                writeUtf8(value, runStart, i);
+                write(entity);
+                runStart = i + 1;
+            }
+        }
+        writeUtf8(value, runStart, end);
+    }
+
+    /**
+     * The count of bytes written since the last {@link #reset()}
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Empty the buffer, keeping its memory for reuse
+     */
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * A copy of the bytes written
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Write the bytes to the output, such as the body of a response
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(bytes, 0, size);
+    }
+
+    /**
+     * The bytes written, decoded as UTF-8
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+}
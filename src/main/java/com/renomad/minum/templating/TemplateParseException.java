@@ -13,4 +13,8 @@ public final class TemplateParseException extends RuntimeException {
     public TemplateParseException(String msg) {
         super(msg);
     }
+
+    public TemplateParseException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
 }
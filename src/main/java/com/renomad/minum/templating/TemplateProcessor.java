@@ -1,8 +1,9 @@
 package com.renomad.minum.templating;
 
 
+import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Function;
 
 /**
  * This class provides methods for working with templates.
@@ -38,15 +39,16 @@ import java.util.stream.Collectors;
  * <pre>
  *     {@code Hello, my name is Susanne}
  * </pre>
+ * <p>
+ *     Templates may also include other templates, with {@code {{> name }}} - see
+ *     {@link #buildProcessor(String, Function)} - and have sections that repeat
+ *     or are conditional, with {@code {{#each rows}}} and {@code {{#if flag}}} - see
+ *     {@link #render(Map)}.  These are all resolved when the template is built, into
+ *     a single plan for rendering.
+ * </p>
  */
 public final class TemplateProcessor {
 
-    /**
-     * The template is made up of a list of these, which are the static (unchanging)
-     * parts, along with the dynamic parts the user fills in later.
-     */
-    private final List<TemplateSection> templateSections;
-
     /**
      * This value is used to calculate a quick estimate of how many
      * bytes of memory we will need for the buffer holding our generated string
@@ -72,18 +74,32 @@ public final class TemplateProcessor {
      */
     private final Set<String> keysFoundInTemplate;
 
+    /**
+     * The same template, prepared for rendering straight to bytes
+     */
+    private final CompiledTemplate compiledTemplate;
 
     /**
-     * Instantiate a new object with a list of {@link TemplateSection}.
+     * Instantiate a new object with a list of {@link TemplateSection} - the
+     * static (unchanging) parts of the template, along with the dynamic parts
+     * the user fills in later - which are compiled into a single plan.
      */
-    private TemplateProcessor(List<TemplateSection> templateSections, String originalText) {
-        this.templateSections = templateSections;
+    private TemplateProcessor(List<TemplateSection> templateSections, String originalText, boolean isAutoEscaped) {
         this.originalText = originalText;
         this.estimatedSizeOfSingleTemplate = (int) (originalText.length() * SIZE_ESTIMATE_MODIFIER);
-        keysFoundInTemplate = templateSections.stream()
-                .filter(x -> x.templateType.equals(TemplateType.DYNAMIC_TEXT))
-                .map(x -> x.key)
-                .collect(Collectors.toUnmodifiableSet());
+        this.compiledTemplate = CompiledTemplate.compile(templateSections, estimatedSizeOfSingleTemplate, isAutoEscaped);
+        // the keys outside any repeated section, which are those the data is checked against
+        keysFoundInTemplate = Set.copyOf(compiledTemplate.getKeys());
+    }
+
+    /**
+     * Returns this template prepared for rendering directly to UTF-8 bytes,
+     * which avoids building intermediate strings.  Prefer this when the
+     * result is going to be sent as the body of a response.
+     * See {@link CompiledTemplate}
+     */
+    public CompiledTemplate compile() {
+        return compiledTemplate;
     }
 
     /**
@@ -111,21 +127,72 @@ public final class TemplateProcessor {
      * </p>
      */
     public String renderTemplate(List<Map<String, String>> data, String delimiter) {
-        correctnessCheck(data);
+        if (data.isEmpty()) {
+            correctnessCheck(data);
+        }
 
         // build an appropriately-sized buffer for output
         int capacity = estimatedSizeOfSingleTemplate * data.size();
-        StringBuilder stringBuilder = new StringBuilder(capacity);
 
-        for (int i = 0; i < data.size(); i++) {
-            for (TemplateSection templateSection : templateSections) {
-                templateSection.render(data.get(i), stringBuilder);
-            }
-            if (i != data.size() - 1) {
-                stringBuilder.append(delimiter);
+        // Each map is checked against the template's keys as its values are
+        // looked up for the slots, so the whole list is only checked up front
+        // if that fails - then for the more helpful message about which keys differ.
+        TemplateBuffer buffer = new TemplateBuffer(capacity);
+        byte[] delimiterBytes = delimiter.getBytes(StandardCharsets.UTF_8);
+        try {
+            for (int i = 0; i < data.size(); i++) {
+                compiledTemplate.render(data.get(i), buffer);
+                if (i != data.size() - 1) {
+                    buffer.write(delimiterBytes);
+                }
             }
+        } catch (TemplateRenderException ex) {
+            correctnessCheck(data);
+            throw ex;
         }
-        return stringBuilder.toString();
+        return buffer.toString();
+    }
+
+    /**
+     * Render a template which may have blocks, given a map of key names to values.
+     * <p>
+     *     The values are Strings, except for blocks:
+     * </p>
+     * <ul>
+     *     <li>{@code {{#each rows}} ... {{/each}}} - "rows" is an {@link Iterable} of maps,
+     *     and what is between the tags is rendered once for each, with the keys inside
+     *     taken from that map.</li>
+     *     <li>{@code {{#if flag}} ... {{else}} ... {{/if}}} - "flag" is a {@link Boolean}.
+     *     The else-part is optional.</li>
+     * </ul>
+     * <p>
+     *     As with {@link #renderTemplate(Map)}, each map must have exactly the keys used
+     *     at its level - including those within if-blocks, whether or not they are
+     *     rendered this time.  A block tag alone on its line leaves no blank line behind.
+     * </p>
+     * <pre>
+     * {@code
+     *   TemplateProcessor list = TemplateProcessor.buildProcessor("""
+     *       <ul>
+     *       {{#each people}}
+     *           <li>{{name}}{{#if is_admin}} (admin){{/if}}</li>
+     *       {{/each}}
+     *       </ul>
+     *       """);
+     *   String result = list.render(Map.of("people", List.of(
+     *       Map.of("name", "Alice", "is_admin", true),
+     *       Map.of("name", "Bob", "is_admin", false))));
+     * }
+     * </pre>
+     * <p>
+     *     The whole page renders in one pass, with no intermediate Strings.
+     *     See also {@link CompiledTemplate}, to render straight to bytes.
+     * </p>
+     */
+    public String render(Map<String, ?> data) {
+        TemplateBuffer buffer = new TemplateBuffer(estimatedSizeOfSingleTemplate);
+        compiledTemplate.render(data, buffer);
+        return buffer.toString();
     }
 
 
@@ -135,6 +202,42 @@ public final class TemplateProcessor {
      * are surrounded by double-curly-braces, i.e. {{foo}} or {{ foo }}
      */
     public static TemplateProcessor buildProcessor(String template) {
+        return buildProcessor(template, null);
+    }
+
+    /**
+     * Builds a {@link TemplateProcessor} from a string containing a proper
+     * template, which may include other templates by name, like {@code {{> header }}}.
+     * <p>
+     *     Includes are resolved here, once, so the result renders as a single template.
+     *     Each included template's lines are indented to the column of the tag that
+     *     includes it, and it may itself include others.
+     * </p>
+     * @param includes given the name in an include tag, returns the text of that
+     *                 template, or null if there is none.  For example, {@code Map.of("header", headerText)::get}
+     */
+    public static TemplateProcessor buildProcessor(String template, Function<String, String> includes) {
+        return buildProcessor(template, includes, false);
+    }
+
+    /**
+     * Builds a {@link TemplateProcessor}, as {@link #buildProcessor(String, Function)} does,
+     * optionally escaping every value for HTML.
+     * <p>
+     *     With auto-escaping, the characters {@code & < > " '} in values are replaced by
+     *     their entities as the values are rendered, so text from users may be given as-is
+     *     rather than first passed through {@link com.renomad.minum.utils.StringUtils#safeHtml(String)}.
+     *     This makes values safe both between tags and inside quoted attributes.  Values
+     *     that are themselves HTML, meant to be rendered as-is, need a template
+     *     without auto-escaping.
+     * </p>
+     * @param includes see {@link #buildProcessor(String, Function)}.  May be null.
+     * @param isAutoEscaped if true, HTML-escape every value as it is rendered
+     */
+    public static TemplateProcessor buildProcessor(String template, Function<String, String> includes, boolean isAutoEscaped) {
+        String originalTemplate = template;
+        template = removeStandaloneBlockLines(resolveIncludes(template, includes, 0));
+
         // this value holds the entire template after processing, comprised
         // of an ordered list of TemplateSections
         var tSections = new ArrayList<TemplateSection>();
@@ -197,7 +300,7 @@ public final class TemplateProcessor {
 
         }
 
-        return new TemplateProcessor(tSections, template);
+        return new TemplateProcessor(tSections, originalTemplate, isAutoEscaped);
     }
 
     /**
@@ -218,12 +321,213 @@ public final class TemplateProcessor {
     static StringBuilder processSectionOutside(StringBuilder builder, List<TemplateSection> tSections, int indent) {
         if (!builder.isEmpty()) {
             String trimmedKey = builder.toString().trim();
-            tSections.add(new TemplateSection(trimmedKey, null, indent, TemplateType.DYNAMIC_TEXT));
+            tSections.add(buildKeySection(trimmedKey, indent, isInsideIfBlock(tSections)));
             builder = new StringBuilder();
         }
         return builder;
     }
 
+    /**
+     * Decide what the text between double-curly-braces means - usually the
+     * name of a key, but possibly the start or end of a block.
+     * @param isInsideIf "else" is only special inside an if-block.  Elsewhere, it is
+     *                   an ordinary key, as it was before blocks existed.
+     */
+    static TemplateSection buildKeySection(String trimmedKey, int indent, boolean isInsideIf) {
+        String[] words = trimmedKey.split("\\s+", 2);
+        switch (words[0]) {
+            case "#each", "#if" -> {
+                if (words.length < 2) {
+                    throw new TemplateParseException("{{" + words[0] + "}} must be followed by the name of a value, for example {{" + words[0] + " foo}}");
+                }
+                TemplateType type = words[0].equals("#each") ? TemplateType.EACH_START : TemplateType.IF_START;
+                return new TemplateSection(words[1], null, indent, type);
+            }
+            case "/each" -> {
+                return new TemplateSection(null, null, indent, TemplateType.EACH_END);
+            }
+            case "/if" -> {
+                return new TemplateSection(null, null, indent, TemplateType.IF_END);
+            }
+            default -> {
+                if (isInsideIf && trimmedKey.equals("else")) {
+                    return new TemplateSection(null, null, indent, TemplateType.ELSE);
+                }
+                return new TemplateSection(trimmedKey, null, indent, TemplateType.DYNAMIC_TEXT);
+            }
+        }
+    }
+
+    /**
+     * Whether the innermost open block, given the sections so far, is an if-block
+     */
+    private static boolean isInsideIfBlock(List<TemplateSection> tSections) {
+        int depth = 0;
+        for (int i = tSections.size() - 1; i >= 0; i--) {
+            TemplateType type = tSections.get(i).templateType;
+            if (type == TemplateType.EACH_END || type == TemplateType.IF_END) {
+                depth += 1;
+            } else if (type == TemplateType.EACH_START || type == TemplateType.IF_START) {
+                if (depth == 0) {
+                    return type == TemplateType.IF_START;
+                }
+                depth -= 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A block tag alone on its line, such as:
+     * <pre>
+     * {@code
+     *     {{#each rows}}
+     * }
+     * </pre>
+     * is there for the template, not the output, so the rest of its
+     * line - the indentation and newline - is removed.  Otherwise, every block
+     * would leave behind a blank line in the output.
+     */
+    static String removeStandaloneBlockLines(String template) {
+        if (!template.contains("{{")) {
+            return template;
+        }
+        var result = new StringBuilder(template.length());
+        // the kinds of the currently open blocks, to know whether "else" is special
+        var openBlocks = new ArrayDeque<TemplateType>();
+        int lineStart = 0;
+        while (lineStart < template.length()) {
+            int newline = template.indexOf('\n', lineStart);
+            int lineEnd = newline < 0 ? template.length() : newline + 1;
+            String line = template.substring(lineStart, lineEnd);
+            boolean isStandaloneBlock = false;
+            String standaloneTag = null;
+            int tagCount = 0;
+            int searchFrom = 0;
+            while (true) {
+                int tagStart = line.indexOf("{{", searchFrom);
+                if (tagStart < 0) break;
+                int tagEnd = line.indexOf("}}", tagStart + 2);
+                if (tagEnd < 0) break;
+                tagCount += 1;
+                TemplateType type = blockType(line.substring(tagStart + 2, tagEnd).trim(), openBlocks.peek() == TemplateType.IF_START);
+                if (type == TemplateType.EACH_START || type == TemplateType.IF_START) {
+                    openBlocks.push(type);
+                } else if ((type == TemplateType.EACH_END || type == TemplateType.IF_END) && !openBlocks.isEmpty()) {
+                    openBlocks.pop();
+                }
+                isStandaloneBlock = tagCount == 1 && type != TemplateType.DYNAMIC_TEXT &&
+                        line.substring(0, tagStart).isBlank() && line.substring(tagEnd + 2).isBlank();
+                standaloneTag = line.substring(tagStart, tagEnd + 2);
+                searchFrom = tagEnd + 2;
+            }
+            result.append(isStandaloneBlock ? standaloneTag : line);
+            lineStart = lineEnd;
+        }
+        return result.toString();
+    }
+
+    /**
+     * The kind of a tag, by its trimmed content, without building a section for it.
+     * Ordinary keys are {@link TemplateType#DYNAMIC_TEXT}
+     */
+    private static TemplateType blockType(String trimmedKey, boolean isInsideIf) {
+        String firstWord = trimmedKey.split("\\s+", 2)[0];
+        return switch (firstWord) {
+            case "#each" -> TemplateType.EACH_START;
+            case "#if" -> TemplateType.IF_START;
+            case "/each" -> TemplateType.EACH_END;
+            case "/if" -> TemplateType.IF_END;
+            default -> isInsideIf && trimmedKey.equals("else") ? TemplateType.ELSE : TemplateType.DYNAMIC_TEXT;
+        };
+    }
+
+    /**
+     * The most deeply includes may be nested, which stops an include
+     * cycle, such as a template including itself, from running forever
+     */
+    static final int MAXIMUM_INCLUDE_DEPTH = 20;
+
+    /**
+     * Replace each {@code {{> name}}} with the text of the named template, found
+     * using the includes function.  As with values containing newlines, each line of
+     * the included text after the first is indented to the column of the tag.  A
+     * trailing newline on the included text is dropped, since the line holding the
+     * tag already has its own.
+     */
+    static String resolveIncludes(String template, Function<String, String> includes, int depth) {
+        int tagStart = findInclude(template, 0);
+        if (tagStart < 0) {
+            return template;
+        }
+        if (includes == null) {
+            throw new TemplateParseException("The template has an include, " + template.substring(tagStart, Math.min(template.length(), tagStart + 40)) +
+                    ", but no includes were provided.  See TemplateProcessor.buildProcessor(String, Function)");
+        }
+        if (depth >= MAXIMUM_INCLUDE_DEPTH) {
+            throw new TemplateParseException("Includes were nested more than " + MAXIMUM_INCLUDE_DEPTH + " deep.  Is there a template that includes itself?");
+        }
+        var result = new StringBuilder(template.length() * 2);
+        int copiedUpTo = 0;
+        while (tagStart >= 0) {
+            int tagEnd = template.indexOf("}}", tagStart);
+            if (tagEnd < 0) {
+                // unclosed - leave it for the parser to report
+                break;
+            }
+            String name = template.substring(template.indexOf('>', tagStart) + 1, tagEnd).trim();
+            String included = includes.apply(name);
+            if (included == null) {
+                throw new TemplateParseException("No template was found to include for the name: " + name);
+            }
+            included = resolveIncludes(included, includes, depth + 1);
+            if (included.endsWith("\n")) {
+                included = included.substring(0, included.length() - 1);
+            }
+            int column = tagStart - (template.lastIndexOf('\n', tagStart - 1) + 1);
+            result.append(template, copiedUpTo, tagStart);
+            appendIndented(result, included, column);
+            copiedUpTo = tagEnd + 2;
+            tagStart = findInclude(template, copiedUpTo);
+        }
+        result.append(template, copiedUpTo, template.length());
+        return result.toString();
+    }
+
+    /**
+     * Find the next tag like {@code {{> name}}}, returning its start, or -1
+     */
+    private static int findInclude(String template, int from) {
+        int tagStart = template.indexOf("{{", from);
+        while (tagStart >= 0) {
+            int i = tagStart + 2;
+            while (i < template.length() && template.charAt(i) == ' ') i++;
+            if (i < template.length() && template.charAt(i) == '>') {
+                return tagStart;
+            }
+            tagStart = template.indexOf("{{", tagStart + 2);
+        }
+        return -1;
+    }
+
+    private static void appendIndented(StringBuilder result, String text, int indent) {
+        String padding = " ".repeat(indent);
+        int lineStart = 0;
+        while (true) {
+            int newline = text.indexOf('\n', lineStart);
+            if (newline < 0) {
+                result.append(text, lineStart, text.length());
+                return;
+            }
+            result.append(text, lineStart, newline + 1);
+            lineStart = newline + 1;
+            // empty lines stay empty
+            if (lineStart < text.length() && text.charAt(lineStart) != '\n') {
+                result.append(padding);
+            }
+        }
+    }
+
     /**
      * Just left a template key value.
      * <pre>
@@ -258,8 +562,6 @@ public final class TemplateProcessor {
      *
      */
     private void correctnessCheck(List<Map<String, String>> dataList) {
-        HashSet<String> copyOfKeysInTemplate = new HashSet<>(keysFoundInTemplate);
-
         // check for inconsistencies between maps in the data list
         Set<String> keysInFirstMap = dataList.getFirst().keySet();
 
@@ -270,18 +572,28 @@ public final class TemplateProcessor {
             }
         }
 
-        // ensure consistency between the registered data and the template keys
-        HashSet<String> copyOfTemplateKeys = new HashSet<>(copyOfKeysInTemplate);
-        copyOfTemplateKeys.removeAll(keysInFirstMap);
+        checkKeysMatch(keysFoundInTemplate, keysInFirstMap);
+    }
+
+    /**
+     * Confirm the keys of the data are exactly the keys of the template,
+     * throwing an exception that describes the difference if not.
+     */
+    static void checkKeysMatch(Set<String> templateKeys, Set<String> dataKeys) {
+        // the usual case, checked without copying anything
+        if (templateKeys.equals(dataKeys)) {
+            return;
+        }
+
+        HashSet<String> copyOfTemplateKeys = new HashSet<>(templateKeys);
+        copyOfTemplateKeys.removeAll(dataKeys);
         if (!copyOfTemplateKeys.isEmpty()) {
             throw new TemplateRenderException("These keys in the template were not provided data: " + copyOfTemplateKeys);
         }
 
-        HashSet<String> copyOfDataKeys = new HashSet<>(keysInFirstMap);
-        copyOfDataKeys.removeAll(copyOfKeysInTemplate);
-        if (!copyOfDataKeys.isEmpty()) {
-            throw new TemplateRenderException("These keys in the data did not match anything in the template: " + copyOfDataKeys);
-        }
+        HashSet<String> copyOfDataKeys = new HashSet<>(dataKeys);
+        copyOfDataKeys.removeAll(templateKeys);
+        throw new TemplateRenderException("These keys in the data did not match anything in the template: " + copyOfDataKeys);
     }
 
     private static Set<String> differenceBetweenSets(Set<String> set1, Set<String> set2) {
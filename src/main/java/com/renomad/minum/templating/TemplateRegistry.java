@@ -0,0 +1,293 @@
+package com.renomad.minum.templating;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.StacktraceUtils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Loads templates from a directory, building each into a {@link TemplateProcessor}
+ * once, and keeping it for reuse.
+ * <p>
+ *     Templates are named by their path within the directory, like "pages/index.html",
+ *     and may include each other by that name, like {@code {{> parts/header.html }}}.
+ * </p>
+ * <pre>
+ * {@code
+ *   TemplateRegistry templates = new TemplateRegistry(context).initialize();
+ *   ...
+ *   String page = templates.get("pages/index.html").renderTemplate(Map.of("name", "Alice"));
+ * }
+ * </pre>
+ * <p>
+ *     By default, {@link #initialize()} builds every template in the directory,
+ *     in parallel, so there is no cost when they are first used and any that are
+ *     malformed are found at startup.  With hot reload (TEMPLATE_HOT_RELOAD in the
+ *     configuration, meant for development) the directory is watched instead, and
+ *     when a template file changes, it - and any template that includes it - is
+ *     built again the next time it is asked for.
+ * </p>
+ * <p>
+ *     The registry from {@link com.renomad.minum.web.FullSystem#getTemplateRegistry()}
+ *     is stopped when the system shuts down.  One built directly, with hot
+ *     reload, should be given a call to {@link #stop()} when done.
+ * </p>
+ */
+public final class TemplateRegistry {
+
+    /**
+     * A built template, with the last-modified times of the files
+     * it was built from - its own, and those it includes
+     */
+    private record Entry(TemplateProcessor processor, Map<String, FileTime> sources) {}
+
+    private final Path directory;
+    private final boolean isHotReload;
+    private final Set<String> extensions;
+    private final ExecutorService executorService;
+    private final ILogger logger;
+    private final Map<String, Entry> cache;
+    private WatchService watchService;
+
+    /**
+     * Build a registry for the directory and hot reload setting given in the
+     * configuration, as TEMPLATE_DIRECTORY and TEMPLATE_HOT_RELOAD
+     */
+    public TemplateRegistry(Context context) {
+        this(context, Path.of(context.getConstants().templateDirectory), context.getConstants().templateHotReload);
+    }
+
+    /**
+     * @param directory the directory holding the templates
+     * @param isHotReload if true, watch for changes to the templates and rebuild them,
+     *                    rather than building all at startup
+     */
+    public TemplateRegistry(Context context, Path directory, boolean isHotReload) {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.isHotReload = isHotReload;
+        this.extensions = new HashSet<>();
+        for (String extension : context.getConstants().templateExtensions) {
+            extensions.add(extension.toLowerCase(Locale.ROOT));
+        }
+        this.executorService = context.getExecutorService();
+        this.logger = context.getLogger();
+        this.cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Build all the templates in the directory, in parallel, or if hot
+     * reloading, start watching the directory for changes.  Only files with
+     * the extensions in TEMPLATE_EXTENSIONS are built up front.
+     * @throws TemplateParseException if a template cannot be read or built
+     */
+    public TemplateRegistry initialize() {
+        if (isHotReload) {
+            startWatching();
+        } else {
+            precompileAll();
+        }
+        return this;
+    }
+
+    /**
+     * Get a template by its path within the directory, building it if not yet built
+     * @param name for example, "pages/index.html"
+     * @throws TemplateParseException if there is no such template or it cannot be built
+     */
+    public TemplateProcessor get(String name) {
+        Entry entry = cache.get(name);
+        if (entry == null) {
+            entry = cache.computeIfAbsent(name, this::load);
+        }
+        return entry.processor();
+    }
+
+    /**
+     * The count of templates currently built
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Stop watching for changes, if hot reloading
+     */
+    public void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                logger.logDebug(() -> "Error while closing the template watcher: " + ex);
+            }
+        }
+    }
+
+    private Entry load(String name) {
+        var sources = new HashMap<String, FileTime>();
+        String text = readTemplate(name, sources);
+        TemplateProcessor processor;
+        try {
+            processor = TemplateProcessor.buildProcessor(text, includeName -> readTemplate(includeName, sources));
+        } catch (TemplateParseException ex) {
+            throw new TemplateParseException("Failed to build the template " + name + ": " + ex.getMessage(), ex);
+        }
+        logger.logTrace(() -> "Built the template " + name);
+        return new Entry(processor, Map.copyOf(sources));
+    }
+
+    /**
+     * Read a template, recording its last-modified time among the sources
+     */
+    private String readTemplate(String name, Map<String, FileTime> sources) {
+        Path path = directory.resolve(name).normalize();
+        if (!path.startsWith(directory)) {
+            throw new TemplateParseException("The template " + name + " is outside the template directory");
+        }
+        try {
+            FileTime lastModified = Files.getLastModifiedTime(path);
+            String text = Files.readString(path);
+            sources.put(toName(path), lastModified);
+            return text;
+        } catch (IOException ex) {
+            throw new TemplateParseException("Unable to read the template " + name + ": " + ex, ex);
+        }
+    }
+
+    private String toName(Path path) {
+        return directory.relativize(path).toString().replace('\\', '/');
+    }
+
+    private void precompileAll() {
+        List<String> names;
+        try (Stream<Path> paths = Files.walk(directory)) {
+            names = paths.filter(path -> Files.isRegularFile(path) && isTemplateFile(path)).map(this::toName).toList();
+        } catch (IOException ex) {
+            throw new TemplateParseException("Unable to list the templates in " + directory + ": " + ex, ex);
+        }
+        var futures = new ArrayList<Future<?>>();
+        for (String name : names) {
+            futures.add(executorService.submit(() -> get(name)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new TemplateParseException("Interrupted while building templates", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof TemplateParseException templateParseException) {
+                throw templateParseException;
+            }
+            throw new TemplateParseException("Failed while building templates: " + ex.getCause(), ex.getCause());
+        }
+        logger.logDebug(() -> "Built " + names.size() + " templates from " + directory);
+    }
+
+    /**
+     * Whether the file is one to build at startup - not hidden, and with one
+     * of the extensions in TEMPLATE_EXTENSIONS.  This keeps files like
+     * ".DS_Store" or an editor's backups from failing the startup.
+     */
+    private boolean isTemplateFile(Path path) {
+        String fileName = String.valueOf(path.getFileName());
+        int dot = fileName.lastIndexOf('.');
+        if (fileName.startsWith(".") || dot < 0) {
+            return false;
+        }
+        return extensions.contains(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    private void startWatching() {
+        try {
+            watchService = directory.getFileSystem().newWatchService();
+            registerRecursively(directory);
+        } catch (IOException ex) {
+            throw new TemplateParseException("Unable to watch the template directory " + directory + ": " + ex, ex);
+        }
+        executorService.submit(this::watchLoop);
+        logger.logDebug(() -> "Watching " + directory + " for changes to templates");
+    }
+
+    private void registerRecursively(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void watchLoop() {
+        Thread.currentThread().setName("TemplateRegistryWatcher");
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path watchedDirectory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        // some changes were missed, so start over
+                        cache.clear();
+                        continue;
+                    }
+                    Path changed = watchedDirectory.resolve((Path) event.context());
+                    if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                        registerRecursively(changed);
+                    }
+                    invalidate(toName(changed));
+                }
+                key.reset();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // stopped - nothing more to do
+        } catch (Exception ex) {
+            logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+        } finally {
+            // however the loop ended, let go of the watch
+            stop();
+        }
+    }
+
+    /**
+     * Drop the built templates made from this file, if it has changed since
+     * they were built, so they are built again when next asked for
+     */
+    private void invalidate(String changedName) {
+        FileTime current = lastModifiedOrNull(directory.resolve(changedName));
+        for (var mapEntry : cache.entrySet()) {
+            FileTime builtFrom = mapEntry.getValue().sources().get(changedName);
+            if (builtFrom != null && !builtFrom.equals(current)) {
+                cache.remove(mapEntry.getKey(), mapEntry.getValue());
+                logger.logDebug(() -> "Template " + changedName + " changed.  " + mapEntry.getKey() + " will be rebuilt");
+            }
+        }
+    }
+
+    private static FileTime lastModifiedOrNull(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TemplateRegistry{" + directory + '}';
+    }
+}
@@ -4,8 +4,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-import static com.renomad.minum.templating.TemplateType.DYNAMIC_TEXT;
-import static com.renomad.minum.templating.TemplateType.STATIC_TEXT;
+import static com.renomad.minum.templating.TemplateType.*;
 import static com.renomad.minum.utils.SerializationUtils.tokenizer;
 
 /**
@@ -19,8 +18,8 @@ import static com.renomad.minum.utils.SerializationUtils.tokenizer;
 final class TemplateSection {
 
     final String key;
-    private final String subString;
-    private final int indent;
+    final String subString;
+    final int indent;
     public final TemplateType templateType;
 
 
@@ -33,7 +32,8 @@ final class TemplateSection {
      *               12345
      *                   a
      *               }</pre>
-     * @param key the name of the key, e.g. "name", or "color"
+     * @param key the name of the key, e.g. "name", or "color", or for the start of
+     *            a block, the name of its list or flag
      * @param subString the template content around the keys.  For example, in the text
      *                  of "my favorite color is {{ color }} and I like it",
      *                  it would generate three template sections - "my favorite color is" would be
@@ -44,8 +44,11 @@ final class TemplateSection {
         this.subString = subString;
         this.indent = indent;
         this.templateType = templateType;
+        boolean isNamedBlock = templateType.equals(EACH_START) || templateType.equals(IF_START);
+        boolean isUnnamedBlock = templateType.equals(EACH_END) || templateType.equals(IF_END) || templateType.equals(ELSE);
         if ((templateType.equals(STATIC_TEXT) && (key != null || subString == null)) ||
-            (templateType.equals(DYNAMIC_TEXT) && (key == null || subString != null))) {
+            ((templateType.equals(DYNAMIC_TEXT) || isNamedBlock) && (key == null || subString != null)) ||
+            (isUnnamedBlock && (key != null || subString != null))) {
             throw new TemplateRenderException("Invalid templateSection: " + this);
         }
     }
@@ -62,6 +65,11 @@ final class TemplateSection {
             stringBuilder.append(subString);
         } else {
             String value = myMap.get(key);
+            // most values are a single line, which need no indenting
+            if (value.indexOf('\n') < 0) {
+                stringBuilder.append(value);
+                return;
+            }
             List<String> lines = tokenizer(value, '\n', MAXIMUM_LINES_ALLOWED);
 
             // if, after splitting on newlines, we have more than one line, we'll indent the remaining
@@ -2,5 +2,30 @@ package com.renomad.minum.templating;
 
 enum TemplateType {
     STATIC_TEXT,
-    DYNAMIC_TEXT
+    DYNAMIC_TEXT,
+
+    /**
+     * The start of a section repeated for each item of a list, {@code {{#each rows}}}
+     */
+    EACH_START,
+
+    /**
+     * The end of a repeated section, {@code {{/each}}}
+     */
+    EACH_END,
+
+    /**
+     * The start of a section rendered only when a value is true, {@code {{#if flag}}}
+     */
+    IF_START,
+
+    /**
+     * Within an if-section, the start of what is rendered when the value is false, {@code {{else}}}
+     */
+    ELSE,
+
+    /**
+     * The end of an if-section, {@code {{/if}}}
+     */
+    IF_END
 }
@@ -268,9 +268,26 @@ public final class TestFramework {
      * @see #shutdownTestingContext(Context)
      */
     public static Context buildTestingContext(String loggerName, Properties properties) {
+        return buildTestingContext(loggerName, properties, TestLogger.MAX_CACHE_SIZE);
+    }
+
+    /**
+     * This builds a context very similarly to {@link FullSystem#buildContext()},
+     * except that it uses {@link TestLogger} instead of {@link com.renomad.minum.logging.Logger}.
+     * @param loggerName this will assign a human-readable name to the logger's
+     *                   LoggingActionQueue so we can distinguish it
+     *                   when reviewing the threads
+     * @param properties If you want, you can inject a properties object here, to have
+     *                   greater control over your test.  Using a parameter of null here
+     *                   will cause the system to obtain properties from the minum.config file
+     * @param logCaptureCapacity how many of the most recent log messages the {@link TestLogger}
+     *                           keeps for searching, for tests that need to look further back.
+     * @see #shutdownTestingContext(Context)
+     */
+    public static Context buildTestingContext(String loggerName, Properties properties, int logCaptureCapacity) {
         var constants = new Constants(properties);
         var executorService = Executors.newVirtualThreadPerTaskExecutor();
-        var logger = new TestLogger(constants, executorService, loggerName);
+        var logger = new TestLogger(constants, executorService, loggerName, logCaptureCapacity);
 
         return new Context(executorService, constants, logger);
     }
@@ -0,0 +1,143 @@
+package com.renomad.minum.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram for recording durations (or any other non-negative
+ * values), with a fixed memory footprint no matter how many values are recorded.
+ * <p>
+ *     Values are counted in buckets that grow exponentially, with eight linear
+ *     sub-buckets for each power of two, in the style of an HDR histogram.
+ *     That means any value reported from this - such as the 99th percentile -
+ *     is within about 12% of the true value, across the whole range
+ *     from nanoseconds to days.
+ * </p>
+ * <p>
+ *     Recording a value is lock-free, so this is suitable for use on hot paths.
+ * </p>
+ * {@snippet :
+ *   LatencyHistogram writeTimes = new LatencyHistogram();
+ *   long start = System.nanoTime();
+ *   doTheWrite();
+ *   writeTimes.record(System.nanoTime() - start);
+ *   ...
+ *   long p99 = writeTimes.getValueAtPercentile(99.0);
+ * }
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Each power of two is divided into this many sub-buckets
+     */
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts;
+    private final LongAdder totalCount;
+    private final LongAdder totalSum;
+    private final AtomicLong max;
+    private final AtomicLong min;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.totalCount = new LongAdder();
+        this.totalSum = new LongAdder();
+        this.max = new AtomicLong(0);
+        this.min = new AtomicLong(Long.MAX_VALUE);
+    }
+
+    /**
+     * Record a value.  Negative values are recorded as zero.
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(bucketIndex(v));
+        totalCount.increment();
+        totalSum.add(v);
+        max.accumulateAndGet(v, Math::max);
+        min.accumulateAndGet(v, Math::min);
+    }
+
+    /**
+     * The count of values recorded
+     */
+    public long getCount() {
+        return totalCount.sum();
+    }
+
+    /**
+     * The largest value recorded, or 0 if nothing recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * The smallest value recorded, or 0 if nothing recorded
+     */
+    public long getMin() {
+        long result = min.get();
+        return result == Long.MAX_VALUE ? 0 : result;
+    }
+
+    /**
+     * The average of the values recorded, or 0 if nothing recorded
+     */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totalSum.sum() / count;
+    }
+
+    /**
+     * Get the value at a percentile, such as 50.0 for the median or 99.9.
+     * The result is the upper end of the bucket holding that value, and
+     * never more than the maximum recorded.
+     * @return the value at the percentile, or 0 if nothing recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new UtilsException("Percentile must be between 0 and 100. Given: " + percentile);
+        }
+        long count = getCount();
+        if (count == 0) return 0;
+        long countAtPercentile = Math.max(1, (long) Math.ceil((percentile / 100.0) * count));
+        long runningCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            runningCount += counts.get(i);
+            if (runningCount >= countAtPercentile) {
+                return Math.min(bucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Values under 8 each get their own bucket.  Above that, the bucket is
+     * chosen by the position of the highest bit, and the three bits below it.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int highestBit = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int highestBit = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (highestBit - SUB_BUCKET_BITS);
+        long lowerBound = (SUB_BUCKETS + (long) subBucket) * width;
+        return lowerBound + width - 1;
+    }
+
+    @Override
+    public String toString() {
+        return "count=%d min=%d mean=%.1f p50=%d p90=%d p99=%d max=%d".formatted(
+                getCount(), getMin(), getMean(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99), getMax());
+    }
+}
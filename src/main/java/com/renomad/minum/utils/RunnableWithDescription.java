@@ -1,5 +1,7 @@
 package com.renomad.minum.utils;
 
+import java.util.function.Supplier;
+
 /**
  * This class is to improve maintainability in the system.  It makes
  * possible reviewing the queue of actions and more easily understanding
@@ -8,6 +10,7 @@ package com.renomad.minum.utils;
 public final class RunnableWithDescription implements ThrowingRunnable {
 
     private final String description;
+    private final Supplier<String> descriptionSupplier;
     private final ThrowingRunnable r;
 
     /**
@@ -17,12 +20,24 @@ public final class RunnableWithDescription implements ThrowingRunnable {
      */
     public RunnableWithDescription(ThrowingRunnable r, String description) {
         this.description = description;
+        this.descriptionSupplier = null;
+        this.r = r;
+    }
+
+    /**
+     * Like {@link #RunnableWithDescription(ThrowingRunnable, String)}, except
+     * the description is only built if it is asked for, such as when logging
+     * or reviewing the queue.  Useful when building it would be costly.
+     */
+    public RunnableWithDescription(ThrowingRunnable r, Supplier<String> descriptionSupplier) {
+        this.description = null;
+        this.descriptionSupplier = descriptionSupplier;
         this.r = r;
     }
 
     @Override
     public String toString() {
-        return description;
+        return descriptionSupplier == null ? description : descriptionSupplier.get();
     }
 
     @Override
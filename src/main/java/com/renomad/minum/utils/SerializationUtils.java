@@ -3,15 +3,27 @@ package com.renomad.minum.utils;
 import com.renomad.minum.security.ForbiddenUseException;
 import com.renomad.minum.security.Inmate;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * A container for static serialization methods.
  * These are primarily used in the database code.
  */
 public final class SerializationUtils {
 
+    /**
+     * The most bytes of a length-prefixed value allocated before any of them
+     * have been read.  See {@link #readBytes(DataInput, int)}
+     */
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
     private SerializationUtils() {
         // not meant to be constructed.
     }
@@ -94,4 +106,59 @@ public final class SerializationUtils {
         return resultList;
     }
 
+    /**
+     * Writes a string as a length-prefixed series of UTF-8 bytes, for
+     * use in a database codec (see DbCodec).  Unlike {@link DataOutput#writeUTF(String)},
+     * there is no 64 kilobyte limit, and null values are allowed - they
+     * are stored as a length of -1.
+     * @see #readString(DataInput)
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by {@link #writeString(DataOutput, String)}
+     * @return the string, or null if a null was written
+     * @throws IllegalStateException if the length is negative, which means the data is damaged
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IllegalStateException("Invalid length for a serialized string: " + length);
+        }
+        return new String(readBytes(in, length), UTF_8);
+    }
+
+    /**
+     * Reads the given count of bytes, as claimed by a length prefix.
+     * <p>
+     *     The length comes from the data itself, so if the data is damaged it may
+     *     claim far more bytes than there are.  Rather than allocating all that up
+     *     front, the array grows as the bytes actually arrive, so a false length
+     *     ends in an {@link java.io.EOFException} instead of an {@link OutOfMemoryError}.
+     * </p>
+     */
+    public static byte[] readBytes(DataInput in, int length) throws IOException {
+        byte[] bytes = new byte[Math.min(length, READ_CHUNK_SIZE)];
+        int count = 0;
+        while (true) {
+            in.readFully(bytes, count, bytes.length - count);
+            count = bytes.length;
+            if (count == length) {
+                return bytes;
+            }
+            bytes = Arrays.copyOf(bytes, (int) Math.min(length, 2L * count));
+        }
+    }
+
 }
@@ -41,9 +41,7 @@ public final class StringUtils {
         if (input == null) {
             return "";
         }
-        return input.replace("&", "&amp;")
-            .replace("<", "&lt;")
-            .replace(">", "&gt;");
+        return escape(input, false);
     }
 
     /**
@@ -64,10 +62,48 @@ public final class StringUtils {
         if (input == null) {
             return "";
         }
-        return input.replace("&", "&amp;")
-            .replace("<", "&lt;")
-            .replace("\"", "&quot;")
-            .replace("'", "&apos;");
+        return escape(input, true);
+    }
+
+    /**
+     * Escape in a single pass over the input.  Most values have nothing to
+     * escape, so those are returned as-is, without copying.
+     * @param isAttribute if true, escape for an attribute (see {@link #safeAttr(String)}),
+     *                    otherwise for text (see {@link #safeHtml(String)})
+     */
+    private static String escape(String input, boolean isAttribute) {
+        int length = input.length();
+        int first = 0;
+        while (first < length && escapeFor(input.charAt(first), isAttribute) == null) {
+            first++;
+        }
+        if (first == length) {
+            return input;
+        }
+        // room for a few replacements before the builder has to grow
+        var builder = new StringBuilder(length + 16);
+        builder.append(input, 0, first);
+        for (int i = first; i < length; i++) {
+            char c = input.charAt(i);
+            String replacement = escapeFor(c, isAttribute);
+            if (replacement == null) {
+                builder.append(c);
+            } else {
+                builder.append(replacement);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String escapeFor(char c, boolean isAttribute) {
+        return switch (c) {
+            case '&' -> "&amp;";
+            case '<' -> "&lt;";
+            case '>' -> isAttribute ? null : "&gt;";
+            case '"' -> isAttribute ? "&quot;" : null;
+            case '\'' -> isAttribute ? "&apos;" : null;
+            default -> null;
+        };
     }
 
     /**
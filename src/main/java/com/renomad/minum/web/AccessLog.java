@@ -0,0 +1,364 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.logging.LogEvent;
+import com.renomad.minum.logging.LogRingBuffer;
+import com.renomad.minum.logging.RollingFileAppender;
+import com.renomad.minum.state.Constants;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.MyThread;
+import com.renomad.minum.utils.StacktraceUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A record of every request handled by the {@link WebFramework}: who asked, for
+ * what, the status returned, the sizes, and how long each phase took.
+ * <p>
+ *     Enabled by setting ACCESS_LOG_FORMAT in the configuration (see {@link AccessLogFormat}).
+ *     Entries go to standard out, or if LOG_FILE_DIRECTORY is set, to a rotating
+ *     file named access.log in that directory.
+ * </p>
+ * <p>
+ *     The thread handling the request only copies its numbers into a slot of a
+ *     fixed-size {@link LogRingBuffer}, claimed with a compare-and-set.  A background thread
+ *     formats and writes the entries in batches.  If the buffer is full, the entry
+ *     is discarded and counted rather than slowing down the response - the count
+ *     is logged as a warning.
+ * </p>
+ */
+final class AccessLog {
+
+    /**
+     * The measurements of one request.  The request-handling code fills one
+     * of these per connection, and it is copied into the buffer by {@link #offer(Entry)}
+     */
+    static final class Entry {
+        long timestampMillis;
+        String remoteAddr;
+        String requestLine;
+        String method;
+        String path;
+        int status;
+        /**
+         * The bytes read from the socket for the request - its request
+         * line, headers, and as much of the body as was read
+         */
+        long bytesIn;
+        /**
+         * The size of the response body, after compression
+         */
+        long bytesOut;
+        long readHeadNanos;
+        long handlerNanos;
+        long compressNanos;
+        long writeNanos;
+        /**
+         * How many requests came before this one on the same connection
+         */
+        int reuseCount;
+        String referer;
+        String userAgent;
+
+        void copyFrom(Entry other) {
+            timestampMillis = other.timestampMillis;
+            remoteAddr = other.remoteAddr;
+            requestLine = other.requestLine;
+            method = other.method;
+            path = other.path;
+            status = other.status;
+            bytesIn = other.bytesIn;
+            bytesOut = other.bytesOut;
+            readHeadNanos = other.readHeadNanos;
+            handlerNanos = other.handlerNanos;
+            compressNanos = other.compressNanos;
+            writeNanos = other.writeNanos;
+            reuseCount = other.reuseCount;
+            referer = other.referer;
+            userAgent = other.userAgent;
+        }
+
+        void clear() {
+            copyFrom(EMPTY_ENTRY);
+        }
+    }
+
+    private static final Entry EMPTY_ENTRY = new Entry();
+
+    /**
+     * How long the writer rests when there is nothing to write.  Requests
+     * do not wake it, to keep their cost low, so entries may wait this long.
+     */
+    private static final long IDLE_PARK_NANOS = 10_000_000L;
+
+    /**
+     * Once this many characters are waiting, they are written out
+     */
+    private static final int FLUSH_THRESHOLD = 32 * 1024;
+
+    private static final DateTimeFormatter COMMON_TIME_FORMAT =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).withZone(ZoneOffset.UTC);
+
+    private final AccessLogFormat format;
+    private final OutputStream output;
+    private final ExecutorService executorService;
+    private final ILogger logger;
+
+    private final LogRingBuffer<Entry> ringBuffer;
+    private final LongAdder droppedCount;
+
+    // these are only used by the writer thread
+    private final StringBuilder pendingText;
+    private long droppedReported;
+    private long lastTimestampSecond = Long.MIN_VALUE;
+    private String lastTimestampText = "";
+
+    private volatile boolean stop = false;
+    private volatile boolean isStoppedStatus = false;
+
+    /**
+     * @param capacity how many entries may wait to be written, rounded up to a power of two
+     */
+    AccessLog(AccessLogFormat format, int capacity, OutputStream output, ExecutorService executorService, ILogger logger) {
+        this.format = format;
+        this.output = output;
+        this.executorService = executorService;
+        this.logger = logger;
+        this.ringBuffer = new LogRingBuffer<>(capacity, Entry::new, Entry::clear);
+        this.droppedCount = new LongAdder();
+        this.pendingText = new StringBuilder();
+    }
+
+    /**
+     * Build and start the access log described in the configuration
+     * @return null if ACCESS_LOG_FORMAT is NONE
+     */
+    static AccessLog build(Context context) {
+        Constants constants = context.getConstants();
+        if (constants.accessLogFormat == AccessLogFormat.NONE) {
+            return null;
+        }
+        OutputStream output;
+        if (constants.logFileDirectory.isBlank()) {
+            output = System.out;
+        } else {
+            try {
+                output = new RollingFileAppender(
+                        Path.of(constants.logFileDirectory),
+                        "access",
+                        constants.logFileMaxBytes,
+                        constants.logFileRotationMinutes * 60 * 1000,
+                        constants.logFileMaxSegments,
+                        context.getExecutorService());
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Unable to open access log in " + constants.logFileDirectory, ex);
+            }
+        }
+        return new AccessLog(constants.accessLogFormat, constants.accessLogBufferSize, output,
+                context.getExecutorService(), context.getLogger()).initialize();
+    }
+
+    AccessLog initialize() {
+        executorService.submit(this::writeLoop);
+        return this;
+    }
+
+    /**
+     * Copy the entry into the buffer to be written.  Never waits.
+     * @return false if the entry was discarded, because the buffer
+     *         was full or the log is stopped
+     */
+    boolean offer(Entry entry) {
+        if (stop) return false;
+        long position = ringBuffer.claim();
+        if (position < 0) {
+            droppedCount.increment();
+            return false;
+        }
+        ringBuffer.slotAt(position).copyFrom(entry);
+        ringBuffer.publish(position);
+        return true;
+    }
+
+    private void writeLoop() {
+        Thread.currentThread().setName("AccessLogWriter");
+        try {
+            while (!stop && !Thread.currentThread().isInterrupted()) {
+                if (drain() == 0) {
+                    reportDropped();
+                    flush();
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+        } finally {
+            // being interrupted or stopped is how we are shut down.  Write whatever is left.
+            drain();
+            reportDropped();
+            flush();
+            if (output instanceof RollingFileAppender) {
+                try {
+                    output.close();
+                } catch (IOException ex) {
+                    logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+                }
+            }
+            isStoppedStatus = true;
+        }
+    }
+
+    private int drain() {
+        return ringBuffer.drain(this::write, Integer.MAX_VALUE);
+    }
+
+    private void write(Entry entry) {
+        render(entry, pendingText);
+        pendingText.append('\n');
+        if (pendingText.length() >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        if (pendingText.isEmpty()) return;
+        try {
+            output.write(pendingText.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+        } catch (IOException ex) {
+            logger.logAsyncError(() -> StacktraceUtils.stackTraceToString(ex));
+        } finally {
+            pendingText.setLength(0);
+        }
+    }
+
+    private void reportDropped() {
+        long dropped = droppedCount.sum();
+        if (dropped > droppedReported) {
+            long newlyDropped = dropped - droppedReported;
+            droppedReported = dropped;
+            logger.logWarn(() -> newlyDropped + " access log entries were discarded because the access log buffer was full");
+        }
+    }
+
+    /**
+     * Append the entry in this log's format, without a line ending
+     */
+    void render(Entry entry, StringBuilder sb) {
+        if (format == AccessLogFormat.JSON) {
+            sb.append("{\"time\":\"").append(DateTimeFormatter.ISO_INSTANT.format(Instant.ofEpochMilli(entry.timestampMillis))).append('"');
+            sb.append(",\"remote_addr\":");
+            LogEvent.appendJsonString(sb, entry.remoteAddr);
+            sb.append(",\"method\":");
+            LogEvent.appendJsonString(sb, entry.method);
+            sb.append(",\"path\":");
+            LogEvent.appendJsonString(sb, entry.path);
+            sb.append(",\"request_line\":");
+            LogEvent.appendJsonString(sb, entry.requestLine);
+            sb.append(",\"status\":").append(entry.status);
+            sb.append(",\"bytes_in\":").append(entry.bytesIn);
+            sb.append(",\"bytes_out\":").append(entry.bytesOut);
+            sb.append(",\"read_us\":").append(entry.readHeadNanos / 1000);
+            sb.append(",\"handler_us\":").append(entry.handlerNanos / 1000);
+            sb.append(",\"compress_us\":").append(entry.compressNanos / 1000);
+            sb.append(",\"write_us\":").append(entry.writeNanos / 1000);
+            sb.append(",\"total_us\":").append(totalNanos(entry) / 1000);
+            sb.append(",\"reuse\":").append(entry.reuseCount);
+            sb.append(",\"referer\":");
+            LogEvent.appendJsonString(sb, entry.referer);
+            sb.append(",\"user_agent\":");
+            LogEvent.appendJsonString(sb, entry.userAgent);
+            sb.append('}');
+        } else {
+            sb.append(orDash(entry.remoteAddr)).append(" - - [").append(formatCommonTime(entry.timestampMillis)).append("] \"");
+            appendQuotable(sb, orDash(entry.requestLine));
+            sb.append("\" ").append(entry.status).append(' ');
+            if (entry.bytesOut > 0) {
+                sb.append(entry.bytesOut);
+            } else {
+                sb.append('-');
+            }
+            if (format == AccessLogFormat.COMBINED) {
+                sb.append(" \"");
+                appendQuotable(sb, orDash(entry.referer));
+                sb.append("\" \"");
+                appendQuotable(sb, orDash(entry.userAgent));
+                sb.append('"');
+            }
+            sb.append(" read_us=").append(entry.readHeadNanos / 1000)
+                    .append(" handler_us=").append(entry.handlerNanos / 1000)
+                    .append(" compress_us=").append(entry.compressNanos / 1000)
+                    .append(" write_us=").append(entry.writeNanos / 1000)
+                    .append(" total_us=").append(totalNanos(entry) / 1000)
+                    .append(" reuse=").append(entry.reuseCount);
+        }
+    }
+
+    private static long totalNanos(Entry entry) {
+        return entry.readHeadNanos + entry.handlerNanos + entry.compressNanos + entry.writeNanos;
+    }
+
+    /**
+     * Consecutive entries usually share a second, so the last one formatted is kept
+     */
+    private String formatCommonTime(long timestampMillis) {
+        long second = timestampMillis / 1000;
+        if (second != lastTimestampSecond) {
+            lastTimestampSecond = second;
+            lastTimestampText = COMMON_TIME_FORMAT.format(Instant.ofEpochSecond(second));
+        }
+        return lastTimestampText;
+    }
+
+    private static String orDash(String value) {
+        return value == null || value.isEmpty() ? "-" : value;
+    }
+
+    /**
+     * Values inside quotes in the common format have their quotes,
+     * backslashes and control characters escaped, as Apache does.
+     */
+    private static void appendQuotable(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20 || c == 0x7f) {
+                sb.append("\\x").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    /**
+     * The count of entries discarded because the buffer was full
+     */
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * Stop taking entries, and wait a short time for those
+     * remaining to be written
+     */
+    void stop() {
+        stop = true;
+        for (int i = 0; i < 50 && !isStoppedStatus; i++) {
+            MyThread.sleep(10);
+        }
+    }
+
+    boolean isStopped() {
+        return isStoppedStatus;
+    }
+}
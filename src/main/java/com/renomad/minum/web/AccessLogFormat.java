@@ -0,0 +1,42 @@
+package com.renomad.minum.web;
+
+/**
+ * How each request is written to the access log.  Set with
+ * ACCESS_LOG_FORMAT in the configuration.
+ * <p>
+ *     The text formats are followed by the time spent in each phase of
+ *     the request, in microseconds, and how many requests came before this
+ *     one on the same connection, like:
+ * </p>
+ * <pre>
+ * read_us=35 handler_us=1210 compress_us=0 write_us=80 total_us=1325 reuse=2
+ * </pre>
+ */
+public enum AccessLogFormat {
+
+    /**
+     * No access log is kept
+     */
+    NONE,
+
+    /**
+     * The Common Log Format, like:
+     * <pre>
+     * 127.0.0.1 - - [19/Oct/2026:14:25:01 +0000] "GET /index.html HTTP/1.1" 200 2326
+     * </pre>
+     */
+    COMMON,
+
+    /**
+     * The Common Log Format, followed by the referer and user agent, like:
+     * <pre>
+     * 127.0.0.1 - - [19/Oct/2026:14:25:01 +0000] "GET /index.html HTTP/1.1" 200 2326 "-" "curl/8.0"
+     * </pre>
+     */
+    COMBINED,
+
+    /**
+     * One JSON object per request, with each value as its own field
+     */
+    JSON
+}
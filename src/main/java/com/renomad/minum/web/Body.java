@@ -2,6 +2,7 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.utils.StringUtils;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -184,6 +185,15 @@ public final class Body {
         return getPartitionHeaders().stream().filter(x -> x.getContentDisposition().getName().equalsIgnoreCase(name)).toList();
     }
 
+    /**
+     * Delete the temporary files of any partitions kept on disk
+     */
+    void deleteTemporaryFiles() throws IOException {
+        for (Partition partition : partitions) {
+            partition.deleteFile();
+        }
+    }
+
     /**
      * Returns the {@link BodyType}, which is necessary to distinguish
      * which methods to run for accessing data. For instance, if the body
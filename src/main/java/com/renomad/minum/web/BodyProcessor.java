@@ -4,13 +4,16 @@ import com.renomad.minum.logging.ILogger;
 import com.renomad.minum.security.ForbiddenUseException;
 import com.renomad.minum.state.Constants;
 import com.renomad.minum.state.Context;
-import com.renomad.minum.utils.StringUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -24,6 +27,26 @@ final class BodyProcessor implements IBodyProcessor {
     private final IInputStreamUtils inputStreamUtils;
     private final Constants constants;
 
+    /**
+     * The total of the content lengths of the multipart bodies being read right now
+     */
+    private final AtomicLong uploadBytesInProgress = new AtomicLong();
+
+    /**
+     * The size of the pooled buffers for reading URL-encoded bodies
+     */
+    private static final int FORM_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * Buffers for reading URL-encoded bodies, which are usually small
+     */
+    private final BufferPool formBuffers = new BufferPool(FORM_BUFFER_SIZE, 64);
+
+    /**
+     * A value sent as this is read as empty
+     */
+    private static final byte[] NULL_VALUE = "%NULL%".getBytes(StandardCharsets.US_ASCII);
+
     BodyProcessor(Context context) {
         this.constants = context.getConstants();
         this.logger = context.getLogger();
@@ -96,6 +119,7 @@ final class BodyProcessor implements IBodyProcessor {
             throw new BadRequestException("The boundary value was blank for the multipart input");
         }
 
+        reserveUploadBytes(contentLength);
         List<Partition> partitions = new ArrayList<>();
 
         try {
@@ -105,12 +129,19 @@ final class BodyProcessor implements IBodyProcessor {
                 if (countOfPartitions >= MAX_BODY_KEYS_URL_ENCODED) {
                     throw new WebServerException("Error: body had excessive number of partitions (" + countOfPartitions + ").  Maximum allowed: " + MAX_BODY_KEYS_URL_ENCODED);
                 }
-                partitions.add(new Partition(p.getHeaders(), p.readAllBytes(), p.getContentDisposition()));
+                if (constants.multipartSpillThresholdBytes > 0) {
+                    partitions.add(readPartition(p));
+                } else {
+                    partitions.add(new Partition(p.getHeaders(), p.readAllBytes(), p.getContentDisposition()));
+                }
             }
 
 
         } catch (Exception ex) {
+            deleteTemporaryFiles(partitions);
             throw new BadRequestException("Unable to parse the body as a multipart/form-data content-type", ex);
+        } finally {
+            uploadBytesInProgress.addAndGet(-contentLength);
         }
 
         if (partitions.isEmpty()) {
@@ -120,6 +151,73 @@ final class BodyProcessor implements IBodyProcessor {
         }
     }
 
+    /**
+     * Count this upload among those being received, refusing it if that
+     * would go past {@link Constants#maxConcurrentUploadBytes}
+     */
+    private void reserveUploadBytes(long contentLength) {
+        long total = uploadBytesInProgress.addAndGet(contentLength);
+        if (constants.maxConcurrentUploadBytes > 0 && total > constants.maxConcurrentUploadBytes) {
+            uploadBytesInProgress.addAndGet(-contentLength);
+            throw new BadRequestException("Refusing an upload of " + contentLength + " bytes, since " + (total - contentLength) +
+                    " bytes of uploads are already in progress and the maximum is " + constants.maxConcurrentUploadBytes);
+        }
+    }
+
+    /**
+     * Read a partition into memory, unless it is larger than
+     * {@link Constants#multipartSpillThresholdBytes}, in which case
+     * it is written to a temporary file.
+     */
+    private Partition readPartition(StreamingMultipartPartition p) throws IOException {
+        var content = new ByteArrayOutputStream();
+        byte[] block = new byte[8 * 1024];
+        int count;
+        while ((count = p.read(block, 0, block.length)) != -1) {
+            content.write(block, 0, count);
+            if (content.size() > constants.multipartSpillThresholdBytes) {
+                return spillToFile(p, content);
+            }
+        }
+        return new Partition(p.getHeaders(), content.toByteArray(), p.getContentDisposition());
+    }
+
+    /**
+     * Write what has been read of a partition so far, and the rest of it, to a temporary file
+     */
+    private Partition spillToFile(StreamingMultipartPartition p, ByteArrayOutputStream start) throws IOException {
+        Path file;
+        if (constants.multipartSpillDirectory.isBlank()) {
+            file = Files.createTempFile("minum_upload_", ".tmp");
+        } else {
+            Path directory = Path.of(constants.multipartSpillDirectory);
+            Files.createDirectories(directory);
+            file = Files.createTempFile(directory, "minum_upload_", ".tmp");
+        }
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+            start.writeTo(outputStream);
+            long size = start.size() + p.transferTo(outputStream);
+            logger.logTrace(() -> "Wrote a partition of " + size + " bytes to " + file);
+            return new Partition(p.getHeaders(), file, size, p.getContentDisposition());
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(file);
+            throw ex;
+        }
+    }
+
+    /**
+     * Delete the temporary files of any partitions written to disk
+     */
+    private void deleteTemporaryFiles(List<Partition> partitions) {
+        for (Partition partition : partitions) {
+            try {
+                partition.deleteFile();
+            } catch (IOException ex) {
+                logger.logDebug(() -> "Unable to delete the temporary file " + partition.getPath() + ": " + ex);
+            }
+        }
+    }
+
     /**
      * Given the "content-type" header, determine the boundary value.  A typical
      * multipart content-type header might look like this: <pre>Content-Type: multipart/form-data; boundary=i_am_a_boundary</pre>
@@ -157,34 +255,112 @@ final class BodyProcessor implements IBodyProcessor {
             return Body.EMPTY;
         }
         final var postedPairs = new HashMap<String, byte[]>();
+        final int length = Math.toIntExact(contentLength);
+        final byte[] pooledBuffer = formBuffers.acquire(Math.min(length, FORM_BUFFER_SIZE));
 
         try {
+            // read the whole body, then decode each value where it lies.  A body
+            // larger than the pooled buffer is grown into as its bytes arrive,
+            // so the claimed length is not allocated up front.
+            byte[] buffer = pooledBuffer;
+            int countRead = 0;
+            while (countRead < length) {
+                if (countRead == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(length, 2L * buffer.length));
+                }
+                int count = is.read(buffer, countRead, Math.min(buffer.length, length) - countRead);
+                if (count == -1) break;
+                countRead += count;
+            }
+            if (countRead < length) {
+                throw new WebServerException("Error: The inputstream has closed unexpectedly while reading");
+            }
+
             int countOfPartitions = 0;
-            for (final var keyValue : getUrlEncodedDataIterable(is, contentLength)) {
+            int start = 0;
+            do {
                 countOfPartitions += 1;
                 if (countOfPartitions >= MAX_BODY_KEYS_URL_ENCODED) {
                     throw new WebServerException("Error: body had excessive number of partitions ("+countOfPartitions+").  Maximum allowed: " + MAX_BODY_KEYS_URL_ENCODED);
                 }
-                String value = new String(keyValue.getUedg().readAllBytes(), StandardCharsets.US_ASCII);
-                String key = keyValue.getKey();
-                final var decodedValue = StringUtils.decode(value);
-                final var convertedValue = decodedValue == null ? "".getBytes(StandardCharsets.UTF_8) : decodedValue.getBytes(StandardCharsets.UTF_8);
+                int end = indexOf(buffer, (byte) '&', start, countRead);
+                int equalsIndex = indexOf(buffer, (byte) '=', start, end);
+                if (equalsIndex - start > MAX_KEY_SIZE_BYTES) {
+                    throw new WebServerException("Maximum size for name attribute is " + MAX_KEY_SIZE_BYTES + " ascii characters");
+                }
+                // URL encoding is in ASCII only.
+                String key = new String(buffer, start, equalsIndex - start, StandardCharsets.US_ASCII);
+                if (equalsIndex == end || key.isBlank()) {
+                    throw new WebServerException("Unable to parse this body. no key found during parsing");
+                }
+
+                final byte[] convertedValue;
+                if (Arrays.equals(buffer, equalsIndex + 1, end, NULL_VALUE, 0, NULL_VALUE.length)) {
+                    convertedValue = new byte[0];
+                } else {
+                    int decodedEnd = decodeInPlace(buffer, equalsIndex + 1, end, key);
+                    convertedValue = Arrays.copyOfRange(buffer, equalsIndex + 1, decodedEnd);
+                }
 
                 final var result = postedPairs.put(key, convertedValue);
 
                 if (result != null) {
-                    throw new BadRequestException("Unexpected: key (" +key + ") was duplicated in the post body - previous value was " + new String(result, StandardCharsets.US_ASCII) + " and was overwritten by " + decodedValue);
+                    throw new BadRequestException("Unexpected: key (" +key + ") was duplicated in the post body - previous value was " + new String(result, StandardCharsets.US_ASCII) + " and was overwritten by " + new String(convertedValue, StandardCharsets.UTF_8));
                 }
-            }
+                start = end + 1;
+            } while (start < countRead);
         } catch (Exception ex) {
             throw new BadRequestException("Unable to parse the request body as a URL-encoded content type", ex);
+        } finally {
+            formBuffers.release(pooledBuffer);
         }
-        // we return nothing for the raw bytes because the code for parsing the streaming data
-        // doesn't begin with a fully-read byte array - it pulls data off the stream one byte
-        // at a time.
+        // we return nothing for the raw bytes because the values are decoded
+        // in place, over the bytes as they were read.
         return new Body(postedPairs, new byte[0], List.of(), BodyType.FORM_URL_ENCODED);
     }
 
+    /**
+     * The index of the first {@code target} in the range, or {@code end} if there is none
+     */
+    private static int indexOf(byte[] bytes, byte target, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == target) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Decode a URL-encoded value - a plus is a space, and a percent sign followed
+     * by two hex digits is a byte - writing the result over the encoded value.  The
+     * decoded bytes are the UTF-8 text of the value.
+     * @return the index after the last decoded byte
+     */
+    private static int decodeInPlace(byte[] bytes, int start, int end, String key) {
+        int write = start;
+        for (int read = start; read < end; read++) {
+            byte b = bytes[read];
+            if (b == '+') {
+                bytes[write++] = ' ';
+            } else if (b == '%') {
+                if (read + 2 >= end) {
+                    throw new WebServerException("Incomplete trailing escape (%) pattern in the value for key: " + key);
+                }
+                int high = Character.digit(bytes[read + 1], 16);
+                int low = Character.digit(bytes[read + 2], 16);
+                if (high < 0 || low < 0) {
+                    throw new WebServerException("Illegal hex characters in escape (%) pattern in the value for key: " + key);
+                }
+                bytes[write++] = (byte) ((high << 4) | low);
+                read += 2;
+            } else {
+                bytes[write++] = b;
+            }
+        }
+        return write;
+    }
+
     /**
      * A regex used to extract the name value from the headers in multipart/form
      * For example, in the following code, you can see that the name is "image_uploads"
@@ -264,14 +440,14 @@ final class BodyProcessor implements IBodyProcessor {
     public Iterable<StreamingMultipartPartition> getMultiPartIterable(InputStream inputStream, String boundaryValue, long contentLength) {
         return () -> new Iterator<>() {
 
-            final CountBytesRead countBytesRead = new CountBytesRead();
+            // the headers and data of every partition are read through this one buffer
+            final MultipartInputStream multipartInputStream = new MultipartInputStream(inputStream, contentLength);
             boolean hasReadFirstPartition = false;
 
             @Override
             public boolean hasNext() {
-                // determining if we have more to read is a little tricky because we have a buffer
-                // filled by reading ahead, looking for the boundary value
-                return (contentLength - countBytesRead.getCount()) > (long) boundaryValue.length();
+                // after the last boundary, there are only its two trailing dashes and perhaps a newline
+                return multipartInputStream.countRemaining() > (long) boundaryValue.length();
             }
 
             @Override
@@ -284,11 +460,10 @@ final class BodyProcessor implements IBodyProcessor {
                     // and avoid including the boundary value in the first set of headers
                     if (!hasReadFirstPartition) {
                         String s;
-                        s = inputStreamUtils.readLine(inputStream);
+                        s = inputStreamUtils.readLine(multipartInputStream);
                         if (s == null) {
                             throw new BadRequestException("Unexpectedly encountered end of stream while reading in BodyProcessor.next()");
                         }
-                        countBytesRead.incrementBy(s.length() + 2);
                         hasReadFirstPartition = true;
 
                         if (!s.contains(boundaryValue)) {
@@ -296,11 +471,7 @@ final class BodyProcessor implements IBodyProcessor {
                         }
                     }
                     List<String> allHeaders;
-                    allHeaders = Headers.getAllHeaders(inputStream, inputStreamUtils);
-                    int lengthOfHeaders = allHeaders.stream().map(String::length).reduce(0, Integer::sum);
-                    // each line has a CR + LF (that's two bytes) and the headers end with a second pair of CR+LF.
-                    int extraCrLfs = (2 * allHeaders.size()) + 2;
-                    countBytesRead.incrementBy(lengthOfHeaders + extraCrLfs);
+                    allHeaders = Headers.getAllHeaders(multipartInputStream, inputStreamUtils);
 
                     Headers headers = new Headers(allHeaders);
 
@@ -327,7 +498,7 @@ final class BodyProcessor implements IBodyProcessor {
                     // at this point our inputstream pointer is at the beginning of the
                     // body data.  From here until the end it's pure data.
 
-                    return new StreamingMultipartPartition(headers, inputStream, new ContentDisposition(name, filename), boundaryValue, countBytesRead, contentLength);
+                    return new StreamingMultipartPartition(headers, multipartInputStream, new ContentDisposition(name, filename), boundaryValue);
                 } catch (IOException ex) {
                     throw new WebServerException("Error in BodyProcessor.getMultiPartIterable.next", ex);
                 }
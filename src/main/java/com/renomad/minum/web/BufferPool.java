@@ -0,0 +1,50 @@
+package com.renomad.minum.web;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A small pool of same-sized byte arrays, for reading request bodies
+ * without allocating a new array each time.
+ * <p>
+ *     A request for more than the pooled size gets a new array
+ *     of exactly that size, which is not kept when given back.  When
+ *     the pool is full, arrays given back are left for the garbage
+ *     collector.
+ * </p>
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final ArrayBlockingQueue<byte[]> buffers;
+
+    /**
+     * @param bufferSize the size of each pooled array
+     * @param maxPooled the most arrays to keep for reuse
+     */
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    /**
+     * Get an array of at least this many bytes.  Its contents are not cleared.
+     * Give it back with {@link #release(byte[])} when finished.
+     */
+    byte[] acquire(int minimumSize) {
+        if (minimumSize > bufferSize) {
+            return new byte[minimumSize];
+        }
+        byte[] buffer = buffers.poll();
+        return buffer != null ? buffer : new byte[bufferSize];
+    }
+
+    /**
+     * Return an array, gotten from {@link #acquire(int)}, for reuse.  It
+     * must not be used afterwards.
+     */
+    void release(byte[] buffer) {
+        if (buffer.length == bufferSize) {
+            buffers.offer(buffer);
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package com.renomad.minum.web;
 
+import com.renomad.minum.database.DbMetrics;
 import com.renomad.minum.queue.ActionQueueKiller;
+import com.renomad.minum.queue.ActionQueueMetrics;
 import com.renomad.minum.state.Constants;
 import com.renomad.minum.logging.ILogger;
 import com.renomad.minum.logging.Logger;
 import com.renomad.minum.security.ITheBrig;
 import com.renomad.minum.security.TheBrig;
 import com.renomad.minum.state.Context;
+import com.renomad.minum.templating.TemplateRegistry;
 import com.renomad.minum.utils.*;
 
 import java.io.IOException;
@@ -14,10 +17,12 @@ import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class is responsible for instantiating necessary classes
@@ -37,6 +42,8 @@ public final class FullSystem {
     private ITheBrig theBrig;
     final ExecutorService es;
     private WebEngine webEngine;
+    private TemplateRegistry templateRegistry;
+    private final ReentrantLock templateRegistryLock;
 
     /**
      * This flag gives us some control if we need
@@ -60,6 +67,7 @@ public final class FullSystem {
         this.fileUtils = new FileUtils(logger, constants);
         this.es = context.getExecutorService();
         this.context = context;
+        this.templateRegistryLock = new ReentrantLock();
         context.setFullSystem(this);
     }
 
@@ -126,6 +134,8 @@ public final class FullSystem {
 
         // the web framework handles the HTTP communications
         webFramework = new WebFramework(context);
+        registerDbMetricsEndpoint(constants.dbMetricsEndpoint, webFramework, context);
+        registerQueueMetricsEndpoint(constants.queueMetricsEndpoint, webFramework, context);
 
         // kick off the servers - low level internet handlers
         webEngine = new WebEngine(context, webFramework);
@@ -157,6 +167,36 @@ public final class FullSystem {
         }
     }
 
+    /**
+     * If configured, serve the metrics of all the databases as plain text.
+     * See {@link DbMetrics}
+     */
+    static void registerDbMetricsEndpoint(String dbMetricsEndpoint, WebFramework webFramework, Context context) {
+        if (dbMetricsEndpoint == null || dbMetricsEndpoint.isBlank()) {
+            return;
+        }
+        webFramework.registerPath(RequestLine.Method.GET, dbMetricsEndpoint, request ->
+                Response.buildResponse(
+                        StatusLine.StatusCode.CODE_200_OK,
+                        Map.of("Content-Type", "text/plain; charset=UTF-8"),
+                        DbMetrics.render(context.getDbMetrics())));
+    }
+
+    /**
+     * If configured, serve the metrics of all the running bounded action
+     * queues as plain text.  See {@link ActionQueueMetrics}
+     */
+    static void registerQueueMetricsEndpoint(String queueMetricsEndpoint, WebFramework webFramework, Context context) {
+        if (queueMetricsEndpoint == null || queueMetricsEndpoint.isBlank()) {
+            return;
+        }
+        webFramework.registerPath(RequestLine.Method.GET, queueMetricsEndpoint, request ->
+                Response.buildResponse(
+                        StatusLine.StatusCode.CODE_200_OK,
+                        Map.of("Content-Type", "text/plain; charset=UTF-8"),
+                        ActionQueueMetrics.render(context.getActionQueueState().getMetrics())));
+    }
+
     /**
      * this adds a hook to the Java runtime, so that if the app is running
      * and a user stops it - by pressing ctrl+c or a unix "kill" command - the
@@ -196,6 +236,25 @@ public final class FullSystem {
         return theBrig;
     }
 
+    /**
+     * The {@link TemplateRegistry} for the template directory in the configuration,
+     * built and initialized when first asked for, so that a system without
+     * templates needs no template directory.  It is stopped when the system
+     * shuts down.
+     * @throws com.renomad.minum.templating.TemplateParseException if a template cannot be built
+     */
+    public TemplateRegistry getTemplateRegistry() {
+        templateRegistryLock.lock();
+        try {
+            if (templateRegistry == null) {
+                templateRegistry = new TemplateRegistry(context).initialize();
+            }
+            return templateRegistry;
+        } finally {
+            templateRegistryLock.unlock();
+        }
+    }
+
     /**
      * A convenience function to get the {@link Context} used in
      * this class's construction
@@ -215,7 +274,7 @@ public final class FullSystem {
 
         if (!hasShutdown) {
             logger.logTrace(() -> "close called on " + this);
-            closeCore(logger, context, server, sslServer, this.toString(), fileUtils);
+            closeCore(logger, context, server, sslServer, webFramework, templateRegistry, this.toString(), fileUtils);
             hasShutdown = true;
         }
     }
@@ -224,7 +283,7 @@ public final class FullSystem {
      * The core code for closing resources
      * @param fullSystemName the name of this FullSystem, in cases where several are running concurrently
      */
-    static void closeCore(ILogger logger, Context context, IServer server, IServer sslServer, String fullSystemName, IFileUtils fileUtils) throws IOException {
+    static void closeCore(ILogger logger, Context context, IServer server, IServer sslServer, WebFramework webFramework, TemplateRegistry templateRegistry, String fullSystemName, IFileUtils fileUtils) throws IOException {
         logger.logDebug(() -> "Received shutdown command");
 
         if (server != null) {
@@ -237,6 +296,16 @@ public final class FullSystem {
             sslServer.close();
         }
 
+        if (webFramework != null) {
+            logger.logDebug(() -> " Stopping the web framework: " + webFramework);
+            webFramework.stop();
+        }
+
+        if (templateRegistry != null) {
+            logger.logDebug(() -> " Stopping the template registry: " + templateRegistry);
+            templateRegistry.stop();
+        }
+
         logger.logDebug(() -> "Killing all the action queues: " + context.getActionQueueState().aqQueueAsString());
         new ActionQueueKiller(context).killAllQueues();
 
@@ -1,6 +1,7 @@
 package com.renomad.minum.web;
 
 import com.renomad.minum.state.Constants;
+import com.renomad.minum.htmlparsing.HtmlIndex;
 import com.renomad.minum.htmlparsing.HtmlParseNode;
 import com.renomad.minum.htmlparsing.HtmlParser;
 import com.renomad.minum.htmlparsing.TagName;
@@ -9,6 +10,7 @@ import com.renomad.minum.state.Context;
 import com.renomad.minum.utils.InvariantException;
 import com.renomad.minum.utils.StacktraceUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
@@ -86,6 +88,20 @@ public final class FunctionalTesting {
             var nodes = htmlParser.parse(body.asString());
             return htmlParser.search(nodes, tagName, attributes);
         }
+
+        /**
+         * Presuming the response body is HTML, parse it once into an
+         * index, for running many searches against the same page.  Each
+         * call to {@link #searchOne} or {@link #search} parses the body again.
+         * <pre>{@code
+         *     HtmlIndex page = response.index();
+         *     assertEquals(page.getById("name").innerText(), "Alice");
+         *     assertEquals(page.select("table.people tr").size(), 3);
+         * }</pre>
+         */
+        public HtmlIndex index() {
+            return new HtmlIndex(new HtmlParser().parse(body.asString()));
+        }
     }
 
     /**
@@ -204,11 +220,42 @@ public final class FunctionalTesting {
 
         if (hasBody && !method.equals(RequestLine.Method.HEAD)) {
             logger.logTrace(() -> "There is a body. Content-type is " + headers.contentType());
-            body = bodyProcessor.extractData(is, headers);
+            if (List.of("chunked").equals(headers.valueByKey("transfer-encoding"))) {
+                body = new Body(Map.of(), readChunkedBody(is), List.of(), BodyType.UNRECOGNIZED);
+            } else {
+                body = bodyProcessor.extractData(is, headers);
+            }
         }
         return new TestResponse(statusLine, headers, body);
     }
 
+    /**
+     * Read a body sent with "transfer-encoding: chunked", such as from
+     * {@link Response#buildChunkedResponse}, joining the chunks together.
+     */
+    private byte[] readChunkedBody(InputStream is) throws IOException {
+        var result = new ByteArrayOutputStream();
+        while (true) {
+            String chunkSizeLine = inputStreamUtils.readLine(is);
+            if (chunkSizeLine == null) {
+                throw new WebServerException("The chunked body ended without a final chunk");
+            }
+            int chunkSize = Integer.parseInt(chunkSizeLine.trim(), 16);
+            if (chunkSize == 0) {
+                // the empty line after the final chunk
+                inputStreamUtils.readLine(is);
+                return result.toByteArray();
+            }
+            byte[] chunk = is.readNBytes(chunkSize);
+            if (chunk.length != chunkSize) {
+                throw new WebServerException("The chunked body ended partway through a chunk");
+            }
+            result.write(chunk);
+            // the line ending after each chunk
+            inputStreamUtils.readLine(is);
+        }
+    }
+
     /**
      * This is the regex used to analyze a status line sent by the server and
      * read by the client.  Servers will send messages like: "HTTP/1.1 200 OK" or "HTTP/1.1 500 Internal Server Error"
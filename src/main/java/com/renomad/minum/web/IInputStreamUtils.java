@@ -2,6 +2,7 @@ package com.renomad.minum.web;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * An interface for the {@link InputStreamUtils} implementation.
@@ -25,8 +26,19 @@ interface IInputStreamUtils {
     String readLine(InputStream inputStream) throws IOException;
 
     /**
-     * Reads "lengthToRead" bytes from the input stream
+     * Reads "lengthToRead" bytes from the input stream, and no more
+     * @throws com.renomad.minum.security.ForbiddenUseException if the stream
+     *         ends before that many bytes are read
      */
     byte[] read(int lengthToRead, InputStream inputStream) throws IOException;
 
+    /**
+     * Fills the remaining space of the buffer from the input stream, and
+     * reads no more, advancing the buffer's position.  This allows the caller
+     * to reuse a buffer, rather than getting a new array each time.
+     * @throws com.renomad.minum.security.ForbiddenUseException if the stream
+     *         ends before the buffer is full
+     */
+    void read(ByteBuffer buffer, InputStream inputStream) throws IOException;
+
 }
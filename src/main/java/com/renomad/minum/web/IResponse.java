@@ -1,5 +1,6 @@
 package com.renomad.minum.web;
 
+import java.io.OutputStream;
 import java.util.Map;
 
 /**
@@ -71,4 +72,12 @@ public interface IResponse {
      * </pre>
      */
     ThrowingConsumer<ISocketWrapper> getOutputGenerator();
+
+    /**
+     * If the body is written while being sent, with its length unknown, this
+     * is what writes it.  Otherwise, null.  See {@link Response#buildChunkedResponse}
+     */
+    default ThrowingConsumer<OutputStream> getBodyWriter() {
+        return null;
+    }
 }
@@ -51,6 +51,15 @@ public interface ISocketWrapper extends Closeable {
      */
     String getRemoteAddr();
 
+    /**
+     * Returns the raw bytes of the remote host address - four for
+     * IPv4, sixteen for IPv6 - or null if not available.  Unlike
+     * {@link #getRemoteAddr()}, this builds no string.
+     */
+    default byte[] getRemoteAddrBytes() {
+        return null;
+    }
+
     HttpServerType getServerType();
 
     /**
@@ -58,6 +67,14 @@ public interface ISocketWrapper extends Closeable {
      */
     InputStream getInputStream();
 
+    /**
+     * The count of bytes read so far from {@link #getInputStream()},
+     * or -1 if this socket does not keep count
+     */
+    default long getBytesRead() {
+        return -1;
+    }
+
     /**
      * The hostname of the server, as set in the configuration
      * file of key HOST_NAME in {@link Constants#hostName}
@@ -4,6 +4,7 @@ import com.renomad.minum.security.ForbiddenUseException;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
@@ -12,6 +13,13 @@ import java.util.Objects;
  */
 final class InputStreamUtils implements IInputStreamUtils {
 
+    private static final int SCRATCH_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Used when reading into a direct {@link ByteBuffer}, shared by all instances
+     */
+    private static final BufferPool scratchBuffers = new BufferPool(SCRATCH_BUFFER_SIZE, 16);
+
     private final int maxReadLineSizeBytes;
 
     public InputStreamUtils(int maxReadLineSizeBytes) {
@@ -55,30 +63,44 @@ final class InputStreamUtils implements IInputStreamUtils {
 
     @Override
     public byte[] read(int lengthToRead, InputStream inputStream) throws IOException{
-        final int typicalBufferSize = 1024 * 8;
-        byte[] buf = new byte[Math.min(lengthToRead, typicalBufferSize)]; // 8k buffer is my understanding of a decent size.  Fast, doesn't waste too much space.
-        byte[] data;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int read;
-        int totalRead = 0;
-        while (true) {
-            if (!((read = inputStream.read(buf)) >= 0)) break;
-            totalRead += read;
-            if (totalRead < lengthToRead) {
-                // if we haven't gotten everything we wanted, write this to the output and loop again
-                baos.write(buf, 0, read);
-            } else {
-                baos.write(buf, 0, read - (totalRead - lengthToRead));
-                break;
+        // read exactly what was asked for, so nothing past the end is taken from
+        // the stream.  The array grows as the bytes arrive, rather than being sized
+        // to the length up front, so a client that stalls mid-body holds little memory.
+        byte[] data = inputStream.readNBytes(lengthToRead);
+        checkCountRead(data.length, lengthToRead);
+        return data;
+    }
+
+    @Override
+    public void read(ByteBuffer buffer, InputStream inputStream) throws IOException {
+        int lengthToRead = buffer.remaining();
+        int countRead;
+        if (buffer.hasArray()) {
+            countRead = inputStream.readNBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), lengthToRead);
+            buffer.position(buffer.position() + countRead);
+        } else {
+            // a direct buffer has no array to read into, so go through a pooled one
+            byte[] scratch = scratchBuffers.acquire(Math.min(lengthToRead, SCRATCH_BUFFER_SIZE));
+            try {
+                countRead = 0;
+                while (countRead < lengthToRead) {
+                    int count = inputStream.read(scratch, 0, Math.min(scratch.length, lengthToRead - countRead));
+                    if (count == -1) break;
+                    buffer.put(scratch, 0, count);
+                    countRead += count;
+                }
+            } finally {
+                scratchBuffers.release(scratch);
             }
         }
-        data = baos.toByteArray();
+        checkCountRead(countRead, lengthToRead);
+    }
 
-        if (data.length != lengthToRead) {
-            String message = String.format("length of bytes read (%d) must be what we expected (%d)", data.length, lengthToRead);
+    private static void checkCountRead(int countRead, int lengthToRead) {
+        if (countRead != lengthToRead) {
+            String message = String.format("length of bytes read (%d) must be what we expected (%d)", countRead, lengthToRead);
             throw new ForbiddenUseException(message);
         }
-        return data;
     }
 
     @Override
@@ -0,0 +1,169 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the body of a multipart/form-data request from the socket in
+ * large blocks, shared by the partition headers and every
+ * {@link StreamingMultipartPartition}, so the data is not pulled off
+ * the socket one byte at a time.
+ * <p>
+ *     It never reads past the end of the body, as given by the Content-Length
+ *     header, so the stream is left where the next request begins.
+ * </p>
+ */
+final class MultipartInputStream extends InputStream {
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final InputStream inputStream;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * The count of bytes of the body not yet taken from the inputStream
+     */
+    private long remaining;
+
+    /**
+     * Set if the inputStream ended before the whole body was read
+     */
+    private boolean isTruncated;
+
+    /**
+     * @param contentLength the length specified by the Content-Length header, it is
+     *                      the overall length of the body
+     */
+    MultipartInputStream(InputStream inputStream, long contentLength) {
+        this.inputStream = inputStream;
+        this.buffer = new byte[BLOCK_SIZE];
+        this.remaining = Math.max(0, contentLength);
+    }
+
+    /**
+     * Read from the inputStream until at least {@code minimum} bytes are
+     * buffered, or the body has been entirely read.
+     * @return the count of bytes buffered
+     */
+    int fill(int minimum) throws IOException {
+        int buffered = limit - position;
+        if (buffered >= minimum) {
+            return buffered;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, buffered);
+            position = 0;
+            limit = buffered;
+        }
+        while (limit < minimum && remaining > 0) {
+            int count = inputStream.read(buffer, limit, (int) Math.min(buffer.length - limit, remaining));
+            if (count == -1) {
+                isTruncated = true;
+                remaining = 0;
+                break;
+            }
+            limit += count;
+            remaining -= count;
+        }
+        return limit;
+    }
+
+    /**
+     * The count of bytes of the body not yet read from this stream
+     */
+    long countRemaining() {
+        return remaining + (limit - position);
+    }
+
+    /**
+     * True if the inputStream ended before all the bytes promised
+     * by the Content-Length were read
+     */
+    boolean isTruncated() {
+        return isTruncated;
+    }
+
+    /**
+     * Search the buffered bytes for the pattern, using Boyer-Moore-Horspool.
+     * @param skipTable built by {@link #buildSkipTable(byte[])} for this pattern
+     * @return the distance from the current position to the pattern, or -1 if
+     *         it is not among the buffered bytes
+     */
+    int indexOf(byte[] pattern, int[] skipTable) {
+        int last = pattern.length - 1;
+        int i = position;
+        while (i + last < limit) {
+            int j = last;
+            while (buffer[i + j] == pattern[j]) {
+                if (j == 0) {
+                    return i - position;
+                }
+                j--;
+            }
+            i += skipTable[buffer[i + last] & 0xff];
+        }
+        return -1;
+    }
+
+    /**
+     * For each byte value, how far the search may move ahead when that
+     * byte is found under the last position of the pattern
+     */
+    static int[] buildSkipTable(byte[] pattern) {
+        int[] skipTable = new int[256];
+        Arrays.fill(skipTable, pattern.length);
+        for (int i = 0; i < pattern.length - 1; i++) {
+            skipTable[pattern[i] & 0xff] = pattern.length - 1 - i;
+        }
+        return skipTable;
+    }
+
+    /**
+     * Copy up to {@code length} of the buffered bytes, without reading
+     * from the inputStream.
+     * @return the count of bytes copied
+     */
+    int readBuffered(byte[] b, int offset, int length) {
+        int count = Math.min(length, limit - position);
+        System.arraycopy(buffer, position, b, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Discard up to {@code count} of the buffered bytes
+     * @return the count of bytes discarded
+     */
+    int discard(int count) {
+        int discarded = Math.min(count, limit - position);
+        position += discarded;
+        return discarded;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == limit && fill(1) == 0) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (position == limit && fill(1) == 0) {
+            return -1;
+        }
+        return readBuffered(b, offset, length);
+    }
+
+    @Override
+    public int available() {
+        return limit - position;
+    }
+}
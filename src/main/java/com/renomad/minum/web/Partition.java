@@ -2,21 +2,49 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.utils.StringUtils;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * Represents a single partition in a multipart/form-data body response
+ * <p>
+ *     A large partition may be kept in a temporary file rather than in memory
+ *     (see {@link com.renomad.minum.state.Constants#multipartSpillThresholdBytes}).
+ *     In that case, prefer {@link #getInputStream()} to {@link #getContent()},
+ *     which reads the whole file into memory.  The file is deleted after the
+ *     response is sent.
+ * </p>
  */
 public final class Partition {
 
     private final Headers headers;
     private final byte[] content;
+    private final Path file;
+    private final long size;
     private final ContentDisposition contentDisposition;
 
     public Partition(Headers headers, byte[] content, ContentDisposition contentDisposition) {
         this.headers = headers;
         this.content = content;
+        this.file = null;
+        this.size = content.length;
+        this.contentDisposition = contentDisposition;
+    }
+
+    /**
+     * Build a partition whose content is in a temporary file
+     * @param size the count of bytes in the file
+     */
+    Partition(Headers headers, Path file, long size, ContentDisposition contentDisposition) {
+        this.headers = headers;
+        this.content = null;
+        this.file = file;
+        this.size = size;
         this.contentDisposition = contentDisposition;
     }
 
@@ -29,10 +57,61 @@ public final class Partition {
     }
 
     public byte[] getContent() {
+        if (file != null) {
+            return readFile();
+        }
         return content.clone();
     }
     public String getContentAsString() {
-        return StringUtils.byteArrayToString(content);
+        return StringUtils.byteArrayToString(file != null ? readFile() : content);
+    }
+
+    /**
+     * The content of this partition as a stream, which for a partition kept
+     * in a temporary file reads the file without holding it all in memory.
+     */
+    public InputStream getInputStream() {
+        if (file == null) {
+            return new ByteArrayInputStream(content);
+        }
+        try {
+            return Files.newInputStream(file);
+        } catch (IOException e) {
+            throw new WebServerException("Unable to read the partition from " + file, e);
+        }
+    }
+
+    /**
+     * The temporary file holding the content of this partition, or null
+     * if the content is in memory.  The file is deleted after the response
+     * is sent, so to keep it, move or copy it elsewhere.
+     */
+    public Path getPath() {
+        return file;
+    }
+
+    /**
+     * The count of bytes in this partition
+     */
+    public long getSize() {
+        return size;
+    }
+
+    private byte[] readFile() {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            throw new WebServerException("Unable to read the partition from " + file, e);
+        }
+    }
+
+    /**
+     * Delete the temporary file of this partition, if there is one
+     */
+    void deleteFile() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
     }
 
     @Override
@@ -40,12 +119,12 @@ public final class Partition {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Partition partition = (Partition) o;
-        return Objects.equals(headers, partition.headers) && Arrays.equals(content, partition.content) && Objects.equals(contentDisposition, partition.contentDisposition);
+        return Objects.equals(headers, partition.headers) && Arrays.equals(content, partition.content) && size == partition.size && Objects.equals(file, partition.file) && Objects.equals(contentDisposition, partition.contentDisposition);
     }
 
     @Override
     public int hashCode() {
-        int result = Objects.hash(headers, contentDisposition);
+        int result = Objects.hash(headers, file, size, contentDisposition);
         result = 31 * result + Arrays.hashCode(content);
         return result;
     }
@@ -0,0 +1,290 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.state.Constants;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how much each client address may ask of the server: the requests
+ * per second, the bytes of response per second, and the connections open
+ * at once.  See {@link Constants#rateLimitRequestsPerSecond},
+ * {@link Constants#rateLimitBytesPerSecond} and {@link Constants#maxConnectionsPerClient}.
+ * <p>
+ *     Each rate is a token bucket holding up to a second's worth of tokens.  The
+ *     bucket is kept as a single timestamp - the time at which it would be full
+ *     again - which is updated with a compare-and-set, so checking it takes no lock.
+ * </p>
+ * <p>
+ *     At most {@link Constants#rateLimitMaxClients} addresses are tracked.  When
+ *     that many are, idle ones are forgotten to make room.  Looking for them means
+ *     going through every address, so it is only done once a number of new addresses
+ *     have arrived since the last look - a fraction of the maximum - which keeps the
+ *     cost spread thin across requests.
+ * </p>
+ * <p>
+ *     If there is no room, a new address is let through without limit rather than
+ *     refused.  This is deliberate: refusing would let someone with enough
+ *     addresses to fill the table lock out every client not already in it.
+ * </p>
+ */
+final class RateLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * The count of open connections of a client that has been forgotten.  A
+     * client is only forgotten when it has no open connections, and it is marked
+     * with this first, so no thread still holding it can count a connection
+     * on it that would then be lost.
+     */
+    private static final int FORGOTTEN = -1;
+
+    /**
+     * Once the table is full, it is searched for idle clients after this
+     * fraction of the maximum count of new addresses have arrived
+     */
+    private static final int SWEEP_FRACTION = 16;
+
+    private final long requestsPerSecond;
+    private final long bytesPerSecond;
+    private final long maxConnectionsPerClient;
+    private final int maxClients;
+    private final Map<String, Client> clients;
+
+    /**
+     * New addresses that arrived to a full table since it was last searched for idle clients
+     */
+    private final AtomicInteger arrivalsSinceSweep;
+    private final int arrivalsBetweenSweeps;
+
+    /**
+     * Held by the one thread searching for idle clients
+     */
+    private final ReentrantLock sweepLock;
+
+    /**
+     * What became of a connection given to {@link #openConnection(String)}
+     */
+    enum Connection {
+        /**
+         * Counted against the client.  {@link #closeConnection(String)}
+         * must be called when it ends.
+         */
+        COUNTED,
+
+        /**
+         * Let through without being counted, because there was
+         * no room to track the client
+         */
+        UNTRACKED,
+
+        /**
+         * Refused, because the client already has the most connections allowed
+         */
+        REFUSED
+    }
+
+    /**
+     * The usage by a single client address
+     */
+    private static final class Client {
+        /**
+         * The time, in nanoseconds from {@link System#nanoTime()}, at which the
+         * request bucket would be full again.
+         */
+        final AtomicLong requestsFullAt;
+
+        /**
+         * The time, in nanoseconds from {@link System#nanoTime()}, at which the
+         * bucket of bytes would be full again.
+         */
+        final AtomicLong bytesFullAt;
+
+        /**
+         * The count of open connections, or {@link #FORGOTTEN}
+         */
+        final AtomicInteger openConnections;
+
+        Client(long now) {
+            this.requestsFullAt = new AtomicLong(now);
+            this.bytesFullAt = new AtomicLong(now);
+            this.openConnections = new AtomicInteger();
+        }
+
+        /**
+         * If nothing about this client is being limited any longer, mark it
+         * as forgotten and return true.
+         */
+        boolean tryForget(long now) {
+            return requestsFullAt.get() - now <= 0 && bytesFullAt.get() - now <= 0 && openConnections.compareAndSet(0, FORGOTTEN);
+        }
+    }
+
+    RateLimiter(long requestsPerSecond, long bytesPerSecond, long maxConnectionsPerClient, int maxClients) {
+        this.requestsPerSecond = requestsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.maxConnectionsPerClient = maxConnectionsPerClient;
+        this.maxClients = maxClients;
+        this.clients = new ConcurrentHashMap<>();
+        this.arrivalsSinceSweep = new AtomicInteger();
+        this.arrivalsBetweenSweeps = Math.max(1, maxClients / SWEEP_FRACTION);
+        this.sweepLock = new ReentrantLock();
+    }
+
+    /**
+     * Build a rate limiter from the configuration, or return null if no
+     * limit is configured.
+     */
+    static RateLimiter build(Constants constants) {
+        if (constants.rateLimitRequestsPerSecond <= 0 && constants.rateLimitBytesPerSecond <= 0 && constants.maxConnectionsPerClient <= 0) {
+            return null;
+        }
+        return new RateLimiter(
+                constants.rateLimitRequestsPerSecond,
+                constants.rateLimitBytesPerSecond,
+                constants.maxConnectionsPerClient,
+                constants.rateLimitMaxClients);
+    }
+
+    /**
+     * Count a new connection from this address.  Only if it returns
+     * {@link Connection#COUNTED} must {@link #closeConnection(String)} be
+     * called when the connection ends.
+     */
+    Connection openConnection(String remoteAddr) {
+        while (true) {
+            Client client = getClient(remoteAddr, System.nanoTime());
+            if (client == null) {
+                return Connection.UNTRACKED;
+            }
+            int count = client.openConnections.get();
+            if (count == FORGOTTEN) {
+                // forgotten just now, so get it afresh
+                Thread.onSpinWait();
+                continue;
+            }
+            if (maxConnectionsPerClient > 0 && count >= maxConnectionsPerClient) {
+                return Connection.REFUSED;
+            }
+            if (client.openConnections.compareAndSet(count, count + 1)) {
+                return Connection.COUNTED;
+            }
+        }
+    }
+
+    /**
+     * Count the end of a connection for which {@link #openConnection(String)}
+     * returned {@link Connection#COUNTED}.  A client with open connections is
+     * never forgotten, so it is still here to count against.
+     */
+    void closeConnection(String remoteAddr) {
+        Client client = clients.get(remoteAddr);
+        if (client != null) {
+            client.openConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Take a token for a request from this address.
+     * @return 0 if the request may go ahead, or else how many seconds
+     *         the client should wait before trying again
+     */
+    long tryRequest(String remoteAddr) {
+        long now = System.nanoTime();
+        Client client = getClient(remoteAddr, now);
+        if (client == null) {
+            return 0;
+        }
+        if (bytesPerSecond > 0) {
+            // the response is sent before its size is charged, so the client
+            // is refused only once it is past its allowance
+            long wait = client.bytesFullAt.get() - now - NANOS_PER_SECOND;
+            if (wait > 0) {
+                return toRetrySeconds(wait);
+            }
+        }
+        if (requestsPerSecond > 0) {
+            long cost = NANOS_PER_SECOND / requestsPerSecond;
+            while (true) {
+                long fullAt = client.requestsFullAt.get();
+                long newFullAt = Math.max(fullAt, now) + cost;
+                long wait = newFullAt - now - NANOS_PER_SECOND;
+                if (wait > 0) {
+                    return toRetrySeconds(wait);
+                }
+                if (client.requestsFullAt.compareAndSet(fullAt, newFullAt)) {
+                    break;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Take tokens for the bytes of a response sent to this address.  Unlike
+     * requests, these are always taken - possibly going into debt, which
+     * is paid off before the next request is allowed.
+     */
+    void chargeBytes(String remoteAddr, long byteCount) {
+        if (bytesPerSecond <= 0 || byteCount <= 0) {
+            return;
+        }
+        Client client = clients.get(remoteAddr);
+        if (client == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        long cost = (long) ((double) byteCount * NANOS_PER_SECOND / bytesPerSecond);
+        client.bytesFullAt.getAndUpdate(fullAt -> Math.max(fullAt, now) + cost);
+    }
+
+    /**
+     * The count of client addresses being tracked
+     */
+    int size() {
+        return clients.size();
+    }
+
+    /**
+     * Get the usage for this address, adding it if new.  Returns null if
+     * the address is new and there is no room to track it.
+     */
+    private Client getClient(String remoteAddr, long now) {
+        Client client = clients.get(remoteAddr);
+        if (client != null) {
+            return client;
+        }
+        if (clients.size() >= maxClients) {
+            if (arrivalsSinceSweep.incrementAndGet() >= arrivalsBetweenSweeps && sweepLock.tryLock()) {
+                try {
+                    arrivalsSinceSweep.set(0);
+                    forgetIdleClients(now);
+                } finally {
+                    sweepLock.unlock();
+                }
+            }
+            if (clients.size() >= maxClients) {
+                return null;
+            }
+        }
+        return clients.computeIfAbsent(remoteAddr, x -> new Client(now));
+    }
+
+    private void forgetIdleClients(long now) {
+        for (var entry : clients.entrySet()) {
+            Client client = entry.getValue();
+            if (client.tryForget(now)) {
+                clients.remove(entry.getKey(), client);
+            }
+        }
+    }
+
+    private static long toRetrySeconds(long waitNanos) {
+        return Math.max(1, (waitNanos + NANOS_PER_SECOND - 1) / NANOS_PER_SECOND);
+    }
+}
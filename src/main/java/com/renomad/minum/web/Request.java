@@ -1,5 +1,6 @@
 package com.renomad.minum.web;
 
+import java.io.IOException;
 import java.util.Objects;
 
 /**
@@ -58,6 +59,16 @@ public final class Request implements IRequest {
         return body;
     }
 
+    /**
+     * Delete any temporary files made while reading the body, such as
+     * for large uploaded files.  Run once the response has been sent.
+     */
+    void deleteTemporaryFiles() throws IOException {
+        if (body != null) {
+            body.deleteTemporaryFiles();
+        }
+    }
+
     @Override
     public String getRemoteRequester() {
         return remoteRequester;
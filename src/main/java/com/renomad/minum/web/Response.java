@@ -3,6 +3,7 @@ package com.renomad.minum.web;
 import com.renomad.minum.utils.IFileUtils;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.URI;
 import java.nio.ByteBuffer;
@@ -59,10 +60,17 @@ import static com.renomad.minum.web.StatusLine.StatusCode.CODE_206_PARTIAL_CONTE
  */
 public final class Response implements IResponse {
 
+    /**
+     * The count of bytes gathered before sending them as one chunk, for
+     * a body sent with {@link #buildChunkedResponse(StatusLine.StatusCode, Headers, ThrowingConsumer, boolean)}
+     */
+    static final int STREAMED_BODY_BUFFER_SIZE = 8 * 1024;
+
     private final StatusLine.StatusCode statusCode;
     private final Headers extraHeaders;
     private final byte[] body;
     private final ThrowingConsumer<ISocketWrapper> outputGenerator;
+    private final ThrowingConsumer<OutputStream> bodyWriter;
     private final long bodyLength;
 
     /**
@@ -87,12 +95,19 @@ public final class Response implements IResponse {
      */
     public Response(StatusLine.StatusCode statusCode, Headers extraHeaders, byte[] body,
              ThrowingConsumer<ISocketWrapper> outputGenerator, long bodyLength, boolean isBodyText) {
+        this(statusCode, extraHeaders, body, outputGenerator, null, bodyLength, isBodyText);
+    }
+
+    private Response(StatusLine.StatusCode statusCode, Headers extraHeaders, byte[] body,
+             ThrowingConsumer<ISocketWrapper> outputGenerator, ThrowingConsumer<OutputStream> bodyWriter,
+             long bodyLength, boolean isBodyText) {
         if (statusCode == null) throw new IllegalArgumentException("Status code must not be null");
         if (extraHeaders == null) throw new IllegalArgumentException("Extra headers must not be null (may use Headers.EMPTY)");
         this.statusCode = statusCode;
         this.extraHeaders = extraHeaders;
         this.body = body;
         this.outputGenerator = outputGenerator;
+        this.bodyWriter = bodyWriter;
         this.bodyLength = bodyLength;
         this.isBodyText = isBodyText;
     }
@@ -147,6 +162,53 @@ public final class Response implements IResponse {
         return buildStreamingResponse(statusCode, convertMapToHeaders(extraHeaders), outputGenerator, bodyLength);
     }
 
+    /**
+     * Build a response whose body is produced while it is being sent, for when the
+     * body is large and its length is not known in advance - for example, a page
+     * rendered from many rows with {@link com.renomad.minum.templating.CompiledTemplate#renderTo}.
+     * The whole body is never held in memory.
+     * <p>
+     *     The body writer is given a stream to write the body into.  What it writes is
+     *     sent to the client in pieces, using "transfer-encoding: chunked" (or, for HTTP/1.0
+     *     clients, by closing the connection afterwards to mark the end).  If the body is
+     *     text and the client accepts gzip, it is compressed as it is written.
+     * </p>
+     * <pre>
+     * {@code
+     *   return Response.buildChunkedResponse(CODE_200_OK,
+     *       new Headers(List.of("Content-Type: text/html; charset=UTF-8")),
+     *       out -> rowTemplate.renderTo(personDb.values().stream().map(Person::toMap), "\n", out),
+     *       true);
+     * }
+     * </pre>
+     * <p>
+     *     Since the status and headers are sent before the body writer runs, a failure
+     *     partway cannot be turned into an error response - the connection is closed instead,
+     *     and the client sees an incomplete body.
+     * </p>
+     * @param extraHeaders any extra headers for the response, which must include the content-type
+     * @param bodyWriter writes the body to the given stream.  It need not close the stream.
+     * @param isBodyText if true, the body is compressed when the client accepts it
+     */
+    public static IResponse buildChunkedResponse(StatusLine.StatusCode statusCode, Headers extraHeaders, ThrowingConsumer<OutputStream> bodyWriter, boolean isBodyText) {
+        if (bodyWriter == null) throw new IllegalArgumentException("Body writer must not be null");
+        // used when the body is sent other than by the web framework, such as in tests.
+        ThrowingConsumer<ISocketWrapper> outputGenerator = socketWrapper -> {
+            try (var out = new StreamedBodyOutputStream(socketWrapper, false, STREAMED_BODY_BUFFER_SIZE)) {
+                bodyWriter.accept(out);
+            }
+        };
+        return new Response(statusCode, extraHeaders, null, outputGenerator, bodyWriter, 0L, isBodyText);
+    }
+
+    /**
+     * Similar to {@link #htmlOk(String)}, but the HTML is written by the body writer
+     * as it is sent.  See {@link #buildChunkedResponse(StatusLine.StatusCode, Headers, ThrowingConsumer, boolean)}
+     */
+    public static IResponse htmlOkChunked(ThrowingConsumer<OutputStream> bodyWriter) {
+        return buildChunkedResponse(CODE_200_OK, new Headers(List.of("Content-Type: text/html; charset=UTF-8")), bodyWriter, true);
+    }
+
     /**
      * A constructor for situations where the developer wishes to send a small (less than a megabyte) byte array
      * to the client.  If there is need to send something of larger size, choose one these
@@ -427,6 +489,11 @@ public final class Response implements IResponse {
         return outputGenerator;
     }
 
+    @Override
+    public ThrowingConsumer<OutputStream> getBodyWriter() {
+        return bodyWriter;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == null || getClass() != o.getClass()) return false;
@@ -1,6 +1,7 @@
 package com.renomad.minum.web;
 
 import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.security.ITheBrig;
 import com.renomad.minum.state.Constants;
 import com.renomad.minum.state.Context;
 import com.renomad.minum.utils.ConcurrentSet;
@@ -38,6 +39,13 @@ final class Server implements IServer {
     private final BlockingQueue<Socket> socketQueue;
     private final Constants constants;
 
+    /**
+     * Used to turn away jailed clients as soon as they connect.  This is
+     * the same brig the {@link WebFramework} checks on each request, null
+     * if the brig is disabled.
+     */
+    private final ITheBrig theBrig;
+
     /**
      * This is the future returned when we submitted the
      * thread for the central server loop to the ExecutorService
@@ -54,6 +62,7 @@ final class Server implements IServer {
         this.es = es;
         this.serverType = serverType;
         this.socketQueue = new LinkedBlockingQueue<>();
+        this.theBrig = webFramework != null ? webFramework.getTheBrig() : null;
     }
 
     @Override
@@ -79,6 +88,9 @@ final class Server implements IServer {
             //noinspection InfiniteLoopStatement
             while (true) {
                 Socket freshSocket = serverSocket.accept();
+                if (closeIfJailed(freshSocket, theBrig, logger)) {
+                    continue;
+                }
                 // see takeOffDeque for the code that pulls sockets out of this queue
                 // and sends them for processing
                 socketQueue.add(freshSocket);
@@ -122,6 +134,30 @@ final class Server implements IServer {
         }
     }
 
+    /**
+     * Close the connection right away if the client is in the brig for
+     * seeking vulnerabilities, before a thread, wrapper or buffer is spent
+     * on it.  The check is repeated for each request in
+     * {@link WebFramework#dumpIfAttacker(ISocketWrapper, ITheBrig)}, in case
+     * the client is jailed partway through a connection.
+     * @return true if the socket was closed
+     */
+    static boolean closeIfJailed(Socket socket, ITheBrig theBrig, ILogger logger) {
+        if (theBrig == null) {
+            return false;
+        }
+        if (!theBrig.isVulnSeeker(socket.getInetAddress().getAddress())) {
+            return false;
+        }
+        logger.logTrace(() -> "closing the socket on " + socket.getInetAddress().getHostAddress() + " when accepted, due to being found in the brig");
+        try {
+            socket.close();
+        } catch (IOException ex) {
+            logger.logDebug(() -> "Failed to close the socket of a jailed client: " + ex.getMessage());
+        }
+        return true;
+    }
+
     static void handleServerException(IOException ex, ILogger logger) {
         // we do expect to see an exception bubbling up to here if we
         // are closing our server, so if the message includes certain values,
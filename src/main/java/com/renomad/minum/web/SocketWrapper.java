@@ -17,7 +17,13 @@ public final class SocketWrapper implements ISocketWrapper {
     private final BufferedOutputStream bufferedOutputStream;
     private final ILogger logger;
     private final IServer server;
-    private final BufferedInputStream bufferedInputStream;
+    private final CountingInputStream inputStream;
+
+    /**
+     * The remote address as bytes, read once, since it is
+     * checked against the brig on every request
+     */
+    private final byte[] remoteAddrBytes;
 
     /**
      * Constructor
@@ -31,11 +37,12 @@ public final class SocketWrapper implements ISocketWrapper {
         logger.logTrace(() -> String.format("Setting timeout of %d milliseconds on socket %s", timeoutMillis, socket));
 
         this.socket.setSoTimeout(timeoutMillis);
-        this.bufferedInputStream = new BufferedInputStream(socket.getInputStream());
+        this.inputStream = new CountingInputStream(new BufferedInputStream(socket.getInputStream()));
         this.bufferedOutputStream = new BufferedOutputStream(socket.getOutputStream());
 
         this.logger = logger;
         this.server = server;
+        this.remoteAddrBytes = socket.getInetAddress() != null ? socket.getInetAddress().getAddress() : null;
     }
 
     @Override
@@ -79,6 +86,11 @@ public final class SocketWrapper implements ISocketWrapper {
         return socket.getInetAddress().getHostAddress();
     }
 
+    @Override
+    public byte[] getRemoteAddrBytes() {
+        return remoteAddrBytes;
+    }
+
     @Override
     public HttpServerType getServerType() {
         return server.getServerType();
@@ -93,7 +105,12 @@ public final class SocketWrapper implements ISocketWrapper {
 
     @Override
     public InputStream getInputStream() {
-        return bufferedInputStream;
+        return inputStream;
+    }
+
+    @Override
+    public long getBytesRead() {
+        return inputStream.getCount();
     }
 
     /**
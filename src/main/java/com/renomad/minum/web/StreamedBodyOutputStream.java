@@ -0,0 +1,138 @@
+package com.renomad.minum.web;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The stream given to the body writer of a response built with
+ * {@link Response#buildChunkedResponse(StatusLine.StatusCode, Headers, ThrowingConsumer, boolean)},
+ * sending what is written onto the socket as the body is produced.
+ * <p>
+ *     Writes are gathered into a buffer, and each time it fills, it is sent as one
+ *     chunk of a "transfer-encoding: chunked" body.  When not chunked (for HTTP/1.0
+ *     clients, which do not understand chunks), the bytes are sent as-is, and the
+ *     end of the body is marked by closing the connection.
+ * </p>
+ * <p>
+ *     Closing this stream ends the body but leaves the socket open.
+ * </p>
+ */
+final class StreamedBodyOutputStream extends OutputStream {
+
+    private static final byte[] HTTP_CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final ISocketWrapper sw;
+    private final boolean isChunked;
+    private final byte[] buffer;
+    private int count;
+    private long bytesSent;
+    private boolean isFinished;
+    private boolean isAbandoned;
+
+    /**
+     * @param isChunked if true, frame the body as chunks
+     * @param bufferSize the most bytes to gather before sending them as a chunk
+     */
+    StreamedBodyOutputStream(ISocketWrapper sw, boolean isChunked, int bufferSize) {
+        this.sw = sw;
+        this.isChunked = isChunked;
+        this.buffer = new byte[bufferSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (isAbandoned) return;
+        ensureOpen();
+        if (count == buffer.length) {
+            sendBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (isAbandoned) return;
+        ensureOpen();
+        if (len >= buffer.length) {
+            // too big to gather, so send what we have and then this, as its own chunk
+            sendBuffer();
+            sendChunk(data, off, len);
+            return;
+        }
+        if (len > buffer.length - count) {
+            sendBuffer();
+        }
+        System.arraycopy(data, off, buffer, count, len);
+        count += len;
+    }
+
+    /**
+     * Send what has been written so far, so the client may begin using it
+     */
+    @Override
+    public void flush() throws IOException {
+        sendBuffer();
+        sw.flush();
+    }
+
+    /**
+     * Send the rest of the body and mark its end.  The socket is left open.
+     */
+    @Override
+    public void close() throws IOException {
+        if (isFinished) return;
+        isFinished = true;
+        sendBuffer();
+        if (isChunked) {
+            sw.send(LAST_CHUNK);
+        }
+    }
+
+    /**
+     * Stop sending the body, without marking its end, because building it
+     * failed partway.  The client then sees a body cut short rather than one
+     * that looks complete.  Anything written afterwards, such as the trailer
+     * of a compressing stream being closed, is ignored.
+     */
+    void abandon() {
+        isAbandoned = true;
+        isFinished = true;
+        count = 0;
+    }
+
+    /**
+     * The count of body bytes sent, not counting the chunk framing
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    private void ensureOpen() {
+        if (isFinished) {
+            throw new WebServerException("Unable to write to the body after it has ended");
+        }
+    }
+
+    private void sendBuffer() throws IOException {
+        if (count > 0) {
+            sendChunk(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private void sendChunk(byte[] data, int off, int len) throws IOException {
+        // a chunk of zero length would mark the end of the body
+        if (len == 0) return;
+        if (isChunked) {
+            sw.send(Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII));
+            sw.send(HTTP_CRLF);
+            sw.send(data, off, len);
+            sw.send(HTTP_CRLF);
+        } else {
+            sw.send(data, off, len);
+        }
+        bytesSent += len;
+    }
+}
@@ -1,27 +1,28 @@
 package com.renomad.minum.web;
 
 
-import com.renomad.minum.utils.RingBuffer;
-
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.stream.IntStream;
 
 /**
  * This class represents a single partition in a multipart/form
  * Request body, when read as an InputStream.  This enables the
  * developer to pull data incrementally, rather than reading it
  * all into memory at once.
+ * <p>
+ *     The body is read from the socket in large blocks, and the
+ *     boundary is found with a Boyer-Moore-Horspool search over those
+ *     blocks, so prefer {@link #read(byte[], int, int)} - or
+ *     {@link #transferTo(java.io.OutputStream)} - to reading a byte at a time.
+ * </p>
  */
 public final class StreamingMultipartPartition extends InputStream {
 
     private final Headers headers;
-    private final InputStream inputStream;
+    private final MultipartInputStream inputStream;
     private final ContentDisposition contentDisposition;
-    private final long contentLength;
     /**
      * After we hit the boundary, we will set this flag to true, and all
      * subsequent reads will return -1.
@@ -29,11 +30,9 @@ public final class StreamingMultipartPartition extends InputStream {
     private boolean isFinished = false;
 
     /**
-     * This buffer follows along with what we are reading, so we can
-     * easily compare against our boundary value.  There are four extra
-     * bytes included, since multipart splits the content by two
-     * dashes, followed by the boundary value, and then two dashes afterwards
-     * on the last boundary.
+     * The bytes that end this partition - a carriage return and newline, two
+     * dashes, and the boundary value.  It is followed by another carriage
+     * return and newline, or on the last boundary, by two more dashes.
      * <pre>
      * That is,
      * for a typical boundary:
@@ -45,39 +44,23 @@ public final class StreamingMultipartPartition extends InputStream {
      *   --boundary_value--
      *</pre>
      */
-    private final RingBuffer<Byte> recentBytesBuffer;
-    private final CountBytesRead countBytesRead;
-    private final List<Byte> boundaryValueList;
-    private boolean hasFilledBuffer;
+    private final byte[] delimiter;
+    private final int[] skipTable;
+    private final byte[] singleByte = new byte[1];
 
     /**
-     * @param contentLength the length specified by the Content-Length header, it is
-     *                      the overall length of the body
+     * @param inputStream the body of the request, shared by all the partitions
      */
     StreamingMultipartPartition(Headers headers,
-                                       InputStream inputStream,
+                                       MultipartInputStream inputStream,
                                        ContentDisposition contentDisposition,
-                                       String boundaryValue,
-                                       CountBytesRead countBytesRead,
-                                       long contentLength) {
+                                       String boundaryValue) {
 
         this.headers = headers;
         this.inputStream = inputStream;
         this.contentDisposition = contentDisposition;
-        this.contentLength = contentLength;
-        String boundaryValue1 = "\r\n--" + boundaryValue;
-        byte[] bytes = boundaryValue1.getBytes(StandardCharsets.US_ASCII);
-        boundaryValueList = IntStream.range(0, bytes.length).mapToObj(i -> bytes[i]).toList();
-
-        /*
-         * To explain the numbers here: we add one at the beginning to represent
-         * the single character at the far left that is what we will actually return.
-         * We have to fill the cache before we start sending anything.  The number
-         * at the end represents the extra characters of the boundary - dashes,
-         * carriage return, newline.
-         */
-        recentBytesBuffer = new RingBuffer<>(boundaryValue1.length(), Byte.class);
-        this.countBytesRead = countBytesRead;
+        this.delimiter = ("\r\n--" + boundaryValue).getBytes(StandardCharsets.US_ASCII);
+        this.skipTable = MultipartInputStream.buildSkipTable(delimiter);
     }
 
     public Headers getHeaders() {
@@ -90,105 +73,104 @@ public final class StreamingMultipartPartition extends InputStream {
 
 
     /**
-     * Reads from the inputstream using a buffer for checking whether we've
-     * hit the end of a multpart partition.
+     * Reads a single byte of this partition.
      * @return -1 if we're at the end of a partition
      */
     @Override
     public int read() {
+        int result = read(singleByte, 0, 1);
+        return result == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    /**
+     * Reads as much of this partition as is buffered, up to {@code length} bytes,
+     * holding back any bytes that might be the start of the boundary.
+     * @return the count of bytes read, or -1 if we're at the end of a partition
+     */
+    @Override
+    public int read(byte[] b, int offset, int length) {
+        if (isFinished) {
+            return -1;
+        }
+        if (length == 0) {
+            return 0;
+        }
         try {
-            if (isFinished) {
-                return -1;
+            int buffered = fillBuffer();
+            if (buffered < delimiter.length && inputStream.isTruncated()) {
+                throw new WebServerException("Error: The inputstream has closed unexpectedly while reading");
             }
-            if (!hasFilledBuffer) {
-                fillBuffer();
-                boolean atTheEnd = recentBytesBuffer.containsAt(boundaryValueList, 0);
-                if (atTheEnd) {
-                    // don't really do anything with this, it's just to collect the
-                    // last characters to have a clean finish.
-                    byte[] unused = inputStream.readNBytes(2);
-                    isFinished = true;
-                    return -1;
-                }
+            int indexOfBoundary = inputStream.indexOf(delimiter, skipTable);
+            int available;
+            if (indexOfBoundary >= 0) {
+                available = indexOfBoundary;
+            } else if (buffered < delimiter.length) {
+                // we have reached the end of the body without finding a boundary
+                available = buffered;
             } else {
-                int result = inputStream.read();
-                countBytesRead.increment();
-                if (countBytesRead.getCount() >= contentLength) {
-                    isFinished = true;
-                    return -1;
-                }
-                if (result == -1) {
-                    throw new WebServerException("Error: The inputstream has closed unexpectedly while reading");
-                }
-                byte byteValue = (byte) result;
-                boolean isAtEndOfPartition = updateRecentBytesBufferAndCheck(byteValue);
-                if (isAtEndOfPartition) {
-                    // don't really do anything with this, it's just to collect the
-                    // last characters to have a clean finish.
-                    byte[] unused = inputStream.readNBytes(2);
-                    isFinished = true;
-                    return -1;
-                }
-
+                // the last few bytes might be the start of a boundary, so wait
+                // until we have read more before returning them
+                available = buffered - delimiter.length + 1;
             }
+            if (available == 0) {
+                finish();
+                return -1;
+            }
+            return inputStream.readBuffered(b, offset, Math.min(available, length));
         } catch (Exception e) {
             throw new WebServerException("Error in StreamingMultipartPartition.read", e);
         }
-        return ((int)recentBytesBuffer.atNextIndex()) & 0xff;
     }
 
-    void fillBuffer() {
-        for (int i = 0; i < recentBytesBuffer.getLimit(); i++) {
-            int result;
-            try {
-                result = inputStream.read();
-            } catch (IOException e) {
-                throw new WebServerException("Error in StreamingMultipartPartition.fillBuffer", e);
-            }
-            countBytesRead.increment();
-            if (result == -1) {
-                throw new WebServerException("Error: The inputstream has closed unexpectedly while reading");
-            }
-            byte byteValue = (byte) result;
-            updateRecentBytesBufferAndCheck(byteValue);
+    /**
+     * Make sure enough of the body is buffered to check for the boundary
+     * @return the count of bytes buffered
+     */
+    int fillBuffer() {
+        try {
+            return inputStream.fill(delimiter.length);
+        } catch (IOException e) {
+            throw new WebServerException("Error in StreamingMultipartPartition.fillBuffer", e);
         }
-        hasFilledBuffer = true;
+    }
+
+    /**
+     * Step past the boundary, and the two characters following it - either
+     * a carriage return and newline, or the dashes of the last boundary.
+     */
+    private void finish() throws IOException {
+        inputStream.discard(delimiter.length);
+        inputStream.fill(2);
+        inputStream.discard(2);
+        isFinished = true;
     }
 
     @Override
     public byte[] readAllBytes() {
         var baos = new ByteArrayOutputStream();
+        byte[] block = new byte[8 * 1024];
         while (true) {
-            int result;
-            result = read();
-            if (result == -1) {
+            int count = read(block, 0, block.length);
+            if (count == -1) {
                 return baos.toByteArray();
             }
-            baos.write((byte)result);
+            baos.write(block, 0, count);
         }
     }
 
-    /**
-     * Updates the buffer with the last characters read, and returns
-     * true if we have encountered the end of this partition.
-     */
-    private boolean updateRecentBytesBufferAndCheck(byte newByte) {
-        recentBytesBuffer.add(newByte);
-        return recentBytesBuffer.containsAt(boundaryValueList, 0);
-    }
-
     /**
      * By "close", we will read from the {@link InputStream} until we have finished the body,
      * so that our InputStream has been read until the start of the next partition.
      */
     @Override
     public void close() {
+        byte[] block = new byte[8 * 1024];
         while (true) {
-            int result = read();
+            int result = read(block, 0, block.length);
             if (result == -1) {
                 return;
             }
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,22 @@
+package com.renomad.minum.web;
+
+/**
+ * Thrown when a client has gone past a limit set in the {@link RateLimiter}.
+ * The HTTP 429 Too Many Requests response corresponds to this situation.
+ */
+final class TooManyRequestsException extends RuntimeException {
+
+    private final long retryAfterSeconds;
+
+    TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * How many seconds the client should wait before trying again
+     */
+    long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
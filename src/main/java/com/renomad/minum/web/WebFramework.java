@@ -1,6 +1,7 @@
 package com.renomad.minum.web;
 
 import com.renomad.minum.logging.ILogger;
+import com.renomad.minum.logging.LoggingLevel;
 import com.renomad.minum.security.ForbiddenUseException;
 import com.renomad.minum.security.ITheBrig;
 import com.renomad.minum.state.Constants;
@@ -61,6 +62,15 @@ public final class WebFramework {
         return new HashMap<>(fileSuffixToMime);
     }
 
+    /**
+     * The brig checked on each request, shared with the {@link Server}
+     * so it can turn away jailed clients as they connect.  Null if the
+     * brig is disabled.
+     */
+    ITheBrig getTheBrig() {
+        return theBrig;
+    }
+
     /**
      * This is used as a key when registering endpoints
      */
@@ -120,6 +130,17 @@ public final class WebFramework {
     private final FullSystem fs;
     private final ILogger logger;
 
+    /**
+     * Records each request, if ACCESS_LOG_FORMAT is set.  Null otherwise.
+     */
+    private final AccessLog accessLog;
+
+    /**
+     * Limits the requests, bytes and connections of each client, if any
+     * of those limits are set in the configuration.  Null otherwise.
+     */
+    private final RateLimiter rateLimiter;
+
     /**
      * For static files (See {@link Constants#staticFilesDirectory}), This is
      * the cutoff for the maximum quantity of bytes where we will
@@ -130,13 +151,28 @@ public final class WebFramework {
     static final int MAX_CACHED_BYTES = 100_000;
 
     void httpProcessing(ISocketWrapper sw) {
+        // the request being handled, whose body may have temporary files to delete
+        Request currentRequest = null;
+        final RateLimiter.Connection connection = rateLimiter == null ? RateLimiter.Connection.UNTRACKED : rateLimiter.openConnection(sw.getRemoteAddr());
         try (sw) {
+            // a client with as many connections as allowed is refused before
+            // anything is read, so it costs no more than the accepted socket
+            if (connection == RateLimiter.Connection.REFUSED) {
+                refuseConnection(sw);
+                return;
+            }
             final var is = sw.getInputStream();
+            // the measurements of each request, for the access log.  Reused for each
+            // request on this connection.
+            final var accessLogEntry = new AccessLog.Entry();
+            int reuseCount = 0;
 
             // By default, browsers expect the server to run in keep-alive mode.
             // We'll break out later if we find that the browser doesn't do keep-alive
             while (true) {
-                dumpIfAttacker(sw, fs);
+                if (theBrig != null) {
+                    dumpIfAttacker(sw, theBrig);
+                }
                 // we'll store the status line and headers in this
                 StringBuilder headerStringBuilder = new StringBuilder(600); // 600 is just a magic arbitrary number I picked, because our response headers
                 // are not usually too large - even if the user added a bunch, there is a good
@@ -151,8 +187,16 @@ public final class WebFramework {
                 boolean isKeepAlive;
                 IResponse adjustedResponse;
                 boolean isHeadRequest = false;
+                boolean isStreamedBody = false;
+                boolean isChunkedBody = false;
+                boolean isGzipBody = false;
 
+                final long bytesReadBefore = sw.getBytesRead();
                 final String rawStartLine = inputStreamUtils.readLine(is);
+                final long headStartNanos = System.nanoTime();
+                accessLogEntry.clear();
+                accessLogEntry.requestLine = rawStartLine;
+                accessLogEntry.reuseCount = reuseCount++;
 
                 try {
                     if (rawStartLine == null || rawStartLine.isEmpty()) {
@@ -162,14 +206,24 @@ public final class WebFramework {
                         break;
                     }
                     requestLine = getProcessedRequestLine(sw, rawStartLine);
+                    accessLogEntry.method = requestLine.getMethod().name();
+                    accessLogEntry.path = requestLine.getPathDetails().getIsolatedPath();
 
                     // check if the user is seeming to attack us.
                     checkIfSuspiciousPath(sw, requestLine);
 
                     // React to what the user requested, generate a result
                     headers = getHeaders(sw);
-                    request = new Request(headers, requestLine, sw.getRemoteAddr(), sw, bodyProcessor, false);
+                    accessLogEntry.readHeadNanos = System.nanoTime() - headStartNanos;
+                    if (accessLog != null) {
+                        recordRequestHeaders(accessLogEntry, headers);
+                    }
+                    checkRateLimit(sw.getRemoteAddr());
+                    currentRequest = new Request(headers, requestLine, sw.getRemoteAddr(), sw, bodyProcessor, false);
+                    request = currentRequest;
+                    final long handlerStartNanos = System.nanoTime();
                     response = processRequest(request, sw, requestLine, headers);
+                    accessLogEntry.handlerNanos = System.nanoTime() - handlerStartNanos;
 
                     // check that the response is non-null.  If it is null, that suggests
                     // the developer made a mistake.
@@ -179,21 +233,39 @@ public final class WebFramework {
 
                     isKeepAlive = determineIfKeepAlive(request, logger, request.hasAccessedBody());
 
+                    // a body written while it is sent has no length known in advance, so it is
+                    // sent in chunks.  HTTP/1.0 clients do not understand chunks, so for them
+                    // the end of the body is marked by closing the connection.
+                    isStreamedBody = response.getBodyWriter() != null;
+                    isChunkedBody = isStreamedBody && requestLine.getVersion() == HttpVersion.ONE_DOT_ONE;
+                    if (isStreamedBody && !isChunkedBody) {
+                        isKeepAlive = false;
+                    }
+
                     // calculate proper headers for the response
                     addDefaultHeaders(response, headerStringBuilder);
                     response.getExtraHeaders().appendHeadersToBuilder(headerStringBuilder);
                     addKeepAliveTimeout(isKeepAlive, headerStringBuilder);
 
-                    // if the response is text (i.e. probably good compressibility) and large enough
-                    // to be worth compressing, we'll compress it.
-                    if (response.isBodyText() && response.getBodyLength() > 500) {
-                        List<String> acceptEncoding = headers.valueByKey("accept-encoding");
-                        adjustedResponse = compressBodyIfRequested(response, acceptEncoding, headerStringBuilder, logger, request.getRequestLine().getRawValue());
-                    } else {
+                    if (isStreamedBody) {
+                        // the body does not exist yet, so it is compressed as it is written
                         adjustedResponse = response;
+                        isGzipBody = response.isBodyText() && isGzipAccepted(headers.valueByKey("accept-encoding"));
+                        applyStreamedBodyHeaders(headerStringBuilder, isChunkedBody, isGzipBody);
+                    } else {
+                        // if the response is text (i.e. probably good compressibility) and large enough
+                        // to be worth compressing, we'll compress it.
+                        if (response.isBodyText() && response.getBodyLength() > 500) {
+                            final long compressStartNanos = System.nanoTime();
+                            List<String> acceptEncoding = headers.valueByKey("accept-encoding");
+                            adjustedResponse = compressBodyIfRequested(response, acceptEncoding, headerStringBuilder, logger, request.getRequestLine().getRawValue());
+                            accessLogEntry.compressNanos = System.nanoTime() - compressStartNanos;
+                        } else {
+                            adjustedResponse = response;
+                        }
+
+                        applyContentLength(headerStringBuilder, adjustedResponse.getBodyLength());
                     }
-
-                    applyContentLength(headerStringBuilder, adjustedResponse.getBodyLength());
                     confirmBodyHasContentType(request, response);
 
                     // if the user sent a HEAD request, we send everything back except the body.
@@ -214,22 +286,57 @@ public final class WebFramework {
                     addDefaultHeaders(adjustedResponse, headerStringBuilder);
                     isKeepAlive = false;
                     headerStringBuilder.append("Content-Length: ").append(adjustedResponse.getBodyLength()).append(HTTP_CRLF);
+                } catch (TooManyRequestsException ex) {
+                    headerStringBuilder.setLength(0); // clear the contents
+                    adjustedResponse = handleTooManyRequestsException(ex);
+                    addDefaultHeaders(adjustedResponse, headerStringBuilder);
+                    adjustedResponse.getExtraHeaders().appendHeadersToBuilder(headerStringBuilder);
+                    isKeepAlive = false;
+                    headerStringBuilder.append("Content-Length: ").append(adjustedResponse.getBodyLength()).append(HTTP_CRLF);
                 }
 
                 // send the headers
+                final long writeStartNanos = System.nanoTime();
                 sw.send(headerStringBuilder.append(HTTP_CRLF).toString().getBytes(StandardCharsets.US_ASCII));
 
+                long bodyBytesSent = 0;
                 if (!isHeadRequest) {
                     // send the body
-                    adjustedResponse.sendBody(sw);
+                    if (isStreamedBody) {
+                        bodyBytesSent = sendStreamedBody(sw, adjustedResponse.getBodyWriter(), isChunkedBody, isGzipBody);
+                    } else {
+                        adjustedResponse.sendBody(sw);
+                        bodyBytesSent = adjustedResponse.getBodyLength();
+                    }
                 }
 
                 // ship it out
                 sw.flush();
+                accessLogEntry.writeNanos = System.nanoTime() - writeStartNanos;
+                deleteTemporaryFiles(currentRequest);
+                currentRequest = null;
+                if (rateLimiter != null) {
+                    rateLimiter.chargeBytes(sw.getRemoteAddr(), bodyBytesSent);
+                }
+
+                if (accessLog != null) {
+                    accessLogEntry.timestampMillis = System.currentTimeMillis();
+                    accessLogEntry.remoteAddr = sw.getRemoteAddr();
+                    accessLogEntry.status = adjustedResponse.getStatusCode().code;
+                    accessLogEntry.bytesOut = bodyBytesSent;
+                    if (bytesReadBefore >= 0) {
+                        accessLogEntry.bytesIn = sw.getBytesRead() - bytesReadBefore;
+                    }
+                    accessLog.offer(accessLogEntry);
+                }
 
                 // print how long this processing took
                 long endMillis = System.currentTimeMillis();
-                logger.logTrace(() -> String.format("full processing (including communication time) of %s %s took %d millis", sw, rawStartLine, endMillis - startMillis));
+                logger.event(LoggingLevel.TRACE, "request_completed")
+                        .add("remote_addr", sw.getRemoteAddr())
+                        .add("request_line", rawStartLine)
+                        .add("millis", endMillis - startMillis)
+                        .log();
 
                 if (!isKeepAlive) {
                     logger.logTrace(() -> "We will not keep-alive this connection - exiting loop and closing socket");
@@ -241,10 +348,69 @@ public final class WebFramework {
             handleForbiddenUse(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration);
         } catch (Exception ex) {
             finalExceptionHandler(sw, ex, logger, theBrig, constants.vulnSeekingJailDuration, constants.suspiciousErrors);
+        } finally {
+            deleteTemporaryFiles(currentRequest);
+            if (connection == RateLimiter.Connection.COUNTED) {
+                rateLimiter.closeConnection(sw.getRemoteAddr());
+            }
+        }
+    }
+
+    /**
+     * If rate limits are configured, check whether this client may
+     * make another request.  This is done once the head of the request is
+     * read, so the client receives the refusal rather than a reset connection.
+     * @throws TooManyRequestsException if the client has gone past a limit
+     */
+    private void checkRateLimit(String remoteAddr) {
+        if (rateLimiter == null) return;
+        long retryAfterSeconds = rateLimiter.tryRequest(remoteAddr);
+        if (retryAfterSeconds > 0) {
+            throw new TooManyRequestsException("Too many requests from " + remoteAddr, retryAfterSeconds);
+        }
+    }
+
+    /**
+     * Send a 429 Too Many Requests to a client that already has as many
+     * connections as allowed, without reading its request.  The connection
+     * is closed afterwards.
+     */
+    private void refuseConnection(ISocketWrapper sw) throws Exception {
+        IResponse response = handleTooManyRequestsException(new TooManyRequestsException("Too many connections from " + sw.getRemoteAddr(), 1));
+        StringBuilder headerStringBuilder = new StringBuilder();
+        addDefaultHeaders(response, headerStringBuilder);
+        response.getExtraHeaders().appendHeadersToBuilder(headerStringBuilder);
+        headerStringBuilder.append("Connection: close").append(HTTP_CRLF);
+        headerStringBuilder.append("Content-Length: ").append(response.getBodyLength()).append(HTTP_CRLF);
+        sw.send(headerStringBuilder.append(HTTP_CRLF).toString().getBytes(StandardCharsets.US_ASCII));
+        response.sendBody(sw);
+        sw.flush();
+    }
+
+    /**
+     * Delete the temporary files of large uploads in the request, now
+     * that it has been handled
+     */
+    private void deleteTemporaryFiles(Request request) {
+        if (request == null) return;
+        try {
+            request.deleteTemporaryFiles();
+        } catch (IOException ex) {
+            logger.logAsyncError(() -> "Unable to delete the temporary files of a request: " + StacktraceUtils.stackTraceToString(ex));
         }
     }
 
 
+    /**
+     * Copy the parts of the request headers kept in the access log
+     */
+    private static void recordRequestHeaders(AccessLog.Entry accessLogEntry, Headers headers) {
+        List<String> referer = headers.valueByKey("referer");
+        accessLogEntry.referer = referer == null || referer.isEmpty() ? null : referer.getFirst();
+        List<String> userAgent = headers.valueByKey("user-agent");
+        accessLogEntry.userAgent = userAgent == null || userAgent.isEmpty() ? null : userAgent.getFirst();
+    }
+
     /**
      * Last-chance handler for any exceptions originating in WebFramework.httpProcessing
      */
@@ -292,6 +458,14 @@ public final class WebFramework {
         return Response.buildResponse(CODE_400_BAD_REQUEST, new Headers(List.of("Content-Type: text/plain;charset=UTF-8")), "Bad request from user (HTTP 400) error: " + randomNumber);
     }
 
+    IResponse handleTooManyRequestsException(TooManyRequestsException ex) {
+        logger.logDebug(() -> ex.getMessage() + ".  Retry after " + ex.getRetryAfterSeconds() + " seconds");
+        return Response.buildResponse(
+                CODE_429_TOO_MANY_REQUESTS,
+                new Headers(List.of("Content-Type: text/plain;charset=UTF-8", "Retry-After: " + ex.getRetryAfterSeconds())),
+                "Too many requests (HTTP 429)");
+    }
+
     /**
      * Logic for how to process an incoming request.  For example, did the developer
      * write a function to handle this? Is it a request for a static file, like an image
@@ -324,7 +498,11 @@ public final class WebFramework {
                 response = Response.buildResponse(CODE_500_INTERNAL_SERVER_ERROR, new Headers(List.of("Content-Type: text/plain;charset=UTF-8")), "Server error: " + randomNumber);
             }
             long millisAtEnd = System.currentTimeMillis();
-            logger.logTrace(() -> String.format("handler processing of %s %s took %d millis", sw, requestLine, millisAtEnd - millisAtStart));
+            logger.event(LoggingLevel.TRACE, "request_handled")
+                    .add("remote_addr", sw.getRemoteAddr())
+                    .add("request_line", requestLine.getRawValue())
+                    .add("millis", millisAtEnd - millisAtStart)
+                    .log();
         }
 
         if (lastMinuteHandler != null) {
@@ -432,11 +610,16 @@ public final class WebFramework {
      * For documentation, see {@link #dumpIfAttacker(ISocketWrapper, FullSystem)}
      */
     void dumpIfAttacker(ISocketWrapper sw, ITheBrig theBrig) {
-        String remoteClient = sw.getRemoteAddr();
-        if (theBrig.isInJail(remoteClient + "_vuln_seeking")) {
+        // this runs for every request, so check by the address bytes where
+        // the wrapper has them, rather than building a string to look up
+        byte[] remoteAddrBytes = sw.getRemoteAddrBytes();
+        boolean isVulnSeeker = remoteAddrBytes != null
+                ? theBrig.isVulnSeeker(remoteAddrBytes)
+                : theBrig.isInJail(sw.getRemoteAddr() + ITheBrig.VULN_SEEKING_SUFFIX);
+        if (isVulnSeeker) {
             // if this client is a vulnerability seeker, throw an exception,
             // causing them to get dumped unceremoniously
-            String message = "closing the socket on " + remoteClient + " due to being found in the brig";
+            String message = "closing the socket on " + sw.getRemoteAddr() + " due to being found in the brig";
             logger.logDebug(() -> message);
             throw new ForbiddenUseException(message);
         }
@@ -471,7 +654,7 @@ public final class WebFramework {
         boolean hasContentType = response.getExtraHeaders().valueByKey("content-type") != null;
 
         // if there *is* data, we had better be returning a content type
-        if (response.getBodyLength() > 0 && !hasContentType) {
+        if ((response.getBodyLength() > 0 || response.getBodyWriter() != null) && !hasContentType) {
             throw new WebServerException("a Content-Type header must be specified in the Response object if it returns data. Response details: " + response + " Request: " + request);
         }
     }
@@ -497,6 +680,44 @@ public final class WebFramework {
         stringBuilder.append("Content-Length: ").append(bodyLength).append(HTTP_CRLF);
     }
 
+    /**
+     * Headers for a body whose length is not known until it has been sent.
+     */
+    private static void applyStreamedBodyHeaders(StringBuilder stringBuilder, boolean isChunked, boolean isGzip) {
+        if (isChunked) {
+            stringBuilder.append("Transfer-Encoding: chunked").append(HTTP_CRLF);
+        } else {
+            stringBuilder.append("Connection: close").append(HTTP_CRLF);
+        }
+        if (isGzip) {
+            stringBuilder.append("Content-Encoding: gzip").append(HTTP_CRLF);
+            stringBuilder.append("Vary: accept-encoding").append(HTTP_CRLF);
+        }
+    }
+
+    /**
+     * Run the body writer of a response, sending what it writes
+     * onto the socket as it goes, compressing it if requested.
+     * @return the count of bytes of body sent
+     */
+    static long sendStreamedBody(ISocketWrapper sw, ThrowingConsumer<OutputStream> bodyWriter, boolean isChunked, boolean isGzip) throws Exception {
+        var bodyStream = new StreamedBodyOutputStream(sw, isChunked, Response.STREAMED_BODY_BUFFER_SIZE);
+        // closing the gzip stream also closes the body stream, which is fine to close twice
+        try (bodyStream; OutputStream output = isGzip ? new GZIPOutputStream(bodyStream, Response.STREAMED_BODY_BUFFER_SIZE) : bodyStream) {
+            try {
+                bodyWriter.accept(output);
+            } catch (Exception ex) {
+                bodyStream.abandon();
+                throw ex;
+            }
+        }
+        return bodyStream.getBytesSent();
+    }
+
+    static boolean isGzipAccepted(List<String> acceptEncoding) {
+        return acceptEncoding != null && String.join(";", acceptEncoding).contains("gzip");
+    }
+
     /**
      * This method will examine the content-encoding headers, and if "gzip" is
      * requested by the client, we will replace the body bytes with compressed
@@ -512,8 +733,7 @@ public final class WebFramework {
      *                     used for logging.
      */
     static IResponse compressBodyIfRequested(IResponse response, List<String> acceptEncoding, StringBuilder stringBuilder, ILogger logger, String endpointPath) {
-        String allContentEncodingHeaders = acceptEncoding != null ? String.join(";", acceptEncoding) : "";
-        if (allContentEncodingHeaders.contains("gzip")) {
+        if (isGzipAccepted(acceptEncoding)) {
             stringBuilder.append("Content-Encoding: gzip").append(HTTP_CRLF);
             stringBuilder.append("Vary: accept-encoding").append(HTTP_CRLF);
             var out = new ByteArrayOutputStream();
@@ -830,10 +1050,22 @@ public final class WebFramework {
         }
         this.fileSuffixToMime = new HashMap<>();
         this.fileIsCompressible = new ConcurrentHashMap<>();
+        this.accessLog = AccessLog.build(context);
+        this.rateLimiter = RateLimiter.build(constants);
         addDefaultValuesForMimeMap();
         readExtraMimeMappings(constants.extraMimeMappings);
     }
 
+    /**
+     * Stop what the framework runs in the background - the access log,
+     * writing out the entries it holds.  Called when the system shuts down.
+     */
+    void stop() {
+        if (accessLog != null) {
+            accessLog.stop();
+        }
+    }
+
     void readExtraMimeMappings(List<String> input) {
         if (input == null || input.isEmpty()) return;
         if (input.size() % 2 != 0) {
@@ -122,6 +122,9 @@ public class FunctionalTests {
         assertEquals(pNode1.innerText(), "Index");
         var pNode2 = searchOne(photos.body(), TagName.A, Map.of("href", "index.html"));
         assertEquals(innerText(pNode2), "Index");
+        var photosIndex = photos.index();
+        assertEquals(photosIndex.searchOne(TagName.A, Map.of("href", "index.html")).innerText(), "Index");
+        assertEquals(photosIndex.selectOne("a[href=index.html]").innerText(), "Index");
 
         logger.test("go to the page for registering a user, while unauthenticated.");
         assertEquals(ft.get("register").statusLine().status(), CODE_200_OK);
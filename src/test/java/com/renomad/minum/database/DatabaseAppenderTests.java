@@ -12,8 +12,10 @@ import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.util.List;
 
 import static com.renomad.minum.testing.TestFramework.*;
 
@@ -76,6 +78,23 @@ public class DatabaseAppenderTests {
         assertFalse(result3.isEmpty(), "Result must not be empty");
     }
 
+    /**
+     * Many changes of the same kind may be appended with a single write
+     */
+    @Test
+    public void test_AppendBatch() throws IOException {
+        Path directory = foosDirectory.resolve("test_AppendBatch");
+        fileUtils.deleteDirectoryRecursivelyIfExists(directory);
+        fileUtils.makeDirectory(directory);
+        var da = new DatabaseAppender(directory, context, fileUtils);
+
+        String result = da.appendToDatabase(DatabaseChangeAction.DELETE, List.of("1|a", "2|b", "3|c"));
+        assertTrue(result.isEmpty(), "Result must be empty");
+        assertEquals(da.appendCount, 3);
+        da.flush();
+        assertEquals(Files.readAllLines(directory.resolve("currentAppendLog")), List.of("DELETE 1|a", "DELETE 2|b", "DELETE 3|c"));
+    }
+
     @Test
     public void testDatabaseAppenderConstructor_NegativeCase_ExceptionThrown() {
         var throwingFileUtils = new ThrowingFileUtils();
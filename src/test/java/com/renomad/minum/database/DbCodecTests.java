@@ -0,0 +1,95 @@
+package com.renomad.minum.database;
+
+import com.renomad.minum.database.DbEngine2Tests.Foo;
+import com.renomad.minum.utils.SerializationUtils;
+import org.junit.Test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class DbCodecTests {
+
+    /**
+     * A hand-written codec for {@link Foo}, the way a user would write one
+     */
+    static final DbCodec<Foo> FOO_CODEC = new DbCodec<>() {
+        @Override
+        public void encode(Foo value, DataOutput out) throws IOException {
+            out.writeLong(value.getIndex());
+            out.writeInt(value.getA());
+            SerializationUtils.writeString(out, value.getB());
+        }
+
+        @Override
+        public Foo decode(DataInput in) throws IOException {
+            return new Foo(in.readLong(), in.readInt(), SerializationUtils.readString(in));
+        }
+    };
+
+    @Test
+    public void testCodec_RoundTrip() {
+        var foo = new Foo(42, 7, "hello | world % with odd chars 😀");
+        byte[] bytes = FOO_CODEC.toBytes(foo);
+        assertEquals(FOO_CODEC.fromBytes(bytes), foo);
+    }
+
+    @Test
+    public void testCodec_NullString() {
+        var foo = new Foo(1, 2, null);
+        assertEquals(FOO_CODEC.fromBytes(FOO_CODEC.toBytes(foo)), foo);
+    }
+
+    /**
+     * Several values can be packed one after another into a single buffer
+     */
+    @Test
+    public void testCodec_ByteBuffer_MultipleValues() {
+        var buffer = ByteBuffer.allocate(1024);
+        var foo1 = new Foo(1, 10, "a");
+        var foo2 = new Foo(2, 20, "bb");
+        FOO_CODEC.encode(foo1, buffer);
+        FOO_CODEC.encode(foo2, buffer);
+        buffer.flip();
+
+        assertEquals(FOO_CODEC.decode(buffer), foo1);
+        assertEquals(FOO_CODEC.decode(buffer), foo2);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void testCodec_Decode_TooFewBytes() {
+        var ex = assertThrows(DbException.class, () -> FOO_CODEC.fromBytes(new byte[]{1, 2, 3}));
+        assertEquals(ex.getMessage(), "Failed to decode value from 3 bytes");
+    }
+
+    @Test
+    public void testCodec_FromDbData() {
+        DbCodec<Foo> codec = DbCodec.fromDbData(Foo.INSTANCE);
+        var foo = new Foo(5, 6, "adapted from the string serialization");
+        assertEquals(codec.fromBytes(codec.toBytes(foo)), foo);
+
+        var buffer = ByteBuffer.allocate(256);
+        codec.encode(foo, buffer);
+        buffer.flip();
+        assertEquals(codec.decode(buffer), foo);
+    }
+
+    @Test
+    public void testCodec_FromDbData_NegativeLength() {
+        DbCodec<Foo> codec = DbCodec.fromDbData(Foo.INSTANCE);
+        var ex = assertThrows(DbException.class, () -> codec.fromBytes(new byte[]{-1, -1, -1, -2}));
+        assertEquals(ex.getMessage(), "Invalid length for serialized data: -2");
+    }
+
+    @Test
+    public void testCodec_FromDbData_LengthPastTheEnd() {
+        DbCodec<Foo> codec = DbCodec.fromDbData(Foo.INSTANCE);
+        var ex = assertThrows(DbException.class, () -> codec.fromBytes(new byte[]{0x7f, -1, -1, -1, '1', '|', '2'}));
+        assertEquals(ex.getMessage(), "Failed to decode value from 7 bytes");
+        assertTrue(ex.getCause() instanceof java.io.EOFException);
+    }
+}
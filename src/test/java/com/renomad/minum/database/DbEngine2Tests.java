@@ -13,11 +13,14 @@ import org.junit.runner.Description;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.text.ParseException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -1700,6 +1703,370 @@ public class DbEngine2Tests {
         }
     }
 
+    /**
+     * With a bounded resident set, the database records where each item is
+     * on disk at startup, and reads them when needed, keeping only a few
+     * in memory.
+     */
+    @Test
+    public void test_BoundedMemory_Basic() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_BoundedMemory_Basic");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        for (int i = 1; i <= 10; i++) {
+            db.write(new Foo(0, i, "foo" + i));
+        }
+        db.stop();
+
+        var boundedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE, 2);
+        boundedDb.registerIndex("b", Foo::getB);
+        boundedDb.loadData();
+
+        assertEquals(boundedDb.values().size(), 10);
+        assertEquals(boundedDb.boundedData.residentCount(), 0);
+        assertEquals(boundedDb.findExactlyOne("b", "foo3"), new Foo(3, 3, "foo3"));
+        assertEquals(boundedDb.findExactlyOne("b", "foo7"), new Foo(7, 7, "foo7"));
+        assertEquals(boundedDb.findExactlyOne("b", "foo9"), new Foo(9, 9, "foo9"));
+        assertEquals(boundedDb.boundedData.residentCount(), 2);
+        assertEquals(boundedDb.values().stream().mapToInt(Foo::getA).sum(), 55);
+
+        // new data gets the next index
+        assertEquals(boundedDb.write(new Foo(0, 11, "foo11")).getIndex(), 11L);
+        boundedDb.stop();
+    }
+
+    /**
+     * Items written while running with a bounded resident set are pinned in
+     * memory until a consolidation puts them into the consolidated files,
+     * after which they are read from disk like anything else.
+     */
+    @Test
+    public void test_BoundedMemory_WritesAndConsolidation() throws IOException, ParseException {
+        Path dbPathForTest = foosDirectory.resolve("test_BoundedMemory_WritesAndConsolidation");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE, 5);
+        db.registerIndex("a", x -> String.valueOf(x.getA()));
+        db.loadData();
+        Foo foo1 = db.write(new Foo(0, 1, "first"));
+        db.write(new Foo(0, 2, "second"));
+        Foo foo3 = db.write(new Foo(0, 3, "third"));
+        db.write(new Foo(foo1.getIndex(), 1, "first, updated"));
+        db.delete(foo3);
+        assertEquals(db.boundedData.pinnedCount(), 2);
+
+        db.databaseAppender.saveOffCurrentDataToReadyFolder();
+        db.runConsolidation();
+
+        assertEquals(db.boundedData.pinnedCount(), 0);
+        assertEquals(db.boundedData.residentCount(), 0);
+        assertEquals(db.findExactlyOne("a", "1"), new Foo(1, 1, "first, updated"));
+        assertEquals(db.findExactlyOne("a", "2"), new Foo(2, 2, "second"));
+        assertTrue(db.findExactlyOne("a", "3") == null);
+        assertEquals(db.values().size(), 2);
+
+        // an update to a non-resident item reads its old value to adjust the indexes
+        db.write(new Foo(2, 20, "second, updated"));
+        assertTrue(db.findExactlyOne("a", "2") == null);
+        assertEquals(db.findExactlyOne("a", "20"), new Foo(2, 20, "second, updated"));
+        db.stop();
+    }
+
+    /**
+     * If a consolidated file is rewritten out from under us, the stored
+     * location for an item may point at the wrong line.  In that case,
+     * the file is scanned to find the item.
+     */
+    @Test
+    public void test_BoundedMemory_StaleLocation() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_BoundedMemory_StaleLocation");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.write(new Foo(0, 1, "a"));
+        db.write(new Foo(0, 2, "b"));
+        db.stop();
+
+        var boundedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE, 1);
+        boundedDb.loadData();
+        // point item 2 at the location of item 1
+        boundedDb.boundedData.addLocation(2, 0, 5);
+
+        assertEquals(boundedDb.boundedData.get(2L), new Foo(2, 2, "b"));
+        assertEquals(boundedDb.boundedData.get(1L), new Foo(1, 1, "a"));
+        boundedDb.stop();
+    }
+
+    /**
+     * Items move between being pinned in memory and being read from disk as
+     * they are written and consolidated.  A read happening at the same moment
+     * must still find the item.
+     */
+    @Test
+    public void test_BoundedMemory_ConcurrentReadAndWrite() throws Exception {
+        Path dbPathForTest = foosDirectory.resolve("test_BoundedMemory_ConcurrentReadAndWrite");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        for (int i = 1; i <= 50; i++) {
+            db.write(new Foo(0, i, "foo" + i));
+        }
+        db.stop();
+
+        var boundedDb = new DbEngine2<>(dbPathForTest, context, INSTANCE, 5);
+        boundedDb.loadData();
+        var isWriting = new AtomicBoolean(true);
+        var missingReads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            readers.add(executor.submit(() -> {
+                while (isWriting.get()) {
+                    for (long id = 1; id <= 50; id++) {
+                        if (boundedDb.boundedData.get(id) == null) missingReads.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < 300; i++) {
+                int id = (i % 50) + 1;
+                boundedDb.write(new Foo(id, id, "foo" + id + " update " + i));
+                if (i % 25 == 0) {
+                    boundedDb.databaseAppender.saveOffCurrentDataToReadyFolder();
+                    boundedDb.runConsolidation();
+                }
+            }
+        } finally {
+            isWriting.set(false);
+        }
+        for (Future<?> reader : readers) {
+            reader.get(10, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(missingReads.get(), 0);
+        assertEquals(boundedDb.values().size(), 50);
+        boundedDb.stop();
+    }
+
+    @Test
+    public void test_BoundedMemory_ScanBytes() {
+        List<String> results = new ArrayList<>();
+        BoundedDataMap.scanBytes("1|a\r\n2|bb\n3|c".getBytes(StandardCharsets.US_ASCII),
+                (offset, length, line) -> results.add(offset + ":" + length + ":" + line));
+        assertEquals(results, List.of("0:3:1|a", "5:4:2|bb", "10:3:3|c"));
+    }
+
+    @Test
+    public void test_BoundedMemory_Partitions() {
+        assertEquals(BoundedDataMap.partitionForIndex(1, 1000), 1L);
+        assertEquals(BoundedDataMap.partitionForIndex(1000, 1000), 1L);
+        assertEquals(BoundedDataMap.partitionForIndex(1234, 1000), 1001L);
+        assertEquals(BoundedDataMap.partitionFileName(1001, 1000), "1001_to_2000");
+    }
+
+    @Test
+    public void test_BoundedMemory_NegativeResidentRows() {
+        var ex = assertThrows(DbException.class, () -> new DbEngine2<>(foosDirectory.resolve("negative_resident_rows"), context, INSTANCE, -1));
+        assertEquals(ex.getMessage(), "The maximum count of resident rows must not be negative. Given: -1");
+    }
+
+    /**
+     * When an expiry function is registered, rows are removed once their
+     * expiry time has passed, without any scanning loop written by the user.
+     */
+    @Test
+    public void test_Expiry_Basic() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_Basic");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        Map<String, Long> expiries = new ConcurrentHashMap<>();
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerExpiry(x -> expiries.get(x.getB())).loadData();
+
+        long now = System.currentTimeMillis();
+        expiries.put("short", now + 20);
+        expiries.put("long", now + 100_000);
+        db.write(new Foo(0, 1, "short"));
+        db.write(new Foo(0, 2, "long"));
+        db.write(new Foo(0, 3, "forever"));
+        assertEquals(db.values().size(), 3);
+
+        MyThread.sleep(120);
+
+        assertEquals(db.values().stream().map(Foo::getB).sorted().toList(), List.of("forever", "long"));
+        db.stop();
+    }
+
+    /**
+     * If a row is updated with a later expiry time, the earlier
+     * entry in the expiry queue must not remove it.
+     */
+    @Test
+    public void test_Expiry_UpdatedToLaterTime() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_UpdatedToLaterTime");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        Map<Long, Long> expiries = new ConcurrentHashMap<>();
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerExpiry(x -> expiries.get((long) x.getA()));
+
+        long now = System.currentTimeMillis();
+        expiries.put(1L, now + 30);
+        Foo foo = db.write(new Foo(0, 1, "a"));
+        expiries.put(2L, now + 100_000);
+        db.write(new Foo(foo.getIndex(), 2, "a"));
+
+        MyThread.sleep(100);
+
+        assertEquals(db.values().size(), 1);
+        db.stop();
+    }
+
+    /**
+     * Expired rows are examined against current data, so entries for rows
+     * already deleted are skipped, and only the due rows are removed.
+     */
+    @Test
+    public void test_Expiry_RemoveExpired() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_RemoveExpired");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        // expiry times far in the future, so the background thread stays out of it
+        db.registerExpiry(x -> x.getA() == 0 ? 0L : Long.MAX_VALUE / 2);
+        Foo foo1 = db.write(new Foo(0, 1, "a"));
+        Foo foo2 = db.write(new Foo(0, 2, "b"));
+        Foo foo3 = db.write(new Foo(0, 0, "never expires"));
+        db.delete(foo2);
+
+        int count = db.removeExpired(List.of(
+                new ExpiringItem(foo1.getIndex(), Long.MAX_VALUE / 2),
+                new ExpiringItem(foo2.getIndex(), Long.MAX_VALUE / 2),
+                new ExpiringItem(foo3.getIndex(), 1)), Long.MAX_VALUE);
+
+        assertEquals(count, 1);
+        assertEquals(db.values().stream().toList(), List.of(foo3));
+        db.stop();
+    }
+
+    /**
+     * Updating a row many times, with an expiry that stays the same or moves
+     * later, keeps a single entry for it in the expiry queue.  Only a move
+     * to an earlier time queues it again.
+     */
+    @Test
+    public void test_Expiry_OneEntryPerRow() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_OneEntryPerRow");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        long farFuture = System.currentTimeMillis() + 1_000_000;
+        db.registerExpiry(x -> farFuture + x.getA());
+        Foo foo = db.write(new Foo(0, 0, "a"));
+        for (int i = 1; i <= 1000; i++) {
+            db.write(new Foo(foo.getIndex(), i, "a"));
+        }
+        assertEquals(db.expiryQueueSize(), 1);
+
+        // an earlier time must be queued, or the row would be kept too long
+        db.write(new Foo(foo.getIndex(), -10, "a"));
+        assertEquals(db.expiryQueueSize(), 2);
+
+        // the superseded entry is dropped, not acted upon
+        assertEquals(db.removeExpired(List.of(new ExpiringItem(foo.getIndex(), farFuture)), Long.MAX_VALUE), 0);
+        assertEquals(db.values().size(), 1);
+        db.stop();
+    }
+
+    /**
+     * Rows that come due together are deleted together
+     */
+    @Test
+    public void test_Expiry_BatchOfRows() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_BatchOfRows");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        long expiry = System.currentTimeMillis() + 50;
+        db.registerExpiry(x -> x.getA() == 0 ? 0L : expiry);
+        for (int i = 1; i <= 100; i++) {
+            db.write(new Foo(0, i, "a"));
+        }
+        db.write(new Foo(0, 0, "never expires"));
+
+        MyThread.sleep(150);
+
+        assertEquals(db.values().stream().map(Foo::getB).toList(), List.of("never expires"));
+        assertEquals(db.getMetrics().getDeletes(), 100L);
+        // each batch is timed as one sample, not one per row
+        assertTrue(db.getMetrics().getDeleteNanos().getCount() < 100L);
+        assertEquals(db.expiryQueueSize(), 0);
+        db.stop();
+
+        // the deletions were written to disk
+        var reloaded = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        assertEquals(reloaded.values().stream().map(Foo::getB).toList(), List.of("never expires"));
+        reloaded.stop();
+    }
+
+    @Test
+    public void test_Expiry_InvalidRegistration() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_InvalidRegistration");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        var ex = assertThrows(DbException.class, () -> db.registerExpiry(null));
+        assertEquals(ex.getMessage(), "When registering an expiry, the function must not be null");
+        db.registerExpiry(x -> 0L);
+        var ex2 = assertThrows(DbException.class, () -> db.registerExpiry(x -> 0L));
+        assertEquals(ex2.getMessage(), "It is forbidden to register an expiry more than once");
+        db.stop();
+    }
+
+    /**
+     * Each database keeps counts and timings of its activity, available
+     * directly or through the context for all databases at once.
+     */
+    @Test
+    public void test_Metrics_Basic() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Metrics_Basic");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.registerIndex("a", x -> String.valueOf(x.getA()));
+        db.write(new Foo(0, 1, "a"));
+        Foo foo2 = db.write(new Foo(0, 2, "b"));
+        db.delete(foo2);
+        DbMetrics metrics = db.getMetrics();
+        assertTrue(context.getDbMetrics().contains(metrics));
+        db.stop();
+        // once stopped, the database is no longer listed
+        assertFalse(context.getDbMetrics().contains(metrics));
+
+        assertEquals(metrics.getWrites(), 2L);
+        assertEquals(metrics.getDeletes(), 1L);
+        assertEquals(metrics.getLockWaitNanos().getCount(), 3L);
+        assertEquals(metrics.getWriteNanos().getCount(), 2L);
+        assertTrue(metrics.getAppendBytes() > 0);
+        assertTrue(metrics.getFlushNanos().getCount() > 0);
+        assertEquals(metrics.getGauge("rows"), 1);
+        assertEquals(metrics.getGauge("index.a.keys"), 1);
+        assertTrue(metrics.getGauge("does_not_exist") == null);
+
+        String rendered = DbMetrics.render(List.of(metrics));
+        assertTrue(rendered.contains(dbPathForTest + " writes 2\n"), rendered);
+        assertTrue(rendered.contains(dbPathForTest + " deletes 1\n"), rendered);
+        assertTrue(rendered.contains(dbPathForTest + " rows 1\n"), rendered);
+    }
+
+    /**
+     * Consolidation is counted and timed
+     */
+    @Test
+    public void test_Metrics_Consolidation() throws IOException, ParseException {
+        Path dbPathForTest = foosDirectory.resolve("test_Metrics_Consolidation");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new DbEngine2<>(dbPathForTest, context, INSTANCE);
+        db.write(new Foo(0, 1, "a"));
+        db.runConsolidation();
+
+        assertEquals(db.getMetrics().getConsolidations(), 1L);
+        assertEquals(db.getMetrics().getConsolidationNanos().getCount(), 1L);
+        db.stop();
+    }
+
     public static class Foo extends DbData<Foo> implements Comparable<Foo> {
 
         private long index;
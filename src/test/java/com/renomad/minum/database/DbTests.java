@@ -18,6 +18,8 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -1579,6 +1581,155 @@ public class DbTests {
         }
     }
 
+    /**
+     * Expiry works the same on the classic database, where the
+     * deletions go through its action queue to the disk.
+     */
+    @Test
+    public void test_Expiry_Basic() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Expiry_Basic");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        long now = System.currentTimeMillis();
+        var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.registerExpiry(x -> x.getA() == 1 ? now + 20 : null).loadData();
+        db.write(new Foo(0, 1, "expires"));
+        Foo keeper = db.write(new Foo(0, 2, "stays"));
+
+        MyThread.sleep(120);
+
+        assertEquals(db.values().stream().toList(), List.of(keeper));
+        assertFalse(Files.exists(dbPathForTest.resolve("1.ddps")));
+        db.stop(10, 20);
+        MyThread.sleep(FINISH_TIME);
+    }
+
+    /**
+     * A file utility which blocks the database's writer thread until
+     * released, and records what it was asked to write.  The first thing
+     * the database's writer does is create its directory, so while the
+     * latch is held, every change stays pending.
+     */
+    static class BlockingFileUtils extends FakeFileUtils {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> writes = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void makeDirectory(Path directory) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void writeString(Path path, String content, OpenOption... options) {
+            writes.add(path.getFileName() + " " + content);
+        }
+    }
+
+    /**
+     * Changes waiting to be written are coalesced per row, so many
+     * updates to one row cause a single write, a row created and deleted
+     * before being written is never touched on disk, and index.ddps
+     * is written once for the batch.
+     */
+    @Test
+    public void test_Db_WritesAreCoalesced() {
+        var blockingFileUtils = new BlockingFileUtils();
+        var db = new Db<>(foosDirectory.resolve("test_Db_WritesAreCoalesced"), context, INSTANCE, blockingFileUtils);
+        try {
+            Foo foo1 = db.write(new Foo(0, 1, "a"));
+            for (int i = 2; i <= 5; i++) {
+                db.write(new Foo(foo1.getIndex(), i, "a"));
+            }
+            db.write(new Foo(0, 10, "b"));
+            Foo foo3 = db.write(new Foo(0, 20, "c"));
+            db.delete(foo3);
+
+            assertEquals(db.getPendingWriteCount(), 2);
+            assertEquals(db.getMetrics().getGauge("pending_writes"), 2);
+        } finally {
+            blockingFileUtils.release.countDown();
+        }
+        MyThread.sleep(FINISH_TIME);
+
+        assertEquals(blockingFileUtils.writes, List.of(
+                "1.ddps 1|5|a",
+                "2.ddps 2|10|b",
+                "index.ddps 4"));
+        assertEquals(db.getPendingWriteCount(), 0);
+        db.stop();
+    }
+
+    /**
+     * When too many rows are waiting to be written, further writes
+     * wait for the writer to catch up.  Updates to rows already waiting
+     * do not add to the count, so they go through.
+     */
+    @Test
+    public void test_Db_WritesBlockWhenTooManyPending() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("MAX_DATABASE_PENDING_WRITES", "2");
+        Context limitedContext = buildTestingContext("test_Db_WritesBlockWhenTooManyPending", properties);
+        var blockingFileUtils = new BlockingFileUtils();
+        var db = new Db<>(foosDirectory.resolve("test_Db_WritesBlockWhenTooManyPending"), limitedContext, INSTANCE, blockingFileUtils);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            db.write(new Foo(0, 1, "a"));
+            Foo foo2 = db.write(new Foo(0, 2, "b"));
+            db.write(new Foo(foo2.getIndex(), 3, "b"));
+
+            Future<Foo> blockedWrite = executor.submit(() -> db.write(new Foo(0, 4, "c")));
+            MyThread.sleep(60);
+            assertFalse(blockedWrite.isDone());
+
+            blockingFileUtils.release.countDown();
+            assertEquals(blockedWrite.get().getIndex(), 3L);
+        } finally {
+            blockingFileUtils.release.countDown();
+            executor.shutdownNow();
+        }
+        MyThread.sleep(FINISH_TIME);
+        assertEquals(db.getPendingWriteCount(), 0);
+        db.stop();
+        shutdownTestingContext(limitedContext);
+    }
+
+    /**
+     * Once the database is stopped, writes are refused rather
+     * than left waiting for a writer that will never run.
+     */
+    @Test
+    public void test_Db_WriteAfterStop() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Db_WriteAfterStop");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.loadData();
+        db.stop();
+        var ex = assertThrows(DbException.class, () -> db.write(new Foo(0, 1, "a")));
+        assertEquals(ex.getCause().getMessage(), "Database is stopped, unable to write to disk at " + dbPathForTest);
+    }
+
+    /**
+     * A write or delete refused because the database is stopped must
+     * leave memory as it was, so it still agrees with the disk.
+     */
+    @Test
+    public void test_Db_RefusedChangeLeavesMemoryAlone() throws IOException {
+        Path dbPathForTest = foosDirectory.resolve("test_Db_RefusedChangeLeavesMemoryAlone");
+        fileUtils.deleteDirectoryRecursivelyIfExists(dbPathForTest);
+        var db = new Db<>(dbPathForTest, context, INSTANCE);
+        db.loadData();
+        Foo foo = db.write(new Foo(0, 1, "a"));
+        db.stop();
+
+        assertThrows(DbException.class, () -> db.write(new Foo(foo.getIndex(), 2, "b")));
+        assertThrows(DbException.class, () -> db.write(new Foo(0, 3, "c")));
+        assertThrows(DbException.class, () -> db.delete(foo));
+        assertEquals(new ArrayList<>(db.values()), List.of(foo));
+    }
+
     public static class Foo extends DbData<Foo> implements Comparable<Foo> {
 
         private final int a;
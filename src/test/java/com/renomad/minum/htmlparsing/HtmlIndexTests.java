@@ -0,0 +1,126 @@
+package com.renomad.minum.htmlparsing;
+
+import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.testing.TestFramework;
+import com.renomad.minum.utils.FileUtils;
+import com.renomad.minum.utils.IFileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class HtmlIndexTests {
+
+    static private Context context;
+    static private TestLogger logger;
+    static private IFileUtils fileUtils;
+
+    private static final String page = """
+            <html>
+            <body>
+                <nav id="menu">
+                    <a href="/" class="link active">Home</a>
+                    <a href="/about" class="link">About</a>
+                </nav>
+                <form id="login">
+                    <input type="text" name="username" class="required">
+                    <input type="password" name="password" class="required">
+                    <input type="submit" title="log in">
+                </form>
+                <p id="footer"><a href="/contact">Contact</a></p>
+            </body>
+            </html>
+            """;
+
+    @BeforeClass
+    public static void init() {
+        context = TestFramework.buildTestingContext("HtmlIndexTests");
+        logger = (TestLogger)context.getLogger();
+        fileUtils = new FileUtils(logger, context.getConstants());
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        TestFramework.shutdownTestingContext(context);
+    }
+
+    @Rule(order = Integer.MIN_VALUE)
+    public TestWatcher watchman = new TestWatcher() {
+        protected void starting(Description description) {
+            logger.test(description.toString());
+        }
+    };
+
+    @Test
+    public void test_GetById() {
+        var index = new HtmlIndex(new HtmlParser().parse(page));
+        assertEquals(index.getById("footer").getTagInfo().getTagName(), TagName.P);
+        assertEquals(index.getById("nope"), HtmlParseNode.EMPTY);
+    }
+
+    /**
+     * Searching the index finds the same elements, in the same
+     * order, as searching the tree
+     */
+    @Test
+    public void test_Search_MatchesTree() throws IOException {
+        String htmlText = fileUtils.readTextFile("src/test/resources/html_fuzzer.html");
+        var parser = new HtmlParser();
+        List<HtmlParseNode> nodes = parser.parse(htmlText);
+        var index = new HtmlIndex(nodes);
+        for (var query : List.of(
+                Map.<String, String>of(),
+                Map.of("id", "testing-target"),
+                Map.of("class", "s-topbar--item"),
+                Map.of("role", "menuitem", "aria-haspopup", "true"))) {
+            for (TagName tagName : List.of(TagName.P, TagName.A, TagName.DIV, TagName.LI)) {
+                assertEquals(index.search(tagName, query), parser.search(nodes, tagName, query));
+            }
+        }
+        assertEquals(index.searchOne(TagName.P, Map.of("id", "testing-target")).innerText(), "Stack Overflow for Teams has its own domain!");
+    }
+
+    @Test
+    public void test_Select() {
+        var index = new HtmlIndex(new HtmlParser().parse(page));
+        assertEquals(texts(index.select("a")), List.of("Home", "About", "Contact"));
+        assertEquals(texts(index.select("nav a")), List.of("Home", "About"));
+        assertEquals(texts(index.select("body #footer a")), List.of("Contact"));
+        assertEquals(texts(index.select("a.link.active")), List.of("Home"));
+        assertEquals(texts(index.select("#menu .link[href=\"/about\"]")), List.of("About"));
+        assertEquals(index.select("form#login input.required").size(), 2);
+        assertEquals(index.select("input[title]").size(), 1);
+        assertEquals(index.select("[title='log in']").size(), 1);
+        assertEquals(index.select("* [type=password]").size(), 1);
+        assertEquals(index.select("nav input").size(), 0);
+        assertEquals(index.select(".missing").size(), 0);
+        assertEquals(index.selectOne("input[name=username]").getTagInfo().getAttribute("type"), "text");
+        assertEquals(index.selectOne("input[name=nobody]"), HtmlParseNode.EMPTY);
+        var ex = assertThrows(ParsingException.class, () -> index.selectOne("input"));
+        assertTrue(ex.getMessage().startsWith("More than 1 node found."), ex.getMessage());
+    }
+
+    @Test
+    public void test_Select_BadSelectors() {
+        var index = new HtmlIndex(new HtmlParser().parse(page));
+        assertThrows(ParsingException.class, "A selector must not be blank", () -> index.select(" "));
+        assertThrows(ParsingException.class, "Unrecognized tag name in the selector: foo", () -> index.select("foo"));
+        assertThrows(ParsingException.class, "Unexpected character > at position 4 in the selector: nav > a", () -> index.select("nav > a"));
+        assertThrows(ParsingException.class, "Expected a name after . at position 1 in the selector: a.", () -> index.select("a."));
+        assertThrows(ParsingException.class, "Missing ] for the attribute at position 1 in the selector: a[href", () -> index.select("a[href"));
+        assertThrows(ParsingException.class, "An attribute in the selector has no name: [=x]", () -> index.select("[=x]"));
+    }
+
+    private static List<String> texts(List<HtmlParseNode> nodes) {
+        return nodes.stream().map(HtmlParseNode::innerText).toList();
+    }
+}
@@ -15,6 +15,7 @@ import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -485,4 +486,68 @@ public class HtmlParserTests {
         assertTrue(HtmlParser.isHandlingAttributes(state, ' '));
     }
 
+    /**
+     * A listener is told of each tag and text in order, and the
+     * same mistakes are caught as when building a tree
+     */
+    @Test
+    public void test_HtmlParser_Listener() {
+        var events = new ArrayList<String>();
+        var listener = new HtmlParseListener() {
+            public void startTag(TagInfo tagInfo) { events.add("start " + tagInfo.getTagName() + " " + tagInfo.getAttributes()); }
+            public void endTag(TagName tagName) { events.add("end " + tagName); }
+            public void text(String text) { events.add("text " + text); }
+        };
+        new HtmlParser().parse("<!DOCTYPE html><p id=a>foo <!-- <b>skipped</b> --><br />bar<script>if (a < b) {}</script></p>", listener);
+        assertEquals(events, List.of(
+                "start DOCTYPE {html=}",
+                "start P {id=a}",
+                "text foo ",
+                "start BR {}",
+                "text bar",
+                "start SCRIPT {}",
+                "text if (a < b) {}",
+                "end SCRIPT",
+                "end P"));
+
+        assertThrows(ParsingException.class,
+                "Did not find expected closing-tag type. Expected: A at line 4 and at the 5th character. 10 characters read in total.",
+                () -> new HtmlParser().parse("<a>\n\n\n</p>", listener));
+        assertThrows(ParsingException.class,
+                "No starting tag found. At line 1 and at the 4th character. 4 characters read in total.",
+                () -> new HtmlParser().parse("</p>", listener));
+    }
+
+    /**
+     * Scanning a larger page with a listener finds the same elements as the tree
+     */
+    @Test
+    public void test_HtmlParser_Listener_MatchesTree() throws IOException {
+        String htmlText = fileUtils.readTextFile("src/test/resources/html_fuzzer.html");
+        var fromListener = new ArrayList<TagInfo>();
+        new HtmlParser().parse(htmlText, new HtmlParseListener() {
+            public void startTag(TagInfo tagInfo) {
+                if (tagInfo.getTagName() == TagName.P) fromListener.add(tagInfo);
+            }
+        });
+        List<HtmlParseNode> fromTree = new HtmlParser().search(new HtmlParser().parse(htmlText), TagName.P, Map.of());
+        assertTrue(fromListener.size() > 1, "expected to find paragraphs");
+        assertEquals(fromListener, fromTree.stream().map(HtmlParseNode::getTagInfo).toList());
+    }
+
+    /**
+     * Comments end just after their closing, and text around them
+     * and inside scripts is kept intact, across lines
+     */
+    @Test
+    public void test_HtmlParser_CommentsAndScripts() {
+        List<HtmlParseNode> nodes = new HtmlParser().parse("<p>a<!-- b -->c<!---->d</p>\n<div><script>\nx = '<p>';\n</script></div>");
+        assertEquals(nodes.getFirst().print(), List.of("a", "c", "d"));
+        HtmlParseNode script = nodes.getLast().search(TagName.SCRIPT, Map.of()).getFirst();
+        assertEquals(script.innerText(), "\nx = '<p>';\n");
+
+        assertThrows(ParsingException.class,
+                "Did not find expected closing-tag type. Expected: DIV at line 3 and at the 27th character. 41 characters read in total.",
+                () -> new HtmlParser().parse("<p>\n<!-- x -->\n<div><script></script></p>"));
+    }
 }
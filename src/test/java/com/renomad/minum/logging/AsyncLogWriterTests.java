@@ -0,0 +1,174 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.state.Constants;
+import com.renomad.minum.utils.MyThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class AsyncLogWriterTests {
+
+    private ExecutorService executorService;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void init() {
+        executorService = Executors.newVirtualThreadPerTaskExecutor();
+        output = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void cleanup() {
+        executorService.shutdownNow();
+    }
+
+    private static Constants buildConstants(int size, LogOverflowPolicy policy) {
+        var properties = new Properties();
+        properties.setProperty("LOG_RING_BUFFER_SIZE", String.valueOf(size));
+        properties.setProperty("LOG_OVERFLOW_POLICY", policy.name());
+        properties.setProperty("LOG_LEVELS", "DEBUG,TRACE,AUDIT");
+        return new Constants(properties);
+    }
+
+    private List<String> outputLines() {
+        return output.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    /**
+     * Messages are written with their level and an ISO-8601 timestamp,
+     * and actions run in order with the messages around them.
+     */
+    @Test
+    public void test_WritesInOrder() {
+        var writer = new AsyncLogWriter("test_WritesInOrder", executorService, buildConstants(16, LogOverflowPolicy.BLOCK), output).initialize();
+        writer.log(LoggingLevel.DEBUG, "first");
+        writer.enqueue("an action", () -> output.write("second\n".getBytes(StandardCharsets.UTF_8)));
+        writer.log(LoggingLevel.AUDIT, "third\twith a tab");
+        writer.stop();
+        MyThread.sleep(20);
+
+        // the writer also logs its own stopping, so look at just the first lines
+        List<String> lines = outputLines();
+        assertTrue(lines.size() >= 3, lines.toString());
+        assertTrue(lines.get(0).matches("\\d{4}-\\d{2}-\\d{2}T\\d{2}:\\d{2}:\\d{2}(\\.\\d+)?Z\\tDEBUG\\tfirst"), lines.get(0));
+        assertEquals(lines.get(1), "second");
+        assertTrue(lines.get(2).endsWith("\tAUDIT\tthird\\twith a tab"), lines.get(2));
+        assertTrue(writer.isStopped());
+    }
+
+    /**
+     * With the DROP policy, messages that do not fit are counted, and
+     * the count is reported once the writer catches up.  Warnings are kept.
+     */
+    @Test
+    public void test_DropPolicy() {
+        var writer = new AsyncLogWriter("test_DropPolicy", executorService, buildConstants(4, LogOverflowPolicy.DROP), output);
+        for (int i = 0; i < 10; i++) {
+            writer.log(LoggingLevel.DEBUG, "message " + i);
+        }
+        assertEquals(writer.getDroppedCount(), 6L);
+
+        // start the writer only now, so nothing was drained while logging
+        writer.initialize();
+        writer.log(LoggingLevel.WARN, "important");
+        MyThread.sleep(50);
+
+        List<String> lines = outputLines();
+        assertEquals(lines.stream().filter(x -> x.contains("\tDEBUG\tmessage")).count(), 4L);
+        assertTrue(lines.stream().anyMatch(x -> x.endsWith("\tWARN\timportant")));
+        assertTrue(lines.stream().anyMatch(x -> x.endsWith("6 log messages were discarded because the log buffer was full. Overflow policy: DROP")), lines.toString());
+        assertEquals(writer.getDroppedCount(), 6L);
+    }
+
+    /**
+     * With the SAMPLE policy, once the buffer is three-quarters full, only
+     * one in every {@link AsyncLogWriter#SAMPLE_RATE} trace and debug messages is kept.
+     */
+    @Test
+    public void test_SamplePolicy() {
+        var writer = new AsyncLogWriter("test_SamplePolicy", executorService, buildConstants(16, LogOverflowPolicy.SAMPLE), output);
+        for (int i = 0; i < 12; i++) {
+            writer.log(LoggingLevel.TRACE, "filling " + i);
+        }
+        assertEquals(writer.getDroppedCount(), 0L);
+        for (int i = 0; i < AsyncLogWriter.SAMPLE_RATE * 2; i++) {
+            writer.log(LoggingLevel.DEBUG, "sampled " + i);
+        }
+        assertEquals(writer.getDroppedCount(), (long) AsyncLogWriter.SAMPLE_RATE * 2 - 2);
+
+        // audit messages are not sampled
+        writer.log(LoggingLevel.AUDIT, "audit");
+        assertEquals(writer.getDroppedCount(), (long) AsyncLogWriter.SAMPLE_RATE * 2 - 2);
+    }
+
+    /**
+     * With the BLOCK policy, a small buffer and many threads
+     * logging at once, no message is lost.
+     */
+    @Test
+    public void test_BlockPolicy_NothingLost() throws Exception {
+        var writer = new AsyncLogWriter("test_BlockPolicy_NothingLost", executorService, buildConstants(2, LogOverflowPolicy.BLOCK), output).initialize();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            futures.add(executorService.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    writer.log(LoggingLevel.TRACE, "message");
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        writer.stop(20, 20);
+
+        assertEquals(outputLines().stream().filter(x -> x.endsWith("\tTRACE\tmessage")).count(), 800L);
+        assertEquals(writer.getDroppedCount(), 0L);
+    }
+
+    /**
+     * Like the other action queues, an action enqueued after
+     * stopping is refused rather than silently dropped
+     */
+    @Test
+    public void test_EnqueueAfterStop() {
+        var writer = new AsyncLogWriter("test_EnqueueAfterStop", executorService, buildConstants(16, LogOverflowPolicy.BLOCK), output).initialize();
+        writer.stop();
+        var ex = assertThrows(com.renomad.minum.queue.QueueException.class, () -> writer.enqueue("an action", () -> {}));
+        assertEquals(ex.getMessage(), "failed to enqueue an action - AsyncLogWriter \"test_EnqueueAfterStop\" is stopped");
+    }
+
+    /**
+     * The logger uses this writer when a ring buffer size is configured
+     */
+    @Test
+    public void test_LoggerUsesRingBuffer() {
+        var logger = new Logger(buildConstants(16, LogOverflowPolicy.BLOCK), executorService, "test_LoggerUsesRingBuffer");
+        assertTrue(logger.loggingActionQueue instanceof AsyncLogWriter);
+        logger.logDebug(() -> "hello");
+        logger.stop();
+    }
+
+    @Test
+    public void test_InvalidConfiguration() {
+        var properties = new Properties();
+        properties.setProperty("LOG_OVERFLOW_POLICY", "explode");
+        var ex = assertThrows(com.renomad.minum.web.WebServerException.class, () -> new Constants(properties));
+        assertEquals(ex.getMessage(), "LOG_OVERFLOW_POLICY must be one of [BLOCK, DROP, SAMPLE].  Value was: explode");
+
+        var properties2 = new Properties();
+        properties2.setProperty("LOG_RING_BUFFER_SIZE", "-1");
+        var ex2 = assertThrows(com.renomad.minum.web.WebServerException.class, () -> new Constants(properties2));
+        assertEquals(ex2.getMessage(), "LOG_RING_BUFFER_SIZE must not be negative.  Value was: -1");
+    }
+}
@@ -15,14 +15,14 @@ import static com.renomad.minum.utils.TimeUtils.getTimestampIsoInstant;
 public class DescendantLogger extends Logger {
 
     public static final int MAX_CACHE_SIZE = 30;
-    private final Queue<String> recentLogLines;
+    private final TestLogCapture recentLogLines;
     private final Map<CustomLoggingLevel, Boolean> logLevels;
     private final ReentrantLock loggingLock;
 
     public DescendantLogger(Logger logger) {
         super(logger);
         logLevels = new HashMap<>();
-        this.recentLogLines = new TestLoggerQueue(MAX_CACHE_SIZE);
+        this.recentLogLines = new TestLogCapture(MAX_CACHE_SIZE);
         logLevels.put(CustomLoggingLevel.REQUEST, true);
         this.loggingLock = new ReentrantLock();
     }
@@ -97,10 +97,17 @@ public class DescendantLogger extends Logger {
      *      were multiple places it was found.
      */
     public boolean doesMessageExist(String value, int lines) {
-        if (! findMessage(value, lines, recentLogLines).isEmpty()) {
+        if (lines > MAX_CACHE_SIZE) {
+            throw new TestLoggerException(String.format("Can only get up to %s lines from the log", MAX_CACHE_SIZE));
+        }
+        if (lines <= 0) {
+            throw new TestLoggerException("number of recent log lines must be a positive number");
+        }
+        MyThread.sleep(20);
+        if (! recentLogLines.search(value, lines).isEmpty()) {
             return true;
         } else {
-            List<String> logsBeingSearched = logLinesToSearch(lines, recentLogLines);
+            List<String> logsBeingSearched = recentLogLines.recent(lines);
             throw new TestLoggerException(value + " was not found in \n\t" + String.join("\n\t", logsBeingSearched));
         }
     }
@@ -115,23 +122,4 @@ public class DescendantLogger extends Logger {
     public boolean doesMessageExist(String value) {
         return doesMessageExist(value, 3);
     }
-
-
-    static List<String> findMessage(String value, int lines, Queue<String> recentLogLines) {
-        if (lines > MAX_CACHE_SIZE) {
-            throw new TestLoggerException(String.format("Can only get up to %s lines from the log", MAX_CACHE_SIZE));
-        }
-        if (lines <= 0) {
-            throw new TestLoggerException("number of recent log lines must be a positive number");
-        }
-        MyThread.sleep(20);
-        var lineList = logLinesToSearch(lines, recentLogLines);
-        return lineList.stream().filter(x -> x.toLowerCase(Locale.ROOT).contains(value.toLowerCase(Locale.ROOT))).toList();
-    }
-
-
-    private static List<String> logLinesToSearch(int lines, Queue<String> recentLogLines) {
-        var fromIndex = Math.max(recentLogLines.size() - lines, 0);
-        return recentLogLines.stream().toList().subList(fromIndex, recentLogLines.size());
-    }
 }
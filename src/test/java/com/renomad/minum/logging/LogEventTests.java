@@ -0,0 +1,139 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.state.Constants;
+import com.renomad.minum.testing.TestFramework;
+import com.renomad.minum.utils.MyThread;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class LogEventTests {
+
+    /**
+     * Plain values are written bare, and values that would confuse a
+     * logfmt reader are quoted and escaped
+     */
+    @Test
+    public void test_RenderLogfmt() {
+        LogEvent event = LogEvent.obtain(null, LoggingLevel.TRACE, "request_processed")
+                .add("status", 200)
+                .add("millis", 12L)
+                .add("path", "/foo bar")
+                .add("empty", "")
+                .add("quoted", "say \"hi\"")
+                .add("missing", null);
+
+        assertEquals(event.render(StructuredLogFormat.LOGFMT),
+                "time=1970-01-01T00:00:00Z level=TRACE event=request_processed status=200 millis=12 " +
+                        "path=\"/foo bar\" empty=\"\" quoted=\"say \\\"hi\\\"\" missing=null");
+        event.release();
+    }
+
+    @Test
+    public void test_RenderJson() {
+        LogEvent event = LogEvent.obtain(null, LoggingLevel.AUDIT, "user_created")
+                .add("id", -5)
+                .add("name", "a\\b\n\"c\"\u0001")
+                .add("missing", null);
+
+        assertEquals(event.render(StructuredLogFormat.JSON),
+                "{\"time\":\"1970-01-01T00:00:00Z\",\"level\":\"AUDIT\",\"event\":\"user_created\",\"id\":-5," +
+                        "\"name\":\"a\\\\b\\n\\\"c\\\"\\u0001\",\"missing\":null}");
+        event.release();
+    }
+
+    /**
+     * An event may have any number of fields, and once
+     * released, it comes back empty.
+     */
+    @Test
+    public void test_ManyFieldsAndReuse() {
+        LogEvent event = LogEvent.obtain(null, LoggingLevel.DEBUG, "many");
+        for (int i = 0; i < 20; i++) {
+            event.add("k" + i, i);
+        }
+        assertTrue(event.render(StructuredLogFormat.LOGFMT).endsWith("k18=18 k19=19"));
+        event.release();
+
+        LogEvent reused = LogEvent.obtain(null, LoggingLevel.DEBUG, "fresh");
+        assertEquals(reused.render(StructuredLogFormat.LOGFMT), "time=1970-01-01T00:00:00Z level=DEBUG event=fresh");
+        reused.release();
+    }
+
+    /**
+     * If the level is not enabled, a shared event is returned which
+     * ignores its fields and is never written.
+     */
+    @Test
+    public void test_DisabledLevel() {
+        var properties = new Properties();
+        properties.setProperty("LOG_LEVELS", "DEBUG");
+        var executorService = Executors.newVirtualThreadPerTaskExecutor();
+        var logger = new Logger(new Constants(properties), executorService, "test_DisabledLevel");
+        try {
+            LogEvent disabled = logger.event(LoggingLevel.TRACE, "ignored");
+            assertTrue(disabled == LogEvent.DISABLED);
+            assertTrue(disabled.add("a", 1).add("b", "c") == LogEvent.DISABLED);
+            disabled.log();
+            assertEquals(disabled.render(StructuredLogFormat.LOGFMT), "time=1970-01-01T00:00:00Z level= event=null");
+
+            assertTrue(logger.event(LoggingLevel.DEBUG, "kept") != LogEvent.DISABLED);
+            // warnings are always enabled
+            assertTrue(logger.event(LoggingLevel.WARN, "kept") != LogEvent.DISABLED);
+        } finally {
+            logger.stop();
+        }
+    }
+
+    /**
+     * The ring buffer logger renders events on its own thread,
+     * in the configured format
+     */
+    @Test
+    public void test_AsyncLogWriterRendersEvents() {
+        var properties = new Properties();
+        properties.setProperty("LOG_RING_BUFFER_SIZE", "16");
+        properties.setProperty("LOG_STRUCTURED_FORMAT", "json");
+        properties.setProperty("LOG_LEVELS", "DEBUG,TRACE,AUDIT");
+        var executorService = Executors.newVirtualThreadPerTaskExecutor();
+        var output = new ByteArrayOutputStream();
+        try {
+            var writer = new AsyncLogWriter("test_AsyncLogWriterRendersEvents", executorService, new Constants(properties), output).initialize();
+            writer.log(LoggingLevel.DEBUG, "plain message");
+            writer.logEvent(LogEvent.obtain(null, LoggingLevel.TRACE, "request_processed").add("millis", 7));
+            writer.stop();
+            MyThread.sleep(20);
+
+            List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+            assertTrue(lines.size() >= 2, lines.toString());
+            assertTrue(lines.get(0).endsWith("\tDEBUG\tplain message"), lines.get(0));
+            assertEquals(lines.get(1), "{\"time\":\"1970-01-01T00:00:00Z\",\"level\":\"TRACE\",\"event\":\"request_processed\",\"millis\":7}");
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * The test logger keeps events in its cache as logfmt, so
+     * tests can search for them like any other message
+     */
+    @Test
+    public void test_TestLoggerCachesEvents() {
+        var properties = new Properties();
+        properties.setProperty("LOG_LEVELS", "DEBUG,TRACE,AUDIT");
+        var context = TestFramework.buildTestingContext("test_TestLoggerCachesEvents", properties);
+        var logger = (TestLogger) context.getLogger();
+        try {
+            logger.event(LoggingLevel.AUDIT, "thing_happened").add("count", 3).add("who", "alice").log();
+            assertTrue(logger.doesMessageExist("event=thing_happened count=3 who=alice"));
+        } finally {
+            TestFramework.shutdownTestingContext(context);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.renomad.minum.logging;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class LogRingBufferTests {
+
+    @Test
+    public void test_CapacityIsPowerOfTwo() {
+        assertEquals(LogRingBuffer.ofLogMessages(0).capacity(), 2);
+        assertEquals(LogRingBuffer.ofLogMessages(3).capacity(), 4);
+        assertEquals(LogRingBuffer.ofLogMessages(8).capacity(), 8);
+        assertEquals(LogRingBuffer.ofLogMessages(9).capacity(), 16);
+    }
+
+    /**
+     * Entries come out in the order they went in, and once
+     * the buffer is full, offers are refused until it is drained.
+     */
+    @Test
+    public void test_OfferAndDrain() {
+        var ringBuffer = LogRingBuffer.ofLogMessages(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(LogRingBuffer.offer(ringBuffer, i, LoggingLevel.DEBUG, "message " + i, null, null));
+        }
+        assertFalse(LogRingBuffer.offer(ringBuffer, 5, LoggingLevel.DEBUG, "no room", null, null));
+        assertEquals(ringBuffer.size(), 4);
+
+        List<String> messages = new ArrayList<>();
+        assertEquals(ringBuffer.drain(slot -> messages.add(slot.timestampMillis + " " + slot.message), 3), 3);
+        assertEquals(messages, List.of("0 message 0", "1 message 1", "2 message 2"));
+
+        // the freed slots are reused, wrapping around the array
+        assertTrue(LogRingBuffer.offer(ringBuffer, 6, LoggingLevel.TRACE, "wrapped", null, null));
+        messages.clear();
+        assertEquals(ringBuffer.drain(slot -> messages.add(slot.message), 100), 2);
+        assertEquals(messages, List.of("message 3", "wrapped"));
+        assertEquals(ringBuffer.size(), 0);
+        assertEquals(ringBuffer.drain(slot -> messages.add(slot.message), 100), 0);
+    }
+
+    /**
+     * Many threads adding at once must not lose or duplicate entries
+     */
+    @Test
+    public void test_ManyProducers() throws Exception {
+        var ringBuffer = LogRingBuffer.ofLogMessages(64);
+        int producers = 4;
+        int perProducer = 5_000;
+        List<String> received = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(producers)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!LogRingBuffer.offer(ringBuffer, i, LoggingLevel.DEBUG, producer + ":" + i, null, null)) {
+                            Thread.onSpinWait();
+                        }
+                    }
+                }));
+            }
+            while (received.size() < producers * perProducer) {
+                ringBuffer.drain(slot -> received.add(slot.message), Integer.MAX_VALUE);
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        assertEquals(received.size(), producers * perProducer);
+        assertEquals(received.stream().distinct().count(), (long) producers * perProducer);
+        // each producer's own entries stay in order
+        for (int p = 0; p < producers; p++) {
+            String prefix = p + ":";
+            List<String> fromProducer = received.stream().filter(x -> x.startsWith(prefix)).toList();
+            for (int i = 0; i < perProducer; i++) {
+                assertEquals(fromProducer.get(i), prefix + i);
+            }
+        }
+    }
+}
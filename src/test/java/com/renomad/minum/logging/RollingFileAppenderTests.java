@@ -0,0 +1,233 @@
+package com.renomad.minum.logging;
+
+import com.renomad.minum.utils.MyThread;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class RollingFileAppenderTests {
+
+    private ExecutorService executorService;
+    private Path directory;
+
+    @Before
+    public void init() throws IOException {
+        executorService = Executors.newVirtualThreadPerTaskExecutor();
+        directory = Path.of("out/rolling_file_appender_tests");
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    @After
+    public void cleanup() {
+        executorService.shutdownNow();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readGzip(Path path) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(path))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * When a write would take the file past its maximum size, the file is
+     * rotated first, then compressed in the background.
+     */
+    @Test
+    public void test_RotatesBySize() throws IOException {
+        var clock = new AtomicLong(1_000_000);
+        try (var appender = new RollingFileAppender(directory, "minum", 10, 0, 5, executorService, clock::get)) {
+            appender.write(bytes("123456"));
+            appender.write(bytes("7890"));
+            clock.addAndGet(5);
+            appender.write(bytes("abc"));
+            MyThread.sleep(50);
+
+            assertEquals(Files.readString(appender.getCurrentPath()), "abc");
+            List<Path> segments = appender.getSegments();
+            assertEquals(segments.size(), 1);
+            assertEquals(String.valueOf(segments.getFirst().getFileName()), "minum.19700101-001640-005.log.gz");
+            assertEquals(readGzip(segments.getFirst()), "1234567890");
+        }
+    }
+
+    /**
+     * A file is rotated once it has been open longer than the rotation time,
+     * but an empty file is never rotated.
+     */
+    @Test
+    public void test_RotatesByTime() throws IOException {
+        var clock = new AtomicLong(0);
+        try (var appender = new RollingFileAppender(directory, "minum", 1000, 60_000, 5, executorService, clock::get)) {
+            clock.addAndGet(120_000);
+            appender.write(bytes("first"));
+            clock.addAndGet(60_000);
+            appender.write(bytes("second"));
+            MyThread.sleep(50);
+
+            assertEquals(Files.readString(appender.getCurrentPath()), "second");
+            assertEquals(appender.getSegments().size(), 1);
+            assertEquals(readGzip(appender.getSegments().getFirst()), "first");
+        }
+    }
+
+    /**
+     * Only the newest segments are kept
+     */
+    @Test
+    public void test_PrunesOldSegments() throws IOException {
+        var clock = new AtomicLong(0);
+        try (var appender = new RollingFileAppender(directory, "minum", 1, 0, 2, executorService, clock::get)) {
+            for (int i = 0; i < 5; i++) {
+                clock.addAndGet(1000);
+                appender.write(bytes(String.valueOf(i)));
+                MyThread.sleep(20);
+            }
+            MyThread.sleep(50);
+
+            List<Path> segments = appender.getSegments();
+            assertEquals(segments.size(), 2);
+            assertEquals(readGzip(segments.get(0)), "2");
+            assertEquals(readGzip(segments.get(1)), "3");
+            assertEquals(Files.readString(appender.getCurrentPath()), "4");
+        }
+    }
+
+    /**
+     * Files rotated within the same millisecond get a count in their
+     * names, and are ordered by that count rather than by the name's text.
+     */
+    @Test
+    public void test_SegmentsOrderedByCount() throws IOException {
+        var clock = new AtomicLong(0);
+        try (var appender = new RollingFileAppender(directory, "minum", 1, 0, 20, executorService, clock::get)) {
+            for (int i = 0; i < 13; i++) {
+                appender.write(bytes(String.valueOf(i)));
+                MyThread.sleep(10);
+            }
+            MyThread.sleep(50);
+
+            List<Path> segments = appender.getSegments();
+            assertEquals(segments.size(), 12);
+            assertEquals(String.valueOf(segments.get(0).getFileName()), "minum.19700101-000000-000.log.gz");
+            assertEquals(String.valueOf(segments.get(11).getFileName()), "minum.19700101-000000-000-11.log.gz");
+            for (int i = 0; i < 12; i++) {
+                assertEquals(readGzip(segments.get(i)), String.valueOf(i));
+            }
+        }
+    }
+
+    /**
+     * Once the executor is shut down, as while the system is stopping,
+     * a rotated file is compressed on the writing thread instead.
+     */
+    @Test
+    public void test_RotateAfterExecutorShutdown() throws IOException {
+        var clock = new AtomicLong(0);
+        try (var appender = new RollingFileAppender(directory, "minum", 1, 0, 5, executorService, clock::get)) {
+            executorService.shutdown();
+            appender.write(bytes("a"));
+            appender.write(bytes("b"));
+
+            assertEquals(Files.readString(appender.getCurrentPath()), "b");
+            List<Path> segments = appender.getSegments();
+            assertEquals(segments.size(), 1);
+            assertEquals(readGzip(segments.getFirst()), "a");
+        }
+    }
+
+    /**
+     * If the writing thread is interrupted, as when the logger shuts down,
+     * the file channel closes itself.  The appender reopens it and finishes.
+     */
+    @Test
+    public void test_WriteWhileInterrupted() throws IOException {
+        try (var appender = new RollingFileAppender(directory, "minum", 1000, 0, 2, executorService)) {
+            appender.write(bytes("a"));
+            Thread.currentThread().interrupt();
+            try {
+                appender.write(bytes("b"));
+                assertTrue(Thread.currentThread().isInterrupted());
+            } finally {
+                Thread.interrupted();
+            }
+            appender.write(bytes("c"));
+            assertEquals(Files.readString(appender.getCurrentPath()), "abc");
+        }
+    }
+
+    @Test
+    public void test_WriteAfterClose() throws IOException {
+        var appender = new RollingFileAppender(directory, "minum", 1000, 0, 2, executorService);
+        appender.close();
+        assertThrows(java.nio.channels.ClosedChannelException.class, () -> appender.write(bytes("a")));
+    }
+
+    /**
+     * Levels may be routed to their own output, such as a separate audit log
+     */
+    @Test
+    public void test_RoutingByLevel() {
+        var properties = new Properties();
+        properties.setProperty("LOG_RING_BUFFER_SIZE", "16");
+        properties.setProperty("LOG_LEVELS", "DEBUG,AUDIT");
+        var mainOutput = new ByteArrayOutputStream();
+        var auditOutput = new ByteArrayOutputStream();
+        var writer = new AsyncLogWriter("test_RoutingByLevel", executorService,
+                new com.renomad.minum.state.Constants(properties), mainOutput, Map.of(LoggingLevel.AUDIT, auditOutput)).initialize();
+        writer.log(LoggingLevel.DEBUG, "debugging");
+        writer.log(LoggingLevel.AUDIT, "user created");
+        MyThread.sleep(50);
+
+        assertTrue(mainOutput.toString(StandardCharsets.UTF_8).contains("\tDEBUG\tdebugging"));
+        assertFalse(mainOutput.toString(StandardCharsets.UTF_8).contains("user created"));
+        assertTrue(auditOutput.toString(StandardCharsets.UTF_8).contains("\tAUDIT\tuser created"));
+    }
+
+    /**
+     * When a log directory is configured, the logger writes its
+     * main log and any routed levels to files there.
+     */
+    @Test
+    public void test_LoggerWritesToFiles() throws IOException {
+        var properties = new Properties();
+        properties.setProperty("LOG_FILE_DIRECTORY", directory.toString());
+        properties.setProperty("LOG_FILE_ROUTES", "AUDIT=audit");
+        properties.setProperty("LOG_LEVELS", "DEBUG,AUDIT");
+        var logger = new Logger(new com.renomad.minum.state.Constants(properties), executorService, "test_LoggerWritesToFiles");
+        logger.logDebug(() -> "to the main file");
+        logger.logAudit(() -> "to the audit file");
+        MyThread.sleep(50);
+
+        assertTrue(Files.readString(directory.resolve("minum.log")).contains("\tDEBUG\tto the main file"));
+        assertTrue(Files.readString(directory.resolve("audit.log")).contains("\tAUDIT\tto the audit file"));
+        logger.stop();
+    }
+}
@@ -9,6 +9,7 @@ import org.junit.*;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 
@@ -142,6 +143,66 @@ public class TestLoggerTests {
         assertEquals(foundWords.getFirst(), "word2");
     }
 
+    /**
+     * The same searches, through the {@link TestLogCapture} that
+     * {@link TestLogger} now keeps its messages in
+     */
+    @Test
+    public void test_TestLogCapture_Search() {
+        var recentLogLines = new TestLogCapture(20);
+        recentLogLines.add("word1");
+        recentLogLines.add("word2");
+        recentLogLines.add("word3");
+        List<String> foundWords = recentLogLines.search("word2", 3);
+        assertEquals(foundWords.getFirst(), "word2");
+    }
+
+    @Test
+    public void test_TestLogCapture_Search_WordNotFound() {
+        var recentLogLines = new TestLogCapture(20);
+        recentLogLines.add("word1");
+        recentLogLines.add("word2");
+        recentLogLines.add("word3");
+        assertEquals(recentLogLines.search("foo", 3), List.of());
+    }
+
+    @Test
+    public void test_TestLogCapture_Search_TooFewLinesRequested() {
+        var recentLogLines = new TestLogCapture(20);
+        recentLogLines.add("word1");
+        recentLogLines.add("word2");
+        recentLogLines.add("word3");
+        assertEquals(recentLogLines.search("word2", 1), List.of());
+    }
+
+    @Test
+    public void test_doesMessageExist_NegativeLineCount() {
+        assertThrows(TestLoggerException.class,
+                "number of recent log lines must be a positive number",
+                () -> logger.doesMessageExist("word2", -1));
+    }
+
+    @Test
+    public void test_findFirstMessageThatContains_TooManyLinesRequested() {
+        assertThrows(TestLoggerException.class,
+                "Can only get up to 30 lines from the log",
+                () -> logger.findFirstMessageThatContains("word2", MAX_CACHE_SIZE + 1));
+    }
+
+    /**
+     * If the user requests more lines than have been logged, but under
+     * the maximum, it should still work like normal
+     */
+    @Test
+    public void test_TestLogCapture_Search_MoreLinesThanExists() {
+        var recentLogLines = new TestLogCapture(MAX_CACHE_SIZE);
+        recentLogLines.add("word1");
+        recentLogLines.add("word2");
+        recentLogLines.add("word3");
+        List<String> foundWords = recentLogLines.search("word2", MAX_CACHE_SIZE - 1);
+        assertEquals(foundWords.getFirst(), "word2");
+    }
+
     /**
      * There is a program, "checkValidity", that ensures that "findFirstMessage"
      * is returning just one message.
@@ -204,4 +265,74 @@ public class TestLoggerTests {
         tl.test("Test b");
         assertEquals(tl.getTestCount(), 2);
     }
+
+    /**
+     * The capture keeps only the newest messages, and searches
+     * return them oldest first
+     */
+    @Test
+    public void test_TestLogCapture_Basic() {
+        var capture = new TestLogCapture(3);
+        assertEquals(capture.recent(3), List.of());
+        capture.add("Alpha");
+        capture.add("beta");
+        capture.add("gamma");
+        capture.add("ALPHA again");
+        assertEquals(capture.recent(3), List.of("beta", "gamma", "ALPHA again"));
+        assertEquals(capture.recent(10), List.of("beta", "gamma", "ALPHA again"));
+        assertEquals(capture.recent(1), List.of("ALPHA again"));
+        assertEquals(capture.search("alpha", 3), List.of("ALPHA again"));
+        assertEquals(capture.search("a", 2), List.of("gamma", "ALPHA again"));
+        assertEquals(capture.count(), 4L);
+        assertEquals(capture.capacity(), 3);
+
+        var ex = assertThrows(TestLoggerException.class, () -> new TestLogCapture(0));
+        assertEquals(ex.getMessage(), "The capacity of the log capture must be a positive number.  Value was: 0");
+    }
+
+    /**
+     * Many threads may log at once, and none of the
+     * newest messages are lost
+     */
+    @Test
+    public void test_TestLogCapture_Concurrent() throws InterruptedException {
+        var capture = new TestLogCapture(1000);
+        var threads = new ArrayList<Thread>();
+        for (int i = 0; i < 10; i++) {
+            int threadNumber = i;
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int j = 0; j < 100; j++) {
+                    capture.add("thread " + threadNumber + " message " + j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(capture.count(), 1000L);
+        assertEquals(capture.recent(1000).size(), 1000);
+        assertEquals(capture.search("message 99", 1000).size(), 10);
+    }
+
+    /**
+     * A testing context can keep more than the default count
+     * of log messages, for tests that need to look further back
+     */
+    @Test
+    public void test_TestLogger_LargerCapacity() {
+        var largeContext = TestFramework.buildTestingContext("test_TestLogger_LargerCapacity", null, 100);
+        var largeLogger = (TestLogger) largeContext.getLogger();
+        try {
+            largeLogger.logDebug(() -> "the first message");
+            for (int i = 0; i < 60; i++) {
+                int number = i;
+                largeLogger.logDebug(() -> "filler " + number);
+            }
+            assertEquals(largeLogger.findFirstMessageThatContains("the first message", 100), "the first message");
+            var ex = assertThrows(TestLoggerException.class, () -> largeLogger.doesMessageExist("foo", 101));
+            assertEquals(ex.getMessage(), "Can only get up to 100 lines from the log");
+        } finally {
+            TestFramework.shutdownTestingContext(largeContext);
+        }
+    }
 }
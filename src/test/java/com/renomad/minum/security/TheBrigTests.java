@@ -14,9 +14,11 @@ import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.*;
@@ -264,4 +266,131 @@ public class TheBrigTests {
 
         b.stop();
     }
+
+    /**
+     * An inmate is out of jail as soon as their release time passes, without
+     * waiting on the inner thread, and the inner thread writes sentences
+     * to the database in the background.
+     */
+    @Test
+    public void test_TheBrig_ReleasedOnRead() throws IOException {
+        MyThread.sleep(50);
+        fileUtils.deleteDirectoryRecursivelyIfExists(Path.of(context.getConstants().dbDirectory));
+        var b = new TheBrig(10_000, context).initialize();
+        // give the inner thread time to start
+        MyThread.sleep(20);
+        b.sendToJail("5.5.5.5_too_freq_downloads", 20);
+        b.sendToJail("6.6.6.6_too_freq_downloads", 100_000);
+        assertTrue(b.isInJail("5.5.5.5_too_freq_downloads"));
+        MyThread.sleep(40);
+        assertFalse(b.isInJail("5.5.5.5_too_freq_downloads"));
+        assertEquals(b.getInmates().size(), 1);
+
+        // having been released, a new offense starts a new sentence from now
+        b.sendToJail("5.5.5.5_too_freq_downloads", 10_000);
+        long releaseTime = b.getInmates().stream().filter(x -> x.getClientId().equals("5.5.5.5_too_freq_downloads")).findFirst().orElseThrow().getReleaseTime();
+        assertTrue(releaseTime > System.currentTimeMillis() + 9_000, "the new sentence should be about 10 seconds from now");
+        b.stop();
+
+        // the sentences were written to the database when stopping
+        b = new TheBrig(10, context).initialize();
+        MyThread.sleep(20);
+        assertTrue(b.isInJail("5.5.5.5_too_freq_downloads"));
+        assertTrue(b.isInJail("6.6.6.6_too_freq_downloads"));
+        b.stop();
+        MyThread.sleep(80);
+    }
+
+    /**
+     * However many times an inmate offends, they have a single sentence
+     * waiting to come due.  When it does, if it was extended, it is
+     * served again for the rest of the time.
+     */
+    @Test
+    public void test_TheBrig_OneSentencePerInmate() throws IOException {
+        MyThread.sleep(50);
+        fileUtils.deleteDirectoryRecursivelyIfExists(Path.of(context.getConstants().dbDirectory));
+        var b = new TheBrig(10, context).initialize();
+        MyThread.sleep(20);
+        b.sendToJail("7.7.7.7_too_freq_downloads", 30);
+        for (int i = 0; i < 10; i++) {
+            b.sendToJail("7.7.7.7_too_freq_downloads", 10);
+        }
+        assertEquals(b.sentenceCount(), 1);
+
+        // the first sentence comes due well before the extended release time
+        MyThread.sleep(70);
+        assertTrue(b.isInJail("7.7.7.7_too_freq_downloads"));
+        assertEquals(b.sentenceCount(), 1);
+
+        MyThread.sleep(150);
+        assertFalse(b.isInJail("7.7.7.7_too_freq_downloads"));
+        assertEquals(b.sentenceCount(), 0);
+        b.stop();
+        MyThread.sleep(20);
+    }
+
+    /**
+     * Clients jailed for seeking vulnerabilities are also kept by their
+     * address bytes, so the server can check them as they connect without
+     * building a string.  Other sentences are not kept that way.
+     */
+    @Test
+    public void test_TheBrig_VulnSeekerByAddress() throws IOException {
+        MyThread.sleep(50);
+        fileUtils.deleteDirectoryRecursivelyIfExists(Path.of(context.getConstants().dbDirectory));
+        var b = new TheBrig(10, context).initialize();
+        byte[] ipv4 = {(byte) 192, (byte) 168, 0, 1};
+        byte[] ipv6 = InetAddress.getByName("2001:db8::1").getAddress();
+        assertFalse(b.isVulnSeeker(ipv4));
+
+        b.sendToJail("192.168.0.1_vuln_seeking", 30);
+        b.sendToJail("2001:db8:0:0:0:0:0:1_vuln_seeking", 30);
+        b.sendToJail("10.0.0.1_too_freq_downloads", 30);
+        assertTrue(b.isVulnSeeker(ipv4));
+        assertTrue(b.isVulnSeeker(ipv6));
+        assertFalse(b.isVulnSeeker(new byte[]{10, 0, 0, 1}));
+
+        MyThread.sleep(100);
+        assertFalse(b.isVulnSeeker(ipv4));
+        assertFalse(b.isVulnSeeker(ipv6));
+        b.stop();
+        MyThread.sleep(20);
+    }
+
+    @Test
+    public void test_ParseVulnSeekerAddress() {
+        assertEquals(Arrays.toString(TheBrig.parseVulnSeekerAddress("1.2.3.255_vuln_seeking")), "[1, 2, 3, -1]");
+        assertTrue(TheBrig.parseVulnSeekerAddress("1.2.3.4_too_freq_downloads") == null);
+        assertTrue(TheBrig.parseVulnSeekerAddress("1.2.3.256_vuln_seeking") == null);
+        assertTrue(TheBrig.parseVulnSeekerAddress("1.2.3_vuln_seeking") == null);
+        assertTrue(TheBrig.parseVulnSeekerAddress("I_am_attacker_vuln_seeking") == null);
+        assertEquals(TheBrig.parseVulnSeekerAddress("::1_vuln_seeking").length, 16);
+    }
+
+    /**
+     * The inmates are built from memory, without writing to the
+     * database, but once written they carry the index of their row.
+     */
+    @Test
+    public void test_TheBrig_GetInmatesCarriesIndex() throws IOException {
+        MyThread.sleep(50);
+        fileUtils.deleteDirectoryRecursivelyIfExists(Path.of(context.getConstants().dbDirectory));
+        var b = new TheBrig(10, context).initialize();
+        b.sendToJail("8.8.8.8_too_freq_downloads", 10_000);
+        assertEquals(b.getInmates().stream().toList().getFirst().getIndex(), 0L);
+
+        // the inner thread writes the sentence to the database
+        MyThread.sleep(60);
+        Inmate inmate = b.getInmates().stream().toList().getFirst();
+        assertTrue(inmate.getIndex() > 0, "the inmate should have the index of its row");
+
+        // an extended sentence keeps that index before it is written again
+        b.sendToJail("8.8.8.8_too_freq_downloads", 10_000);
+        Inmate extended = b.getInmates().stream().toList().getFirst();
+        assertEquals(extended.getIndex(), inmate.getIndex());
+        assertEquals(extended.getReleaseTime(), inmate.getReleaseTime() + 10_000);
+        b.stop();
+        MyThread.sleep(20);
+    }
 }
@@ -1,8 +1,10 @@
 package com.renomad.minum.state;
 
 import com.renomad.minum.logging.LoggingLevel;
+import com.renomad.minum.logging.StructuredLogFormat;
 import com.renomad.minum.logging.TestLogger;
 import com.renomad.minum.testing.TestFramework;
+import com.renomad.minum.web.AccessLogFormat;
 import com.renomad.minum.web.WebServerException;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -12,6 +14,7 @@ import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -232,4 +235,101 @@ public class ConstantsTests {
         }
     }
 
+
+    @Test
+    public void test_LogFileRoutes() {
+        var properties = new Properties();
+        properties.setProperty("LOG_FILE_ROUTES", "audit=audit, TRACE=verbose");
+        var constants = new Constants(properties);
+        assertEquals(constants.logFileRoutes, Map.of(LoggingLevel.AUDIT, "audit", LoggingLevel.TRACE, "verbose"));
+        assertEquals(new Constants(new Properties()).logFileRoutes, Map.of());
+
+        for (String invalid : List.of("AUDIT", "NOT_A_LEVEL=foo", "AUDIT=../escape", "AUDIT=")) {
+            var badProperties = new Properties();
+            badProperties.setProperty("LOG_FILE_ROUTES", invalid);
+            var ex = assertThrows(WebServerException.class, () -> new Constants(badProperties));
+            assertEquals(ex.getMessage(), "LOG_FILE_ROUTES entries must be like AUDIT=audit, with a log level and a simple file name.  Value was: " + invalid);
+        }
+    }
+
+    @Test
+    public void test_LogStructuredFormat() {
+        assertEquals(new Constants(new Properties()).logStructuredFormat, StructuredLogFormat.LOGFMT);
+        var properties = new Properties();
+        properties.setProperty("LOG_STRUCTURED_FORMAT", "json");
+        assertEquals(new Constants(properties).logStructuredFormat, StructuredLogFormat.JSON);
+
+        var badProperties = new Properties();
+        badProperties.setProperty("LOG_STRUCTURED_FORMAT", "xml");
+        var ex = assertThrows(WebServerException.class, () -> new Constants(badProperties));
+        assertEquals(ex.getMessage(), "LOG_STRUCTURED_FORMAT must be one of [JSON, LOGFMT].  Value was: xml");
+    }
+
+    @Test
+    public void test_AccessLogFormat() {
+        assertEquals(new Constants(new Properties()).accessLogFormat, AccessLogFormat.NONE);
+        var properties = new Properties();
+        properties.setProperty("ACCESS_LOG_FORMAT", "combined");
+        assertEquals(new Constants(properties).accessLogFormat, AccessLogFormat.COMBINED);
+
+        var badProperties = new Properties();
+        badProperties.setProperty("ACCESS_LOG_FORMAT", "apache");
+        var ex = assertThrows(WebServerException.class, () -> new Constants(badProperties));
+        assertEquals(ex.getMessage(), "ACCESS_LOG_FORMAT must be one of [NONE, COMMON, COMBINED, JSON].  Value was: apache");
+    }
+
+    @Test
+    public void test_TemplateRegistrySettings() {
+        var defaults = new Constants(new Properties());
+        assertEquals(defaults.templateDirectory, "templates");
+        assertFalse(defaults.templateHotReload);
+        assertEquals(defaults.templateExtensions, List.of("html", "htm", "txt"));
+        var properties = new Properties();
+        properties.setProperty("TEMPLATE_DIRECTORY", "src/main/webapp/templates");
+        properties.setProperty("TEMPLATE_HOT_RELOAD", "true");
+        properties.setProperty("TEMPLATE_EXTENSIONS", "html, xml");
+        var constants = new Constants(properties);
+        assertEquals(constants.templateDirectory, "src/main/webapp/templates");
+        assertTrue(constants.templateHotReload);
+        assertEquals(constants.templateExtensions, List.of("html", "xml"));
+    }
+
+    @Test
+    public void test_MultipartSpillSettings() {
+        var defaults = new Constants(new Properties());
+        assertEquals(defaults.multipartSpillThresholdBytes, 0L);
+        assertEquals(defaults.multipartSpillDirectory, "");
+        assertEquals(defaults.maxConcurrentUploadBytes, 0L);
+        var properties = new Properties();
+        properties.setProperty("MULTIPART_SPILL_THRESHOLD_BYTES", "1048576");
+        properties.setProperty("MULTIPART_SPILL_DIRECTORY", "out/uploads");
+        properties.setProperty("MAX_CONCURRENT_UPLOAD_BYTES", "104857600");
+        var constants = new Constants(properties);
+        assertEquals(constants.multipartSpillThresholdBytes, 1048576L);
+        assertEquals(constants.multipartSpillDirectory, "out/uploads");
+        assertEquals(constants.maxConcurrentUploadBytes, 104857600L);
+    }
+
+    @Test
+    public void test_RateLimitSettings() {
+        var defaults = new Constants(new Properties());
+        assertEquals(defaults.rateLimitRequestsPerSecond, 0L);
+        assertEquals(defaults.rateLimitBytesPerSecond, 0L);
+        assertEquals(defaults.maxConnectionsPerClient, 0L);
+        assertEquals(defaults.rateLimitMaxClients, 10_000);
+        var properties = new Properties();
+        properties.setProperty("RATE_LIMIT_REQUESTS_PER_SECOND", "50");
+        properties.setProperty("RATE_LIMIT_BYTES_PER_SECOND", "1000000");
+        properties.setProperty("MAX_CONNECTIONS_PER_CLIENT", "20");
+        properties.setProperty("RATE_LIMIT_MAX_CLIENTS", "500");
+        var constants = new Constants(properties);
+        assertEquals(constants.rateLimitRequestsPerSecond, 50L);
+        assertEquals(constants.rateLimitBytesPerSecond, 1_000_000L);
+        assertEquals(constants.maxConnectionsPerClient, 20L);
+        assertEquals(constants.rateLimitMaxClients, 500);
+
+        properties.setProperty("RATE_LIMIT_MAX_CLIENTS", "0");
+        var ex = assertThrows(WebServerException.class, () -> new Constants(properties));
+        assertEquals(ex.getMessage(), "RATE_LIMIT_MAX_CLIENTS must be a positive non-zero value.  Value was: 0");
+    }
 }
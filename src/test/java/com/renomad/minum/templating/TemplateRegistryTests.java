@@ -0,0 +1,173 @@
+package com.renomad.minum.templating;
+
+import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.state.Context;
+import com.renomad.minum.utils.FileUtils;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class TemplateRegistryTests {
+
+    private static Context context;
+    private static TestLogger logger;
+    private static final Path templateDirectory = Path.of("out/template_registry_test");
+
+    @BeforeClass
+    public static void setUpClass() {
+        context = buildTestingContext("TemplateRegistryTests");
+        logger = (TestLogger)context.getLogger();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        shutdownTestingContext(context);
+    }
+
+    @Rule(order = Integer.MIN_VALUE)
+    public TestWatcher watchman = new TestWatcher() {
+        protected void starting(Description description) {
+            logger.test(description.toString());
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        new FileUtils(logger, context.getConstants()).deleteDirectoryRecursivelyIfExists(templateDirectory);
+        Files.createDirectories(templateDirectory.resolve("parts"));
+        Files.writeString(templateDirectory.resolve("parts/header.html"), "<h1>{{title}}</h1>");
+        Files.writeString(templateDirectory.resolve("index.html"), "{{> parts/header.html}}\n<p>{{body}}</p>");
+        Files.writeString(templateDirectory.resolve("about.html"), "<p>about {{name}}</p>");
+    }
+
+    /**
+     * Without hot reload, every template is built at startup, and
+     * changes to the files afterwards are not noticed
+     */
+    @Test
+    public void test_Precompile() throws IOException {
+        var registry = new TemplateRegistry(context, templateDirectory, false).initialize();
+        assertEquals(registry.size(), 3);
+        assertEquals(registry.get("index.html").render(Map.of("title", "Hi", "body", "there")), "<h1>Hi</h1>\n<p>there</p>");
+        assertEquals(registry.get("about.html").renderTemplate(Map.of("name", "us")), "<p>about us</p>");
+        assertTrue(registry.get("about.html") == registry.get("about.html"), "the same template should be reused");
+
+        changeFile("about.html", "<p>changed {{name}}</p>");
+        assertEquals(registry.get("about.html").renderTemplate(Map.of("name", "us")), "<p>about us</p>");
+        registry.stop();
+    }
+
+    /**
+     * A malformed template is found at startup
+     */
+    @Test
+    public void test_Precompile_Failure() throws IOException {
+        Files.writeString(templateDirectory.resolve("broken.html"), "{{#each rows}}");
+        var registry = new TemplateRegistry(context, templateDirectory, false);
+        var ex = assertThrows(TemplateParseException.class,
+                "Failed to build the template broken.html: {{#each rows}} was never closed",
+                registry::initialize);
+        assertTrue(ex.getCause() instanceof TemplateParseException, "the original exception should be kept as the cause");
+    }
+
+    /**
+     * Only files with the configured extensions are built at startup, so
+     * other files in the directory - hidden ones, or notes - don't fail it
+     */
+    @Test
+    public void test_Precompile_SkipsOtherFiles() throws IOException {
+        Files.write(templateDirectory.resolve(".DS_Store"), new byte[]{0, 0, 0, 1, 'B', 'u', 'd', '1', (byte) 0xff});
+        Files.writeString(templateDirectory.resolve("._about.html"), "{{#each rows}}");
+        Files.writeString(templateDirectory.resolve("notes.bak"), "{{#each rows}}");
+        Files.writeString(templateDirectory.resolve("README"), "{{#each rows}}");
+        var registry = new TemplateRegistry(context, templateDirectory, false).initialize();
+        assertEquals(registry.size(), 3);
+        registry.stop();
+    }
+
+    @Test
+    public void test_HotReload() throws Exception {
+        var registry = new TemplateRegistry(context, templateDirectory, true).initialize();
+        try {
+            assertEquals(registry.size(), 0);
+            assertEquals(registry.get("about.html").renderTemplate(Map.of("name", "us")), "<p>about us</p>");
+
+            changeFile("about.html", "<p>changed {{name}}</p>");
+            assertEquals(waitForRender(registry, "about.html", Map.of("name", "us"), "<p>changed us</p>"), "<p>changed us</p>");
+        } finally {
+            registry.stop();
+        }
+    }
+
+    /**
+     * Changing an included template rebuilds the templates that include it
+     */
+    @Test
+    public void test_HotReload_Include() throws Exception {
+        var registry = new TemplateRegistry(context, templateDirectory, true).initialize();
+        try {
+            var data = Map.of("title", "Hi", "body", "there");
+            assertEquals(registry.get("index.html").render(data), "<h1>Hi</h1>\n<p>there</p>");
+
+            changeFile("parts/header.html", "<h2>{{title}}</h2>");
+            assertEquals(waitForRender(registry, "index.html", data, "<h2>Hi</h2>\n<p>there</p>"), "<h2>Hi</h2>\n<p>there</p>");
+        } finally {
+            registry.stop();
+        }
+    }
+
+    @Test
+    public void test_MissingTemplate() {
+        var registry = new TemplateRegistry(context, templateDirectory, false);
+        var ex = assertThrows(TemplateParseException.class, () -> registry.get("nope.html"));
+        assertTrue(ex.getMessage().startsWith("Unable to read the template nope.html"), ex.getMessage());
+    }
+
+    /**
+     * A template name may not reach outside the template directory
+     */
+    @Test
+    public void test_OutsideDirectory() {
+        var registry = new TemplateRegistry(context, templateDirectory, false);
+        assertThrows(TemplateParseException.class,
+                "The template ../secret.txt is outside the template directory",
+                () -> registry.get("../secret.txt"));
+    }
+
+    /**
+     * Write to a file and move its last-modified time forward, since
+     * some filesystems only record it to the second
+     */
+    private static void changeFile(String name, String content) throws IOException {
+        Path path = templateDirectory.resolve(name);
+        FileTime previous = Files.getLastModifiedTime(path);
+        Files.writeString(path, content);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(previous.toMillis() + 5000));
+    }
+
+    /**
+     * The watcher notices changes after a short delay, so keep
+     * rendering until we see the expected result or give up
+     */
+    private static String waitForRender(TemplateRegistry registry, String name, Map<String, String> data, String expected) throws InterruptedException {
+        String result = null;
+        for (int i = 0; i < 100; i++) {
+            result = registry.get(name).render(data);
+            if (result.equals(expected)) break;
+            Thread.sleep(50);
+        }
+        return result;
+    }
+}
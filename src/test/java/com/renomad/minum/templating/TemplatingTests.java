@@ -12,7 +12,9 @@ import org.junit.Test;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -352,4 +354,325 @@ public class TemplatingTests {
                 () -> templateProcessor.renderTemplate(Map.of()));
     }
 
+    /**
+     * A later map with the wrong keys is caught as the list is rendered,
+     * and reported the same as if the list had been checked first
+     */
+    @Test
+    public void test_EdgeCase_LaterMapHasWrongKeys() {
+        TemplateProcessor templateProcessor = TemplateProcessor.buildProcessor("I am {{ foo }}");
+        var data = new ArrayList<Map<String, String>>();
+        data.add(Map.of("foo", "abc"));
+        data.add(Map.of("foo", "def"));
+        data.add(Map.of("foo", "ghi", "bar", "jkl"));
+        assertThrows(TemplateRenderException.class,
+                "In registered data, the maps were inconsistent on these keys: [bar]",
+                () -> templateProcessor.renderTemplate(data));
+
+        var nullValue = new HashMap<String, String>();
+        nullValue.put("foo", null);
+        assertThrows(TemplateRenderException.class,
+                "No value was provided for the key: foo",
+                () -> templateProcessor.renderTemplate(List.of(Map.of("foo", "abc"), nullValue)));
+    }
+
+    /**
+     * A compiled template renders the same as the original, straight to UTF-8 bytes
+     */
+    @Test
+    public void test_Compiled_MatchesRenderTemplate() {
+        TemplateProcessor tp = buildProcessor("Hello {{name}}, I'm {{animal}}.\n  <p>{{ body }}</p>\nBye {{ name }}");
+        var myMap = Map.of("name", "byron", "animal", "cät", "body", "line 1\nline 2\n\nline 4\n");
+
+        byte[] result = tp.compile().render(myMap);
+
+        assertEquals(new String(result, StandardCharsets.UTF_8), tp.renderTemplate(myMap));
+        assertEquals(new String(result, StandardCharsets.UTF_8),
+                "Hello byron, I'm cät.\n  <p>line 1\n     line 2\n\n     line 4\n</p>\nBye byron");
+    }
+
+    /**
+     * Characters outside ASCII, including those needing a surrogate pair, are
+     * encoded the same as {@link String#getBytes}
+     */
+    @Test
+    public void test_Compiled_NonAscii() {
+        TemplateProcessor tp = buildProcessor("ñ {{a}} ✓");
+        String value = "日本 \uD83D\uDE00 é \uD800 x";
+        byte[] result = tp.compile().render(Map.of("a", value));
+        assertEqualByteArray(result, ("ñ " + value + " ✓").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Values may be provided in slot order, and a buffer may be reused
+     */
+    @Test
+    public void test_Compiled_Slots() {
+        CompiledTemplate compiled = buildProcessor("{{ b }} and {{a}} and {{b}}").compile();
+        assertEquals(compiled.getKeys(), List.of("b", "a"));
+        assertEquals(compiled.slotCount(), 2);
+        assertEquals(compiled.slotIndex("a"), 1);
+        var ex = assertThrows(TemplateRenderException.class, () -> compiled.slotIndex("c"));
+        assertEquals(ex.getMessage(), "There is no key named c in the template.  Keys: [b, a]");
+
+        var buffer = new TemplateBuffer(1);
+        String[] values = new String[compiled.slotCount()];
+        values[compiled.slotIndex("a")] = "first";
+        values[compiled.slotIndex("b")] = "second";
+        compiled.render(values, buffer);
+        assertEquals(buffer.toString(), "second and first and second");
+
+        buffer.reset();
+        values[compiled.slotIndex("a")] = "x";
+        compiled.render(values, buffer);
+        assertEquals(buffer.toString(), "second and x and second");
+        assertEquals(buffer.size(), 23);
+    }
+
+    @Test
+    public void test_Compiled_Errors() {
+        CompiledTemplate compiled = buildProcessor("I am {{ foo }}").compile();
+        var buffer = new TemplateBuffer();
+        assertThrows(TemplateRenderException.class,
+                "These keys in the template were not provided data: [foo]",
+                () -> compiled.render(Map.of()));
+        assertThrows(TemplateRenderException.class,
+                "These keys in the data did not match anything in the template: [bar]",
+                () -> compiled.render(Map.of("foo", "a", "bar", "b")));
+        var mapWithNull = new HashMap<String, String>();
+        mapWithNull.put("foo", null);
+        assertThrows(TemplateRenderException.class,
+                "No value was provided for the key: foo",
+                () -> compiled.render(mapWithNull));
+        assertThrows(TemplateRenderException.class,
+                "Expected 1 values, one for each key [foo], but got 2",
+                () -> compiled.render(new String[]{"a", "b"}, buffer));
+    }
+
+    /**
+     * The large stock benchmark, rendered by a compiled template into a reused buffer
+     */
+    @Test
+    public void test_Compiled_LargeComplex() throws IOException {
+        String expectedFullOutput = fileUtils.readTextFile("src/test/webapp/templates/templatebenchmarks/expected_stock_output.html");
+        TemplateProcessor individualStockProcessor = TemplateProcessor.buildProcessor(fileUtils.readTextFile("src/test/webapp/templates/templatebenchmarks/individual_stock.html"));
+        CompiledTemplate stockPrices = TemplateProcessor.buildProcessor(fileUtils.readTextFile("src/test/webapp/templates/templatebenchmarks/stock_prices.html")).compile();
+        List<Stock> stocks = Stock.dummyItems();
+        List<Map<String,String>> stockPricesList = new ArrayList<>();
+        for (int i = 0; i < stocks.size(); i++) {
+            Stock stock = stocks.get(i);
+            HashMap<String, String> stockPricesMap = new HashMap<>();
+            stockPricesMap.put("class", i % 2 == 1 ? "even" : "odd");
+            stockPricesMap.put("index", String.valueOf(i + 1));
+            stockPricesMap.put("symbol", stock.getSymbol());
+            stockPricesMap.put("url", stock.getUrl());
+            stockPricesMap.put("name", stock.getName());
+            stockPricesMap.put("price", String.valueOf(stock.getPrice()));
+            stockPricesMap.put("is_negative_change", stock.getChange() < 0 ? " class=\"minus\"" : "");
+            stockPricesMap.put("is_negative_ratio", stock.getRatio() < 0 ? " class=\"minus\"" : "");
+            stockPricesMap.put("change", String.valueOf(stock.getChange()));
+            stockPricesMap.put("ratio", String.valueOf(stock.getRatio()));
+            stockPricesList.add(stockPricesMap);
+        }
+
+        var buffer = new TemplateBuffer();
+        for (int i = 0; i < 3; i++) {
+            buffer.reset();
+            stockPrices.render(Map.of("individual_stocks", individualStockProcessor.renderTemplate(stockPricesList)), buffer);
+            assertEquals(buffer.toString(), expectedFullOutput);
+        }
+    }
+
+    /**
+     * Rows may be rendered one at a time into an output stream, giving
+     * the same result as rendering the whole list
+     */
+    @Test
+    public void test_Compiled_RenderToStream() throws IOException {
+        TemplateProcessor tp = buildProcessor("<tr><td>{{ id }}</td><td>{{name}}</td></tr>");
+        CompiledTemplate compiled = tp.compile();
+        List<Map<String, String>> rows = IntStream.range(0, 1000)
+                .mapToObj(i -> Map.of("id", String.valueOf(i), "name", "person " + i)).toList();
+
+        var out = new ByteArrayOutputStream();
+        compiled.renderTo(rows.stream(), "\n", out);
+        assertEquals(out.toString(StandardCharsets.UTF_8), tp.renderTemplate(rows));
+
+        var emptyOut = new ByteArrayOutputStream();
+        compiled.renderTo(List.<Map<String, String>>of().iterator(), "\n", emptyOut);
+        assertEquals(emptyOut.size(), 0);
+
+        var singleOut = new ByteArrayOutputStream();
+        compiled.renderTo(Map.of("id", "1", "name", "a"), singleOut);
+        assertEquals(singleOut.toString(StandardCharsets.UTF_8), "<tr><td>1</td><td>a</td></tr>");
+
+        assertThrows(TemplateRenderException.class,
+                "These keys in the template were not provided data: [name]",
+                () -> compiled.renderTo(List.of(Map.of("id", "1", "name", "a"), Map.of("id", "2")).iterator(), "", new ByteArrayOutputStream()));
+    }
+
+    /**
+     * A section may be repeated for each map in a list, and a block tag
+     * alone on its line leaves no blank line
+     */
+    @Test
+    public void test_Blocks_Each() {
+        TemplateProcessor tp = buildProcessor("""
+                <h1>{{ title }}</h1>
+                <ul>
+                    {{#each people}}
+                    <li>{{name}}</li>
+                    {{/each}}
+                </ul>
+                """);
+        String result = tp.render(Map.of(
+                "title", "People",
+                "people", List.of(Map.of("name", "Alice"), Map.of("name", "Bob"))));
+        assertEquals(result, """
+                <h1>People</h1>
+                <ul>
+                    <li>Alice</li>
+                    <li>Bob</li>
+                </ul>
+                """);
+        assertEquals(tp.render(Map.of("title", "Nobody", "people", List.of())), "<h1>Nobody</h1>\n<ul>\n</ul>\n");
+        assertEquals(tp.compile().getKeys(), List.of("title", "people"));
+    }
+
+    @Test
+    public void test_Blocks_IfElse() {
+        TemplateProcessor tp = buildProcessor("Hi {{name}}{{#if is_admin}} (admin){{else}} (user){{/if}}{{#if is_new}}!{{/if}}");
+        assertEquals(tp.render(Map.of("name", "a", "is_admin", true, "is_new", true)), "Hi a (admin)!");
+        assertEquals(tp.render(Map.of("name", "b", "is_admin", false, "is_new", false)), "Hi b (user)");
+    }
+
+    /**
+     * Blocks nest, with each repeated section taking its keys from its own map
+     */
+    @Test
+    public void test_Blocks_Nested() {
+        TemplateProcessor tp = buildProcessor("""
+                {{#each groups}}
+                {{group}}:
+                {{#each members}}
+                  - {{member}}{{#if is_lead}} *{{/if}}
+                {{/each}}
+                {{/each}}
+                """);
+        String result = tp.render(Map.of("groups", List.of(
+                Map.of("group", "red", "members", List.of(
+                        Map.of("member", "a", "is_lead", true),
+                        Map.of("member", "b", "is_lead", false))),
+                Map.of("group", "blue", "members", List.of()))));
+        assertEquals(result, """
+                red:
+                  - a *
+                  - b
+                blue:
+                """);
+    }
+
+    /**
+     * Templates with blocks may also be rendered with the original methods, and
+     * by the compiled template to bytes
+     */
+    @Test
+    public void test_Blocks_OtherRenderMethods() throws IOException {
+        TemplateProcessor tp = buildProcessor("{{#if a}}yes{{else}}no{{/if}} {{b}}");
+        Map<String, Object> first = Map.of("a", true, "b", "1");
+        Map<String, Object> second = Map.of("a", false, "b", "2");
+
+        var out = new ByteArrayOutputStream();
+        tp.compile().renderTo(List.of(first, second).iterator(), ",", out);
+        assertEquals(out.toString(StandardCharsets.UTF_8), "yes 1,no 2");
+        assertEquals(new String(tp.compile().render(first), StandardCharsets.UTF_8), "yes 1");
+        assertThrows(TemplateRenderException.class, "A template with blocks must be rendered with a map of values",
+                () -> tp.compile().render(new String[]{"a", "b"}, new TemplateBuffer()));
+
+        // renderTemplate only takes Strings, which are not accepted for the flag of an if-block
+        TemplateProcessor withEmptyBlock = buildProcessor("{{#if a}}{{/if}}{{b}}");
+        assertThrows(TemplateRenderException.class, "The value for a must be a Boolean, for {{#if a}}.  Value was: true",
+                () -> withEmptyBlock.renderTemplate(Map.of("a", "true", "b", "x")));
+    }
+
+    @Test
+    public void test_Blocks_RenderErrors() {
+        TemplateProcessor tp = buildProcessor("{{#each rows}}{{x}}{{/each}}");
+        assertThrows(TemplateRenderException.class, "These keys in the template were not provided data: [rows]",
+                () -> tp.render(Map.of()));
+        assertThrows(TemplateRenderException.class, "These keys in the template were not provided data: [x]",
+                () -> tp.render(Map.of("rows", List.of(Map.of("x", "1"), Map.of("y", "2")))));
+        assertThrows(TemplateRenderException.class, "The value for rows must be a list of maps, for {{#each rows}}.  Value was: abc",
+                () -> tp.render(Map.of("rows", "abc")));
+        assertThrows(TemplateRenderException.class, "Each item of rows must be a map, for {{#each rows}}.  Item was: abc",
+                () -> tp.render(Map.of("rows", List.of("abc"))));
+        assertThrows(TemplateRenderException.class, "The value for x must be a String.  Value was: 5",
+                () -> tp.render(Map.of("rows", List.of(Map.of("x", 5)))));
+    }
+
+    @Test
+    public void test_Blocks_ParseErrors() {
+        assertThrows(TemplateParseException.class, "{{#each rows}} was never closed", () -> buildProcessor("{{#each rows}}a"));
+        assertThrows(TemplateParseException.class, "{{/if}} has no block to close", () -> buildProcessor("a{{/if}}"));
+        assertThrows(TemplateParseException.class, "{{/if}} cannot close {{#each rows}}", () -> buildProcessor("{{#each rows}}a{{/if}}"));
+        assertThrows(TemplateParseException.class, "{{#if a}} has more than one {{else}}", () -> buildProcessor("{{#if a}}1{{else}}2{{else}}3{{/if}}"));
+        assertThrows(TemplateParseException.class, "{{#each}} must be followed by the name of a value, for example {{#each foo}}", () -> buildProcessor("{{#each}}{{/each}}"));
+    }
+
+    /**
+     * Outside an if-block, "else" is an ordinary key, as it was before blocks
+     */
+    @Test
+    public void test_Blocks_ElseOutsideIfIsAKey() {
+        TemplateProcessor tp = buildProcessor("{{#each rows}}{{ else }}{{/each}} {{else}}");
+        assertEquals(tp.render(Map.of("else", "b", "rows", List.of(Map.of("else", "a")))), "a b");
+    }
+
+    /**
+     * Other templates may be included by name.  The included lines are indented
+     * to the column of the tag, and includes may nest.
+     */
+    @Test
+    public void test_Includes() {
+        Map<String, String> templates = Map.of(
+                "list", "<ul>\n  {{> item}}\n</ul>\n",
+                "item", "<li>{{name}}</li>");
+        TemplateProcessor tp = buildProcessor("<div>\n    {{> list }}\n</div>", templates::get);
+        assertEquals(tp.renderTemplate(Map.of("name", "a")), "<div>\n    <ul>\n      <li>a</li>\n    </ul>\n</div>");
+        assertEquals(tp.getOriginalText(), "<div>\n    {{> list }}\n</div>");
+    }
+
+    @Test
+    public void test_Includes_Errors() {
+        assertThrows(TemplateParseException.class, "No template was found to include for the name: missing",
+                () -> buildProcessor("a {{> missing}}", Map.<String, String>of()::get));
+        assertThrows(TemplateParseException.class, "Includes were nested more than 20 deep.  Is there a template that includes itself?",
+                () -> buildProcessor("{{> self}}", Map.of("self", "x{{> self}}")::get));
+        assertThrows(TemplateParseException.class, "The template has an include, {{> header}}, but no includes were provided.  See TemplateProcessor.buildProcessor(String, Function)",
+                () -> buildProcessor("{{> header}}"));
+    }
+
+    /**
+     * With auto-escaping, values are HTML-escaped as they are rendered,
+     * by every way of rendering, but the template's own text is not
+     */
+    @Test
+    public void test_AutoEscape() throws IOException {
+        TemplateProcessor tp = buildProcessor("<a title=\"{{title}}\">{{body}}</a>", null, true);
+        var data = Map.of("title", "\"quoted\" & 'single'", "body", "<script>alert(1)</script> é");
+        String expected = "<a title=\"&quot;quoted&quot; &amp; &apos;single&apos;\">&lt;script&gt;alert(1)&lt;/script&gt; é</a>";
+        assertEquals(tp.renderTemplate(data), expected);
+        assertEquals(tp.render(data), expected);
+        assertEquals(new String(tp.compile().render(data), StandardCharsets.UTF_8), expected);
+        var out = new ByteArrayOutputStream();
+        tp.compile().renderTo(List.of(data, data).iterator(), "\n", out);
+        assertEquals(out.toString(StandardCharsets.UTF_8), expected + "\n" + expected);
+
+        // multi-line values are still indented, and blocks work as usual
+        TemplateProcessor blocks = buildProcessor("  {{text}}{{#if show}}!{{/if}}", null, true);
+        assertEquals(blocks.render(Map.of("show", true, "text", "a<\nb>")), "  a&lt;\n  b&gt;!");
+
+        // without the option, values are written as given
+        assertEquals(buildProcessor("{{body}}").renderTemplate(Map.of("body", "<b>")), "<b>");
+    }
 }
@@ -0,0 +1,159 @@
+package com.renomad.minum.utils;
+
+import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.queue.BoundedActionQueue;
+import com.renomad.minum.queue.QueueException;
+import com.renomad.minum.state.Context;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.renomad.minum.queue.BoundedActionQueue.WhenFull.*;
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class BoundedActionQueueTests {
+
+    private static Context context;
+    private static TestLogger logger;
+
+    @BeforeClass
+    public static void init() {
+        context = buildTestingContext("BoundedActionQueueTests");
+        logger = (TestLogger)context.getLogger();
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        shutdownTestingContext(context);
+    }
+
+    @Rule(order = Integer.MIN_VALUE)
+    public TestWatcher watchman = new TestWatcher() {
+        protected void starting(Description description) {
+            logger.test(description.toString());
+        }
+    };
+
+    /**
+     * When the queue is full, and it is set to reject, enqueuing
+     * fails right away.  The queue here is never initialized, so
+     * nothing is taken from it.
+     */
+    @Test
+    public void test_Reject() {
+        var aq = new BoundedActionQueue("rejecting queue", context, 2, REJECT, 0);
+        aq.enqueue("first", () -> {});
+        aq.enqueue("second", () -> {});
+        assertThrows(QueueException.class,
+                "failed to enqueue third - BoundedActionQueue \"rejecting queue\" is full, with 2 actions",
+                () -> aq.enqueue("third", () -> {}));
+        assertEquals(aq.getMetrics().getDepth(), 2);
+        assertEquals(aq.getMetrics().getEnqueued(), 2L);
+        assertEquals(aq.getMetrics().getRejected(), 1L);
+    }
+
+    /**
+     * When set to wait with a timeout, enqueuing fails once
+     * it has waited that long for room.
+     */
+    @Test
+    public void test_Timeout() {
+        var aq = new BoundedActionQueue("timeout queue", context, 1, TIMEOUT, 30);
+        aq.enqueue("first", () -> {});
+        long start = System.currentTimeMillis();
+        assertThrows(QueueException.class,
+                "failed to enqueue second - BoundedActionQueue \"timeout queue\" is full, with 1 actions",
+                () -> aq.enqueue("second", () -> {}));
+        assertTrue(System.currentTimeMillis() - start >= 30, "we should have waited for room");
+    }
+
+    /**
+     * When set to block, enqueuing waits for room, and every action
+     * gets run.  Failures are counted and logged.
+     */
+    @Test
+    public void test_BlockAndRunAll() {
+        var aq = new BoundedActionQueue("blocking queue", context, 5, BLOCK, 0).initialize();
+        var count = new AtomicInteger();
+        for (int i = 0; i < 100; i++) {
+            aq.enqueue("increment", count::incrementAndGet);
+        }
+        aq.enqueue("fail", () -> {
+            throw new RuntimeException("a failure in BoundedActionQueue");
+        });
+        // the queue's thread may still be running the last batch
+        for (int i = 0; i < 100 && aq.getMetrics().getExecuted() < 101; i++) {
+            MyThread.sleep(10);
+        }
+
+        assertEquals(count.get(), 100);
+        assertTrue(logger.doesMessageExist("a failure in BoundedActionQueue"));
+        var metrics = aq.getMetrics();
+        assertEquals(metrics.getEnqueued(), 101L);
+        assertEquals(metrics.getExecuted(), 101L);
+        assertEquals(metrics.getFailures(), 1L);
+        assertEquals(metrics.getRejected(), 0L);
+        assertTrue(metrics.getBatches() <= 101L);
+        assertEquals(metrics.getExecutionNanos().getCount(), 101L);
+        assertTrue(context.getActionQueueState().getMetrics().contains(metrics));
+
+        // once stopped, the queue's metrics are no longer reported
+        aq.stop();
+        assertFalse(context.getActionQueueState().getMetrics().contains(metrics));
+    }
+
+    /**
+     * A description given as a supplier is only built when needed
+     */
+    @Test
+    public void test_LazyDescription() {
+        var aq = new BoundedActionQueue("lazy description queue", context, 10, REJECT, 0);
+        var descriptionsBuilt = new AtomicInteger();
+        aq.enqueue(() -> "lazy " + descriptionsBuilt.incrementAndGet(), () -> {});
+        assertEquals(descriptionsBuilt.get(), 0);
+        assertEquals(aq.getQueue().toString(), "[lazy 1]");
+    }
+
+    @Test
+    public void test_BadCapacity() {
+        assertThrows(QueueException.class,
+                "The capacity of BoundedActionQueue \"bad\" must be positive.  Value was: 0",
+                () -> new BoundedActionQueue("bad", context, 0, REJECT, 0));
+    }
+
+    /**
+     * Stopping waits for the actions the queue's thread has already
+     * taken from the queue, not just for the queue to be empty.
+     */
+    @Test
+    public void test_Stop_WaitsForBatchInProgress() {
+        var aq = new BoundedActionQueue("batch in progress", context, 10, BLOCK, 0).initialize();
+        for (int i = 0; i < 3; i++) {
+            aq.enqueue("slow action " + i, () -> MyThread.sleep(50));
+        }
+        // wait for the thread to take all three as a batch
+        for (int i = 0; i < 100 && aq.getMetrics().getDepth() > 0; i++) {
+            MyThread.sleep(5);
+        }
+        assertEquals(aq.getMetrics().getDepth(), 0);
+
+        aq.stop(30, 20);
+
+        assertEquals(aq.getMetrics().getExecuted(), 3L);
+        assertFalse(aq.isStopped());
+    }
+
+    @Test
+    public void test_Stopped() {
+        var aq = new BoundedActionQueue("stopped queue", context, 10, REJECT, 0).initialize();
+        aq.stop();
+        assertThrows(QueueException.class,
+                "failed to enqueue check if stopped - BoundedActionQueue \"stopped queue\" is stopped",
+                () -> aq.enqueue("check if stopped", () -> {}));
+    }
+}
@@ -0,0 +1,65 @@
+package com.renomad.minum.utils;
+
+import org.junit.Test;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void test_Empty() {
+        var histogram = new LatencyHistogram();
+        assertEquals(histogram.getCount(), 0L);
+        assertEquals(histogram.getMin(), 0L);
+        assertEquals(histogram.getMax(), 0L);
+        assertEquals(histogram.getValueAtPercentile(99), 0L);
+        assertEquals(histogram.toString(), "count=0 min=0 mean=0.0 p50=0 p90=0 p99=0 max=0");
+    }
+
+    /**
+     * Small values are exact, and larger values fall into a bucket
+     * whose upper bound is within an eighth of the value.
+     */
+    @Test
+    public void test_BucketBounds() {
+        for (long i = 0; i < 8; i++) {
+            assertEquals(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(i)), i);
+        }
+        assertEquals(LatencyHistogram.bucketIndex(8), 8);
+        assertEquals(LatencyHistogram.bucketIndex(15), 15);
+        assertEquals(LatencyHistogram.bucketIndex(16), 16);
+        assertEquals(LatencyHistogram.bucketIndex(17), 16);
+        assertEquals(LatencyHistogram.bucketUpperBound(16), 17L);
+        for (long value : new long[]{9, 100, 1_234, 99_999, 12_345_678_901L, Long.MAX_VALUE}) {
+            long upper = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(upper >= value, "upper bound " + upper + " for " + value);
+            assertTrue(upper - value <= value / 8, "upper bound " + upper + " for " + value);
+        }
+    }
+
+    @Test
+    public void test_Percentiles() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+        assertEquals(histogram.getCount(), 101L);
+        assertEquals(histogram.getMin(), 0L);
+        assertEquals(histogram.getMax(), 100L);
+        assertEquals(histogram.getValueAtPercentile(0), 0L);
+        assertEquals(histogram.getValueAtPercentile(100), 100L);
+        long median = histogram.getValueAtPercentile(50);
+        assertTrue(median >= 50 && median <= 55, "median was " + median);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(p99 >= 99 && p99 <= 100, "p99 was " + p99);
+    }
+
+    @Test
+    public void test_InvalidPercentile() {
+        var histogram = new LatencyHistogram();
+        var ex = assertThrows(UtilsException.class, () -> histogram.getValueAtPercentile(100.1));
+        assertEquals(ex.getMessage(), "Percentile must be between 0 and 100. Given: 100.1");
+        assertThrows(UtilsException.class, () -> histogram.getValueAtPercentile(-1));
+    }
+}
@@ -10,6 +10,7 @@ import org.junit.Test;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.io.*;
 import java.util.List;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -68,4 +69,49 @@ public class SerializationUtilsTests {
         assertEquals(ex.getMessage(), "Asked to split content into too many partitions in the tokenizer.  Current max: 2" );
         assertThrows(ForbiddenUseException.class, () -> SerializationUtils.tokenizer("a|b|%NULL%|%NULL%", '|', 2));
     }
+
+    @Test
+    public void testWriteAndReadString() throws IOException {
+        var baos = new ByteArrayOutputStream();
+        var out = new DataOutputStream(baos);
+        SerializationUtils.writeString(out, "a|b%c");
+        SerializationUtils.writeString(out, null);
+        SerializationUtils.writeString(out, "");
+
+        var in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(SerializationUtils.readString(in), "a|b%c");
+        assertTrue(SerializationUtils.readString(in) == null);
+        assertEquals(SerializationUtils.readString(in), "");
+    }
+
+    @Test
+    public void testReadString_InvalidLength() {
+        var in = new DataInputStream(new ByteArrayInputStream(new byte[]{-1, -1, -1, -5}));
+        var ex = assertThrows(IllegalStateException.class, () -> SerializationUtils.readString(in));
+        assertEquals(ex.getMessage(), "Invalid length for a serialized string: -5");
+    }
+
+    /**
+     * Damaged data may claim a huge length.  That should end in running
+     * out of bytes, not in allocating the whole claimed length up front.
+     */
+    @Test
+    public void testReadString_LengthPastTheEnd() {
+        var in = new DataInputStream(new ByteArrayInputStream(new byte[]{0x7f, -1, -1, -1, 'a', 'b', 'c'}));
+        assertThrows(EOFException.class, () -> SerializationUtils.readString(in));
+    }
+
+    /**
+     * A value larger than the first allocation is read in full
+     */
+    @Test
+    public void testWriteAndReadString_Large() throws IOException {
+        String large = "abcdefgh".repeat(100_000);
+        var baos = new ByteArrayOutputStream();
+        SerializationUtils.writeString(new DataOutputStream(baos), large);
+
+        var in = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(SerializationUtils.readString(in), large);
+        assertEquals(in.read(), -1);
+    }
 }
@@ -78,6 +78,23 @@ public class StringUtilsTests {
         assertEquals("", cleanedHtml);
     }
 
+    /**
+     * Text with nothing to escape is returned as-is, not copied, and
+     * each special character is replaced, wherever it falls
+     */
+    @Test
+    public void test_Clean_NothingToEscape() {
+        String plain = "nothing to see here, é ☃";
+        assertTrue(StringUtils.safeHtml(plain) == plain, "expected the same string back");
+        assertTrue(StringUtils.safeAttr(plain) == plain, "expected the same string back");
+        assertEquals(StringUtils.safeHtml("a\"b'c"), "a\"b'c");
+        assertEquals(StringUtils.safeAttr("a>b"), "a>b");
+
+        assertEquals(StringUtils.safeHtml("&a<b>c&"), "&amp;a&lt;b&gt;c&amp;");
+        assertEquals(StringUtils.safeAttr("<\"x\" & 'y'"), "&lt;&quot;x&quot; &amp; &apos;y&apos;");
+        assertEquals(StringUtils.safeHtml(""), "");
+    }
+
     /**
      * Can convert a list of bytes to a string
      */
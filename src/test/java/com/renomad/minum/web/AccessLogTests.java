@@ -0,0 +1,127 @@
+package com.renomad.minum.web;
+
+import com.renomad.minum.logging.TestLogger;
+import com.renomad.minum.state.Context;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static com.renomad.minum.testing.TestFramework.*;
+
+public class AccessLogTests {
+
+    private Context context;
+    private TestLogger logger;
+    private ByteArrayOutputStream output;
+
+    @Before
+    public void init() {
+        context = buildTestingContext("AccessLogTests");
+        logger = (TestLogger) context.getLogger();
+        output = new ByteArrayOutputStream();
+    }
+
+    @After
+    public void cleanup() {
+        shutdownTestingContext(context);
+    }
+
+    private static AccessLog.Entry buildEntry() {
+        var entry = new AccessLog.Entry();
+        // 2026-10-19T14:25:01.123Z
+        entry.timestampMillis = 1_792_419_901_123L;
+        entry.remoteAddr = "127.0.0.1";
+        entry.requestLine = "GET /index.html?a=\"b\" HTTP/1.1";
+        entry.method = "GET";
+        entry.path = "index.html";
+        entry.status = 200;
+        entry.bytesIn = 0;
+        entry.bytesOut = 2326;
+        entry.readHeadNanos = 35_000;
+        entry.handlerNanos = 1_210_999;
+        entry.compressNanos = 0;
+        entry.writeNanos = 80_000;
+        entry.reuseCount = 2;
+        entry.userAgent = "curl/8.0";
+        return entry;
+    }
+
+    private List<String> writeAndRead(AccessLogFormat format, AccessLog.Entry entry) {
+        var accessLog = new AccessLog(format, 16, output, context.getExecutorService(), logger).initialize();
+        assertTrue(accessLog.offer(entry));
+        accessLog.stop();
+        assertTrue(accessLog.isStopped());
+        return output.toString(StandardCharsets.UTF_8).lines().toList();
+    }
+
+    @Test
+    public void test_CommonFormat() {
+        List<String> lines = writeAndRead(AccessLogFormat.COMMON, buildEntry());
+        assertEquals(lines, List.of("127.0.0.1 - - [19/Oct/2026:14:25:01 +0000] \"GET /index.html?a=\\\"b\\\" HTTP/1.1\" 200 2326 " +
+                "read_us=35 handler_us=1210 compress_us=0 write_us=80 total_us=1325 reuse=2"));
+    }
+
+    @Test
+    public void test_CombinedFormat() {
+        var entry = buildEntry();
+        entry.bytesOut = 0;
+        List<String> lines = writeAndRead(AccessLogFormat.COMBINED, entry);
+        assertEquals(lines, List.of("127.0.0.1 - - [19/Oct/2026:14:25:01 +0000] \"GET /index.html?a=\\\"b\\\" HTTP/1.1\" 200 - \"-\" \"curl/8.0\" " +
+                "read_us=35 handler_us=1210 compress_us=0 write_us=80 total_us=1325 reuse=2"));
+    }
+
+    @Test
+    public void test_JsonFormat() {
+        List<String> lines = writeAndRead(AccessLogFormat.JSON, buildEntry());
+        assertEquals(lines, List.of("{\"time\":\"2026-10-19T14:25:01.123Z\",\"remote_addr\":\"127.0.0.1\",\"method\":\"GET\"," +
+                "\"path\":\"index.html\",\"request_line\":\"GET /index.html?a=\\\"b\\\" HTTP/1.1\",\"status\":200," +
+                "\"bytes_in\":0,\"bytes_out\":2326,\"read_us\":35,\"handler_us\":1210,\"compress_us\":0,\"write_us\":80," +
+                "\"total_us\":1325,\"reuse\":2,\"referer\":null,\"user_agent\":\"curl/8.0\"}"));
+    }
+
+    /**
+     * Entries are copied when offered, so the caller may reuse its entry
+     */
+    @Test
+    public void test_EntryIsCopied() {
+        var accessLog = new AccessLog(AccessLogFormat.JSON, 16, output, context.getExecutorService(), logger).initialize();
+        var entry = buildEntry();
+        accessLog.offer(entry);
+        entry.clear();
+        entry.status = 404;
+        accessLog.offer(entry);
+        accessLog.stop();
+
+        List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertEquals(lines.size(), 2);
+        assertTrue(lines.get(0).contains("\"status\":200"));
+        assertTrue(lines.get(1).contains("\"status\":404"));
+        assertTrue(lines.get(1).contains("\"method\":null"));
+    }
+
+    /**
+     * When the buffer is full, entries are discarded rather than making
+     * the request wait, and the count is logged as a warning.
+     */
+    @Test
+    public void test_FullBufferDiscards() {
+        // not initialized, so nothing drains the buffer yet
+        var accessLog = new AccessLog(AccessLogFormat.COMMON, 4, output, context.getExecutorService(), logger);
+        var entry = buildEntry();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(accessLog.offer(entry));
+        }
+        assertFalse(accessLog.offer(entry));
+        assertEquals(accessLog.getDroppedCount(), 1L);
+
+        accessLog.initialize();
+        accessLog.stop();
+        assertEquals(output.toString(StandardCharsets.UTF_8).lines().count(), 4L);
+        assertTrue(logger.doesMessageExist("1 access log entries were discarded"));
+        assertFalse(accessLog.offer(entry));
+    }
+}
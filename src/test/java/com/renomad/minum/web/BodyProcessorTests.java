@@ -16,6 +16,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -276,7 +277,7 @@ public class BodyProcessorTests {
                 throw new IOException("JUST A TEST");
             }
         };
-        var partition = new StreamingMultipartPartition(null, inputStream, null, "", new CountBytesRead(), 0);
+        var partition = new StreamingMultipartPartition(null, new MultipartInputStream(inputStream, 10), null, "");
 
         var ex = assertThrows(WebServerException.class, () -> partition.fillBuffer());
 
@@ -284,6 +285,134 @@ public class BodyProcessorTests {
         assertEquals(ex.getCause().getMessage(), "JUST A TEST");
     }
 
+    /**
+     * Large binary files, holding bytes that look like the start of the
+     * boundary, read off a socket that only hands over a few bytes at a time,
+     * so boundaries are split between reads and between blocks of the buffer.
+     */
+    @Test
+    public void test_MultiPart_LargeBinary() throws IOException {
+        var random = new java.util.Random(42);
+        byte[] file1 = new byte[200_000];
+        random.nextBytes(file1);
+        byte[] almostBoundary = "\r\n--i_am_a_bounda".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i + almostBoundary.length < file1.length; i += 9_000) {
+            System.arraycopy(almostBoundary, 0, file1, i, almostBoundary.length);
+        }
+        byte[] file2 = new byte[65_536];
+        random.nextBytes(file2);
+
+        var body = new ByteArrayOutputStream();
+        body.write("--i_am_a_boundary\r\nContent-Disposition: form-data; name=\"file1\"; filename=\"a.bin\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        body.write(file1);
+        body.write("\r\n--i_am_a_boundary\r\nContent-Disposition: form-data; name=\"file2\"; filename=\"b.bin\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        body.write(file2);
+        body.write("\r\n--i_am_a_boundary--\r\n".getBytes(StandardCharsets.US_ASCII));
+        byte[] bodyBytes = body.toByteArray();
+        byte[] nextRequest = "GET / HTTP/1.1\r\n".getBytes(StandardCharsets.US_ASCII);
+
+        var all = new ByteArrayOutputStream();
+        all.write(bodyBytes);
+        all.write(nextRequest);
+        var socket = new ByteArrayInputStream(all.toByteArray()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+
+        var bodyProcessor = new BodyProcessor(context);
+        var iterator = bodyProcessor.getMultiPartIterable(socket, "i_am_a_boundary", bodyBytes.length).iterator();
+
+        StreamingMultipartPartition partition1 = iterator.next();
+        assertEquals(partition1.getContentDisposition().getFilename(), "a.bin");
+        var received = new ByteArrayOutputStream();
+        byte[] block = new byte[777];
+        int count;
+        while ((count = partition1.read(block, 0, block.length)) != -1) {
+            received.write(block, 0, count);
+        }
+        assertEqualByteArray(received.toByteArray(), file1);
+
+        StreamingMultipartPartition partition2 = iterator.next();
+        assertEquals(partition2.getContentDisposition().getFilename(), "b.bin");
+        assertEqualByteArray(partition2.readAllBytes(), file2);
+        assertFalse(iterator.hasNext());
+
+        // nothing past the end of the body was taken from the socket
+        assertEqualByteArray(socket.readAllBytes(), nextRequest);
+    }
+
+    /**
+     * With a spill threshold set, a partition larger than it is written to a
+     * temporary file, and smaller ones stay in memory.
+     */
+    @Test
+    public void test_MultiPart_SpillToDisk() throws IOException {
+        Path spillDirectory = Path.of("out/multipart_spill_test");
+        var properties = new Properties();
+        properties.setProperty("MULTIPART_SPILL_THRESHOLD_BYTES", "1000");
+        properties.setProperty("MULTIPART_SPILL_DIRECTORY", spillDirectory.toString());
+        var spillContext = buildTestingContext("test_MultiPart_SpillToDisk", properties);
+        try {
+            byte[] bigFile = new byte[50_000];
+            new java.util.Random(7).nextBytes(bigFile);
+            var body = new ByteArrayOutputStream();
+            body.write("--xyz\r\nContent-Disposition: form-data; name=\"small\"\r\n\r\nhello\r\n".getBytes(StandardCharsets.US_ASCII));
+            body.write("--xyz\r\nContent-Disposition: form-data; name=\"big\"; filename=\"big.bin\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            body.write(bigFile);
+            body.write("\r\n--xyz--\r\n".getBytes(StandardCharsets.US_ASCII));
+            byte[] bodyBytes = body.toByteArray();
+
+            var bodyProcessor = new BodyProcessor(spillContext);
+            Body result = bodyProcessor.extractBodyFromInputStream(bodyBytes.length, "multipart/form-data; boundary=xyz", new ByteArrayInputStream(bodyBytes));
+
+            Partition small = result.getPartitionByName("small").getFirst();
+            assertTrue(small.getPath() == null, "a small partition should stay in memory");
+            assertEquals(small.getContentAsString(), "hello");
+
+            Partition big = result.getPartitionByName("big").getFirst();
+            assertTrue(big.getPath().startsWith(spillDirectory), "the big partition should be in " + spillDirectory);
+            assertEquals(big.getSize(), 50_000L);
+            assertEqualByteArray(big.getContent(), bigFile);
+            try (InputStream inputStream = big.getInputStream()) {
+                assertEqualByteArray(inputStream.readAllBytes(), bigFile);
+            }
+
+            result.deleteTemporaryFiles();
+            assertFalse(Files.exists(big.getPath()));
+        } finally {
+            shutdownTestingContext(spillContext);
+        }
+    }
+
+    /**
+     * An upload that would go past the maximum concurrent upload bytes is refused
+     */
+    @Test
+    public void test_MultiPart_MaxConcurrentUploadBytes() {
+        var properties = new Properties();
+        properties.setProperty("MAX_CONCURRENT_UPLOAD_BYTES", "100");
+        var limitedContext = buildTestingContext("test_MultiPart_MaxConcurrentUploadBytes", properties);
+        try {
+            String body = "--xyz\r\nContent-Disposition: form-data; name=\"a\"\r\n\r\nhello\r\n--xyz--\r\n";
+            var bodyProcessor = new BodyProcessor(limitedContext);
+
+            assertThrows(BadRequestException.class,
+                    "Refusing an upload of 150 bytes, since 0 bytes of uploads are already in progress and the maximum is 100",
+                    () -> bodyProcessor.extractBodyFromInputStream(150, "multipart/form-data; boundary=xyz", new ByteArrayInputStream(new byte[150])));
+
+            // once finished, an upload no longer counts against the maximum
+            for (int i = 0; i < 3; i++) {
+                Body result = bodyProcessor.extractBodyFromInputStream(body.length(), "multipart/form-data; boundary=xyz",
+                        new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII)));
+                assertEquals(result.getPartitionByName("a").getFirst().getContentAsString(), "hello");
+            }
+        } finally {
+            shutdownTestingContext(limitedContext);
+        }
+    }
+
     @Test
     public void testUrlEncodedDataIterable_NegativeCase_ExceptionThrown() {
         var inputStream = new InputStream() {
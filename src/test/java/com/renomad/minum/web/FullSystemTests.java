@@ -4,6 +4,8 @@ import com.renomad.minum.logging.TestLoggerException;
 import com.renomad.minum.state.Constants;
 import com.renomad.minum.logging.TestLogger;
 import com.renomad.minum.state.Context;
+import com.renomad.minum.templating.CompiledTemplate;
+import com.renomad.minum.templating.TemplateProcessor;
 import com.renomad.minum.testing.TestFramework;
 import com.renomad.minum.utils.FakeFileUtils;
 import com.renomad.minum.utils.FileUtils;
@@ -17,9 +19,12 @@ import java.io.IOException;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Future;
+import java.util.stream.IntStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
 
@@ -187,7 +192,7 @@ public class FullSystemTests {
         Context context = buildTestingContext("Testing the closing core");
         TestLogger logger = (TestLogger)context.getLogger();
         var fileUtils = new FileUtils(logger, context.getConstants());
-        assertThrows(RuntimeException.class, "Just testing", () -> FullSystem.closeCore(logger, context, throwingServer, throwingServer, "my test system", fileUtils));
+        assertThrows(RuntimeException.class, "Just testing", () -> FullSystem.closeCore(logger, context, throwingServer, throwingServer, null, null, "my test system", fileUtils));
 
         TestFramework.shutdownTestingContext(context);
     }
@@ -205,7 +210,7 @@ public class FullSystemTests {
         Context context = buildTestingContext("Testing the closing core with null servers");
         TestLogger logger = (TestLogger) context.getLogger();
         FileUtils fileUtils = new FileUtils(logger, context.getConstants());
-        FullSystem.closeCore(logger, context, null, null, "Born to fly", fileUtils);
+        FullSystem.closeCore(logger, context, null, null, null, null, "Born to fly", fileUtils);
 
         // should find that our server has said it is closed
         assertTrue(logger.doesMessageExist("Born to fly says: Goodbye world!"));
@@ -239,6 +244,132 @@ public class FullSystemTests {
         TestFramework.shutdownTestingContext(context);
     }
 
+    /**
+     * When DB_METRICS_ENDPOINT is set, a GET endpoint is registered at
+     * that path.  When it is blank, nothing is registered.
+     */
+    @Test
+    public void test_RegisterDbMetricsEndpoint() {
+        var webFramework = new WebFramework(context);
+        FullSystem.registerDbMetricsEndpoint("", webFramework, context);
+        FullSystem.registerDbMetricsEndpoint(null, webFramework, context);
+        FullSystem.registerDbMetricsEndpoint("admin/db_metrics", webFramework, context);
+
+        var ex = assertThrows(WebServerException.class, () -> webFramework.registerPath(RequestLine.Method.GET, "admin/db_metrics", r -> null));
+        assertTrue(ex.getMessage().startsWith("Duplicate endpoint registered"), ex.getMessage());
+    }
+
+    /**
+     * Likewise for QUEUE_METRICS_ENDPOINT, serving the metrics of the bounded action queues
+     */
+    @Test
+    public void test_RegisterQueueMetricsEndpoint() {
+        var webFramework = new WebFramework(context);
+        FullSystem.registerQueueMetricsEndpoint("", webFramework, context);
+        FullSystem.registerQueueMetricsEndpoint(null, webFramework, context);
+        FullSystem.registerQueueMetricsEndpoint("admin/queue_metrics", webFramework, context);
+
+        var ex = assertThrows(WebServerException.class, () -> webFramework.registerPath(RequestLine.Method.GET, "admin/queue_metrics", r -> null));
+        assertTrue(ex.getMessage().startsWith("Duplicate endpoint registered"), ex.getMessage());
+    }
+
+    /**
+     * With ACCESS_LOG_FORMAT set, each request is recorded in access.log
+     */
+    @Test
+    public void test_AccessLog() throws IOException {
+        Path logDirectory = Path.of("out/access_log_test");
+        new FileUtils(logger, context.getConstants()).deleteDirectoryRecursivelyIfExists(logDirectory);
+        Properties properties = Constants.getConfiguredProperties();
+        properties.setProperty("IS_THE_BRIG_ENABLED", "false");
+        properties.setProperty("ACCESS_LOG_FORMAT", "JSON");
+        properties.setProperty("LOG_FILE_DIRECTORY", logDirectory.toString());
+        var accessLogContext = buildTestingContext("testing the access log", properties);
+        var fullSystem = new FullSystem(accessLogContext);
+        fullSystem.start();
+        fullSystem.getWebFramework().registerPath(RequestLine.Method.GET, "hello", r -> Response.htmlOk("hi"));
+        fullSystem.getWebFramework().registerPath(RequestLine.Method.POST, "echo", r -> Response.htmlOk(r.getBody().asString("name")));
+
+        var ft = new FunctionalTesting(accessLogContext, "localhost", 8080);
+        assertEquals(ft.get("hello?name=alice").statusLine().status(), StatusLine.StatusCode.CODE_200_OK);
+        assertEquals(ft.post("echo", "name=bob").statusLine().status(), StatusLine.StatusCode.CODE_200_OK);
+        // the entry is recorded just after the response is sent
+        MyThread.sleep(50);
+        // shutting down writes out what the access log holds
+        fullSystem.shutdown();
+        String accessLog = Files.readString(logDirectory.resolve("access.log"));
+        shutdownTestingContext(accessLogContext);
+
+        assertTrue(accessLog.contains("\"method\":\"GET\",\"path\":\"hello\",\"request_line\":\"GET /hello?name=alice HTTP/1.1\",\"status\":200"), accessLog);
+        assertTrue(accessLog.contains("\"bytes_out\":2,"), accessLog);
+        // bytes_in counts everything read from the socket for the request, body included
+        int getBytesIn = ("GET /hello?name=alice HTTP/1.1\r\n" + "Host: localhost:8080\r\n" + "Content-Length: 0\r\n" + "\r\n").length();
+        assertTrue(accessLog.contains("\"bytes_in\":" + getBytesIn + ","), accessLog);
+        int postBytesIn = ("POST /echo HTTP/1.1\r\n" + "Host: localhost:8080\r\n" + "Content-Length: 8\r\n" +
+                "Content-Type: application/x-www-form-urlencoded\r\n" + "\r\n" + "name=bob").length();
+        assertTrue(accessLog.contains("\"bytes_in\":" + postBytesIn + ","), accessLog);
+    }
+
+    /**
+     * A page rendered from many rows by a compiled template, sent as the rows
+     * are rendered, arrives whole at the client
+     */
+    @Test
+    public void test_ChunkedTemplateResponse() throws IOException {
+        Properties properties = Constants.getConfiguredProperties();
+        properties.setProperty("IS_THE_BRIG_ENABLED", "false");
+        var chunkedContext = buildTestingContext("testing a chunked template response", properties);
+        var fullSystem = new FullSystem(chunkedContext);
+        fullSystem.start();
+        CompiledTemplate rowTemplate = TemplateProcessor.buildProcessor("<li>{{ name }}</li>").compile();
+        fullSystem.getWebFramework().registerPath(RequestLine.Method.GET, "rows", r -> Response.htmlOkChunked(out ->
+                rowTemplate.renderTo(IntStream.range(0, 5000).mapToObj(i -> Map.of("name", "row " + i)), "\n", out)));
+
+        var ft = new FunctionalTesting(chunkedContext, "localhost", 8080);
+        var response = ft.get("rows");
+        fullSystem.shutdown();
+        shutdownTestingContext(chunkedContext);
+
+        assertEquals(response.statusLine().status(), StatusLine.StatusCode.CODE_200_OK);
+        assertEquals(response.headers().valueByKey("transfer-encoding"), List.of("chunked"));
+        String body = response.body().asString();
+        assertTrue(body.startsWith("<li>row 0</li>\n<li>row 1</li>"), body);
+        assertTrue(body.endsWith("<li>row 4999</li>"), body);
+        assertEquals(body.lines().count(), 5000L);
+    }
+
+    /**
+     * The template registry of a full system is built when first asked for,
+     * and its watching for changes stops when the system shuts down
+     */
+    @Test
+    public void test_TemplateRegistry_StoppedOnShutdown() throws IOException {
+        Path templateDirectory = Path.of("out/full_system_templates");
+        new FileUtils(logger, context.getConstants()).deleteDirectoryRecursivelyIfExists(templateDirectory);
+        Files.createDirectories(templateDirectory);
+        Path template = templateDirectory.resolve("hello.html");
+        Files.writeString(template, "hello {{name}}");
+        Properties properties = Constants.getConfiguredProperties();
+        properties.setProperty("IS_THE_BRIG_ENABLED", "false");
+        properties.setProperty("TEMPLATE_DIRECTORY", templateDirectory.toString());
+        properties.setProperty("TEMPLATE_HOT_RELOAD", "true");
+        var templateContext = buildTestingContext("testing the template registry", properties);
+        var fullSystem = new FullSystem(templateContext);
+        fullSystem.start();
+        var registry = fullSystem.getTemplateRegistry();
+        assertTrue(registry == fullSystem.getTemplateRegistry(), "the same registry should be returned each time");
+        assertEquals(registry.get("hello.html").renderTemplate(Map.of("name", "alice")), "hello alice");
+
+        fullSystem.shutdown();
+        Files.writeString(template, "goodbye {{name}}");
+        Files.setLastModifiedTime(template, java.nio.file.attribute.FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        MyThread.sleep(300);
+        String result = registry.get("hello.html").renderTemplate(Map.of("name", "alice"));
+        shutdownTestingContext(templateContext);
+
+        assertEquals(result, "hello alice");
+    }
+
     IServer throwingServer = new IServer() {
         @Override
         public void start() {
@@ -11,6 +11,7 @@ import org.junit.runner.Description;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -68,6 +69,7 @@ public class HeadersTests {
         return new IInputStreamUtils() {
             @Override public String readLine(InputStream inputStream) { return readLineAction.get(); }
             @Override public byte[] read(int lengthToRead, InputStream inputStream) {return new byte[0];}
+            @Override public void read(ByteBuffer buffer, InputStream inputStream) {}
         };
     }
 
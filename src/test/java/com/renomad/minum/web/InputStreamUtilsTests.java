@@ -12,7 +12,10 @@ import org.junit.runner.Description;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
@@ -58,6 +61,49 @@ public class InputStreamUtilsTests {
         assertEqualByteArray(result, "a".repeat(10_000).getBytes(StandardCharsets.UTF_8));
     }
 
+    /**
+     * Only the bytes asked for are taken from the stream, even when
+     * more than a buffer's worth is available, so what follows - like
+     * the next request on the connection - is left for the next read.
+     */
+    @Test
+    public void testReading_DoesNotReadPastLength() throws IOException {
+        inputStreamUtils = new InputStreamUtils(context.getConstants().maxReadLineSizeBytes);
+        byte[] data = ("a".repeat(20_000) + "NEXT").getBytes(StandardCharsets.US_ASCII);
+        var inputStream = new ByteArrayInputStream(data);
+
+        byte[] result = inputStreamUtils.read(20_000, inputStream);
+
+        assertEqualByteArray(result, "a".repeat(20_000).getBytes(StandardCharsets.US_ASCII));
+        assertEquals(new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII), "NEXT");
+    }
+
+    /**
+     * Reading into a caller's buffer, either on the heap or direct,
+     * fills its remaining space and no more.
+     */
+    @Test
+    public void testReading_ByteBuffer() throws IOException {
+        inputStreamUtils = new InputStreamUtils(context.getConstants().maxReadLineSizeBytes);
+        byte[] data = new byte[30_000];
+        new java.util.Random(3).nextBytes(data);
+
+        for (ByteBuffer buffer : List.of(ByteBuffer.allocate(25_000), ByteBuffer.allocateDirect(25_000))) {
+            var inputStream = new ByteArrayInputStream(data);
+            buffer.position(5_000);
+            inputStreamUtils.read(buffer, inputStream);
+            assertEquals(buffer.position(), 25_000);
+            byte[] result = new byte[20_000];
+            buffer.get(5_000, result);
+            assertEqualByteArray(result, Arrays.copyOf(data, 20_000));
+            assertEquals(inputStream.available(), 10_000);
+        }
+
+        var ex = assertThrows(ForbiddenUseException.class,
+                () -> inputStreamUtils.read(ByteBuffer.allocateDirect(10), new ByteArrayInputStream(new byte[4])));
+        assertEquals(ex.getMessage(), "length of bytes read (4) must be what we expected (10)");
+    }
+
     @Test
     public void testReading_EdgeCase_IOException() throws IOException {
         try (InputStream inputStream = new InputStream() {
@@ -110,6 +156,21 @@ public class InputStreamUtilsTests {
         }
     }
 
+    /**
+     * The length given to {@link InputStreamUtils#read(int, InputStream)} comes
+     * from the client, so memory is only taken for the bytes that actually
+     * arrive.  Here a length of a billion bytes is claimed but only three are
+     * sent - we get the usual complaint rather than a gigabyte allocated.
+     */
+    @Test
+    public void testReading_LargeClaimedLength_ShortBody() {
+        InputStream inputStream = new ByteArrayInputStream(new byte[] {1, 2, 3});
+
+        var exception = assertThrows(ForbiddenUseException.class, () -> inputStreamUtils.read(1_000_000_000, inputStream));
+
+        assertEquals(exception.getMessage(), "length of bytes read (3) must be what we expected (1000000000)");
+    }
+
     @Test
     public void testWeGetNullIndicatingFinish() throws IOException {
         String threeNewlines = "\n\n";
@@ -0,0 +1,112 @@
+package com.renomad.minum.web;
+
+import org.junit.Test;
+
+import static com.renomad.minum.testing.TestFramework.*;
+import static com.renomad.minum.web.RateLimiter.Connection.*;
+
+public class RateLimiterTests {
+
+    /**
+     * A client may make a second's worth of requests at once, and
+     * after that must wait.  Other clients are not affected.
+     */
+    @Test
+    public void test_Requests() {
+        var rateLimiter = new RateLimiter(3, 0, 0, 100);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 0L);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 0L);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 0L);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 1L);
+        assertEquals(rateLimiter.tryRequest("2.2.2.2"), 0L);
+    }
+
+    /**
+     * Bytes are charged after a response is sent, and once a client
+     * owes more than a second's worth, its requests are refused until
+     * it has paid that off.
+     */
+    @Test
+    public void test_Bytes() {
+        var rateLimiter = new RateLimiter(0, 1000, 0, 100);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 0L);
+        rateLimiter.chargeBytes("1.1.1.1", 900);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 0L);
+        rateLimiter.chargeBytes("1.1.1.1", 3000);
+        assertEquals(rateLimiter.tryRequest("1.1.1.1"), 3L);
+    }
+
+    @Test
+    public void test_Connections() {
+        var rateLimiter = new RateLimiter(0, 0, 2, 100);
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), COUNTED);
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), COUNTED);
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), REFUSED);
+        rateLimiter.closeConnection("1.1.1.1");
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), COUNTED);
+    }
+
+    /**
+     * Only so many clients are tracked.  Idle ones are forgotten to make
+     * room, and if none are idle, new clients are not limited.
+     */
+    @Test
+    public void test_MaxClients() {
+        var rateLimiter = new RateLimiter(1, 0, 1, 2);
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), COUNTED);
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), COUNTED);
+        assertEquals(rateLimiter.size(), 2);
+        assertEquals(rateLimiter.openConnection("3.3.3.3"), UNTRACKED);
+        assertEquals(rateLimiter.openConnection("3.3.3.3"), UNTRACKED);
+        assertEquals(rateLimiter.size(), 2);
+
+        rateLimiter.closeConnection("2.2.2.2");
+        assertEquals(rateLimiter.openConnection("3.3.3.3"), COUNTED);
+        assertEquals(rateLimiter.openConnection("3.3.3.3"), REFUSED);
+        assertEquals(rateLimiter.size(), 2);
+    }
+
+    /**
+     * The table is not searched for idle clients on every new address,
+     * only after a share of the maximum have arrived since the last search.
+     */
+    @Test
+    public void test_MaxClients_SearchIsAmortized() {
+        // with a maximum of 32, the table is searched every second new address
+        var rateLimiter = new RateLimiter(0, 0, 1, 32);
+        for (int i = 0; i < 32; i++) {
+            assertEquals(rateLimiter.openConnection("10.0.0." + i), COUNTED);
+            rateLimiter.closeConnection("10.0.0." + i);
+        }
+        assertEquals(rateLimiter.size(), 32);
+
+        // all are idle, but the first newcomer does not trigger a search
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), UNTRACKED);
+        assertEquals(rateLimiter.size(), 32);
+
+        // the second does, and every idle client is forgotten
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), COUNTED);
+        assertEquals(rateLimiter.size(), 1);
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), REFUSED);
+    }
+
+    /**
+     * A connection let through uncounted, because the table was full,
+     * is not closed against the client's count, so it cannot take away
+     * a count made by a later connection.
+     */
+    @Test
+    public void test_UntrackedConnectionNotClosed() {
+        var rateLimiter = new RateLimiter(0, 0, 1, 1);
+        assertEquals(rateLimiter.openConnection("1.1.1.1"), COUNTED);
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), UNTRACKED);
+
+        // with 1.1.1.1 gone, there is room to track 2.2.2.2
+        rateLimiter.closeConnection("1.1.1.1");
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), COUNTED);
+
+        // the first, uncounted, connection ends.  The caller does not close
+        // it, so 2.2.2.2 is still at its limit.
+        assertEquals(rateLimiter.openConnection("2.2.2.2"), REFUSED);
+    }
+}
@@ -126,6 +126,25 @@ public class ResponseTests {
         assertEquals(s, "hello");
     }
 
+    /**
+     * When a chunked response is sent other than by the web framework, the
+     * body is written as-is
+     */
+    @Test
+    public void testResponse_Chunked() throws Exception {
+        FakeSocketWrapper fakeSocketWrapper = new FakeSocketWrapper();
+        IResponse response = Response.htmlOkChunked(out -> out.write("<p>hello</p>".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(response.isBodyText());
+        assertEquals(response.getBodyLength(), 0L);
+        assertTrue(response.getBodyWriter() != null);
+        assertEquals(response.getExtraHeaders().valueByKey("content-type"), List.of("text/html; charset=UTF-8"));
+        response.sendBody(fakeSocketWrapper);
+        String s = ((ByteArrayOutputStream) fakeSocketWrapper.os).toString(StandardCharsets.UTF_8);
+        assertEquals(s, "<p>hello</p>");
+        assertThrows(IllegalArgumentException.class, "Body writer must not be null",
+                () -> Response.buildChunkedResponse(CODE_200_OK, Headers.EMPTY, null, false));
+    }
+
     /**
      * Something to watch out for is users providing data with carriage-return plus
      * line-feed, meaning they can cause new headers to be added to the response.
@@ -2,6 +2,7 @@ package com.renomad.minum.web;
 
 import com.renomad.minum.logging.TestLogger;
 import com.renomad.minum.logging.TestLoggerException;
+import com.renomad.minum.security.TheBrig;
 import com.renomad.minum.state.Context;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -65,4 +66,25 @@ public class ServerTests {
         }
     }
 
+    /**
+     * A client in the brig for seeking vulnerabilities is turned
+     * away as soon as its connection is accepted.
+     */
+    @Test
+    public void test_CloseIfJailed() throws IOException {
+        var theBrig = new TheBrig(10, context);
+        try (ServerSocket serverSocket = new ServerSocket(8081);
+             Socket client = new Socket("localhost", 8081);
+             Socket accepted = serverSocket.accept()) {
+            assertFalse(Server.closeIfJailed(accepted, null, logger));
+            assertFalse(Server.closeIfJailed(accepted, theBrig, logger));
+            assertFalse(accepted.isClosed());
+
+            theBrig.sendToJail(accepted.getInetAddress().getHostAddress() + "_vuln_seeking", 10_000);
+            assertTrue(Server.closeIfJailed(accepted, theBrig, logger));
+            assertTrue(accepted.isClosed());
+            assertEquals(client.getInputStream().read(), -1);
+        }
+        context.clearDatabasePaths();
+    }
 }
@@ -12,14 +12,20 @@ import org.junit.*;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
 import java.time.Month;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
 
 import static com.renomad.minum.testing.TestFramework.*;
 import static com.renomad.minum.web.StatusLine.StatusCode.*;
@@ -388,4 +394,165 @@ public class WebFrameworkTests {
         assertTrue(logger.doesMessageExist("Read timed out - remote address"));
     }
 
+    /**
+     * A streamed body is sent as chunks, each prefixed by its length in
+     * hexadecimal, gathered into pieces of the buffer size, and ended by
+     * a chunk of zero length.
+     */
+    @Test
+    public void test_SendStreamedBody_Chunked() throws Exception {
+        var sw = new FakeSocketWrapper();
+        byte[] large = "a".repeat(Response.STREAMED_BODY_BUFFER_SIZE).getBytes(StandardCharsets.US_ASCII);
+        long bytesSent = WebFramework.sendStreamedBody(sw, out -> {
+            out.write("hello ".getBytes(StandardCharsets.US_ASCII));
+            out.write("world".getBytes(StandardCharsets.US_ASCII));
+            out.write(large);
+            out.write('!');
+        }, true, false);
+
+        String result = ((ByteArrayOutputStream) sw.os).toString(StandardCharsets.US_ASCII);
+        assertEquals(result, "b\r\nhello world\r\n2000\r\n" + "a".repeat(8192) + "\r\n1\r\n!\r\n0\r\n\r\n");
+        assertEquals(bytesSent, 8204L);
+    }
+
+    /**
+     * A streamed body may be compressed as it is written
+     */
+    @Test
+    public void test_SendStreamedBody_Gzip() throws Exception {
+        var sw = new FakeSocketWrapper();
+        String text = "<tr><td>hello world</td></tr>\n".repeat(2000);
+        long bytesSent = WebFramework.sendStreamedBody(sw,
+                out -> out.write(text.getBytes(StandardCharsets.UTF_8)), false, true);
+
+        byte[] sent = ((ByteArrayOutputStream) sw.os).toByteArray();
+        assertEquals(bytesSent, (long) sent.length);
+        assertTrue(sent.length < text.length() / 10, "the body should have been compressed.  Size was: " + sent.length);
+        try (var gzipInput = new GZIPInputStream(new ByteArrayInputStream(sent))) {
+            assertEquals(new String(gzipInput.readAllBytes(), StandardCharsets.UTF_8), text);
+        }
+    }
+
+    /**
+     * If the body writer fails partway, what was already sent stays sent,
+     * but the end of the body is not marked, so the client does not take
+     * the cut-short body as complete.
+     */
+    @Test
+    public void test_SendStreamedBody_WriterFails() {
+        var sw = new FakeSocketWrapper();
+        var ex = assertThrows(IOException.class, "the database went away", () -> WebFramework.sendStreamedBody(sw, out -> {
+            out.write("hello".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            throw new IOException("the database went away");
+        }, true, false));
+        assertEquals(ex.getSuppressed().length, 0);
+        assertEquals(((ByteArrayOutputStream) sw.os).toString(StandardCharsets.US_ASCII), "5\r\nhello\r\n");
+    }
+
+    /**
+     * Likewise when compressing - the compressing stream is closed, releasing
+     * its resources, but its trailer is not sent
+     */
+    @Test
+    public void test_SendStreamedBody_Gzip_WriterFails() {
+        var sw = new FakeSocketWrapper();
+        assertThrows(IOException.class, "the database went away", () -> WebFramework.sendStreamedBody(sw, out -> {
+            out.write("hello".getBytes(StandardCharsets.US_ASCII));
+            throw new IOException("the database went away");
+        }, true, true));
+        assertEquals(((ByteArrayOutputStream) sw.os).size(), 0);
+    }
+
+    /**
+     * Once a streamed body has ended, nothing more may be written to it
+     */
+    @Test
+    public void test_StreamedBody_WriteAfterClose() throws IOException {
+        var sw = new FakeSocketWrapper();
+        var out = new StreamedBodyOutputStream(sw, true, 16);
+        out.write('a');
+        out.close();
+        out.close();
+        assertThrows(WebServerException.class, "Unable to write to the body after it has ended", () -> out.write('b'));
+        assertEquals(((ByteArrayOutputStream) sw.os).toString(StandardCharsets.US_ASCII), "1\r\na\r\n0\r\n\r\n");
+    }
+
+    /**
+     * When a client goes past its requests per second, it receives a
+     * 429 Too Many Requests, telling it when to try again, and the
+     * connection is closed.
+     */
+    @Test
+    public void test_RateLimit_TooManyRequests() {
+        var properties = new Properties();
+        properties.setProperty("RATE_LIMIT_REQUESTS_PER_SECOND", "2");
+        var customContext = TestFramework.buildTestingContext("test_RateLimit_TooManyRequests", properties);
+        var rateLimitedWebFramework = new WebFramework(customContext, default_zdt);
+        rateLimitedWebFramework.registerPath(RequestLine.Method.GET, "hello", r -> Response.htmlOk("hi"));
+        var sw = new FakeSocketWrapper();
+        sw.is = new ByteArrayInputStream("GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n".repeat(4).getBytes(StandardCharsets.US_ASCII));
+
+        rateLimitedWebFramework.httpProcessing(sw);
+
+        String result = ((ByteArrayOutputStream) sw.os).toString(StandardCharsets.US_ASCII);
+        String[] responses = result.split("HTTP/1.1 ");
+        // two requests are allowed, then one refused, and then the connection is closed
+        assertEquals(responses.length, 4);
+        assertTrue(responses[1].startsWith("200 OK"));
+        assertTrue(responses[2].startsWith("200 OK"));
+        assertTrue(responses[3].startsWith("429 TOO MANY REQUESTS"));
+        assertTrue(responses[3].contains("Retry-After: 1"));
+        TestFramework.shutdownTestingContext(customContext);
+    }
+
+    /**
+     * A client with as many connections open as allowed is sent a 429
+     * on its next connection before anything is read from it
+     */
+    @Test
+    public void test_RateLimit_TooManyConnections() throws Exception {
+        var properties = new Properties();
+        properties.setProperty("MAX_CONNECTIONS_PER_CLIENT", "1");
+        var customContext = TestFramework.buildTestingContext("test_RateLimit_TooManyConnections", properties);
+        var rateLimitedWebFramework = new WebFramework(customContext, default_zdt);
+
+        // the first connection stays open, waiting on its request
+        var release = new CountDownLatch(1);
+        var firstSw = new FakeSocketWrapper();
+        firstSw.is = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                return -1;
+            }
+        };
+        var first = customContext.getExecutorService().submit(() -> rateLimitedWebFramework.httpProcessing(firstSw));
+        MyThread.sleep(30);
+
+        var secondSw = new FakeSocketWrapper();
+        secondSw.is = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("the request of a refused connection should not be read");
+            }
+        };
+        rateLimitedWebFramework.httpProcessing(secondSw);
+        String result = ((ByteArrayOutputStream) secondSw.os).toString(StandardCharsets.US_ASCII);
+        assertTrue(result.startsWith("HTTP/1.1 429 TOO MANY REQUESTS"), result);
+        assertTrue(result.contains("Retry-After: 1"), result);
+        assertTrue(result.contains("Connection: close"), result);
+
+        // once the first has closed, another is allowed
+        release.countDown();
+        first.get();
+        var thirdSw = new FakeSocketWrapper();
+        rateLimitedWebFramework.httpProcessing(thirdSw);
+        assertEquals(((ByteArrayOutputStream) thirdSw.os).toString(StandardCharsets.US_ASCII), "");
+        TestFramework.shutdownTestingContext(customContext);
+    }
 }
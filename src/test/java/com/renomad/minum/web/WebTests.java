@@ -510,6 +510,41 @@ public class WebTests {
         assertEquals(expected.get("value_b"), result.asString("value_b"));
     }
 
+    /**
+     * If the body ends before the Content-Length, that is what we complain
+     * about - even if not a single byte arrived - rather than about what
+     * was parsed from the partial body.
+     */
+    @Test
+    public void test_ParseForm_EdgeCase_BodyShorterThanLength() {
+        var ex = assertThrows(BadRequestException.class, () -> new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(new byte[0]), 20));
+        assertEquals(ex.getCause().getMessage(), "Error: The inputstream has closed unexpectedly while reading");
+
+        byte[] bytes = "a=1&b".getBytes(StandardCharsets.US_ASCII);
+        var ex2 = assertThrows(BadRequestException.class, () -> new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(bytes), 20));
+        assertEquals(ex2.getCause().getMessage(), "Error: The inputstream has closed unexpectedly while reading");
+    }
+
+    /**
+     * A body larger than the pooled buffers, arriving a little at a
+     * time, is read in full.
+     */
+    @Test
+    public void test_ParseForm_LargeBody() {
+        String bigValue = "x".repeat(100_000);
+        byte[] bytes = ("a=1&big=" + bigValue + "&z=2").getBytes(StandardCharsets.US_ASCII);
+        var trickle = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1000));
+            }
+        };
+        final var result = new BodyProcessor(context).parseUrlEncodedForm(trickle, bytes.length);
+        assertEquals(result.asString("a"), "1");
+        assertEquals(result.asString("big"), bigValue);
+        assertEquals(result.asString("z"), "2");
+    }
+
     @Test
     public void test_ParseForm_EdgeCase_BlankKey() {
         byte[] bytes = "=123".getBytes(StandardCharsets.US_ASCII);
@@ -540,6 +575,36 @@ public class WebTests {
         assertEquals(result2.asString("mykey"), "");
     }
 
+    @Test
+    public void test_ParseForm_Decoding() {
+        byte[] bytes = "name=Alice+B%26C&city=S%C3%A3o+Paulo&note=a%2Bb%3D1".getBytes(StandardCharsets.US_ASCII);
+        final var result = new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(bytes), bytes.length);
+        assertEquals(result.asString("name"), "Alice B&C");
+        assertEquals(result.asString("city"), "São Paulo");
+        assertEquals(result.asString("note"), "a+b=1");
+    }
+
+    @Test
+    public void test_ParseForm_EdgeCase_BadEscape() {
+        byte[] bytes = "a=1&b=baz%2G".getBytes(StandardCharsets.US_ASCII);
+        var ex = assertThrows(BadRequestException.class, () -> new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(bytes), bytes.length));
+        assertEquals(ex.getCause().getMessage(), "Illegal hex characters in escape (%) pattern in the value for key: b");
+
+        byte[] bytes2 = "a=baz%2".getBytes(StandardCharsets.US_ASCII);
+        var ex2 = assertThrows(BadRequestException.class, () -> new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(bytes2), bytes2.length));
+        assertEquals(ex2.getCause().getMessage(), "Incomplete trailing escape (%) pattern in the value for key: a");
+    }
+
+    /**
+     * If the body ends before the content length, that is an error
+     */
+    @Test
+    public void test_ParseForm_EdgeCase_Truncated() {
+        byte[] bytes = "a=1&b=2".getBytes(StandardCharsets.US_ASCII);
+        var ex = assertThrows(BadRequestException.class, () -> new BodyProcessor(context).parseUrlEncodedForm(new ByteArrayInputStream(bytes), bytes.length + 10));
+        assertEquals(ex.getCause().getMessage(), "Error: The inputstream has closed unexpectedly while reading");
+    }
+
     @Test
     public void test_ParseForm_Empty() {
         byte[] bytes = "".getBytes(StandardCharsets.US_ASCII);
@@ -916,6 +981,94 @@ public class WebTests {
         MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
     }
 
+    /**
+     * A body written while it is sent is given to an HTTP/1.1 client in chunks,
+     * and the connection may be kept alive for the next request.
+     */
+    @Test
+    public void test_ChunkedResponse() throws Exception {
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> Response.htmlOkChunked(out -> {
+            for (int i = 0; i < 3; i++) {
+                out.write(("<p>row " + i + "</p>").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        });
+
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(GET, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    for (int request = 0; request < 2; request++) {
+                        client.sendHttpLine("GET /some_endpoint HTTP/1.1");
+                        client.sendHttpLine("Host: localhost:8080");
+                        client.sendHttpLine("");
+                        client.flush();
+
+                        StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                        assertEquals(statusLine.status(), CODE_200_OK);
+                        Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                        assertEquals(headers.valueByKey("transfer-encoding"), List.of("chunked"));
+                        assertTrue(headers.valueByKey("content-length") == null);
+
+                        var body = new StringBuilder();
+                        while (true) {
+                            int chunkLength = Integer.parseInt(inputStreamUtils.readLine(is), 16);
+                            if (chunkLength == 0) {
+                                inputStreamUtils.readLine(is);
+                                break;
+                            }
+                            body.append(new String(inputStreamUtils.read(chunkLength, is), StandardCharsets.UTF_8));
+                            inputStreamUtils.readLine(is);
+                        }
+                        assertEquals(body.toString(), "<p>row 0</p><p>row 1</p><p>row 2</p>");
+                    }
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
+    /**
+     * HTTP/1.0 clients do not understand chunks, so the body is sent as-is
+     * and the connection closed to mark its end.
+     */
+    @Test
+    public void test_ChunkedResponse_Http10() throws Exception {
+        final ThrowingFunction<IRequest, IResponse> testHandler = r -> Response.htmlOkChunked(
+                out -> out.write("<p>hello</p>".getBytes(StandardCharsets.UTF_8)));
+
+        var wf = new WebFramework(context, default_zdt);
+        var webEngine = new WebEngine(context, wf);
+
+        wf.registerPath(GET, "some_endpoint", testHandler);
+        try (IServer primaryServer = webEngine.startServer()) {
+            try (Socket socket = new Socket(primaryServer.getHost(), primaryServer.getPort())) {
+                try (ISocketWrapper client = new SocketWrapper(socket, null, logger, constants.socketTimeoutMillis, constants.hostName)) {
+                    InputStream is = client.getInputStream();
+
+                    client.sendHttpLine("GET /some_endpoint HTTP/1.0");
+                    client.sendHttpLine("Host: localhost:8080");
+                    client.sendHttpLine("Connection: keep-alive");
+                    client.sendHttpLine("");
+                    client.flush();
+
+                    StatusLine statusLine = extractStatusLine(inputStreamUtils.readLine(is));
+                    assertEquals(statusLine.status(), CODE_200_OK);
+                    Headers headers = new Headers(Headers.getAllHeaders(is, inputStreamUtils));
+                    assertEquals(headers.valueByKey("connection"), List.of("close"));
+                    assertTrue(headers.valueByKey("transfer-encoding") == null);
+                    assertEquals(new String(is.readAllBytes(), StandardCharsets.UTF_8), "<p>hello</p>");
+                }
+            }
+        }
+        MyThread.sleep(SERVER_CLOSE_WAIT_TIME);
+    }
+
     @Test
     public void test_Headers_Multiple() {
         Headers headers = new Headers(List.of("foo: a", "foo: b"));